@@ -0,0 +1,119 @@
+package hu.infokristaly.homework4websocketserver.benchmark;
+
+import hu.infokristaly.homework4websocketserver.ws.AsyncInputStream;
+import hu.infokristaly.homework4websocketserver.ws.ByteBufferPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Az async puffer áteresztőképessége: egy író és egy olvasó (a WebSocket szál és az FFmpeg), két versengő író,
+// valamint egyszálú írás-olvasás. A műveletek száma írt, illetve olvasott chunk-ban értendő.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsyncInputStreamBenchmark {
+
+    @State(Scope.Group)
+    public static class Ring {
+        @Param({"4096", "65536"})
+        public int chunkSize;
+
+        @Param({"DROP_OLDEST", "BLOCK"})
+        public String policy;
+
+        AsyncInputStream stream;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            stream = new AsyncInputStream(new ByteBufferPool(16 * 1024 * 1024, false, 1), 16 * 1024 * 1024,
+                    AsyncInputStream.OverflowPolicy.valueOf(policy), 1000);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            stream.dispose();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        ByteBuffer chunk;
+
+        @Setup
+        public void setup(Ring ring) {
+            chunk = ByteBuffer.allocate(ring.chunkSize);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Consumer {
+        // Az FFmpeg AVIO alapértelmezett olvasási mérete
+        final byte[] buffer = new byte[32 * 1024];
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public boolean spscWrite(Ring ring, Producer producer) {
+        return ring.stream.write(producer.chunk.clear(), 0);
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public int spscRead(Ring ring, Consumer consumer) throws IOException {
+        return ring.stream.read(consumer.buffer, 0, consumer.buffer.length);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public boolean contendedWrite(Ring ring, Producer producer) {
+        return ring.stream.write(producer.chunk.clear(), 0);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int contendedRead(Ring ring, Consumer consumer) throws IOException {
+        return ring.stream.read(consumer.buffer, 0, consumer.buffer.length);
+    }
+
+    @State(Scope.Thread)
+    public static class RoundTrip {
+        @Param({"4096", "65536"})
+        public int chunkSize;
+
+        AsyncInputStream stream;
+        ByteBuffer chunk;
+        byte[] buffer;
+
+        @Setup
+        public void setup() {
+            stream = new AsyncInputStream(new ByteBufferPool(1024 * 1024, false, 1), 1024 * 1024,
+                    AsyncInputStream.OverflowPolicy.DROP_OLDEST, 0);
+            chunk = ByteBuffer.allocate(chunkSize);
+            buffer = new byte[chunkSize];
+        }
+
+        @TearDown
+        public void tearDown() {
+            stream.dispose();
+        }
+    }
+
+    // Verseny nélküli alapköltség: egy chunk beírása és teljes kiolvasása ugyanazon a szálon
+    @Benchmark
+    public int writeThenRead(RoundTrip state) throws IOException {
+        state.stream.write(state.chunk.clear(), 0);
+        int total = 0;
+        while (total < state.chunkSize) {
+            total += state.stream.read(state.buffer, total, state.chunkSize - total);
+        }
+        return total;
+    }
+}
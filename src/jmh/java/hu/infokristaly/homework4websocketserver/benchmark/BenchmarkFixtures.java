@@ -0,0 +1,92 @@
+package hu.infokristaly.homework4websocketserver.benchmark;
+
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_imgproc.FILLED;
+import static org.bytedeco.opencv.global.opencv_imgproc.rectangle;
+
+// Helyben, rögzített seed-del generált tesztadatok: szintetikus képkockák és egy VP8 WebM stream, így a mérések
+// bármely Linux gépen reprodukálhatók, bináris fájl mellékelése nélkül
+final class BenchmarkFixtures {
+
+    private static final long SEED = 42;
+    private static final ConcurrentHashMap<String, byte[]> WEBM_CACHE = new ConcurrentHashMap<>();
+
+    private BenchmarkFixtures() {
+    }
+
+    // Statikus háttér néhány téglalappal és egy képkockánként továbblépő "mozgó" téglalappal
+    static Mat[] frames(int width, int height, int count) {
+        Random random = new Random(SEED);
+        Rect[] background = new Rect[12];
+        Scalar[] colors = new Scalar[background.length];
+        for (int i = 0; i < background.length; i++) {
+            int w = width / 8 + random.nextInt(width / 4);
+            int h = height / 8 + random.nextInt(height / 4);
+            background[i] = new Rect(random.nextInt(width - w), random.nextInt(height - h), w, h);
+            colors[i] = new Scalar(random.nextInt(256), random.nextInt(256), random.nextInt(256), 0);
+        }
+        int size = Math.max(8, height / 6);
+        Mat[] frames = new Mat[count];
+        for (int f = 0; f < count; f++) {
+            Mat frame = new Mat(height, width, CV_8UC3, new Scalar(96, 96, 96, 0));
+            for (int i = 0; i < background.length; i++) {
+                rectangle(frame, background[i], colors[i], FILLED, 8, 0);
+            }
+            int x = (f * width / count) % (width - size);
+            int y = height / 2 - size / 2;
+            rectangle(frame, new Rect(x, y, size, size), new Scalar(255, 255, 255, 0), FILLED, 8, 0);
+            frames[f] = frame;
+        }
+        return frames;
+    }
+
+    // A MediaRecorder-hez hasonló VP8 WebM stream: 30 fps, másodpercenként kulcskocka
+    static byte[] webm(int width, int height, int frameCount) {
+        return WEBM_CACHE.computeIfAbsent(width + "x" + height + "x" + frameCount, key -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Mat[] frames = frames(width, height, 30);
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(out, width, height);
+                 OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat()) {
+                recorder.setFormat("webm");
+                recorder.setVideoCodecName("libvpx");
+                recorder.setFrameRate(30);
+                recorder.setGopSize(30);
+                recorder.setVideoBitrate(1_000_000);
+                recorder.start();
+                for (int f = 0; f < frameCount; f++) {
+                    recorder.record(converter.convert(frames[f % frames.length]));
+                }
+                recorder.stop();
+            } catch (Exception e) {
+                throw new IllegalStateException("A WebM tesztadat nem generálható: " + e.getMessage(), e);
+            } finally {
+                for (Mat frame : frames) {
+                    frame.release();
+                }
+            }
+            return out.toByteArray();
+        });
+    }
+
+    // A stream WebSocket üzenet méretű darabokra bontva
+    static List<byte[]> chunks(byte[] stream, int chunkSize) {
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < stream.length; i += chunkSize) {
+            chunks.add(Arrays.copyOfRange(stream, i, Math.min(stream.length, i + chunkSize)));
+        }
+        return chunks;
+    }
+}
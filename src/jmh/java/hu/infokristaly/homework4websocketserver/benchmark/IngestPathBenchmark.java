@@ -0,0 +1,270 @@
+package hu.infokristaly.homework4websocketserver.benchmark;
+
+import hu.infokristaly.homework4websocketserver.archive.ArchiveIndex;
+import hu.infokristaly.homework4websocketserver.metrics.PipelineMetrics;
+import hu.infokristaly.homework4websocketserver.mqtt.MqttEventPublisher;
+import hu.infokristaly.homework4websocketserver.video.FinalizationScheduler;
+import hu.infokristaly.homework4websocketserver.webm.SegmentIndex;
+import hu.infokristaly.homework4websocketserver.worker.DecodeWorkerPool;
+import hu.infokristaly.homework4websocketserver.ws.AnalysisScheduler;
+import hu.infokristaly.homework4websocketserver.ws.ExecutionModel;
+import hu.infokristaly.homework4websocketserver.ws.LiveBroadcaster;
+import hu.infokristaly.homework4websocketserver.ws.VideoStreamHandler;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// A VideoStreamHandler valódi útvonala egy teljes felvételre: handleBinaryMessage (payload másolás), az IngestPipeline
+// feldolgozó szála (EBML elemzés, az async puffer töltése) és a szegmens író. A mérés addig tart, amíg a lezárt
+// kapcsolat felvétele a lemezre került és véglegesítésre vár; a dekóder nem indul, a puffert senki nem olvassa.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestPathBenchmark {
+
+    @Param({"16384", "131072"})
+    public int chunkSize;
+
+    @Param({"none", "on-rotate"})
+    public String fsyncPolicy;
+
+    List<byte[]> chunks;
+    Path directory;
+    ExecutionModel executionModel;
+    CompletionScheduler finalizationScheduler;
+    VideoStreamHandler handler;
+    final AtomicInteger sessionCounter = new AtomicInteger();
+
+    // Dekódolás nélkül: a DROP_OLDEST puffer a legrégebbi Cluster-eket dobja, ahogy egy lemaradó dekódernél
+    static final class IngestOnlyExecutionModel extends ExecutionModel {
+        @Override
+        public Future<?> submitSession(Runnable task) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    // A véglegesítés kérése jelzi, hogy a szegmens író minden sorban álló adatot kiírt
+    static final class CompletionScheduler extends FinalizationScheduler {
+        final Map<String, CompletableFuture<Integer>> finalized = new ConcurrentHashMap<>();
+
+        @Override
+        public void submit(String sessionId, List<String> files, boolean concat, Function<String, SegmentIndex> indexes) {
+            CompletableFuture<Integer> future = finalized.remove(sessionId);
+            if (future != null) {
+                future.complete(files.size());
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        chunks = BenchmarkFixtures.chunks(BenchmarkFixtures.webm(1280, 720, 300), chunkSize);
+        directory = Files.createTempDirectory("ingest-benchmark");
+
+        executionModel = new IngestOnlyExecutionModel();
+        set(executionModel, "executionMode", "platform");
+        set(executionModel, "decodeThreads", 1);
+        executionModel.init();
+        LiveBroadcaster liveBroadcaster = new LiveBroadcaster();
+        set(liveBroadcaster, "viewerBufferBytes", 4L << 20);
+        set(liveBroadcaster, "sendTimeoutMillis", 5000L);
+        set(liveBroadcaster, "executionModel", executionModel);
+        ArchiveIndex archiveIndex = new ArchiveIndex();
+        set(archiveIndex, "isEnabled", false);
+        finalizationScheduler = new CompletionScheduler();
+
+        handler = new VideoStreamHandler();
+        set(handler, "tempPath", directory.toString());
+        set(handler, "topic", "camera");
+        set(handler, "content", "motion");
+        set(handler, "snapshotTopic", "camera/snapshot");
+        set(handler, "isConcatFilesEnabled", false);
+        set(handler, "videoDuration", 3600);
+        set(handler, "fsyncPolicy", fsyncPolicy);
+        set(handler, "fsyncInterval", 5000L);
+        set(handler, "bufferSize", 16 * 1024 * 1024);
+        set(handler, "isBufferDirect", false);
+        set(handler, "bufferOverflowPolicy", "drop-oldest");
+        set(handler, "bufferBlockTimeout", 0L);
+        set(handler, "probeSize", 65536);
+        set(handler, "analyzeDuration", 200000L);
+        // A korlátok nem szólnak bele: a teljes felvétel a lemezre kerül, a kapcsolat nem zárul le túlterhelés miatt
+        set(handler, "ingestHighWaterBytes", 64L << 20);
+        set(handler, "ingestHighWaterMillis", 60_000L);
+        set(handler, "ingestMaxBytes", 256L << 20);
+        set(handler, "decodeHighWater", 0.75);
+        set(handler, "resumeGraceMillis", 5000L);
+        set(handler, "executionModel", executionModel);
+        set(handler, "environment", new StandardEnvironment());
+        set(handler, "analysisScheduler", new AnalysisScheduler());
+        set(handler, "mqttEventPublisher", new MqttEventPublisher("tcp://localhost:1883", "ingest-benchmark", 1, 10, 0, 0));
+        set(handler, "finalizationScheduler", finalizationScheduler);
+        set(handler, "pipelineMetrics", new PipelineMetrics());
+        set(handler, "liveBroadcaster", liveBroadcaster);
+        set(handler, "decodeWorkerPool", new DecodeWorkerPool());
+        set(handler, "archiveIndex", archiveIndex);
+        handler.init();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        handler.shutdown();
+        executionModel.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int recording() throws Exception {
+        BenchmarkSession session = new BenchmarkSession("ingest-" + sessionCounter.incrementAndGet());
+        CompletableFuture<Integer> finalized = new CompletableFuture<>();
+        finalizationScheduler.finalized.put(session.getId(), finalized);
+        handler.afterConnectionEstablished(session);
+        for (byte[] message : chunks) {
+            // Mint a konténer: a payload egy ByteBuffer, amelyből a handler egyszer másol
+            handler.handleMessage(session, new BinaryMessage(ByteBuffer.wrap(message)));
+        }
+        handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+        // Forrás nélkül a felvétel a sor kiürülése és a szegmens író lezárása után azonnal véglegesítésre kerül
+        return finalized.get(30, TimeUnit.SECONDS);
+    }
+
+    private static void set(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    // Kamera kapcsolat: a handler vezérlő üzeneteit (pl. forgalom szabályozás) eldobja
+    static final class BenchmarkSession implements WebSocketSession {
+        private final String id;
+        private volatile boolean open = true;
+
+        BenchmarkSession(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package hu.infokristaly.homework4websocketserver.benchmark;
+
+import hu.infokristaly.homework4websocketserver.cv.AdvancedMotionDetector;
+import hu.infokristaly.homework4websocketserver.cv.MotionDetectorSettings;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Egy képkocka mozgásérzékelésének ideje felbontásonként, teljes és gyors (kicsinyített, szürke) módban
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MotionDetectorBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"full", "fast"})
+    public String mode;
+
+    Mat[] frames;
+    AdvancedMotionDetector detector;
+    int next = 0;
+
+    @Setup
+    public void setup() {
+        String[] size = resolution.split("x");
+        frames = BenchmarkFixtures.frames(Integer.parseInt(size[0]), Integer.parseInt(size[1]), 60);
+        MotionDetectorSettings defaults = MotionDetectorSettings.defaults();
+        boolean fast = "fast".equals(mode);
+        detector = new AdvancedMotionDetector(new MotionDetectorSettings(fast, fast ? 320 : 0, null, null,
+                defaults.threshold(), defaults.history(), defaults.varThreshold(), defaults.detectShadows()));
+        // A háttérmodell betanítása, hogy a mérés az állandósult állapotot mutassa
+        for (Mat frame : frames) {
+            detector.detectMotionFromMat(frame);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        detector.close();
+        for (Mat frame : frames) {
+            frame.release();
+        }
+    }
+
+    @Benchmark
+    public boolean detectMotionFromMat() {
+        Mat frame = frames[next];
+        next = (next + 1) % frames.length;
+        return detector.detectMotionFromMat(frame);
+    }
+}
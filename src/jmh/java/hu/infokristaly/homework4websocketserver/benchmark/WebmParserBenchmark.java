@@ -0,0 +1,64 @@
+package hu.infokristaly.homework4websocketserver.benchmark;
+
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A fejléc és a Cluster határok keresése valószerű chunk-okon. A legacyFindSequence a korábbi getVideoMHeader
+// bájtminta keresése, összehasonlítási alapként.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WebmParserBenchmark {
+
+    private static final byte[] CLUSTER_TAG = {(byte) 0x1F, (byte) 0x43, (byte) 0xB6, (byte) 0x75};
+
+    @Param({"1024", "16384", "262144"})
+    public int chunkSize;
+
+    List<byte[]> chunks;
+
+    @Setup
+    public void setup() {
+        chunks = BenchmarkFixtures.chunks(BenchmarkFixtures.webm(640, 480, 300), chunkSize);
+    }
+
+    @Benchmark
+    public void chunker(Blackhole blackhole) {
+        WebmChunker chunker = new WebmChunker();
+        for (byte[] chunk : chunks) {
+            for (WebmChunk piece : chunker.feed(chunk)) {
+                blackhole.consume(piece);
+            }
+        }
+        blackhole.consume(chunker.flush());
+    }
+
+    @Benchmark
+    public void legacyFindSequence(Blackhole blackhole) {
+        for (byte[] chunk : chunks) {
+            blackhole.consume(findSequence(chunk, CLUSTER_TAG));
+        }
+    }
+
+    private static int findSequence(byte[] data, byte[] sequence) {
+        for (int i = 0; i < data.length - sequence.length; i++) {
+            boolean match = true;
+            for (int j = 0; j < sequence.length; j++) {
+                if (data[i + j] != sequence[j]) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) return i;
+        }
+        return -1;
+    }
+}
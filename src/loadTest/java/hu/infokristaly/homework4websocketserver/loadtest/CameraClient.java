@@ -0,0 +1,209 @@
+package hu.infokristaly.homework4websocketserver.loadtest;
+
+import hu.infokristaly.homework4websocketserver.metrics.Histogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Egy kamera: WebSocket kapcsolat a /video-stream végponthoz, a forrás szöveges üzenet, majd a felvétel ismételt,
+// időbélyeg szerint ütemezett visszajátszása (speed > 1 esetén gyorsítva)
+final class CameraClient implements WebSocket.Listener, Runnable {
+
+    private final String source;
+    private final URI uri;
+    private final ReplayStream stream;
+    private final double speed;
+    private final int messageSize;
+    private final long durationMillis;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong loops = new AtomicLong();
+    // A sendBinary befejezéséig eltelt idő: a szerver oldali torlódás a kliensnél itt látszik
+    private final Histogram sendNanos = new Histogram();
+    // A mozgást tartalmazó Cluster-ek elküldésének ideje, a hozzájuk tartozó értesítésre várva
+    private final ArrayDeque<Long> pendingOnsets = new ArrayDeque<>();
+    private final Histogram motionToPublishNanos = new Histogram();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong unmatchedEvents = new AtomicLong();
+    // A szerver forgalom szabályozó jelzései; a visszajátszás ütemezése nem változik, csak a terhelés látszik belőlük
+    private final Map<String, AtomicLong> flowSignals = new ConcurrentHashMap<>();
+    private volatile long startedNanos;
+    private volatile long finishedNanos;
+    private volatile String closeReason;
+
+    CameraClient(String source, URI uri, ReplayStream stream, double speed, int messageSize, long durationMillis) {
+        this.source = source;
+        this.uri = uri;
+        this.stream = stream;
+        this.speed = speed;
+        this.messageSize = messageSize;
+        this.durationMillis = durationMillis;
+    }
+
+    @Override
+    public void run() {
+        WebSocket webSocket = null;
+        try {
+            webSocket = HttpClient.newHttpClient().newWebSocketBuilder()
+                    .buildAsync(uri, this).get(10, TimeUnit.SECONDS);
+            webSocket.sendText("[source]:" + source, true).get(10, TimeUnit.SECONDS);
+            startedNanos = System.nanoTime();
+            long deadline = startedNanos + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            boolean firstFrame = true;
+            while (closeReason == null && System.nanoTime() < deadline) {
+                replayOnce(webSocket, deadline, firstFrame);
+                firstFrame = false;
+                loops.incrementAndGet();
+            }
+            webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (webSocket != null) webSocket.abort();
+        } catch (Exception e) {
+            if (closeReason == null) closeReason = "hiba: " + e.getMessage();
+            if (webSocket != null) webSocket.abort();
+        } finally {
+            finishedNanos = System.nanoTime();
+        }
+    }
+
+    // Egy teljes lejátszás; minden kör a fejléccel indul, ahogy egy újrainduló MediaRecorder
+    private void replayOnce(WebSocket webSocket, long deadline, boolean firstFrame) throws Exception {
+        long loopStart = System.nanoTime();
+        List<ReplayStream.Piece> pieces = stream.getPieces();
+        List<Long> onsets = stream.getMotionOnsets();
+        int nextOnset = 0;
+        for (int i = 0; i < pieces.size(); i++) {
+            ReplayStream.Piece piece = pieces.get(i);
+            long due = loopStart + (long) (TimeUnit.MILLISECONDS.toNanos(piece.dueMillis()) / speed);
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                if (now >= deadline) return;
+                LockSupport.parkNanos(due - now);
+            }
+            if (now >= deadline || closeReason != null) return;
+            long pieceEnd = i + 1 < pieces.size() ? pieces.get(i + 1).dueMillis() : stream.getDurationMillis();
+            // Az első kockára a szerver érzékelés nélkül riaszt, utána a felvétel ismert mozgás kezdetei számítanak
+            boolean onset = firstFrame && i == 1;
+            while (i > 0 && nextOnset < onsets.size() && onsets.get(nextOnset) < pieceEnd) {
+                onset = true;
+                nextOnset++;
+            }
+            if (onset) {
+                synchronized (pendingOnsets) {
+                    pendingOnsets.addLast(System.nanoTime());
+                }
+            }
+            send(webSocket, piece);
+        }
+    }
+
+    private void send(WebSocket webSocket, ReplayStream.Piece piece) throws Exception {
+        byte[] data = stream.getData();
+        for (int offset = piece.offset(); offset < piece.offset() + piece.length(); offset += messageSize) {
+            int length = Math.min(messageSize, piece.offset() + piece.length() - offset);
+            long started = System.nanoTime();
+            webSocket.sendBinary(ByteBuffer.wrap(data, offset, length), true).get(30, TimeUnit.SECONDS);
+            sendNanos.record(System.nanoTime() - started);
+            bytesSent.addAndGet(length);
+            messagesSent.incrementAndGet();
+        }
+    }
+
+    // A broker által fogadott értesítést a legutóbbi, még párosítatlan mozgás kezdethez rendeli
+    void onEvent(long receivedAtNanos) {
+        events.incrementAndGet();
+        Long matched = null;
+        synchronized (pendingOnsets) {
+            while (!pendingOnsets.isEmpty() && pendingOnsets.peekFirst() <= receivedAtNanos) {
+                matched = pendingOnsets.pollFirst();
+            }
+        }
+        if (matched == null) {
+            unmatchedEvents.incrementAndGet();
+        } else {
+            motionToPublishNanos.record(receivedAtNanos - matched);
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        String text = data.toString();
+        if (text.startsWith("[flow]:")) {
+            flowSignals.computeIfAbsent(text.substring("[flow]:".length()), key -> new AtomicLong()).incrementAndGet();
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        if (closeReason == null && statusCode != WebSocket.NORMAL_CLOSURE) {
+            closeReason = "a szerver lezárta: " + statusCode + " " + reason;
+        }
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        if (closeReason == null) closeReason = "hiba: " + error.getMessage();
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    String getCloseReason() {
+        return closeReason;
+    }
+
+    double getIngestBytesPerSecond() {
+        long start = startedNanos;
+        if (start == 0) return 0;
+        long end = finishedNanos == 0 ? System.nanoTime() : finishedNanos;
+        return bytesSent.get() / Math.max(0.001, (end - start) / 1e9);
+    }
+
+    long getEventCount() {
+        return events.get();
+    }
+
+    Histogram getMotionToPublishNanos() {
+        return motionToPublishNanos;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("source", source);
+        result.put("file", stream.getName());
+        result.put("bytesSent", bytesSent.get());
+        result.put("messagesSent", messagesSent.get());
+        result.put("ingestBytesPerSecond", getIngestBytesPerSecond());
+        result.put("loops", loops.get());
+        result.put("sendLatencyMicros", sendNanos.toMap(1000));
+        result.put("events", events.get());
+        result.put("unmatchedEvents", unmatchedEvents.get());
+        result.put("motionToPublishMillis", motionToPublishNanos.toMap(1_000_000));
+        Map<String, Long> signals = new LinkedHashMap<>();
+        flowSignals.forEach((signal, count) -> signals.put(signal, count.get()));
+        result.put("flowSignals", signals);
+        result.put("closeReason", closeReason);
+        return result;
+    }
+}
@@ -0,0 +1,303 @@
+package hu.infokristaly.homework4websocketserver.loadtest;
+
+import hu.infokristaly.homework4websocketserver.Homework4WebsocketServerApplication;
+import hu.infokristaly.homework4websocketserver.metrics.Histogram;
+import hu.infokristaly.homework4websocketserver.metrics.PipelineMetrics;
+import hu.infokristaly.homework4websocketserver.mqtt.StandInMqttBroker;
+import hu.infokristaly.homework4websocketserver.ws.AnalysisScheduler;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Többkamerás terheléses teszt: a szerver ugyanebben a JVM-ben indul, az MQTT broker helyett a tesztekből ismert
+// StandInMqttBroker fut, a kamerák WebSocket kliensek, amelyek WebM fájlokat játszanak vissza.
+//
+//   ./gradlew loadTest --args="--cameras=8 --duration=120 --speed=1"
+//
+// Kapcsolók: --cameras=N, --duration=mp, --speed=szorzó, --ramp=ms (két kamera indítása között),
+// --message-size=bájt, --files=a.webm,b.webm (ha nincs megadva, szintetikus felvétel készül),
+// --resolution=640x480, --work-dir=könyvtár, --report=fájl, valamint bármely --<szerver.kulcs>=érték
+// (pl. --video.execution.mode=virtual), ami a szerver konfigurációját írja felül.
+public class LoadTestHarness {
+
+    private static final Pattern SOURCE_PATTERN = Pattern.compile("^\\[source:([^\\]]*)\\]");
+    private static final Set<String> OWN_OPTIONS = Set.of("cameras", "duration", "speed", "ramp", "message-size",
+            "files", "resolution", "work-dir", "report");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int cameras = Integer.parseInt(options.getOrDefault("cameras", "4"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+        double speed = Double.parseDouble(options.getOrDefault("speed", "1"));
+        long rampMillis = Long.parseLong(options.getOrDefault("ramp", "500"));
+        int messageSize = Integer.parseInt(options.getOrDefault("message-size", "65536"));
+        Path workDir = Paths.get(options.getOrDefault("work-dir", "build/loadtest"));
+        String timestamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+        Path report = Paths.get(options.getOrDefault("report", workDir.resolve("report-" + timestamp + ".json").toString()));
+        Path videoDir = workDir.resolve("video-" + timestamp);
+        Files.createDirectories(videoDir);
+
+        List<ReplayStream> streams = loadStreams(options, workDir);
+
+        try (StandInMqttBroker broker = new StandInMqttBroker().start()) {
+            List<String> serverArgs = new ArrayList<>(List.of(
+                    "--server.port=0",
+                    "--server.ssl.enabled=false",
+                    "--mqtt.broker=" + broker.getUrl(),
+                    "--mqtt.topic=motion",
+                    "--mqtt.message=Motion detected!",
+                    "--video.path=" + videoDir,
+                    "--video.temp.path=" + videoDir,
+                    "--video.concat.enabled=false",
+                    "--video.duration=3600",
+                    "--metrics.log.interval=0"));
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                if (!OWN_OPTIONS.contains(option.getKey())) {
+                    serverArgs.add("--" + option.getKey() + "=" + option.getValue());
+                }
+            }
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(Homework4WebsocketServerApplication.class)
+                    .run(serverArgs.toArray(new String[0]));
+            try {
+                run(context, broker, streams, cameras, durationSeconds, speed, rampMillis, messageSize, report);
+            } finally {
+                context.close();
+            }
+        }
+        System.out.println("Felvett szegmensek: " + videoDir.toAbsolutePath());
+    }
+
+    private static void run(ConfigurableApplicationContext context, StandInMqttBroker broker, List<ReplayStream> streams,
+                            int cameras, int durationSeconds, double speed, long rampMillis, int messageSize,
+                            Path report) throws Exception {
+        URI uri = URI.create("ws://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port") + "/video-stream");
+        PipelineMetrics pipelineMetrics = context.getBean(PipelineMetrics.class);
+        AnalysisScheduler analysisScheduler = context.getBean(AnalysisScheduler.class);
+        ResourceSampler resources = new ResourceSampler();
+        resources.sample();
+
+        Map<String, CameraClient> clients = new LinkedHashMap<>();
+        Map<String, Histogram> lags = new ConcurrentHashMap<>();
+        for (int i = 0; i < cameras; i++) {
+            String source = "loadtest-" + (i + 1);
+            ReplayStream stream = streams.get(i % streams.size());
+            clients.put(source, new CameraClient(source, uri, stream, speed, messageSize, durationSeconds * 1000L));
+            lags.put(source, new Histogram());
+        }
+
+        Thread eventReader = new Thread(() -> readEvents(broker, clients), "loadtest-events");
+        eventReader.setDaemon(true);
+        eventReader.start();
+
+        System.out.println("Terheléses teszt: " + cameras + " kamera, " + durationSeconds + " mp, " + speed
+                + "x sebesség, végpont: " + uri);
+        List<Thread> threads = new ArrayList<>();
+        for (CameraClient client : clients.values()) {
+            Thread thread = new Thread(client, "loadtest-" + client.getSource());
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+            Thread.sleep(rampMillis);
+        }
+
+        long lastPrint = 0;
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            Thread.sleep(1000);
+            ResourceSampler.Sample sample = resources.sample();
+            long maxLag = 0;
+            for (AnalysisScheduler.SessionState state : analysisScheduler.getSessions()) {
+                Histogram lag = state.getSource() == null ? null : lags.get(state.getSource());
+                if (lag != null) {
+                    lag.record(state.getLagMillis());
+                    maxLag = Math.max(maxLag, state.getLagMillis());
+                }
+            }
+            if (sample.elapsedMillis() - lastPrint >= 5000) {
+                lastPrint = sample.elapsedMillis();
+                double ingest = clients.values().stream().mapToDouble(CameraClient::getIngestBytesPerSecond).sum();
+                long events = clients.values().stream().mapToLong(CameraClient::getEventCount).sum();
+                System.out.printf("[%4d mp] kapcsolat: %d, ingest: %.1f KB/s, max. csúszás: %d ms, heap: %d MB, "
+                                + "fizikai: %d MB, szálak: %d, értesítés: %d%n",
+                        sample.elapsedMillis() / 1000, analysisScheduler.getSessions().size(), ingest / 1024, maxLag,
+                        sample.heapUsed() >> 20, sample.physical() >> 20, sample.threads(), events);
+            }
+        }
+        // Az utolsó értesítések beérkezésére várunk
+        Thread.sleep(2000);
+        eventReader.interrupt();
+
+        Map<String, Object> result = buildReport(clients, lags, resources, pipelineMetrics, cameras, durationSeconds, speed);
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        Files.writeString(report, toJson(result, ""), StandardCharsets.UTF_8);
+        printSummary(clients, lags, resources);
+        System.out.println("Jelentés: " + report.toAbsolutePath());
+    }
+
+    private static List<ReplayStream> loadStreams(Map<String, String> options, Path workDir) throws IOException {
+        List<ReplayStream> streams = new ArrayList<>();
+        String files = options.get("files");
+        if (files != null && !files.isBlank()) {
+            for (String file : files.split(",")) {
+                streams.add(ReplayStream.load(Paths.get(file.trim()), List.of()));
+            }
+            return streams;
+        }
+        String[] resolution = options.getOrDefault("resolution", "640x480").split("x");
+        int seconds = 3 * SyntheticCamera.MOTION_PERIOD;
+        Files.createDirectories(workDir);
+        Path file = SyntheticCamera.generate(workDir, Integer.parseInt(resolution[0]), Integer.parseInt(resolution[1]), seconds);
+        streams.add(ReplayStream.load(file, SyntheticCamera.motionOnsets(seconds)));
+        return streams;
+    }
+
+    private static void readEvents(StandInMqttBroker broker, Map<String, CameraClient> clients) {
+        try {
+            while (true) {
+                StandInMqttBroker.Received received = broker.poll(1, TimeUnit.SECONDS);
+                if (received == null) continue;
+                Matcher matcher = SOURCE_PATTERN.matcher(received.text());
+                CameraClient client = matcher.find() ? clients.get(matcher.group(1)) : null;
+                if (client != null) {
+                    client.onEvent(received.receivedAtNanos());
+                }
+            }
+        } catch (InterruptedException e) {
+            // A mérés véget ért
+        }
+    }
+
+    private static Map<String, Object> buildReport(Map<String, CameraClient> clients, Map<String, Histogram> lags,
+                                                   ResourceSampler resources, PipelineMetrics pipelineMetrics,
+                                                   int cameras, int durationSeconds, double speed) {
+        Histogram lag = new Histogram();
+        Histogram motionToPublish = new Histogram();
+        double ingest = 0;
+        long events = 0;
+        long closed = 0;
+        List<Map<String, Object>> sessions = new ArrayList<>();
+        for (CameraClient client : clients.values()) {
+            Histogram sessionLag = lags.get(client.getSource());
+            sessionLag.addTo(lag);
+            client.getMotionToPublishNanos().addTo(motionToPublish);
+            ingest += client.getIngestBytesPerSecond();
+            events += client.getEventCount();
+            if (client.getCloseReason() != null) closed++;
+            Map<String, Object> session = client.toMap();
+            session.put("decodeLagMillis", sessionLag.toMap(1));
+            sessions.add(session);
+        }
+        Map<String, Object> configuration = new LinkedHashMap<>();
+        configuration.put("cameras", cameras);
+        configuration.put("durationSeconds", durationSeconds);
+        configuration.put("speed", speed);
+        configuration.put("processors", Runtime.getRuntime().availableProcessors());
+        Map<String, Object> aggregate = new LinkedHashMap<>();
+        aggregate.put("ingestBytesPerSecond", ingest);
+        aggregate.put("decodeLagMillis", lag.toMap(1));
+        aggregate.put("events", events);
+        aggregate.put("motionToPublishMillis", motionToPublish.toMap(1_000_000));
+        aggregate.put("abortedSessions", closed);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("configuration", configuration);
+        result.put("aggregate", aggregate);
+        result.put("resources", resources.toMap());
+        result.put("sessions", sessions);
+        result.put("server", pipelineMetrics.snapshot());
+        return result;
+    }
+
+    private static void printSummary(Map<String, CameraClient> clients, Map<String, Histogram> lags,
+                                     ResourceSampler resources) {
+        System.out.println("---- Kameránként ----");
+        for (CameraClient client : clients.values()) {
+            Histogram lag = lags.get(client.getSource());
+            Histogram latency = client.getMotionToPublishNanos();
+            System.out.printf("%-14s %8.1f KB/s  csúszás p95: %6d ms  értesítés: %3d  mozgás->MQTT p50/p95: %d/%d ms%s%n",
+                    client.getSource(), client.getIngestBytesPerSecond() / 1024, lag.percentile(0.95),
+                    client.getEventCount(), latency.percentile(0.5) / 1_000_000, latency.percentile(0.95) / 1_000_000,
+                    client.getCloseReason() == null ? "" : "  (" + client.getCloseReason() + ")");
+        }
+        System.out.println("---- Erőforrások (meredekség a mérés második felében) ----");
+        System.out.printf("heap: %+.1f MB/perc, natív (JavaCPP): %+.1f MB/perc, fizikai: %+.1f MB/perc, "
+                        + "direct: %+.1f MB/perc, szálak: %+.1f /perc%n",
+                resources.slopePerMinute(ResourceSampler.Sample::heapUsed) / (1 << 20),
+                resources.slopePerMinute(ResourceSampler.Sample::nativeTracked) / (1 << 20),
+                resources.slopePerMinute(ResourceSampler.Sample::physical) / (1 << 20),
+                resources.slopePerMinute(ResourceSampler.Sample::directBuffers) / (1 << 20),
+                resources.slopePerMinute(ResourceSampler.Sample::threads));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Ismeretlen argumentum: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        return options;
+    }
+
+    // Egyszerű JSON kiírás a jelentéshez, hogy a futások külső eszköz nélkül összevethetők legyenek
+    private static String toJson(Object value, String indent) {
+        if (value == null) return "null";
+        if (value instanceof Number || value instanceof Boolean) {
+            if (value instanceof Double d && (d.isNaN() || d.isInfinite())) return "null";
+            return value.toString();
+        }
+        if (value instanceof Map<?, ?> map) {
+            if (map.isEmpty()) return "{}";
+            StringJoiner joiner = new StringJoiner(",\n", "{\n", "\n" + indent + "}");
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                joiner.add(indent + "  " + quote(String.valueOf(entry.getKey())) + ": "
+                        + toJson(entry.getValue(), indent + "  "));
+            }
+            return joiner.toString();
+        }
+        if (value instanceof Collection<?> collection) {
+            if (collection.isEmpty()) return "[]";
+            StringJoiner joiner = new StringJoiner(",\n", "[\n", "\n" + indent + "]");
+            for (Object item : collection) {
+                joiner.add(indent + "  " + toJson(item, indent + "  "));
+            }
+            return joiner.toString();
+        }
+        return quote(value.toString());
+    }
+
+    private static String quote(String text) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+                    else builder.append(c);
+                }
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
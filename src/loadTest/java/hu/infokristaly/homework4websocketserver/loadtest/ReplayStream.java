@@ -0,0 +1,87 @@
+package hu.infokristaly.homework4websocketserver.loadtest;
+
+import hu.infokristaly.homework4websocketserver.webm.ClusterMark;
+import hu.infokristaly.homework4websocketserver.webm.EbmlStreamParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Egy WebM fájl visszajátszható formában: a fejléc és Cluster-enként egy darab, a Cluster időbélyegéből számolt
+// küldési idővel. A mozgás kezdetek csak a szintetikus felvételnél ismertek.
+final class ReplayStream {
+
+    record Piece(int offset, int length, long dueMillis) {
+    }
+
+    private final String name;
+    private final byte[] data;
+    private final List<Piece> pieces;
+    private final List<Long> motionOnsets;
+    private final long durationMillis;
+
+    private ReplayStream(String name, byte[] data, List<Piece> pieces, List<Long> motionOnsets, long durationMillis) {
+        this.name = name;
+        this.data = data;
+        this.pieces = pieces;
+        this.motionOnsets = motionOnsets;
+        this.durationMillis = durationMillis;
+    }
+
+    static ReplayStream load(Path file, List<Long> motionOnsets) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        EbmlStreamParser parser = new EbmlStreamParser();
+        List<ClusterMark> clusters = new ArrayList<>();
+        EbmlStreamParser.Listener listener = new EbmlStreamParser.Listener() {
+            @Override
+            public void onHeader(byte[] header, long headerStart, long clusterOffset) {
+            }
+
+            @Override
+            public void onCluster(ClusterMark cluster) {
+                clusters.add(cluster);
+            }
+        };
+        parser.feed(data, 0, data.length, listener);
+        parser.resolvePending(listener);
+        if (clusters.isEmpty()) {
+            throw new IOException("Nem található Cluster a fájlban: " + file);
+        }
+        double millisPerTick = parser.getTimecodeScale() / 1_000_000.0;
+        long firstTimecode = clusters.get(0).timecode();
+        List<Piece> pieces = new ArrayList<>(clusters.size() + 1);
+        pieces.add(new Piece(0, (int) clusters.get(0).offset(), 0));
+        for (int i = 0; i < clusters.size(); i++) {
+            ClusterMark cluster = clusters.get(i);
+            long end = i + 1 < clusters.size() ? clusters.get(i + 1).offset() : data.length;
+            long due = Math.round((cluster.timecode() - firstTimecode) * millisPerTick);
+            pieces.add(new Piece((int) cluster.offset(), (int) (end - cluster.offset()), due));
+        }
+        // Az utolsó Cluster hosszát nem ismerjük, a többiek átlagával becsüljük
+        long last = pieces.get(pieces.size() - 1).dueMillis();
+        long duration = clusters.size() > 1 ? last + last / (clusters.size() - 1) : 1000;
+        return new ReplayStream(file.getFileName().toString(), data, pieces, motionOnsets, duration);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    List<Piece> getPieces() {
+        return pieces;
+    }
+
+    List<Long> getMotionOnsets() {
+        return motionOnsets;
+    }
+
+    long getDurationMillis() {
+        return durationMillis;
+    }
+}
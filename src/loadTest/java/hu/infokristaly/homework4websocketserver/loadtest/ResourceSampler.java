@@ -0,0 +1,82 @@
+package hu.infokristaly.homework4websocketserver.loadtest;
+
+import org.bytedeco.javacpp.Pointer;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+// A JVM heap, a natív memória (JavaCPP által foglalt és a folyamat fizikai memóriája), a direct pufferek és a
+// szálak száma másodpercenként; a növekedést a mérés második felére illesztett egyenes meredekségével becsüljük
+final class ResourceSampler {
+
+    record Sample(long elapsedMillis, long heapUsed, long nativeTracked, long physical, long directBuffers,
+                  int threads) {
+    }
+
+    private final List<Sample> samples = new ArrayList<>();
+    private final long startedNanos = System.nanoTime();
+
+    synchronized Sample sample() {
+        long direct = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            direct += pool.getMemoryUsed();
+        }
+        Sample sample = new Sample((System.nanoTime() - startedNanos) / 1_000_000,
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+                Pointer.totalBytes(), Pointer.physicalBytes(), direct,
+                ManagementFactory.getThreadMXBean().getThreadCount());
+        samples.add(sample);
+        return sample;
+    }
+
+    synchronized Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("heapUsedBytes", describe(Sample::heapUsed));
+        result.put("nativeTrackedBytes", describe(Sample::nativeTracked));
+        result.put("physicalBytes", describe(Sample::physical));
+        result.put("directBufferBytes", describe(Sample::directBuffers));
+        result.put("threads", describe(Sample::threads));
+        return result;
+    }
+
+    // Meredekség egységnyi értékben percenként; a heap a GC miatt fűrészfogas, ezért csak a trend informatív
+    synchronized double slopePerMinute(ToLongFunction<Sample> value) {
+        List<Sample> tail = samples.subList(samples.size() / 2, samples.size());
+        if (tail.size() < 2) return 0;
+        double meanX = 0;
+        double meanY = 0;
+        for (Sample sample : tail) {
+            meanX += sample.elapsedMillis();
+            meanY += value.applyAsLong(sample);
+        }
+        meanX /= tail.size();
+        meanY /= tail.size();
+        double covariance = 0;
+        double variance = 0;
+        for (Sample sample : tail) {
+            double dx = sample.elapsedMillis() - meanX;
+            covariance += dx * (value.applyAsLong(sample) - meanY);
+            variance += dx * dx;
+        }
+        return variance == 0 ? 0 : covariance / variance * 60_000;
+    }
+
+    private Map<String, Object> describe(ToLongFunction<Sample> value) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (samples.isEmpty()) return result;
+        long peak = Long.MIN_VALUE;
+        for (Sample sample : samples) {
+            peak = Math.max(peak, value.applyAsLong(sample));
+        }
+        result.put("first", value.applyAsLong(samples.get(0)));
+        result.put("last", value.applyAsLong(samples.get(samples.size() - 1)));
+        result.put("peak", peak);
+        result.put("slopePerMinute", slopePerMinute(value));
+        return result;
+    }
+}
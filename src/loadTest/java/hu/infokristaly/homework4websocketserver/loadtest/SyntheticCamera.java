@@ -0,0 +1,84 @@
+package hu.infokristaly.homework4websocketserver.loadtest;
+
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_imgproc.FILLED;
+import static org.bytedeco.opencv.global.opencv_imgproc.rectangle;
+
+// Helyben generált kamera felvétel: statikus jelenet, amelyben MOTION_PERIOD másodpercenként MOTION_LENGTH másodpercig
+// egy téglalap mozog. A mozgás kezdetei ismertek, ezekhez mérjük az MQTT értesítés késleltetését.
+final class SyntheticCamera {
+
+    static final int FPS = 30;
+    // A szerver 15 másodpercen belül nem küld újabb riasztást, ezért ennél ritkábban van mozgás
+    static final int MOTION_PERIOD = 20;
+    static final int MOTION_START = 5;
+    static final int MOTION_LENGTH = 3;
+
+    private SyntheticCamera() {
+    }
+
+    // A mozgások kezdete a felvétel elejétől, milliszekundumban
+    static List<Long> motionOnsets(int seconds) {
+        List<Long> onsets = new ArrayList<>();
+        for (int second = MOTION_START; second < seconds; second += MOTION_PERIOD) {
+            onsets.add(second * 1000L);
+        }
+        return onsets;
+    }
+
+    static Path generate(Path directory, int width, int height, int seconds) throws IOException {
+        Path file = directory.resolve("synthetic-" + width + "x" + height + "-" + seconds + "s.webm");
+        if (Files.isRegularFile(file) && Files.size(file) > 0) return file;
+        System.out.println("Szintetikus felvétel generálása: " + file);
+        Random random = new Random(42);
+        Mat background = new Mat(height, width, CV_8UC3, new Scalar(96, 96, 96, 0));
+        for (int i = 0; i < 12; i++) {
+            int w = width / 8 + random.nextInt(width / 4);
+            int h = height / 8 + random.nextInt(height / 4);
+            rectangle(background, new Rect(random.nextInt(width - w), random.nextInt(height - h), w, h),
+                    new Scalar(random.nextInt(256), random.nextInt(256), random.nextInt(256), 0), FILLED, 8, 0);
+        }
+        int size = Math.max(8, height / 5);
+        Mat frame = new Mat(height, width, CV_8UC3);
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(file.toString(), width, height);
+             OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat()) {
+            recorder.setFormat("webm");
+            recorder.setVideoCodecName("libvpx");
+            recorder.setFrameRate(FPS);
+            recorder.setGopSize(FPS);
+            recorder.setVideoBitrate(1_000_000);
+            recorder.start();
+            for (int f = 0; f < seconds * FPS; f++) {
+                background.copyTo(frame);
+                int inPeriod = f % (MOTION_PERIOD * FPS) - MOTION_START * FPS;
+                if (inPeriod >= 0 && inPeriod < MOTION_LENGTH * FPS) {
+                    int x = inPeriod * (width - size) / (MOTION_LENGTH * FPS);
+                    rectangle(frame, new Rect(x, height / 2 - size / 2, size, size),
+                            new Scalar(255, 255, 255, 0), FILLED, 8, 0);
+                }
+                recorder.record(converter.convert(frame));
+            }
+            recorder.stop();
+        } catch (Exception e) {
+            Files.deleteIfExists(file);
+            throw new IOException("A szintetikus felvétel nem generálható: " + e.getMessage(), e);
+        } finally {
+            frame.release();
+            background.release();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,41 @@
+package hu.infokristaly.homework4websocketserver.api;
+
+import hu.infokristaly.homework4websocketserver.ws.AnalysisScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+public class AnalysisController {
+
+    @Autowired
+    private AnalysisScheduler analysisScheduler;
+
+    @GetMapping("/api/analysis")
+    public Map<String, Object> getAnalysisState() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("level", analysisScheduler.getLevel());
+        result.put("cpuLoad", analysisScheduler.getCpuLoad());
+        List<Map<String, Object>> cameras = analysisScheduler.getSessions().stream().map(state -> {
+            Map<String, Object> camera = new LinkedHashMap<>();
+            camera.put("session", state.getSessionId());
+            camera.put("source", state.getSource());
+            camera.put("lagMillis", state.getLagMillis());
+            camera.put("level", state.getLevel());
+            camera.put("decodeFps", state.getDecodeFps());
+            camera.put("effectiveFps", state.getEffectiveFps());
+            camera.put("skipRate", state.getSkipRate());
+            camera.put("decodedFrames", state.getDecodedFrames());
+            camera.put("analysedFrames", state.getAnalysedFrames());
+            camera.put("skippedFrames", state.getSkippedFrames());
+            camera.put("decodingKeyframesOnly", state.isDecodingKeyframesOnly());
+            return camera;
+        }).toList();
+        result.put("cameras", cameras);
+        return result;
+    }
+}
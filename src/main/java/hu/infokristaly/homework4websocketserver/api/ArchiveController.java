@@ -0,0 +1,189 @@
+package hu.infokristaly.homework4websocketserver.api;
+
+import hu.infokristaly.homework4websocketserver.archive.ArchiveIndex;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Felvételek visszajátszása idő (az archív index alapján) vagy bájt tartomány szerint. A fájl tartalma
+// FileChannel.transferTo-val, illetve ha a Tomcat connector támogatja, sendfile-lal kerül a válaszba.
+@RestController
+public class ArchiveController {
+
+    private static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9._-]+\\.webm");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+    @Value("${video.path:src/main/resources/videos}")
+    private String videoPath;
+
+    @Value("${video.temp.path}")
+    private String tempPath;
+
+    @Autowired
+    private ArchiveIndex archiveIndex;
+
+    @GetMapping("/api/archive")
+    public Map<String, Object> getArchiveState() {
+        return archiveIndex.snapshot();
+    }
+
+    // Időpontok: epoch ezredmásodperc vagy helyi idő (pl. 2024-05-01T14:32:00)
+    @GetMapping("/api/archive/{source}/motion")
+    public List<Long> getMotion(@PathVariable("source") String source,
+                                @RequestParam(value = "from", required = false) String from,
+                                @RequestParam(value = "to", required = false) String to) {
+        long fromMillis = from == null ? 0 : parseTime(from);
+        long toMillis = to == null ? Long.MAX_VALUE : parseTime(to);
+        return archiveIndex.findMotion(source, fromMillis, toMillis, 1000);
+    }
+
+    // A from időpontot tartalmazó kulcskockától a to utáni első kulcskockáig (legfeljebb a fájl végéig), a stream
+    // fejlécével kezdve, így önállóan lejátszható. A folytatás az X-Archive-End időponttól kérhető.
+    @GetMapping("/api/archive/{source}/video")
+    public void getVideo(@PathVariable("source") String source, @RequestParam("from") String from,
+                         @RequestParam(value = "to", required = false) String to,
+                         HttpServletResponse response) throws IOException {
+        long fromMillis = parseTime(from);
+        long toMillis = to == null ? fromMillis : parseTime(to);
+        ArchiveIndex.Clip clip = archiveIndex.findClip(source, fromMillis, toMillis);
+        Path file = clip == null ? null : resolve(clip.fileName());
+        if (file == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        byte[] header = clip.seekable() ? archiveIndex.readHeader(source, clip.headerId()) : null;
+        if (header == null) {
+            // Az offset-ek nem érvényesek (pl. ffmpeg-gel javított fájl): a teljes fájl kérhető le
+            response.sendRedirect("/api/archive/files/" + clip.fileName());
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long end = clip.endOffset() < 0 ? size : Math.min(clip.endOffset(), size);
+            if (clip.startOffset() >= end) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            response.setContentType("video/webm");
+            response.setContentLengthLong(header.length + end - clip.startOffset());
+            response.setHeader("X-Archive-File", clip.fileName());
+            response.setHeader("X-Archive-Start", String.valueOf(clip.startMillis()));
+            if (clip.endMillis() >= 0) {
+                response.setHeader("X-Archive-End", String.valueOf(clip.endMillis()));
+            }
+            OutputStream out = response.getOutputStream();
+            out.write(header);
+            transfer(channel, clip.startOffset(), end - clip.startOffset(), Channels.newChannel(out));
+        }
+    }
+
+    // Egy felvétel fájl, HTTP Range (egyetlen tartomány) támogatással
+    @GetMapping("/api/archive/files/{name}")
+    public void getFile(@PathVariable("name") String name,
+                        @RequestHeader(value = "Range", required = false) String range,
+                        HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path file = FILE_NAME.matcher(name).matches() ? resolve(name) : null;
+        if (file == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long size = Files.size(file);
+        long start = 0;
+        long end = size;
+        response.setHeader("Accept-Ranges", "bytes");
+        Matcher matcher = range == null ? null : RANGE.matcher(range.trim());
+        // Érvénytelen Range fejlécnél a teljes fájl megy 200-zal (RFC 9110 14.2), csak a nem teljesíthető tartomány 416
+        if (matcher != null && matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())
+                && (matcher.group(1).isEmpty() || matcher.group(2).isEmpty()
+                    || position(matcher.group(1)) <= position(matcher.group(2)))) {
+            if (matcher.group(1).isEmpty()) {
+                start = size - Math.min(size, position(matcher.group(2)));
+            } else {
+                start = position(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    end = Math.min(size - 1, position(matcher.group(2))) + 1;
+                }
+            }
+            if (start >= end) {
+                response.setHeader("Content-Range", "bytes */" + size);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + size);
+        }
+        response.setContentType("video/webm");
+        response.setContentLengthLong(end - start);
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // A Tomcat a válasz után a kernelben küldi a fájl tartományt (TLS nélküli NIO connector esetén)
+            request.setAttribute("org.apache.tomcat.sendfile.filename", file.toRealPath().toString());
+            request.setAttribute("org.apache.tomcat.sendfile.start", start);
+            request.setAttribute("org.apache.tomcat.sendfile.end", end);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            transfer(channel, start, end - start, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    @ExceptionHandler({DateTimeParseException.class, NumberFormatException.class})
+    public void badRequest(RuntimeException e, HttpServletResponse response) throws IOException {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+    }
+
+    // Range pozíció; a long tartománynál nagyobb érték a fájl végén túlra mutat
+    private static long position(String digits) {
+        try {
+            return Long.parseLong(digits);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static long parseTime(String value) {
+        String trimmed = value.trim();
+        if (trimmed.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(trimmed);
+        }
+        return LocalDateTime.parse(trimmed).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // A véglegesített fájlok a videók között, az épp írt vagy feldolgozásra váró fájlok a temp könyvtárban vannak
+    private Path resolve(String fileName) {
+        for (String directory : new String[]{videoPath, tempPath}) {
+            Path file = Paths.get(directory, fileName);
+            if (Files.isRegularFile(file)) return file;
+        }
+        return null;
+    }
+
+    private static void transfer(FileChannel channel, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent <= 0) break;
+            position += sent;
+        }
+    }
+}
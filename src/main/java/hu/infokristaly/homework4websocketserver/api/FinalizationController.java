@@ -0,0 +1,31 @@
+package hu.infokristaly.homework4websocketserver.api;
+
+import hu.infokristaly.homework4websocketserver.video.FinalizationScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class FinalizationController {
+
+    @Autowired
+    private FinalizationScheduler finalizationScheduler;
+
+    @GetMapping("/api/finalization")
+    public Map<String, Object> getFinalizationState() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("queueDepth", finalizationScheduler.getQueueDepth());
+        result.put("running", finalizationScheduler.getRunningCount());
+        result.put("completed", finalizationScheduler.getCompletedCount());
+        result.put("failed", finalizationScheduler.getFailedCount());
+        result.put("retried", finalizationScheduler.getRetriedCount());
+        result.put("lastLatencyMillis", finalizationScheduler.getLastLatencyMillis());
+        result.put("averageLatencyMillis", finalizationScheduler.getAverageLatencyMillis());
+        result.put("oldestWaitingMillis", finalizationScheduler.getOldestWaitingMillis());
+        result.put("availableIoBudgetMb", finalizationScheduler.getAvailableIoBudgetMb());
+        return result;
+    }
+}
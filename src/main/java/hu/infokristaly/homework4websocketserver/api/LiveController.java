@@ -0,0 +1,25 @@
+package hu.infokristaly.homework4websocketserver.api;
+
+import hu.infokristaly.homework4websocketserver.ws.LiveBroadcaster;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class LiveController {
+
+    @Autowired
+    private LiveBroadcaster liveBroadcaster;
+
+    @GetMapping("/api/live")
+    public Map<String, Object> getLiveState() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("viewers", liveBroadcaster.getViewerCount());
+        result.put("waitingViewers", liveBroadcaster.getWaitingCount());
+        result.put("cameras", liveBroadcaster.snapshot());
+        return result;
+    }
+}
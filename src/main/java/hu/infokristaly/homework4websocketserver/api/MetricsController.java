@@ -0,0 +1,20 @@
+package hu.infokristaly.homework4websocketserver.api;
+
+import hu.infokristaly.homework4websocketserver.metrics.PipelineMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+public class MetricsController {
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @GetMapping("/api/metrics")
+    public Map<String, Object> getMetrics() {
+        return pipelineMetrics.snapshot();
+    }
+}
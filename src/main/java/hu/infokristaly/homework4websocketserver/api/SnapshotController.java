@@ -0,0 +1,36 @@
+package hu.infokristaly.homework4websocketserver.api;
+
+import hu.infokristaly.homework4websocketserver.cv.SnapshotEncoder;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.Map;
+
+@RestController
+public class SnapshotController {
+
+    @Autowired
+    private SnapshotEncoder snapshotEncoder;
+
+    @GetMapping("/api/snapshots")
+    public Map<String, Object> getSnapshotState() {
+        return snapshotEncoder.snapshot();
+    }
+
+    // Az MQTT eseményben hivatkozott [snapshot:<id>] pillanatkép, amíg a tárban van
+    @GetMapping("/api/snapshots/{id}")
+    public void getSnapshot(@PathVariable("id") String id, HttpServletResponse response) throws IOException {
+        byte[] jpeg = snapshotEncoder.get(id);
+        if (jpeg == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setContentType("image/jpeg");
+        response.setContentLengthLong(jpeg.length);
+        response.getOutputStream().write(jpeg);
+    }
+}
@@ -0,0 +1,376 @@
+package hu.infokristaly.homework4websocketserver.archive;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+// Forrásonkénti idő index a felvételekhez: a kulcskockás Cluster-ek érkezési ideje -> (szegmens fájl, bájt offset),
+// valamint a mozgás időpontjai. Az idő szerinti keresés a memóriába képzett index fájlokon bináris, a videó fájlokat
+// nem olvassa. A fájlok áthelyezését (összefűzés, ffmpeg javítás) a fájl tábla naplója követi, így az offset-ek
+// a véglegesítés után is érvényesek maradnak.
+@Component
+public class ArchiveIndex {
+
+    public static final String UNKNOWN_SOURCE = "unknown";
+
+    @Value("${video.path:src/main/resources/videos}")
+    private String videoPath;
+
+    @Value("${video.archive.index.path:}")
+    private String indexPath;
+
+    @Value("${video.archive.enabled:true}")
+    private Boolean isEnabled;
+
+    // A [startOffset, endOffset) tartomány kulcskockás Cluster-rel kezdődik; endOffset -1: a fájl végéig.
+    // Ha a fájl nem kereshető (ffmpeg újraírta), az offset-ek érvénytelenek, csak a teljes fájl adható ki.
+    public record Clip(String fileName, String headerId, long startOffset, long endOffset,
+                       long startMillis, long endMillis, boolean seekable) {
+    }
+
+    private static class FileEntry {
+        private final int id;
+        private final String headerId;
+        private volatile String name;
+        // Az eredeti (írás közbeni) offset-hez adandó eltolás
+        private volatile long shift = 0;
+        private volatile boolean seekable = true;
+
+        FileEntry(int id, String name, String headerId) {
+            this.id = id;
+            this.name = name;
+            this.headerId = headerId;
+        }
+    }
+
+    private class SourceIndex {
+        private final String source;
+        private final Path directory;
+        private final TimeIndexFile cues;
+        private final TimeIndexFile motion;
+        private final List<FileEntry> files = new ArrayList<>();
+        private final Map<String, FileEntry> byOriginalName = new HashMap<>();
+        private final FileChannel log;
+
+        SourceIndex(String source, Path directory) throws IOException {
+            this.source = source;
+            this.directory = directory;
+            Files.createDirectories(directory.resolve("headers"));
+            Path logPath = directory.resolve("files.log");
+            if (Files.exists(logPath)) {
+                replay(Files.readAllLines(logPath, StandardCharsets.UTF_8));
+            }
+            this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            this.cues = TimeIndexFile.open(directory.resolve("cues.idx"));
+            this.motion = TimeIndexFile.open(directory.resolve("motion.idx"));
+        }
+
+        // FILE <id> <név> <fejléc>, MOVE <id> <új név> <eltolás>, REWRITE <id>
+        private void replay(List<String> lines) {
+            for (String line : lines) {
+                String[] fields = line.split("\t");
+                try {
+                    switch (fields[0]) {
+                        case "FILE" -> {
+                            FileEntry entry = new FileEntry(Integer.parseInt(fields[1]), fields[2], fields[3]);
+                            if (entry.id != files.size()) continue;
+                            files.add(entry);
+                            byOriginalName.put(entry.name, entry);
+                            register(entry);
+                        }
+                        case "MOVE" -> {
+                            FileEntry entry = files.get(Integer.parseInt(fields[1]));
+                            move(entry, fields[2], Long.parseLong(fields[3]));
+                        }
+                        case "REWRITE" -> files.get(Integer.parseInt(fields[1])).seekable = false;
+                        default -> { }
+                    }
+                } catch (RuntimeException e) {
+                    // Félbe szakadt utolsó sor
+                }
+            }
+        }
+
+        private void register(FileEntry entry) {
+            byName.computeIfAbsent(entry.name, name -> new CopyOnWriteArrayList<>()).add(new FileRef(this, entry));
+        }
+
+        private void move(FileEntry entry, String newName, long shift) {
+            List<FileRef> refs = byName.get(entry.name);
+            if (refs != null) {
+                refs.removeIf(ref -> ref.entry() == entry);
+                if (refs.isEmpty()) byName.remove(entry.name);
+            }
+            entry.name = newName;
+            entry.shift += shift;
+            register(entry);
+        }
+
+        private synchronized FileEntry fileFor(String fileName, byte[] streamHeader) throws IOException {
+            FileEntry entry = byOriginalName.get(fileName);
+            if (entry != null) return entry;
+            String headerId = storeHeader(streamHeader);
+            entry = new FileEntry(files.size(), fileName, headerId);
+            appendLog("FILE", String.valueOf(entry.id), fileName, headerId);
+            files.add(entry);
+            byOriginalName.put(fileName, entry);
+            register(entry);
+            return entry;
+        }
+
+        // Azonos fejlécek egyszer tárolódnak, a tartalom hash-e alapján
+        private String storeHeader(byte[] streamHeader) throws IOException {
+            if (streamHeader == null) return "-";
+            String headerId = hash(streamHeader);
+            Path file = directory.resolve("headers").resolve(headerId + ".hdr");
+            if (!Files.exists(file)) {
+                Path temp = directory.resolve("headers").resolve(headerId + ".tmp");
+                Files.write(temp, streamHeader);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return headerId;
+        }
+
+        private synchronized void appendLog(String... fields) throws IOException {
+            ByteBuffer line = ByteBuffer.wrap((String.join("\t", fields) + "\n").getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                log.write(line);
+            }
+        }
+
+        private synchronized FileEntry file(int id) {
+            return id >= 0 && id < files.size() ? files.get(id) : null;
+        }
+
+        private synchronized int fileCount() {
+            return files.size();
+        }
+
+        void close() throws IOException {
+            cues.force();
+            motion.force();
+            cues.close();
+            motion.close();
+            log.close();
+        }
+    }
+
+    private record FileRef(SourceIndex index, FileEntry entry) {
+    }
+
+    private final Map<String, SourceIndex> sources = new ConcurrentHashMap<>();
+    // A fájlok jelenlegi neve szerint, az áthelyezések követéséhez
+    private final Map<String, List<FileRef>> byName = new ConcurrentHashMap<>();
+    private Path directory;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!isEnabled) return;
+        directory = indexPath == null || indexPath.isBlank() ? Paths.get(videoPath, ".index") : Paths.get(indexPath);
+        Files.createDirectories(directory);
+        try (Stream<Path> entries = Files.list(directory)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                if (Files.isDirectory(entry)) {
+                    String source = entry.getFileName().toString();
+                    sources.put(source, new SourceIndex(source, entry));
+                }
+            }
+        }
+        if (!sources.isEmpty()) {
+            System.out.println("Archív index betöltve: " + sources.size() + " forrás");
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        for (SourceIndex index : sources.values()) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                System.err.println("Hiba az archív index lezárásakor [" + index.source + "]: " + e.getMessage());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return isEnabled && directory != null;
+    }
+
+    // A forrás neve könyvtárnévként
+    static String key(String source) {
+        if (source == null || source.isBlank()) return UNKNOWN_SOURCE;
+        return source.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private SourceIndex source(String source, boolean create) {
+        String key = key(source);
+        if (!create) return sources.get(key);
+        return sources.computeIfAbsent(key, name -> {
+            try {
+                return new SourceIndex(name, directory.resolve(name));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Kulcskockás Cluster a szegmens fájlban (a szegmens író szálán)
+    public void addCue(String source, String fileName, byte[] streamHeader, long fileOffset, long wallMillis) {
+        if (!isEnabled()) return;
+        try {
+            SourceIndex index = source(source, true);
+            FileEntry entry = index.fileFor(fileName, streamHeader);
+            index.cues.append(wallMillis, entry.id, fileOffset);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Hiba az archív index írásakor [" + source + "]: " + e.getMessage());
+        }
+    }
+
+    public void addMotion(String source, long wallMillis) {
+        if (!isEnabled()) return;
+        try {
+            source(source, true).motion.append(wallMillis, -1, 0);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Hiba az archív index írásakor [" + source + "]: " + e.getMessage());
+        }
+    }
+
+    // A fileName fájl tartalma a newName fájlba került, shift bájttal eltolva (pl. összefűzéskor)
+    public void relocate(String fileName, String newName, long shift) {
+        List<FileRef> refs = byName.get(fileName);
+        if (refs == null) return;
+        for (FileRef ref : new ArrayList<>(refs)) {
+            try {
+                synchronized (ref.index()) {
+                    ref.index().appendLog("MOVE", String.valueOf(ref.entry().id), newName, String.valueOf(shift));
+                    ref.index().move(ref.entry(), newName, shift);
+                }
+            } catch (IOException e) {
+                System.err.println("Hiba az archív index frissítésekor [" + fileName + "]: " + e.getMessage());
+            }
+        }
+    }
+
+    // A fájlt egy külső eszköz (ffmpeg) írta újra: az offset-ek érvénytelenek
+    public void invalidate(String fileName) {
+        List<FileRef> refs = byName.get(fileName);
+        if (refs == null) return;
+        for (FileRef ref : refs) {
+            try {
+                ref.index().appendLog("REWRITE", String.valueOf(ref.entry().id));
+                ref.entry().seekable = false;
+            } catch (IOException e) {
+                System.err.println("Hiba az archív index frissítésekor [" + fileName + "]: " + e.getMessage());
+            }
+        }
+    }
+
+    // A from időpontot tartalmazó (vagy az utána következő első) kulcskockától a to utáni első kulcskockáig,
+    // legfeljebb a fájl végéig; null, ha nincs felvétel
+    public Clip findClip(String source, long fromMillis, long toMillis) {
+        SourceIndex index = isEnabled() ? source(source, false) : null;
+        if (index == null) return null;
+        TimeIndexFile cues = index.cues;
+        int size = cues.size();
+        int first = cues.floor(fromMillis);
+        if (first < 0) first = 0;
+        if (first >= size) return null;
+        TimeIndexFile.Entry start = cues.get(first);
+        if (start.wallMillis() > toMillis) return null;
+        FileEntry file = index.file(start.fileId());
+        if (file == null) return null;
+        // A klip vége: a to utáni első kulcskocka ugyanabban a fájlban, vagy a fájl vége
+        int last = toMillis == Long.MAX_VALUE ? size : cues.ceiling(toMillis + 1);
+        long endOffset = -1;
+        long endMillis = -1;
+        if (last < size) {
+            TimeIndexFile.Entry end = cues.get(last);
+            endMillis = end.wallMillis();
+            if (end.fileId() == start.fileId()) {
+                endOffset = end.offset() + file.shift;
+            }
+        }
+        if (endOffset < 0) {
+            // A fájlváltás helye a [first, last) tartományban, binárisan nem kereshető; a tartomány rövid
+            for (int i = first + 1; i < last; i++) {
+                TimeIndexFile.Entry entry = cues.get(i);
+                if (entry.fileId() != start.fileId()) {
+                    endMillis = entry.wallMillis();
+                    break;
+                }
+            }
+        }
+        return new Clip(file.name, file.headerId, start.offset() + file.shift, endOffset,
+                start.wallMillis(), endMillis, file.seekable);
+    }
+
+    // A mozgások időpontjai a [from, to] tartományban, legfeljebb limit darab
+    public List<Long> findMotion(String source, long fromMillis, long toMillis, int limit) {
+        SourceIndex index = isEnabled() ? source(source, false) : null;
+        if (index == null) return List.of();
+        List<Long> result = new ArrayList<>();
+        int size = index.motion.size();
+        for (int i = index.motion.ceiling(fromMillis); i < size && result.size() < limit; i++) {
+            long time = index.motion.get(i).wallMillis();
+            if (time > toMillis) break;
+            result.add(time);
+        }
+        return result;
+    }
+
+    public byte[] readHeader(String source, String headerId) throws IOException {
+        SourceIndex index = source(source, false);
+        if (index == null || !headerId.matches("[0-9a-f]+")) return null;
+        Path file = index.directory.resolve("headers").resolve(headerId + ".hdr");
+        return Files.exists(file) ? Files.readAllBytes(file) : null;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        for (SourceIndex index : sources.values()) {
+            Map<String, Object> state = new LinkedHashMap<>();
+            int cueCount = index.cues.size();
+            state.put("cues", cueCount);
+            state.put("motionEvents", index.motion.size());
+            state.put("files", index.fileCount());
+            if (cueCount > 0) {
+                state.put("firstMillis", index.cues.get(0).wallMillis());
+                state.put("lastMillis", index.cues.get(cueCount - 1).wallMillis());
+            }
+            result.put(index.source, state);
+        }
+        return result;
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                builder.append(String.format("%02x", digest[i]));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package hu.infokristaly.homework4websocketserver.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Időrendben bővülő, memóriába képzett index fájl rögzített méretű rekordokkal (idő, fájl azonosító, bájt offset).
+// A keresés bináris a leképezett rekordokon, így a fájl méretétől függetlenül O(log n), és nem olvassa be a fájlt.
+// Egy író (szinkronizált append) és tetszőleges számú, zár nélküli olvasó használhatja.
+public class TimeIndexFile implements Closeable {
+
+    private static final long MAGIC = 0x4857345449445831L;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 20;
+    private static final int INITIAL_RECORDS = 4096;
+
+    public record Entry(long wallMillis, int fileId, long offset) {
+    }
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private volatile int count;
+    private int capacity;
+    private long lastMillis = Long.MIN_VALUE;
+
+    private TimeIndexFile(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public static TimeIndexFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        TimeIndexFile index = new TimeIndexFile(channel);
+        try {
+            long size = channel.size();
+            int stored = (int) Math.max(0, (size - HEADER_SIZE) / RECORD_SIZE);
+            index.map(Math.max(INITIAL_RECORDS, stored));
+            if (size >= HEADER_SIZE && index.buffer.getLong(0) == MAGIC) {
+                // A darabszám a rekord után íródik, így összeomlás után sem mutat félig írt rekordra
+                index.count = (int) Math.min(index.buffer.getLong(8), stored);
+                if (index.count > 0) {
+                    index.lastMillis = index.get(index.count - 1).wallMillis();
+                }
+            } else {
+                index.buffer.putLong(8, 0);
+                index.buffer.putLong(0, MAGIC);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return index;
+    }
+
+    private void map(int records) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) records * RECORD_SIZE);
+        capacity = records;
+    }
+
+    // Az idő nem csökkenhet (pl. óraállítás): a korábbi időpontú bejegyzés az utolsóval azonos időt kap
+    public synchronized void append(long wallMillis, int fileId, long offset) throws IOException {
+        if (count == capacity) {
+            map(capacity * 2);
+        }
+        long time = Math.max(wallMillis, lastMillis);
+        int position = HEADER_SIZE + count * RECORD_SIZE;
+        MappedByteBuffer target = buffer;
+        target.putLong(position, time);
+        target.putInt(position + 8, fileId);
+        target.putLong(position + 12, offset);
+        target.putLong(8, count + 1);
+        lastMillis = time;
+        count = count + 1;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Entry get(int index) {
+        MappedByteBuffer source = buffer;
+        int position = HEADER_SIZE + index * RECORD_SIZE;
+        return new Entry(source.getLong(position), source.getInt(position + 8), source.getLong(position + 12));
+    }
+
+    private long timeAt(MappedByteBuffer source, int index) {
+        return source.getLong(HEADER_SIZE + index * RECORD_SIZE);
+    }
+
+    // Az utolsó bejegyzés, amelynek ideje <= wallMillis; -1, ha nincs ilyen
+    public int floor(long wallMillis) {
+        // A legnagyobb időpontnál a +1 túlcsordulna, minden bejegyzés megfelel
+        if (wallMillis == Long.MAX_VALUE) return size() - 1;
+        return ceiling(wallMillis + 1) - 1;
+    }
+
+    // Az első bejegyzés, amelynek ideje >= wallMillis; size(), ha nincs ilyen
+    public int ceiling(long wallMillis) {
+        int size = count;
+        MappedByteBuffer source = buffer;
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timeAt(source, middle) < wallMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
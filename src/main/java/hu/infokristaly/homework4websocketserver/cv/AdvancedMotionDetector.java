@@ -1,23 +1,48 @@
 package hu.infokristaly.homework4websocketserver.cv;
 
+import org.bytedeco.javacpp.IntPointer;
 import org.bytedeco.opencv.opencv_core.*;
 import org.bytedeco.opencv.opencv_video.BackgroundSubtractorMOG2;
 
+import static org.bytedeco.opencv.global.opencv_core.CV_32SC2;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC1;
+import static org.bytedeco.opencv.global.opencv_core.bitwise_and;
 import static org.bytedeco.opencv.global.opencv_core.countNonZero;
 import static org.bytedeco.opencv.global.opencv_video.createBackgroundSubtractorMOG2;
 import static org.bytedeco.opencv.global.opencv_imgproc.*;
 import static org.bytedeco.opencv.global.opencv_imgcodecs.*;
 
-public class AdvancedMotionDetector {
+public class AdvancedMotionDetector implements AutoCloseable {
+    private final MotionDetectorSettings settings;
     private final BackgroundSubtractorMOG2 backSub;
     private final Mat foregroundMask;
+    // Képkockák között újrahasznosított natív pufferek
+    private final Mat kernel;
+    private final Mat scaled = new Mat();
+    private final Mat gray = new Mat();
+    // A vizsgált poligonok befoglaló téglalapja; ezen kívül eső képpontokat nem is elemzünk
+    private Rect roiRect;
+    // A kivágás fejléce az aktuális képkockára (adatot nem másol); csak egy detektálás idejére él
+    private Mat region = null;
+    private Size analysisSize;
+    // Az elemzett méretű maszk (255 = vizsgált); null, ha a kivágás minden képpontja számít
+    private Mat roiMask;
+    private int maskedPixels;
+    private int sourceCols = -1;
+    private int sourceRows = -1;
 
     public AdvancedMotionDetector() {
+        this(MotionDetectorSettings.defaults());
+    }
+
+    public AdvancedMotionDetector(MotionDetectorSettings settings) {
+        this.settings = settings;
         // history: 500 képkockára emlékszik vissza
         // varThreshold: 16 (minél kisebb, annál érzékenyebb)
         // detectShadows: true (az árnyékokat szürkével jelöli, nem fehérrel)
-        this.backSub = createBackgroundSubtractorMOG2(500, 16, true);
+        this.backSub = createBackgroundSubtractorMOG2(settings.history(), settings.varThreshold(), settings.detectShadows());
         this.foregroundMask = new Mat();
+        this.kernel = getStructuringElement(MORPH_RECT, new Size(3, 3));
     }
 
     public boolean detectMotion(byte[] imageData) {
@@ -27,23 +52,163 @@ public class AdvancedMotionDetector {
     }
 
     public boolean detectMotionFromMat(Mat frame) {
-        // 1. Háttér kivonása (itt történik a "mágia")
-        // A 'learningRate' -1-en hagyása automatikus tanulást jelent
-        backSub.apply(frame, foregroundMask);
+        int analysedPixels;
+        try {
+            Mat input = prepare(frame);
+            analysedPixels = roiMask != null ? maskedPixels : input.rows() * input.cols();
+
+            // 1. Háttér kivonása (itt történik a "mágia")
+            // A 'learningRate' -1-en hagyása automatikus tanulást jelent
+            backSub.apply(input, foregroundMask);
+        } finally {
+            // Kicsinyítés és szürkítés nélkül a kivágás maga a bemenet, ezért csak itt szabadítható fel
+            if (region != null) {
+                region.close();
+                region = null;
+            }
+        }
 
         // 2. Tisztítás: az árnyékok (szürke) eltávolítása, csak a valódi mozgás (fehér) maradjon
         threshold(foregroundMask, foregroundMask, 200, 255, THRESH_BINARY);
 
         // 3. Morfológiai műveletek: apró zajpontok eltüntetése
-        Mat kernel = getStructuringElement(MORPH_RECT, new Size(3, 3));
         morphologyEx(foregroundMask, foregroundMask, MORPH_OPEN, kernel);
 
+        // A háttérmodell a teljes kivágást tanulja, de csak a maszkon belüli változás számít
+        if (roiMask != null) {
+            bitwise_and(foregroundMask, roiMask, foregroundMask);
+        }
+        if (analysedPixels == 0) return false;
+
         // 4. Mozgás mértékének ellenőrzése (fehér pixelek száma)
         int whitePixels = countNonZero(foregroundMask);
 
         // Ha a kép x százaléka megváltozott, mozgást jelzünk
-        double motionPercentage = (double) whitePixels / (frame.rows() * frame.cols());
+        double motionPercentage = (double) whitePixels / analysedPixels;
+
+        return motionPercentage > settings.threshold();
+    }
+
+    // Kivágás (a ROI befoglaló téglalapja), kicsinyítés és szürkeárnyalat - mind újrahasznosított pufferekbe
+    private Mat prepare(Mat frame) {
+        if (frame.cols() != sourceCols || frame.rows() != sourceRows) {
+            resetGeometry(frame.cols(), frame.rows());
+        }
+        Mat input = frame;
+        if (roiRect != null) {
+            region = new Mat(frame, roiRect);
+            input = region;
+        }
+        if (analysisSize != null) {
+            resize(input, scaled, analysisSize, 0, 0, INTER_LINEAR);
+            input = scaled;
+        }
+        if (settings.fast() && input.channels() > 1) {
+            cvtColor(input, gray, COLOR_BGR2GRAY);
+            input = gray;
+        }
+        return input;
+    }
+
+    private void resetGeometry(int cols, int rows) {
+        sourceCols = cols;
+        sourceRows = rows;
+        if (roiRect != null) roiRect.close();
+        if (analysisSize != null) analysisSize.close();
+        if (roiMask != null) roiMask.close();
+        roiRect = null;
+        analysisSize = null;
+        roiMask = null;
+        int x = 0;
+        int y = 0;
+        int width = cols;
+        int height = rows;
+        double[][] roi = settings.roi();
+        if (roi != null) {
+            double minX = 1, minY = 1, maxX = 0, maxY = 0;
+            for (double[] polygon : roi) {
+                for (int i = 0; i < polygon.length; i += 2) {
+                    minX = Math.min(minX, polygon[i]);
+                    maxX = Math.max(maxX, polygon[i]);
+                    minY = Math.min(minY, polygon[i + 1]);
+                    maxY = Math.max(maxY, polygon[i + 1]);
+                }
+            }
+            x = clamp((int) Math.round(minX * cols), 0, cols - 1);
+            y = clamp((int) Math.round(minY * rows), 0, rows - 1);
+            width = clamp((int) Math.round(maxX * cols) - x, 1, cols - x);
+            height = clamp((int) Math.round(maxY * rows) - y, 1, rows - y);
+            if (width < cols || height < rows) {
+                roiRect = new Rect(x, y, width, height);
+            }
+        }
+        int analysisWidth = width;
+        int analysisHeight = height;
+        if (settings.analysisWidth() > 0 && width > settings.analysisWidth()) {
+            analysisWidth = settings.analysisWidth();
+            analysisHeight = Math.max(1, (int) Math.round((double) height * settings.analysisWidth() / width));
+            analysisSize = new Size(analysisWidth, analysisHeight);
+        }
+        if (roi != null || settings.exclude() != null) {
+            buildMask(cols, rows, x, y, (double) analysisWidth / width, (double) analysisHeight / height,
+                    analysisWidth, analysisHeight);
+        }
+    }
+
+    // A roi poligonok kitöltése, majd az exclude poligonok törlése az elemzett méretű maszkon
+    private void buildMask(int cols, int rows, int offsetX, int offsetY, double scaleX, double scaleY,
+                           int maskWidth, int maskHeight) {
+        boolean hasInclude = settings.roi() != null;
+        Mat mask;
+        try (Scalar included = new Scalar(255); Scalar excluded = new Scalar(0)) {
+            mask = new Mat(maskHeight, maskWidth, CV_8UC1, hasInclude ? excluded : included);
+            if (hasInclude) {
+                for (double[] polygon : settings.roi()) {
+                    fillPolygon(mask, polygon, cols, rows, offsetX, offsetY, scaleX, scaleY, included);
+                }
+            }
+            if (settings.exclude() != null) {
+                for (double[] polygon : settings.exclude()) {
+                    fillPolygon(mask, polygon, cols, rows, offsetX, offsetY, scaleX, scaleY, excluded);
+                }
+            }
+        }
+        maskedPixels = countNonZero(mask);
+        if (maskedPixels == maskWidth * maskHeight) {
+            // Téglalap ROI kizárás nélkül: a kivágás maga a vizsgált terület, a maszk fölösleges
+            mask.close();
+            return;
+        }
+        roiMask = mask;
+    }
+
+    private static void fillPolygon(Mat mask, double[] polygon, int cols, int rows, int offsetX, int offsetY,
+                                    double scaleX, double scaleY, Scalar color) {
+        int[] points = new int[polygon.length];
+        for (int i = 0; i < polygon.length; i += 2) {
+            points[i] = (int) Math.round((polygon[i] * cols - offsetX) * scaleX);
+            points[i + 1] = (int) Math.round((polygon[i + 1] * rows - offsetY) * scaleY);
+        }
+        try (IntPointer data = new IntPointer(points);
+             Mat contour = new Mat(points.length / 2, 1, CV_32SC2, data);
+             MatVector contours = new MatVector(contour)) {
+            fillPoly(mask, contours, color);
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
 
-        return motionPercentage > 0.01; // 1%-os változás felett riaszt
+    @Override
+    public void close() {
+        foregroundMask.close();
+        kernel.close();
+        scaled.close();
+        gray.close();
+        if (roiRect != null) roiRect.close();
+        if (analysisSize != null) analysisSize.close();
+        if (roiMask != null) roiMask.close();
+        backSub.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,143 @@
+package hu.infokristaly.homework4websocketserver.cv;
+
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+// A mozgásérzékelő paraméterei; a 'motion.*' kulcsok forrásonként felülírhatók a 'motion.source.<forrás>.*' kulcsokkal.
+// A roi és az exclude poligonok listája, egy poligon [x0, y0, x1, y1, ...] a kép méretéhez viszonyított arányokban (0..1);
+// a vizsgált terület a roi poligonok uniója (null esetén a teljes kép), kivéve az exclude poligonokat.
+public record MotionDetectorSettings(boolean fast, int analysisWidth, double[][] roi, double[][] exclude, double threshold,
+                                     int history, double varThreshold, boolean detectShadows) {
+
+    private static final String SOURCE_PREFIX = "motion.source.";
+
+    public static MotionDetectorSettings defaults() {
+        return new MotionDetectorSettings(false, 0, null, null, 0.01, 500, 16, true);
+    }
+
+    // Érvénytelen érték esetén IllegalArgumentException (a számformátum hibáit is beleértve)
+    public static MotionDetectorSettings fromEnvironment(Environment env, String source) {
+        boolean fast = "fast".equalsIgnoreCase(get(env, source, "mode", "full"));
+        int analysisWidth = Integer.parseInt(get(env, source, "analysis.width", fast ? "320" : "0").trim());
+        double[][] roi = parseRegions(get(env, source, "roi", ""));
+        double[][] exclude = parseRegions(get(env, source, "roi.exclude", ""));
+        double threshold = Double.parseDouble(get(env, source, "threshold", "0.01").trim());
+        int history = Integer.parseInt(get(env, source, "mog2.history", "500").trim());
+        double varThreshold = Double.parseDouble(get(env, source, "mog2.varThreshold", "16").trim());
+        boolean detectShadows = Boolean.parseBoolean(get(env, source, "mog2.detectShadows", "true").trim());
+        MotionDetectorSettings settings = new MotionDetectorSettings(fast, analysisWidth, roi, exclude, threshold,
+                history, varThreshold, detectShadows);
+        settings.validate();
+        return settings;
+    }
+
+    // A 'motion.source.<forrás>.*' kulcsokkal rendelkező források; csak a felsorolható property forrásokból
+    public static Set<String> configuredSources(Environment env) {
+        Set<String> sources = new TreeSet<>();
+        if (env instanceof ConfigurableEnvironment configurable) {
+            for (PropertySource<?> propertySource : configurable.getPropertySources()) {
+                if (!(propertySource instanceof EnumerablePropertySource<?> enumerable)) continue;
+                for (String name : enumerable.getPropertyNames()) {
+                    int end = name.indexOf('.', SOURCE_PREFIX.length());
+                    if (name.startsWith(SOURCE_PREFIX) && end > SOURCE_PREFIX.length()) {
+                        sources.add(name.substring(SOURCE_PREFIX.length(), end));
+                    }
+                }
+            }
+        }
+        return sources;
+    }
+
+    private static String get(Environment env, String source, String key, String defaultValue) {
+        String value = source != null ? env.getProperty(SOURCE_PREFIX + source + "." + key) : null;
+        return value != null ? value : env.getProperty("motion." + key, defaultValue);
+    }
+
+    private void validate() {
+        if (analysisWidth < 0) {
+            throw new IllegalArgumentException("Érvénytelen elemzési szélesség: " + analysisWidth);
+        }
+        if (!(threshold > 0 && threshold <= 1)) {
+            throw new IllegalArgumentException("A küszöb 0 és 1 közé essen: " + threshold);
+        }
+        if (history <= 0) {
+            throw new IllegalArgumentException("Érvénytelen MOG2 history: " + history);
+        }
+        if (!(varThreshold > 0)) {
+            throw new IllegalArgumentException("Érvénytelen MOG2 varThreshold: " + varThreshold);
+        }
+    }
+
+    // Poligonok ';'-vel elválasztva; egy poligon "x:y" csúcsok ','-vel elválasztva (legalább 3),
+    // vagy téglalap "x,y,szélesség,magasság" alakban
+    public static double[][] parseRegions(String value) {
+        if (value == null || value.isBlank()) return null;
+        List<double[]> regions = new ArrayList<>();
+        for (String region : value.split(";")) {
+            if (region.isBlank()) continue;
+            regions.add(region.contains(":") ? parsePolygon(region) : parseRectangle(region));
+        }
+        return regions.isEmpty() ? null : regions.toArray(new double[0][]);
+    }
+
+    private static double[] parseRectangle(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Érvénytelen ROI téglalap: " + value);
+        }
+        double x = parseRatio(parts[0], value);
+        double y = parseRatio(parts[1], value);
+        double width = parseRatio(parts[2], value);
+        double height = parseRatio(parts[3], value);
+        if (width <= 0 || height <= 0 || x + width > 1 || y + height > 1) {
+            throw new IllegalArgumentException("A ROI téglalap kilóg a képből: " + value);
+        }
+        return new double[]{x, y, x + width, y, x + width, y + height, x, y + height};
+    }
+
+    private static double[] parsePolygon(String value) {
+        String[] points = value.split(",");
+        if (points.length < 3) {
+            throw new IllegalArgumentException("A ROI poligonnak legalább 3 csúcsa legyen: " + value);
+        }
+        double[] polygon = new double[points.length * 2];
+        for (int i = 0; i < points.length; i++) {
+            String[] coordinates = points[i].split(":");
+            if (coordinates.length != 2) {
+                throw new IllegalArgumentException("Érvénytelen ROI csúcs: " + points[i].trim());
+            }
+            polygon[2 * i] = parseRatio(coordinates[0], value);
+            polygon[2 * i + 1] = parseRatio(coordinates[1], value);
+        }
+        return polygon;
+    }
+
+    private static double parseRatio(String value, String region) {
+        double ratio = Double.parseDouble(value.trim());
+        if (!(ratio >= 0 && ratio <= 1)) {
+            throw new IllegalArgumentException("A ROI koordináták 0 és 1 közé essenek: " + region);
+        }
+        return ratio;
+    }
+
+    // A parseRegions által olvasható alak, mindig poligon csúcsokkal
+    public static String formatRegions(double[][] regions) {
+        if (regions == null) return "";
+        StringBuilder builder = new StringBuilder();
+        for (double[] polygon : regions) {
+            if (!builder.isEmpty()) builder.append(';');
+            for (int i = 0; i < polygon.length; i += 2) {
+                if (i > 0) builder.append(',');
+                builder.append(polygon[i]).append(':').append(polygon[i + 1]);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,259 @@
+package hu.infokristaly.homework4websocketserver.cv;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.bytedeco.opencv.global.opencv_imgcodecs.IMWRITE_JPEG_QUALITY;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imencode;
+import static org.bytedeco.opencv.global.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.opencv.global.opencv_imgproc.resize;
+
+// Mozgás eseményekhez kicsinyített JPEG pillanatkép. A dekódoló szál csak egy újrahasznosított Mat-ba másolja a
+// képkockát (szabad puffer hiányában kihagyja), a kicsinyítés és a kódolás egy korlátos háttér pool-on fut,
+// szálanként újrahasznosított natív pufferekkel. Kulcsonként egyszerre egy pillanatkép várakozhat: a közben érkező
+// kérések ugyanarra hivatkoznak.
+@Component
+public class SnapshotEncoder {
+
+    @Value("${motion.snapshot.enabled:true}")
+    private Boolean isEnabled;
+
+    @Value("${motion.snapshot.width:640}")
+    private Integer snapshotWidth;
+
+    @Value("${motion.snapshot.quality:80}")
+    private Integer jpegQuality;
+
+    @Value("${motion.snapshot.threads:1}")
+    private Integer threads;
+
+    // Egyszerre ennyi képkocka várhat kódolásra (ennyi újrahasznosított Mat)
+    @Value("${motion.snapshot.pool:4}")
+    private Integer poolSize;
+
+    @Value("${motion.snapshot.store.max-bytes:16777216}")
+    private Long storeMaxBytes;
+
+    public interface Listener {
+        void onSnapshot(String id, byte[] jpeg);
+    }
+
+    private static class Pending {
+        private final String id;
+        private final Listener listener;
+        private Mat mat;
+
+        Pending(String id, Listener listener) {
+            this.id = id;
+            this.listener = listener;
+        }
+    }
+
+    // Kódoló szálanként: a kicsinyített kép, a célméret, a JPEG kimenet és a paraméterek natív pufferei
+    private static class Workspace {
+        private final Mat resized = new Mat();
+        private final BytePointer output = new BytePointer();
+        private final IntPointer params;
+        private Size size;
+        private int width;
+        private int height;
+
+        Workspace(int quality) {
+            params = new IntPointer(IMWRITE_JPEG_QUALITY, quality);
+        }
+
+        // A célméret csak a képkocka geometriájának változásakor készül újra
+        Size size(int width, int height) {
+            if (size == null || this.width != width || this.height != height) {
+                if (size != null) {
+                    size.close();
+                }
+                size = new Size(width, height);
+                this.width = width;
+                this.height = height;
+            }
+            return size;
+        }
+
+        void close() {
+            resized.close();
+            output.close();
+            params.close();
+            if (size != null) {
+                size.close();
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger createdMats = new AtomicInteger();
+    private final List<Workspace> workspaces = new CopyOnWriteArrayList<>();
+    private final LinkedHashMap<String, byte[]> store = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong encoded = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private BlockingQueue<Mat> freeMats;
+    private ThreadLocal<Workspace> workspace;
+    private ThreadPoolExecutor executor;
+    private long storeBytes = 0;
+    private volatile long lastEncodeNanos = 0;
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled) return;
+        freeMats = new ArrayBlockingQueue<>(poolSize);
+        workspace = ThreadLocal.withInitial(() -> {
+            Workspace created = new Workspace(jpegQuality);
+            workspaces.add(created);
+            return created;
+        });
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(poolSize), runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    // Nem blokkol: a pillanatkép azonosítóját adja (egy még várakozó kérésnél annak azonosítóját), vagy null-t,
+    // ha nincs szabad puffer. A frame csak a hívás idejére kell érvényes legyen.
+    public String capture(String key, Mat frame, Listener listener) {
+        if (!isEnabled || frame == null || frame.empty()) return null;
+        Pending created = new Pending(key + "-" + System.currentTimeMillis(), listener);
+        Pending existing = pending.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing.id;
+        }
+        Mat mat = acquire();
+        if (mat == null) {
+            pending.remove(key, created);
+            dropped.incrementAndGet();
+            return null;
+        }
+        frame.copyTo(mat);
+        created.mat = mat;
+        try {
+            executor.execute(() -> encode(key, created));
+        } catch (RejectedExecutionException e) {
+            pending.remove(key, created);
+            freeMats.offer(mat);
+            dropped.incrementAndGet();
+            return null;
+        }
+        return created.id;
+    }
+
+    private Mat acquire() {
+        Mat mat = freeMats.poll();
+        if (mat != null) return mat;
+        if (createdMats.incrementAndGet() <= poolSize) return new Mat();
+        createdMats.decrementAndGet();
+        return null;
+    }
+
+    private void encode(String key, Pending request) {
+        // Innentől egy újabb esemény már új pillanatképet kap
+        pending.remove(key, request);
+        long started = System.nanoTime();
+        byte[] jpeg = null;
+        try {
+            Workspace work = workspace.get();
+            Mat source = request.mat;
+            if (snapshotWidth > 0 && source.cols() > snapshotWidth) {
+                int height = (int) Math.round(source.rows() * (double) snapshotWidth / source.cols());
+                resize(source, work.resized, work.size(snapshotWidth, height), 0, 0, INTER_AREA);
+                source = work.resized;
+            }
+            if (imencode(".jpg", source, work.output, work.params)) {
+                jpeg = new byte[(int) work.output.limit()];
+                work.output.get(jpeg);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Hiba a pillanatkép kódolásakor [" + request.id + "]: " + e.getMessage());
+        } finally {
+            freeMats.offer(request.mat);
+        }
+        if (jpeg == null) {
+            dropped.incrementAndGet();
+            return;
+        }
+        long nanos = System.nanoTime() - started;
+        lastEncodeNanos = nanos;
+        encodeNanos.addAndGet(nanos);
+        encoded.incrementAndGet();
+        put(request.id, jpeg);
+        if (request.listener != null) {
+            request.listener.onSnapshot(request.id, jpeg);
+        }
+    }
+
+    // A legrégebben kért pillanatképek kerülnek ki, ha a tár mérete túllépné a korlátot
+    private synchronized void put(String id, byte[] jpeg) {
+        store.put(id, jpeg);
+        storeBytes += jpeg.length;
+        Iterator<Map.Entry<String, byte[]>> iterator = store.entrySet().iterator();
+        while (storeBytes > storeMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, byte[]> oldest = iterator.next();
+            if (oldest.getKey().equals(id)) break;
+            storeBytes -= oldest.getValue().length;
+            iterator.remove();
+        }
+    }
+
+    public synchronized byte[] get(String id) {
+        return store.get(id);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        long count = encoded.get();
+        result.put("enabled", isEnabled);
+        result.put("encoded", count);
+        result.put("coalesced", coalesced.get());
+        result.put("dropped", dropped.get());
+        result.put("pending", pending.size());
+        result.put("lastEncodeMillis", lastEncodeNanos / 1_000_000.0);
+        result.put("averageEncodeMillis", count == 0 ? 0 : encodeNanos.get() / 1_000_000.0 / count);
+        synchronized (this) {
+            result.put("stored", store.size());
+            result.put("storedBytes", storeBytes);
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Mat mat;
+        while ((mat = freeMats.poll()) != null) {
+            mat.close();
+        }
+        for (Workspace work : workspaces) {
+            work.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package hu.infokristaly.homework4websocketserver.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Zár és allokáció nélküli hisztogram kettő hatvány határú vödrökkel; a percentilisek a vödör felső határát adják
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    // Másik hisztogram tartalmának hozzáadása (összesítéshez)
+    public void addTo(Histogram target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = counts.get(i);
+            if (n > 0) target.counts.addAndGet(i, n);
+        }
+        target.count.addAndGet(count.get());
+        target.sum.addAndGet(sum.get());
+        target.max.accumulateAndGet(max.get(), Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long percentile(double fraction) {
+        long total = count.get();
+        if (total == 0) return 0;
+        long threshold = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= threshold) {
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // A hisztogram értékei a megadott osztóval (pl. ns -> µs) skálázva
+    public Map<String, Object> toMap(long divisor) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        long total = count.get();
+        result.put("count", total);
+        result.put("mean", total == 0 ? 0 : (double) sum.get() / total / divisor);
+        result.put("p50", percentile(0.5) / divisor);
+        result.put("p90", percentile(0.9) / divisor);
+        result.put("p99", percentile(0.99) / divisor);
+        result.put("max", max.get() / divisor);
+        return result;
+    }
+}
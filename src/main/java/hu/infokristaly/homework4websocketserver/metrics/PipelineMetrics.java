@@ -0,0 +1,115 @@
+package hu.infokristaly.homework4websocketserver.metrics;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Kameránkénti és összesített mérőszámok; a számlálók zár nélküliek, a rátákat másodpercenként egy ütemező számolja
+@Component
+public class PipelineMetrics {
+
+    @Value("${metrics.log.interval:5000}")
+    private Long logIntervalMillis;
+
+    private final ConcurrentHashMap<String, SessionMetrics> sessions = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ticker;
+    private long lastTick;
+    private long lastLog;
+
+    @PostConstruct
+    public void init() {
+        lastTick = System.nanoTime();
+        lastLog = System.currentTimeMillis();
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    public SessionMetrics register(String sessionId) {
+        return sessions.computeIfAbsent(sessionId, SessionMetrics::new);
+    }
+
+    public void unregister(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        double seconds = Math.max(0.001, (now - lastTick) / 1e9);
+        lastTick = now;
+        for (SessionMetrics session : sessions.values()) {
+            session.tick(seconds);
+        }
+        long currentTime = System.currentTimeMillis();
+        if (logIntervalMillis > 0 && currentTime - lastLog >= logIntervalMillis) {
+            lastLog = currentTime;
+            for (SessionMetrics session : sessions.values()) {
+                System.out.println("Adatfolyam állapota [" + session.getSessionId() + "]: "
+                        + (long) (session.getIngestBytesPerSecond() / 1024) + " KB/s");
+            }
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        List<SessionMetrics> current = new ArrayList<>(sessions.values());
+        Histogram chunkSize = new Histogram();
+        Histogram decode = new Histogram();
+        Histogram detect = new Histogram();
+        Histogram endToEnd = new Histogram();
+        Histogram startup = new Histogram();
+        double ingest = 0;
+        double disk = 0;
+        long bytes = 0;
+        long restarts = 0;
+        long nullFrames = 0;
+        List<Map<String, Object>> cameras = new ArrayList<>(current.size());
+        for (SessionMetrics session : current) {
+            session.chunkSize.addTo(chunkSize);
+            session.decodeNanos.addTo(decode);
+            session.detectNanos.addTo(detect);
+            session.endToEndNanos.addTo(endToEnd);
+            session.startupNanos.addTo(startup);
+            ingest += session.ingestBytesPerSecond;
+            disk += session.diskBytesPerSecond;
+            bytes += session.bytesReceived.sum();
+            restarts += session.grabberRestarts.sum();
+            nullFrames += session.nullFrames.sum();
+            cameras.add(session.toMap());
+        }
+        Map<String, Object> aggregate = new LinkedHashMap<>();
+        aggregate.put("sessions", current.size());
+        aggregate.put("ingestBytesPerSecond", ingest);
+        aggregate.put("bytesReceived", bytes);
+        aggregate.put("chunkSizeBytes", chunkSize.toMap(1));
+        aggregate.put("grabberRestarts", restarts);
+        aggregate.put("nullFrames", nullFrames);
+        aggregate.put("decodeLatencyMicros", decode.toMap(1000));
+        aggregate.put("detectLatencyMicros", detect.toMap(1000));
+        aggregate.put("endToEndLatencyMillis", endToEnd.toMap(1_000_000));
+        aggregate.put("startupLatencyMillis", startup.toMap(1_000_000));
+        aggregate.put("diskBytesPerSecond", disk);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("aggregate", aggregate);
+        result.put("cameras", cameras);
+        return result;
+    }
+}
@@ -0,0 +1,159 @@
+package hu.infokristaly.homework4websocketserver.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Egy kamera (session) mérőszámai a fogadás -> dekódolás -> érzékelés -> küldés láncon
+public class SessionMetrics {
+
+    private final String sessionId;
+    private volatile String source;
+
+    final LongAdder bytesReceived = new LongAdder();
+    final LongAdder chunks = new LongAdder();
+    final Histogram chunkSize = new Histogram();
+    final LongAdder grabberRestarts = new LongAdder();
+    final LongAdder nullFrames = new LongAdder();
+    final Histogram decodeNanos = new Histogram();
+    final Histogram detectNanos = new Histogram();
+    final Histogram endToEndNanos = new Histogram();
+    // A kapcsolódástól / grabber újraindítástól az első elemzett képkockáig
+    final Histogram startupNanos = new Histogram();
+    private volatile long lastStartupNanos = -1;
+    final LongAdder diskBytes = new LongAdder();
+    final LongAdder diskNanos = new LongAdder();
+
+    private volatile String segmentFile;
+    private final AtomicLong segmentBytes = new AtomicLong();
+    private volatile long segmentStartNanos = System.nanoTime();
+
+    private volatile LongSupplier bufferFill = () -> 0;
+    private volatile LongSupplier bufferDropped = () -> 0;
+    private volatile long bufferCapacity;
+    private volatile Supplier<Map<String, Object>> ingest = () -> null;
+
+    // A másodpercenkénti ütemező tölti
+    private long lastBytes;
+    private long lastDiskBytes;
+    volatile double ingestBytesPerSecond;
+    volatile double diskBytesPerSecond;
+
+    SessionMetrics(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public void bindBuffer(LongSupplier fill, LongSupplier dropped, long capacity) {
+        this.bufferFill = fill;
+        this.bufferDropped = dropped;
+        this.bufferCapacity = capacity;
+    }
+
+    // A fogadó sor és a forgalom szabályozás állapota
+    public void bindIngest(Supplier<Map<String, Object>> ingest) {
+        this.ingest = ingest;
+    }
+
+    public void onChunk(int size) {
+        bytesReceived.add(size);
+        chunks.increment();
+        chunkSize.record(size);
+    }
+
+    public void onGrabberRestart() {
+        grabberRestarts.increment();
+    }
+
+    public void onNullFrame() {
+        nullFrames.increment();
+    }
+
+    public void onDecode(long nanos) {
+        decodeNanos.record(nanos);
+    }
+
+    public void onDetect(long nanos) {
+        detectNanos.record(nanos);
+    }
+
+    public void onFirstFrame(long nanos) {
+        startupNanos.record(nanos);
+        lastStartupNanos = nanos;
+    }
+
+    public void onPublished(long endToEndNanos) {
+        this.endToEndNanos.record(endToEndNanos);
+    }
+
+    public void onSegmentWrite(String fileName, long bytes, long nanos) {
+        if (!fileName.equals(segmentFile)) {
+            segmentFile = fileName;
+            segmentBytes.set(0);
+            segmentStartNanos = System.nanoTime();
+        }
+        segmentBytes.addAndGet(bytes);
+        diskBytes.add(bytes);
+        diskNanos.add(nanos);
+    }
+
+    void tick(double seconds) {
+        long bytes = bytesReceived.sum();
+        long disk = diskBytes.sum();
+        ingestBytesPerSecond = (bytes - lastBytes) / seconds;
+        diskBytesPerSecond = (disk - lastDiskBytes) / seconds;
+        lastBytes = bytes;
+        lastDiskBytes = disk;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public double getIngestBytesPerSecond() {
+        return ingestBytesPerSecond;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("session", sessionId);
+        result.put("source", source);
+        result.put("ingestBytesPerSecond", ingestBytesPerSecond);
+        result.put("bytesReceived", bytesReceived.sum());
+        result.put("chunks", chunks.sum());
+        result.put("chunkSizeBytes", chunkSize.toMap(1));
+        result.put("bufferFillBytes", bufferFill.getAsLong());
+        result.put("bufferCapacityBytes", bufferCapacity);
+        result.put("bufferDroppedBytes", bufferDropped.getAsLong());
+        result.put("ingest", ingest.get());
+        result.put("grabberRestarts", grabberRestarts.sum());
+        result.put("nullFrames", nullFrames.sum());
+        result.put("decodeLatencyMicros", decodeNanos.toMap(1000));
+        result.put("detectLatencyMicros", detectNanos.toMap(1000));
+        result.put("endToEndLatencyMillis", endToEndNanos.toMap(1_000_000));
+        result.put("startupLatencyMillis", startupNanos.toMap(1_000_000));
+        result.put("lastStartupMillis", lastStartupNanos < 0 ? null : lastStartupNanos / 1_000_000);
+        Map<String, Object> segment = new LinkedHashMap<>();
+        segment.put("file", segmentFile);
+        long written = segmentBytes.get();
+        double elapsed = Math.max(0.001, (System.nanoTime() - segmentStartNanos) / 1e9);
+        segment.put("bytesWritten", written);
+        segment.put("averageBytesPerSecond", written / elapsed);
+        segment.put("diskBytesPerSecond", diskBytesPerSecond);
+        long nanos = diskNanos.sum();
+        // A write hívásokban töltött időre vetített áteresztőképesség
+        segment.put("writeCallBytesPerSecond", nanos == 0 ? 0 : diskBytes.sum() / (nanos / 1e9));
+        result.put("segment", segment);
+        return result;
+    }
+}
@@ -0,0 +1,360 @@
+package hu.infokristaly.homework4websocketserver.mqtt;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.eclipse.paho.client.mqttv3.*;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+// Közös, aszinkron MQTT küldő: néhány kapcsolaton osztja szét az összes session eseményét,
+// a dekódoló szálat soha nem blokkolja, és a broker kiesése alatt korlátos sorban tartja az üzeneteket
+@Component
+public class MqttEventPublisher {
+
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000;
+
+    private record Event(String topic, byte[] payload, String key, long enqueuedNanos, LongConsumer onDelivered) {
+    }
+
+    // A coalesce ablak végén küldendő, összevont esemény
+    private record Deferred(Event event, long dueNanos) {
+    }
+
+    private class Connection implements IMqttActionListener {
+        private final int index;
+        private final MqttAsyncClient client;
+        private final ArrayDeque<Event> queue = new ArrayDeque<>();
+        private boolean connecting = false;
+        private long nextAttempt = 0;
+        private long reconnectDelay = 1000;
+
+        Connection(int index) throws MqttException {
+            this.index = index;
+            this.client = new MqttAsyncClient(broker, clientId + "-" + index, new MemoryPersistence());
+        }
+
+        // A dispatcher szálon, a zár birtokában hívódik
+        void ensureConnected(long now) {
+            if (connecting || client.isConnected() || now < nextAttempt) return;
+            connecting = true;
+            MqttConnectOptions options = new MqttConnectOptions();
+            options.setCleanSession(true);
+            options.setAutomaticReconnect(false);
+            options.setMaxInflight(maxInflight);
+            try {
+                client.connect(options, null, this);
+            } catch (MqttException e) {
+                onFailure(null, e);
+            }
+        }
+
+        @Override
+        public void onSuccess(IMqttToken token) {
+            lock.lock();
+            try {
+                connecting = false;
+                reconnectDelay = 1000;
+                System.out.println("MQTT kapcsolat #" + index + " létrejött: " + broker);
+                wakeUp.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable exception) {
+            lock.lock();
+            try {
+                connecting = false;
+                nextAttempt = System.currentTimeMillis() + reconnectDelay;
+                reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MILLIS);
+                System.err.println("MQTT kapcsolódási hiba #" + index + ": " + exception.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final String broker;
+    private final String clientId;
+    private final int qos;
+    private final int queueCapacity;
+    private final long coalesceMillis;
+    private final int maxInflight;
+    private final Connection[] connections;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeUp = lock.newCondition();
+    // Kulcsonként az utolsó elküldésre átadott esemény ideje az összevonáshoz
+    private final Map<String, Long> lastAccepted = new HashMap<>();
+    // Kulcsonként az ablakon belül érkezett események közül a legutolsó
+    private final Map<String, Deferred> deferred = new HashMap<>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private Thread dispatcher;
+    private volatile boolean running = false;
+
+    public MqttEventPublisher(@Value("${mqtt.broker}") String broker,
+                              @Value("${mqtt.client.id:Homework4WebsocketServer}") String clientId,
+                              @Value("${mqtt.publisher.connections:2}") int connectionCount,
+                              @Value("${mqtt.publisher.queue:1000}") int queueCapacity,
+                              @Value("${mqtt.publisher.coalesce:1000}") long coalesceMillis,
+                              @Value("${mqtt.qos:2}") int qos) throws MqttException {
+        this.broker = broker;
+        // A broker az azonos azonosítójú korábbi klienst lekapcsolja: több szerver példány (vagy újraindítás a régi
+        // kapcsolat lejárta előtt) ne szorítsa ki egymást
+        this.clientId = clientId + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.qos = qos;
+        this.queueCapacity = queueCapacity;
+        this.coalesceMillis = coalesceMillis;
+        this.maxInflight = Math.max(10, queueCapacity);
+        this.connections = new Connection[Math.max(1, connectionCount)];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new Connection(i);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        dispatcher = new Thread(this::dispatch, "mqtt-publisher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public boolean publish(String topic, byte[] payload, String key) {
+        return publish(topic, payload, key, null);
+    }
+
+    // Nem blokkol: sorba teszi az eseményt. Az azonos kulcsú, az előző küldéstől számított coalesce ablakon belül
+    // érkező eseményeket összevonja: az ablak végén a legutolsó kerül küldésre, a korábbiakat ez váltja fel (a számuk
+    // a getCoalescedCount()-ból olvasható). Teli sor esetén a legrégebbit dobja el. Az onDelivered a publish óta
+    // eltelt nanoszekundumokat kapja.
+    public boolean publish(String topic, byte[] payload, String key, LongConsumer onDelivered) {
+        long now = System.nanoTime();
+        Event event = new Event(topic, payload, key, now, onDelivered);
+        lock.lock();
+        try {
+            if (key != null) {
+                Long last = lastAccepted.get(key);
+                long window = TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+                if (last != null && now - last < window) {
+                    if (deferred.put(key, new Deferred(event, last + window)) != null) {
+                        coalesced.incrementAndGet();
+                    }
+                    wakeUp.signalAll();
+                    return true;
+                }
+                lastAccepted.put(key, now);
+            }
+            enqueue(event);
+            wakeUp.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A zár birtokában
+    private void enqueue(Event event) {
+        int hash = event.key() == null ? event.topic().hashCode() : event.key().hashCode();
+        Connection connection = connections[Math.floorMod(hash, connections.length)];
+        if (connection.queue.size() >= queueCapacity) {
+            connection.queue.pollFirst();
+            dropped.incrementAndGet();
+        }
+        connection.queue.addLast(event);
+    }
+
+    // A lejárt ablakú összevont eseményeket sorba teszi; a következő esemény ismét egy teljes ablakot vár. A zár
+    // birtokában; a legközelebbi lejáratig hátralévő nanoszekundumokkal tér vissza (Long.MAX_VALUE, ha nincs ilyen).
+    private long releaseDeferred(long now) {
+        long next = Long.MAX_VALUE;
+        var iterator = deferred.values().iterator();
+        while (iterator.hasNext()) {
+            Deferred entry = iterator.next();
+            if (entry.dueNanos() - now > 0) {
+                next = Math.min(next, entry.dueNanos() - now);
+                continue;
+            }
+            iterator.remove();
+            // A forget() után már nem tartjuk nyilván a kulcsot
+            lastAccepted.replace(entry.event().key(), now);
+            enqueue(entry.event());
+        }
+        return next;
+    }
+
+    private void dispatch() {
+        ArrayDeque<Event> batch = new ArrayDeque<>();
+        try {
+            while (running) {
+                boolean backOff = false;
+                long nextDue;
+                lock.lock();
+                try {
+                    nextDue = releaseDeferred(System.nanoTime());
+                } finally {
+                    lock.unlock();
+                }
+                for (Connection connection : connections) {
+                    lock.lock();
+                    try {
+                        connection.ensureConnected(System.currentTimeMillis());
+                        if (!connection.client.isConnected()) continue;
+                        while (!connection.queue.isEmpty() && batch.size() < maxInflight) {
+                            batch.addLast(connection.queue.pollFirst());
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    // A küldés a záron kívül történik, hogy a Paho visszahívásai ne akadjanak össze vele
+                    while (!batch.isEmpty()) {
+                        if (!send(connection, batch.peekFirst())) break;
+                        batch.pollFirst();
+                    }
+                    if (!batch.isEmpty()) {
+                        requeue(connection, batch);
+                        backOff = true;
+                    }
+                }
+                lock.lock();
+                try {
+                    if (backOff || !hasSendableEvents()) {
+                        wakeUp.await(Math.min(TimeUnit.MILLISECONDS.toNanos(200), nextDue), TimeUnit.NANOSECONDS);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean hasSendableEvents() {
+        for (Connection connection : connections) {
+            if (!connection.queue.isEmpty() && connection.client.isConnected()) return true;
+        }
+        return false;
+    }
+
+    // Az el nem küldött eseményeket a sor elejére tesszük vissza, az eredeti sorrendben
+    private void requeue(Connection connection, ArrayDeque<Event> batch) {
+        lock.lock();
+        try {
+            while (!batch.isEmpty()) {
+                connection.queue.addFirst(batch.pollLast());
+            }
+            while (connection.queue.size() > queueCapacity) {
+                connection.queue.pollFirst();
+                dropped.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean send(Connection connection, Event event) {
+        MqttMessage message = new MqttMessage(event.payload());
+        message.setQos(qos);
+        try {
+            connection.client.publish(event.topic(), message, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken token) {
+                    published.incrementAndGet();
+                    if (event.onDelivered() != null) {
+                        event.onDelivered().accept(System.nanoTime() - event.enqueuedNanos());
+                    }
+                }
+
+                @Override
+                public void onFailure(IMqttToken token, Throwable exception) {
+                    failed.incrementAndGet();
+                    System.err.println("MQTT küldési hiba: " + exception.getMessage());
+                }
+            });
+            return true;
+        } catch (MqttException e) {
+            // Pl. túl sok folyamatban lévő üzenet vagy épp megszakadt kapcsolat: a sorban marad, később újrapróbáljuk
+            return false;
+        }
+    }
+
+    // Lezárt session után a kulcs összevonási állapota törölhető; a még függő összevont esemény az ablak végén kimegy
+    public void forget(String key) {
+        lock.lock();
+        try {
+            lastAccepted.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            int depth = deferred.size();
+            for (Connection connection : connections) {
+                depth += connection.queue.size();
+            }
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public boolean isConnected() {
+        for (Connection connection : connections) {
+            if (!connection.client.isConnected()) return false;
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+        for (Connection connection : connections) {
+            try {
+                if (connection.client.isConnected()) {
+                    connection.client.disconnect(1000).waitForCompletion(2000);
+                }
+                connection.client.close();
+            } catch (MqttException e) {
+                System.err.println("MQTT Hiba a lezárás során: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import hu.infokristaly.homework4websocketserver.webm.SegmentIndex;
+import hu.infokristaly.homework4websocketserver.webm.WebmFinalizer;
+import hu.infokristaly.homework4websocketserver.ws.ExecutionModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// A lezárt session-ök utófeldolgozását korlátos számú munkaszálon végzi. Az egyszerre másolt adatmennyiséget
+// MB alapú kerettel korlátozza, a hibás feladatokat késleltetve újrapróbálja, a függő munkát pedig egy kis naplóban
+// tartja, hogy újraindítás után folytatható legyen. Induláskor a temp könyvtár gazdátlan felvételeit is felveszi.
+@Component
+public class FinalizationScheduler {
+
+    private static final String JOURNAL_NAME = ".finalization-journal";
+    // A felvételek neve: yyyy-MM-dd_HH-mm-ss_<sessionId>.webm
+    private static final int SESSION_PREFIX_LENGTH = "yyyy-MM-dd_HH-mm-ss_".length();
+
+    @Value("${video.finalize.workers:2}")
+    private Integer workerCount;
+
+    @Value("${video.finalize.io.budget-mb:1024}")
+    private Integer ioBudgetMb;
+
+    @Value("${video.finalize.retries:3}")
+    private Integer maxRetries;
+
+    @Value("${video.finalize.retry.delay:5000}")
+    private Long retryDelayMillis;
+
+    @Autowired
+    private SessionFinalizer sessionFinalizer;
+
+    @Autowired
+    private ExecutionModel executionModel;
+
+    public static class Job {
+        private final String id;
+        private final String sessionId;
+        private final List<String> files;
+        private final boolean concat;
+        private final Function<String, SegmentIndex> indexes;
+        private final long createdAt = System.currentTimeMillis();
+        private final Set<String> completed = ConcurrentHashMap.newKeySet();
+        private long costMb = 1;
+        private int attempts = 0;
+
+        Job(String id, String sessionId, List<String> files, boolean concat, Function<String, SegmentIndex> indexes) {
+            this.id = id;
+            this.sessionId = sessionId;
+            this.files = List.copyOf(files);
+            this.concat = concat;
+            this.indexes = indexes;
+        }
+    }
+
+    // Kevesebb próbálkozás, kisebb I/O igény, majd régebbi feladat előre
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>(16,
+            Comparator.<Job>comparingInt(job -> job.attempts)
+                    .thenComparingLong(job -> job.costMb)
+                    .thenComparingLong(job -> job.createdAt));
+    private final AtomicInteger delayed = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completedJobs = new AtomicLong();
+    private final AtomicLong failedJobs = new AtomicLong();
+    private final AtomicLong retriedJobs = new AtomicLong();
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+    private volatile long lastLatencyMillis = 0;
+
+    private Semaphore ioBudget;
+    private ScheduledExecutorService retryTimer;
+    private final List<Thread> workers = new ArrayList<>();
+    private FileChannel journal;
+    private volatile boolean isRunning = false;
+
+    @PostConstruct
+    public void init() throws IOException {
+        ioBudget = new Semaphore(ioBudgetMb, true);
+        retryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "finalization-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A napló nélkül a munka egy újraindítással elveszne, ezért a könyvtár hiányában is létrehozzuk
+        Path tempPath = sessionFinalizer.getTempPath();
+        Files.createDirectories(tempPath);
+        recover(tempPath);
+        isRunning = true;
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            Thread worker = executionModel.getIoThreadFactory().newThread(this::work);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // A függő feladatok a naplóban maradnak, a következő indításkor folytatódnak
+        isRunning = false;
+        workers.forEach(Thread::interrupt);
+        retryTimer.shutdownNow();
+        synchronized (this) {
+            try {
+                if (journal != null) {
+                    journal.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Hiba a feldolgozási napló lezárásakor: " + e.getMessage());
+            }
+        }
+    }
+
+    public void submit(String sessionId, List<String> files, boolean concat, Function<String, SegmentIndex> indexes) {
+        if (files.isEmpty()) return;
+        Job job = new Job(UUID.randomUUID().toString(), sessionId, files, concat, indexes);
+        appendJournal("ADD", job.id, Boolean.toString(concat), sessionId, String.join("|", files));
+        enqueue(job);
+    }
+
+    private void enqueue(Job job) {
+        job.costMb = estimateCost(job);
+        queue.add(job);
+    }
+
+    // Helyben véglegesítésnél alig van I/O, egyébként a fájlok teljes mérete másolódik
+    private long estimateCost(Job job) {
+        SegmentIndex index = job.indexes.apply(job.files.get(0));
+        boolean hasIndex = index != null && index.getHeader() != null;
+        if (!sessionFinalizer.isCopying(job.concat, hasIndex)) return 1;
+        long bytes = 0;
+        for (String fileName : job.files) {
+            try {
+                bytes += Files.size(sessionFinalizer.getTempPath().resolve(fileName));
+            } catch (IOException e) {
+                // A már feldolgozott vagy törölt fájl nem számít
+            }
+        }
+        return Math.max(1, Math.min(ioBudgetMb, (bytes + (1 << 20) - 1) >> 20));
+    }
+
+    private void work() {
+        while (isRunning) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            int permits = (int) job.costMb;
+            try {
+                ioBudget.acquire(permits);
+            } catch (InterruptedException e) {
+                queue.add(job);
+                return;
+            }
+            running.incrementAndGet();
+            try {
+                execute(job);
+                appendJournal("DONE", job.id);
+                long latency = System.currentTimeMillis() - job.createdAt;
+                lastLatencyMillis = latency;
+                totalLatencyMillis.addAndGet(latency);
+                completedJobs.incrementAndGet();
+            } catch (InterruptedException e) {
+                queue.add(job);
+                return;
+            } catch (Exception e) {
+                retry(job, e);
+            } finally {
+                running.decrementAndGet();
+                ioBudget.release(permits);
+            }
+        }
+    }
+
+    private void execute(Job job) throws IOException, InterruptedException {
+        Path tempPath = sessionFinalizer.getTempPath();
+        if (job.concat) {
+            List<String> existing = job.files.stream().filter(name -> Files.exists(tempPath.resolve(name))).toList();
+            if (!existing.isEmpty()) {
+                sessionFinalizer.concatAndFinalize(job.sessionId, existing, job.indexes);
+            }
+            return;
+        }
+        for (String fileName : job.files) {
+            if (job.completed.contains(fileName)) continue;
+            Path file = tempPath.resolve(fileName);
+            if (Files.exists(file)) {
+                sessionFinalizer.fixVideoDuration(file.toString(), job.indexes.apply(fileName));
+            }
+            job.completed.add(fileName);
+            appendJournal("FILE", job.id, fileName);
+        }
+    }
+
+    private void retry(Job job, Exception e) {
+        job.attempts++;
+        if (job.attempts > maxRetries) {
+            System.err.println("Az utófeldolgozás végleg sikertelen [" + job.sessionId + "]: " + e.getMessage());
+            appendJournal("FAIL", job.id);
+            failedJobs.incrementAndGet();
+            return;
+        }
+        long delay = retryDelayMillis << (job.attempts - 1);
+        System.err.println("Az utófeldolgozás sikertelen [" + job.sessionId + "], újrapróbálás " + delay + " ms múlva: "
+                + e.getMessage());
+        retriedJobs.incrementAndGet();
+        delayed.incrementAndGet();
+        retryTimer.schedule(() -> {
+            delayed.decrementAndGet();
+            enqueue(job);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // Napló visszajátszása, tömörítése, majd a gazdátlan felvételek felvétele
+    private void recover(Path tempPath) throws IOException {
+        Path journalPath = tempPath.resolve(JOURNAL_NAME);
+        Map<String, String[]> pending = new LinkedHashMap<>();
+        Map<String, Set<String>> completedFiles = new HashMap<>();
+        if (Files.exists(journalPath)) {
+            for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t");
+                if (fields.length < 2) continue;
+                switch (fields[0]) {
+                    case "ADD" -> {
+                        if (fields.length == 5) pending.put(fields[1], fields);
+                    }
+                    case "FILE" -> {
+                        if (fields.length == 3) completedFiles.computeIfAbsent(fields[1], id -> new HashSet<>()).add(fields[2]);
+                    }
+                    case "DONE", "FAIL" -> pending.remove(fields[1]);
+                    default -> { }
+                }
+            }
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        Set<String> referenced = new HashSet<>();
+        for (String[] fields : pending.values()) {
+            List<String> files = new ArrayList<>(Arrays.asList(fields[4].split("\\|")));
+            Set<String> done = completedFiles.getOrDefault(fields[1], Set.of());
+            files.removeIf(name -> done.contains(name) || !Files.exists(tempPath.resolve(name)));
+            referenced.addAll(files);
+            if (!files.isEmpty()) {
+                jobs.add(new Job(fields[1], fields[3], files, Boolean.parseBoolean(fields[2]), recoveredIndexes(tempPath)));
+            }
+        }
+        jobs.addAll(scanOrphans(tempPath, referenced));
+
+        // A napló csak a még függő feladatokat tartja meg
+        Path compacted = tempPath.resolve(JOURNAL_NAME + ".tmp");
+        List<String> lines = new ArrayList<>();
+        for (Job job : jobs) {
+            lines.add(String.join("\t", "ADD", job.id, Boolean.toString(job.concat), job.sessionId, String.join("|", job.files)));
+        }
+        Files.write(compacted, lines, StandardCharsets.UTF_8);
+        Files.move(compacted, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        for (Job job : jobs) {
+            enqueue(job);
+        }
+        if (!jobs.isEmpty()) {
+            System.out.println("Befejezetlen utófeldolgozás folytatása: " + jobs.size() + " feladat");
+        }
+    }
+
+    // Véglegesítetlen (ismeretlen Segment méretű vagy fejléc nélküli) felvételek session-önként csoportosítva
+    private List<Job> scanOrphans(Path tempPath, Set<String> referenced) throws IOException {
+        Map<String, List<String>> sessions = new TreeMap<>();
+        Set<String> headerless = new HashSet<>();
+        try (Stream<Path> files = Files.list(tempPath)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(".webm") || name.contains("_concat") || name.contains("_fixed")
+                        || referenced.contains(name) || !Files.isRegularFile(file)) continue;
+                WebmFinalizer.FileState state;
+                try {
+                    state = WebmFinalizer.probe(file);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (state == WebmFinalizer.FileState.FINISHED) continue;
+                String sessionId = name.length() > SESSION_PREFIX_LENGTH + 5
+                        ? name.substring(SESSION_PREFIX_LENGTH, name.length() - 5) : name;
+                sessions.computeIfAbsent(sessionId, id -> new ArrayList<>()).add(name);
+                if (state == WebmFinalizer.FileState.HEADERLESS) {
+                    headerless.add(sessionId);
+                }
+            }
+        }
+        List<Job> jobs = new ArrayList<>();
+        for (Map.Entry<String, List<String>> session : sessions.entrySet()) {
+            List<String> files = session.getValue();
+            Collections.sort(files);
+            // Fejléc nélküli részek csak összefűzve játszhatók le
+            jobs.add(new Job(UUID.randomUUID().toString(), session.getKey(), files,
+                    headerless.contains(session.getKey()), recoveredIndexes(tempPath)));
+        }
+        return jobs;
+    }
+
+    // Az index a memóriában volt, így a fájlok ffmpeg-gel véglegesítődnek. Összefűzéskor a részek fejlécének hosszát
+    // a fájlból olvassuk: a fejléces rész új kimeneti fájlt kezd, így nem kerül fejléc a felvétel közepére.
+    private static Function<String, SegmentIndex> recoveredIndexes(Path tempPath) {
+        return fileName -> {
+            try {
+                byte[] header = WebmFinalizer.readStreamHeader(tempPath.resolve(fileName));
+                return header == null ? null : new SegmentIndex(null, header, header.length);
+            } catch (IOException e) {
+                return null;
+            }
+        };
+    }
+
+    private synchronized void appendJournal(String... fields) {
+        if (journal == null) return;
+        try {
+            ByteBuffer line = ByteBuffer.wrap((String.join("\t", fields) + "\n").getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                journal.write(line);
+            }
+            journal.force(false);
+        } catch (IOException e) {
+            System.err.println("Hiba a feldolgozási napló írásakor: " + e.getMessage());
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size() + delayed.get();
+    }
+
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    public long getCompletedCount() {
+        return completedJobs.get();
+    }
+
+    public long getFailedCount() {
+        return failedJobs.get();
+    }
+
+    public long getRetriedCount() {
+        return retriedJobs.get();
+    }
+
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    public long getAverageLatencyMillis() {
+        long completed = completedJobs.get();
+        return completed == 0 ? 0 : totalLatencyMillis.get() / completed;
+    }
+
+    public long getOldestWaitingMillis() {
+        long now = System.currentTimeMillis();
+        long oldest = 0;
+        for (Job job : queue) {
+            oldest = Math.max(oldest, now - job.createdAt);
+        }
+        return oldest;
+    }
+
+    public int getAvailableIoBudgetMb() {
+        return ioBudget.availablePermits();
+    }
+}
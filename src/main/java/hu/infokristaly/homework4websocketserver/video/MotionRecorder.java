@@ -0,0 +1,166 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import hu.infokristaly.homework4websocketserver.webm.ClusterMark;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+
+import java.util.ArrayDeque;
+
+// Mozgásra indított felvétel: az utolsó pre-roll másodpercnyi Cluster-t memóriában tartja (kulcskockával kezdve),
+// és csak mozgás esetén írja a szegmens íróba, majd a post-roll lejártáig átengedi a stream-et. Minden esemény
+// külön, fejléccel kezdődő fájlba kerül. A gyűrű a chunk-okra hivatkozik, nem másol.
+public class MotionRecorder {
+
+    private record Entry(WebmChunk chunk, long receivedAt) {
+    }
+
+    private final SegmentWriter writer;
+    private RecordingSettings settings;
+    private final ArrayDeque<Entry> ring = new ArrayDeque<>();
+    private long ringBytes = 0;
+    private boolean recording = false;
+    private long recordUntil = 0;
+    private long clips = 0;
+
+    public MotionRecorder(SegmentWriter writer, RecordingSettings settings) {
+        this.writer = writer;
+        this.settings = settings;
+    }
+
+    // A bejövő stream darabjai (a WebSocket szálon)
+    public synchronized void write(WebmChunk chunk) {
+        write(chunk, System.currentTimeMillis());
+    }
+
+    synchronized void write(WebmChunk chunk, long now) {
+        if (recording) {
+            if (now < recordUntil) {
+                writer.write(chunk);
+                return;
+            }
+            // A klip csak Cluster határon érhet véget
+            if (chunk.clusters().isEmpty()) {
+                writer.write(chunk);
+                return;
+            }
+            ClusterMark boundary = chunk.clusters().get(0);
+            int position = chunk.positionOf(boundary);
+            if (position > chunk.offset()) {
+                writer.write(chunk.slice(chunk.offset(), position));
+            }
+            writer.endSegment();
+            recording = false;
+            System.out.println("Mozgás felvétel vége, klip #" + clips);
+            chunk = chunk.slice(position, chunk.offset() + chunk.length());
+        }
+        buffer(chunk, now);
+    }
+
+    // Mozgás észlelésekor (a dekódoló szálon): a pre-roll lemezre kerül, a post-roll ablak újraindul
+    public synchronized void trigger() {
+        trigger(System.currentTimeMillis());
+    }
+
+    synchronized void trigger(long now) {
+        recordUntil = now + settings.postRollMillis();
+        if (recording) return;
+        recording = true;
+        clips++;
+        System.out.println("Mozgás felvétel indul, klip #" + clips + " (pre-roll: " + ringBytes / 1024 + " KB)");
+        for (Entry entry : ring) {
+            writer.write(entry.chunk(), entry.receivedAt());
+        }
+        ring.clear();
+        ringBytes = 0;
+    }
+
+    // Folyamatos felvételre váltáskor a pre-roll is a fájlba kerül
+    public synchronized void drainTo(SegmentWriter target) {
+        for (Entry entry : ring) {
+            target.write(entry.chunk(), entry.receivedAt());
+        }
+        ring.clear();
+        ringBytes = 0;
+        recording = false;
+    }
+
+    // A forrás megismerésekor a forrásra vonatkozó pre-/post-roll lép érvénybe
+    public synchronized void setSettings(RecordingSettings settings) {
+        this.settings = settings;
+    }
+
+    public synchronized boolean isRecording() {
+        return recording;
+    }
+
+    public synchronized long getClipCount() {
+        return clips;
+    }
+
+    public synchronized long getBufferedBytes() {
+        return ringBytes;
+    }
+
+    private void buffer(WebmChunk chunk, long now) {
+        if (chunk.length() == 0) return;
+        for (ClusterMark cluster : chunk.clusters()) {
+            if (cluster.newStream()) {
+                // Új stream: a régi fejléchez tartozó Cluster-ek már nem kellenek
+                ring.clear();
+                ringBytes = 0;
+                chunk = chunk.slice(chunk.positionOf(cluster), chunk.offset() + chunk.length());
+                break;
+            }
+        }
+        if (ring.isEmpty()) {
+            // A gyűrű mindig kulcskockás Cluster-rel kezdődik
+            ClusterMark keyframe = firstKeyframe(chunk, chunk.offset());
+            if (keyframe == null) return;
+            chunk = chunk.slice(chunk.positionOf(keyframe), chunk.offset() + chunk.length());
+        }
+        ring.addLast(new Entry(chunk, now));
+        ringBytes += chunk.length();
+        trim(now);
+    }
+
+    // Az elejéről addig vág, amíg a következő kulcskocka is legalább pre-roll régi, vagy a méretkorlát teljesül
+    private void trim(long now) {
+        while (!ring.isEmpty()) {
+            boolean tooLarge = ringBytes > settings.maxPreRollBytes();
+            Entry next = null;
+            ClusterMark keyframe = null;
+            boolean first = true;
+            for (Entry entry : ring) {
+                WebmChunk chunk = entry.chunk();
+                keyframe = firstKeyframe(chunk, first ? chunk.offset() + 1 : chunk.offset());
+                first = false;
+                if (keyframe != null) {
+                    next = entry;
+                    break;
+                }
+            }
+            if (next == null) {
+                if (tooLarge) {
+                    ring.clear();
+                    ringBytes = 0;
+                }
+                return;
+            }
+            if (!tooLarge && now - next.receivedAt() < settings.preRollMillis()) return;
+            while (ring.peekFirst() != next) {
+                ringBytes -= ring.pollFirst().chunk().length();
+            }
+            ring.pollFirst();
+            WebmChunk chunk = next.chunk();
+            WebmChunk rest = chunk.slice(chunk.positionOf(keyframe), chunk.offset() + chunk.length());
+            ringBytes -= chunk.length() - rest.length();
+            ring.addFirst(new Entry(rest, next.receivedAt()));
+        }
+    }
+
+    private static ClusterMark firstKeyframe(WebmChunk chunk, int from) {
+        for (ClusterMark cluster : chunk.clusters()) {
+            if (cluster.keyframe() && chunk.positionOf(cluster) >= from) return cluster;
+        }
+        return null;
+    }
+}
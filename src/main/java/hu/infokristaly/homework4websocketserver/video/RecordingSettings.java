@@ -0,0 +1,21 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import org.springframework.core.env.Environment;
+
+// Folyamatos vagy mozgásra indított felvétel; a video.record.source.<forrás>.* kulcsok forrásonként felülírják
+// az általános video.record.* beállításokat
+public record RecordingSettings(boolean motionTriggered, long preRollMillis, long postRollMillis, long maxPreRollBytes) {
+
+    public static RecordingSettings fromEnvironment(Environment env, String source) {
+        boolean motion = "motion".equalsIgnoreCase(get(env, source, "mode", "continuous").trim());
+        long preRoll = (long) (Double.parseDouble(get(env, source, "preroll", "10")) * 1000);
+        long postRoll = (long) (Double.parseDouble(get(env, source, "postroll", "20")) * 1000);
+        long maxBytes = Long.parseLong(get(env, source, "preroll.max-bytes", "33554432"));
+        return new RecordingSettings(motion, preRoll, postRoll, maxBytes);
+    }
+
+    private static String get(Environment env, String source, String key, String defaultValue) {
+        String value = source != null ? env.getProperty("video.record.source." + source + "." + key) : null;
+        return value != null ? value : env.getProperty("video.record." + key, defaultValue);
+    }
+}
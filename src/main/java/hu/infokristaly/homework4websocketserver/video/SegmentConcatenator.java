@@ -0,0 +1,119 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import hu.infokristaly.homework4websocketserver.webm.SegmentIndex;
+import hu.infokristaly.homework4websocketserver.webm.WebmFinalizer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+// A session szegmenseit fűzi össze a kernelben (transferTo), így a memóriahasználat a felvétel hosszától független.
+// A további fájlok fejlécét kihagyja; ha egy fájl új stream-et kezd (más fejléc vagy újrainduló időbélyegek),
+// az új kimeneti fájlba kerül, mert a Cluster időbélyegek nem folytathatók.
+public class SegmentConcatenator {
+
+    public record Output(Path path, SegmentIndex index, boolean finalized) {
+    }
+
+    // Egy rész tartalma az output fájlba került, shift bájttal eltolva
+    public interface RelocationListener {
+        void onRelocated(String fileName, Path output, long shift);
+    }
+
+    private final Path directory;
+    private final Function<String, SegmentIndex> indexes;
+    private final boolean finalize;
+
+    private final List<Output> outputs = new ArrayList<>();
+    private FileChannel out;
+    private Path outPath;
+    private SegmentIndex combined;
+    private RelocationListener relocationListener = null;
+
+    public SegmentConcatenator(Path directory, Function<String, SegmentIndex> indexes, boolean finalize) {
+        this.directory = directory;
+        this.indexes = indexes;
+        this.finalize = finalize;
+    }
+
+    public void setRelocationListener(RelocationListener relocationListener) {
+        this.relocationListener = relocationListener;
+    }
+
+    public List<Output> concat(List<String> fileNames, String baseName) throws IOException {
+        try {
+            for (String fileName : fileNames) {
+                append(fileName, baseName);
+            }
+            finish();
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+        return outputs;
+    }
+
+    private void append(String fileName, String baseName) throws IOException {
+        SegmentIndex index = indexes.apply(fileName);
+        int headerLength = index == null ? 0 : index.getHeaderLength();
+        boolean continues = out != null && (headerLength == 0 || continuesStream(index));
+        long skip = continues ? headerLength : 0;
+        if (!continues) {
+            finish();
+            outPath = directory.resolve(outputs.isEmpty() ? baseName + ".webm" : baseName + "_" + outputs.size() + ".webm");
+            out = FileChannel.open(outPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            combined = new SegmentIndex(index == null ? null : index.getHeader(),
+                    index == null ? null : index.getStreamHeader(), headerLength);
+            if (index != null) {
+                combined.setFirstTimecode(index.getFirstTimecode());
+            }
+        }
+        try (FileChannel in = FileChannel.open(directory.resolve(fileName), StandardOpenOption.READ)) {
+            long shift = out.position() - skip;
+            long size = in.size();
+            long position = skip;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            combined.updateDataEnd(out.position());
+            if (relocationListener != null) {
+                relocationListener.onRelocated(fileName, outPath, shift);
+            }
+            if (index != null) {
+                for (SegmentIndex.CuePoint cue : index.getCues()) {
+                    combined.addCue(cue.clusterOffset() + shift, cue.timecode());
+                }
+                combined.updateDuration(index.getDuration());
+            }
+        }
+    }
+
+    // Ugyanaz a fejléc és folytatódó időbélyegek esetén a fejléc elhagyható
+    private boolean continuesStream(SegmentIndex index) {
+        return Arrays.equals(index.getStreamHeader(), combined.getStreamHeader())
+                && index.getFirstTimecode() >= combined.getDuration();
+    }
+
+    private void finish() throws IOException {
+        if (out == null) return;
+        boolean finalized = false;
+        if (finalize && combined.getHeader() != null) {
+            try {
+                WebmFinalizer.finalizeChannel(out, combined);
+                finalized = true;
+            } catch (IOException e) {
+                System.err.println("Az összefűzött fájl véglegesítése nem sikerült [" + outPath + "]: " + e.getMessage());
+            }
+        }
+        out.close();
+        out = null;
+        outputs.add(new Output(outPath, combined, finalized));
+    }
+}
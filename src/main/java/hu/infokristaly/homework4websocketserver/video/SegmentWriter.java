@@ -0,0 +1,414 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import hu.infokristaly.homework4websocketserver.webm.ClusterMark;
+import hu.infokristaly.homework4websocketserver.webm.EbmlWriter;
+import hu.infokristaly.homework4websocketserver.webm.SegmentIndex;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+import hu.infokristaly.homework4websocketserver.webm.WebmHeader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// A Cluster-határokhoz igazított stream darabokat írja szegmens fájlokba. Forgatni csak kulcskockával kezdődő
+// Cluster előtt forgat, így minden fájl (fejléccel együtt) önállóan lejátszható. Fájlonként rögzíti a véglegesítéshez
+// szükséges indexet; önálló fájloknál a Cluster időbélyegeket is a fájl elejéhez igazítja.
+public class SegmentWriter {
+
+    public enum FsyncPolicy {
+        NONE, INTERVAL, ON_ROTATE;
+
+        public static FsyncPolicy parse(String value) {
+            return FsyncPolicy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    // Egy írási kötegbe legfeljebb ennyi bájt kerül
+    private static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_BATCH_CHUNKS = 256;
+
+    public interface WriteListener {
+        void onWrite(String fileName, long bytes, long nanos);
+    }
+
+    // Minden kulcskockás Cluster-re a fájlbeli helyével (az írás közbeni fájlban) és érkezési idejével
+    public interface CueListener {
+        void onCue(String fileName, byte[] streamHeader, long fileOffset, long receivedAt);
+    }
+
+    // receivedAt: a sorba kerülés ideje (a forgatáshoz), capturedAt: az adat eredeti érkezési ideje (az indexhez)
+    private record Chunk(WebmChunk data, long receivedAt, long capturedAt) {
+        static final Chunk CLOSE = new Chunk(null, 0, 0);
+        static final Chunk END_SEGMENT = new Chunk(null, 0, 0);
+    }
+
+    // A stream adott pozícióján a kiírt bájtok helyett ezek kerülnek a fájlba
+    private record Patch(long streamOffset, byte[] bytes) {
+    }
+
+    private final Path directory;
+    private final Supplier<String> fileNameSupplier;
+    private final Consumer<String> segmentListener;
+    private final long segmentDurationMillis;
+    private final boolean injectHeader;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+
+    private final LinkedBlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong(0);
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private final Thread thread;
+    // A close() után érkező adat már nem kerül sorba (és nem számít a várakozó bájtok közé)
+    private boolean isClosed = false;
+
+    private volatile WriteListener writeListener = null;
+    private volatile CueListener cueListener = null;
+    private FileChannel channel;
+    private String currentFileName;
+    private long segmentStart;
+    private long lastSync;
+
+    private final ConcurrentHashMap<String, SegmentIndex> indexes = new ConcurrentHashMap<>();
+    private SegmentIndex currentIndex;
+    // Az aktuális fájlba eddig (kötegben vagy már lemezen) írt bájtok
+    private long segmentBytes;
+    private long baseTimecode;
+    private final ArrayDeque<Patch> patches = new ArrayDeque<>();
+    // Az endSegment() utáni fájl önálló: fejléccel kezdődik, az időbélyegek nulláról indulnak
+    private boolean standaloneNext = false;
+    private byte[] lastHeader;
+    private WebmHeader lastRewrittenHeader;
+
+    public SegmentWriter(Path directory, Supplier<String> fileNameSupplier, Consumer<String> segmentListener,
+                         long segmentDurationSeconds, boolean injectHeader,
+                         FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, ThreadFactory threadFactory) {
+        this.directory = directory;
+        this.fileNameSupplier = fileNameSupplier;
+        this.segmentListener = segmentListener;
+        this.segmentDurationMillis = segmentDurationSeconds * 1000;
+        this.injectHeader = injectHeader;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.thread = threadFactory.newThread(this::run);
+    }
+
+    // Az első fájl az első adat megérkezésekor nyílik meg, a stream fejlécével kezdve
+    public void start() {
+        thread.start();
+    }
+
+    public void write(WebmChunk data) {
+        write(data, System.currentTimeMillis());
+    }
+
+    // Korábban pufferelt adatnál (pl. pre-roll) az eredeti érkezési idővel
+    public synchronized void write(WebmChunk data, long capturedAt) {
+        if (isClosed || data == null || data.length() == 0) return;
+        pendingBytes.addAndGet(data.length());
+        queue.add(new Chunk(data, System.currentTimeMillis(), capturedAt));
+    }
+
+    public void setWriteListener(WriteListener writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    public void setCueListener(CueListener cueListener) {
+        this.cueListener = cueListener;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    // A legrégebben sorban álló adat várakozási ideje (ezredmásodperc)
+    public long getPendingMillis() {
+        Chunk head = queue.peek();
+        return head == null || head.data() == null ? 0 : Math.max(0, System.currentTimeMillis() - head.receivedAt());
+    }
+
+    public String getCurrentFileName() {
+        return currentFileName;
+    }
+
+    // A lezárt fájl indexe (a close() future teljesülése után teljes)
+    public SegmentIndex getSegmentIndex(String fileName) {
+        return indexes.get(fileName);
+    }
+
+    // Lezárja az aktuális fájlt; a következő a legközelebbi kulcskockánál, fejléccel kezdődik
+    public synchronized void endSegment() {
+        if (isClosed) return;
+        queue.add(Chunk.END_SEGMENT);
+    }
+
+    // A sorban álló adatok kiírása után lezárja a fájlt; a visszaadott future ekkor teljesül
+    public synchronized CompletableFuture<Void> close() {
+        if (!isClosed) {
+            isClosed = true;
+            queue.add(Chunk.CLOSE);
+        }
+        return closed;
+    }
+
+    private void run() {
+        List<Chunk> batch = new ArrayList<>();
+        boolean running = true;
+        try {
+            while (running) {
+                Chunk first = queue.poll(fsyncIntervalMillis > 0 ? fsyncIntervalMillis : 1000, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    syncIfDue();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH_CHUNKS - 1);
+                try {
+                    running = writeBatch(batch);
+                } catch (RuntimeException e) {
+                    // Egy hibás köteg miatt nem állhat le az író szál, különben a sor korlátlanul nőne
+                    System.err.println("Hiba a szegmens köteg írásakor [" + currentFileName + "]: " + e);
+                    running = batch.stream().noneMatch(chunk -> chunk == Chunk.CLOSE);
+                }
+                batch.clear();
+                syncIfDue();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeChannel(fsyncPolicy != FsyncPolicy.NONE);
+            discardQueued();
+            closed.complete(null);
+        }
+    }
+
+    // Megszakításkor a sorban maradt adat már nem íródik ki, a számláló ne ragadjon be
+    private synchronized void discardQueued() {
+        isClosed = true;
+        for (Chunk chunk = queue.poll(); chunk != null; chunk = queue.poll()) {
+            if (chunk.data() != null) {
+                pendingBytes.addAndGet(-chunk.data().length());
+            }
+        }
+    }
+
+    private boolean writeBatch(List<Chunk> batch) {
+        List<ByteBuffer> buffers = new ArrayList<>(batch.size());
+        long batchBytes = 0;
+        for (Chunk chunk : batch) {
+            if (chunk == Chunk.CLOSE) {
+                flush(buffers);
+                return false;
+            }
+            if (chunk == Chunk.END_SEGMENT) {
+                flush(buffers);
+                batchBytes = 0;
+                closeChannel(fsyncPolicy == FsyncPolicy.ON_ROTATE || fsyncPolicy == FsyncPolicy.INTERVAL);
+                standaloneNext = true;
+                continue;
+            }
+            WebmChunk data = chunk.data();
+            int from = data.offset();
+            for (ClusterMark cluster : data.clusters()) {
+                int position = data.positionOf(cluster);
+                if (isRotationPoint(cluster, chunk.receivedAt())) {
+                    if (channel != null) {
+                        append(buffers, data, from, position);
+                    } else {
+                        // Nincs nyitott fájl (endSegment után, sikertelen megnyitáskor, vagy a stream köztes
+                        // képkockával kezdődött): a kulcskocka előtti rész eldobódik
+                        pendingBytes.addAndGet(-(position - from));
+                    }
+                    flush(buffers);
+                    batchBytes = 0;
+                    rotate(chunk.receivedAt(), data.header(), cluster);
+                    from = position;
+                }
+                if (channel != null) {
+                    indexCluster(cluster, segmentBytes + (position - from), data.header(), chunk.capturedAt());
+                }
+            }
+            int end = data.offset() + data.length();
+            if (channel == null) {
+                // Még egyetlen kulcskocka sem érkezett: a fájl eleje nem lenne lejátszható
+                pendingBytes.addAndGet(-(end - from));
+                continue;
+            }
+            append(buffers, data, from, end);
+            batchBytes += end - from;
+            if (data.lastTimecode() >= 0) {
+                currentIndex.updateDuration(data.lastTimecode() - baseTimecode);
+            }
+            if (batchBytes >= MAX_BATCH_BYTES || buffers.size() >= MAX_BATCH_CHUNKS) {
+                flush(buffers);
+                batchBytes = 0;
+            }
+        }
+        flush(buffers);
+        return true;
+    }
+
+    private void indexCluster(ClusterMark cluster, long fileOffset, byte[] streamHeader, long capturedAt) {
+        long timecode = cluster.timecode() - baseTimecode;
+        if (cluster.keyframe()) {
+            currentIndex.addCue(fileOffset, timecode);
+            CueListener listener = cueListener;
+            if (listener != null) {
+                listener.onCue(currentFileName, streamHeader, fileOffset, capturedAt);
+            }
+        }
+        if (baseTimecode != 0 && cluster.timecodeSize() > 0) {
+            patches.addLast(new Patch(cluster.timecodeValueOffset(), EbmlWriter.bigEndian(timecode, cluster.timecodeSize())));
+        }
+    }
+
+    // A data[from..to) tartományt adja a köteghez; az időbélyeg javítások bájtjait külön pufferből, másolás nélkül
+    private void append(List<ByteBuffer> buffers, WebmChunk data, int from, int to) {
+        if (to <= from) return;
+        segmentBytes += to - from;
+        long base = data.streamOffset() - data.offset();
+        while (!patches.isEmpty()) {
+            Patch patch = patches.peekFirst();
+            long patchStart = patch.streamOffset() - base;
+            long patchEnd = patchStart + patch.bytes().length;
+            if (patchEnd <= from) {
+                patches.pollFirst();
+                continue;
+            }
+            if (patchStart >= to) break;
+            if (patchStart > from) {
+                buffers.add(ByteBuffer.wrap(data.data(), from, (int) patchStart - from));
+            }
+            int patchFrom = (int) (Math.max(from, patchStart) - patchStart);
+            int patchTo = (int) (Math.min(to, patchEnd) - patchStart);
+            buffers.add(ByteBuffer.wrap(patch.bytes(), patchFrom, patchTo - patchFrom));
+            from = (int) Math.min(to, patchEnd);
+            if (patchEnd > to) break;
+            patches.pollFirst();
+        }
+        if (to > from) {
+            buffers.add(ByteBuffer.wrap(data.data(), from, to - from));
+        }
+    }
+
+    // Új fájl kezdődik: az első kulcskockánál, új stream fejlécnél, vagy ha lejárt az idő és kulcskocka jön
+    private boolean isRotationPoint(ClusterMark cluster, long now) {
+        if (!cluster.keyframe()) return false;
+        if (channel == null || cluster.newStream()) return true;
+        return now - segmentStart >= segmentDurationMillis;
+    }
+
+    private void flush(List<ByteBuffer> buffers) {
+        if (buffers.isEmpty()) return;
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        try {
+            ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+            long started = System.nanoTime();
+            long written = 0;
+            while (written < total) {
+                written += channel.write(array);
+            }
+            currentIndex.updateDataEnd(channel.position());
+            WriteListener listener = writeListener;
+            if (listener != null) {
+                listener.onWrite(currentFileName, written, System.nanoTime() - started);
+            }
+        } catch (IOException e) {
+            System.err.println("Hiba a szegmens írása közben [" + currentFileName + "]: " + e.getMessage());
+        } finally {
+            pendingBytes.addAndGet(-total);
+            buffers.clear();
+        }
+    }
+
+    private void rotate(long now, byte[] header, ClusterMark cluster) {
+        boolean first = currentFileName == null;
+        if (currentIndex != null && channel != null && !cluster.newStream()) {
+            // A lezárt fájl pontosan a következő fájl első Cluster-éig tart
+            currentIndex.updateDuration(cluster.timecode() - baseTimecode);
+        }
+        closeChannel(fsyncPolicy == FsyncPolicy.ON_ROTATE || fsyncPolicy == FsyncPolicy.INTERVAL);
+        patches.clear();
+        try {
+            boolean standalone = injectHeader || standaloneNext;
+            standaloneNext = false;
+            openSegment(now, first || cluster.newStream() || standalone ? header : null);
+            // Az önálló fájlok időbélyegei nulláról indulnak
+            baseTimecode = standalone ? cluster.timecode() : 0;
+            currentIndex.setFirstTimecode(cluster.timecode());
+        } catch (IOException e) {
+            System.err.println("Nem sikerült új szegmenst nyitni: " + e.getMessage());
+        }
+    }
+
+    private void openSegment(long now, byte[] header) throws IOException {
+        currentFileName = fileNameSupplier.get();
+        channel = FileChannel.open(directory.resolve(currentFileName),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentStart = now;
+        lastSync = now;
+        WebmHeader rewritten = header == null ? null : rewriteHeader(header);
+        byte[] written = header == null ? new byte[0] : rewritten != null ? rewritten.getBytes() : header;
+        segmentBytes = written.length;
+        currentIndex = new SegmentIndex(rewritten, header, written.length);
+        indexes.put(currentFileName, currentIndex);
+        segmentListener.accept(currentFileName);
+        ByteBuffer buffer = ByteBuffer.wrap(written);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        currentIndex.updateDataEnd(written.length);
+    }
+
+    // A fejléc a stream-en belül ritkán változik, így az újraírt változatot megtartjuk
+    private WebmHeader rewriteHeader(byte[] header) {
+        if (header != lastHeader) {
+            lastHeader = header;
+            lastRewrittenHeader = WebmHeader.rewrite(header);
+            if (lastRewrittenHeader == null) {
+                System.err.println("A fejléc nem értelmezhető, a fájlok véglegesítése ffmpeg-gel történik.");
+            }
+        }
+        return lastRewrittenHeader;
+    }
+
+    private void syncIfDue() {
+        if (fsyncPolicy != FsyncPolicy.INTERVAL || channel == null) return;
+        long now = System.currentTimeMillis();
+        if (now - lastSync < fsyncIntervalMillis) return;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Fsync hiba [" + currentFileName + "]: " + e.getMessage());
+        }
+        lastSync = now;
+    }
+
+    private void closeChannel(boolean sync) {
+        if (channel == null) return;
+        try {
+            if (sync) {
+                channel.force(true);
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Hiba a szegmens lezárásakor [" + currentFileName + "]: " + e.getMessage());
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,121 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import hu.infokristaly.homework4websocketserver.archive.ArchiveIndex;
+import hu.infokristaly.homework4websocketserver.webm.SegmentIndex;
+import hu.infokristaly.homework4websocketserver.webm.WebmFinalizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.Function;
+
+// Egy lezárt session fájljainak utófeldolgozása: összefűzés, véglegesítés és áthelyezés a videók közé
+@Component
+public class SessionFinalizer {
+
+    @Value("${video.path:src/main/resources/videos}")
+    private String videoPath;
+
+    @Value("${video.temp.path}")
+    private String tempPath;
+
+    @Value("${video.finalize.mode:in-place}")
+    private String finalizeMode;
+
+    @Value("${video.concat.finalize:true}")
+    private Boolean isConcatFinalize;
+
+    @Autowired
+    private ArchiveIndex archiveIndex;
+
+    public Path getTempPath() {
+        return Paths.get(tempPath);
+    }
+
+    // Igaz, ha a feladat a fájlok teljes tartalmát át fogja másolni (ffmpeg, másolat vagy összefűzés)
+    public boolean isCopying(boolean concat, boolean hasIndex) {
+        return concat || !hasIndex || !"in-place".equals(finalizeMode);
+    }
+
+    public void concatAndFinalize(String sessionId, List<String> fileList, Function<String, SegmentIndex> indexes)
+            throws IOException, InterruptedException {
+        // Teljes fájlok beolvasása helyett kernel szintű másolás, a fejléc elhagyásával és opcionális véglegesítéssel
+        SegmentConcatenator concatenator = new SegmentConcatenator(Paths.get(tempPath), indexes,
+                isConcatFinalize && !"ffmpeg".equals(finalizeMode));
+        // Az archív index a részek Cluster offset-jeit az összefűzött fájlra követi
+        concatenator.setRelocationListener((fileName, output, shift) ->
+                archiveIndex.relocate(fileName, output.getFileName().toString(), shift));
+        List<SegmentConcatenator.Output> outputs = concatenator.concat(fileList, sessionId + "_concat");
+        for (SegmentConcatenator.Output output : outputs) {
+            if (output.finalized()) {
+                Files.move(output.path(), Paths.get(videoPath, output.path().getFileName().toString()),
+                        StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("A fejrész korrekció megtörtént.");
+            } else {
+                fixVideoDuration(output.path().toString(), output.index());
+            }
+        }
+        // A részeket csak a sikeres véglegesítés után töröljük, így egy újrapróbálkozás elölről kezdheti
+        removeFiles(fileList);
+    }
+
+    private void removeFiles(List<String> fileList) {
+        for (String fileName : fileList) {
+            try {
+                Files.deleteIfExists(Paths.get(tempPath, fileName));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Hibás véglegesítés esetén kivételt dob, hogy az ütemező újrapróbálhassa
+    public void fixVideoDuration(String fileName, SegmentIndex index) throws IOException, InterruptedException {
+        String outFileName = Paths.get(fileName).getFileName().toString();
+        Path target = Paths.get(videoPath, outFileName);
+        if (index != null && index.getHeader() != null && !"ffmpeg".equals(finalizeMode)) {
+            // A felvétel közben rögzített index alapján, a fájl újraolvasása és ffmpeg nélkül
+            try {
+                Path source = Paths.get(fileName);
+                if ("copy".equals(finalizeMode)
+                        && !source.toAbsolutePath().normalize().equals(target.toAbsolutePath().normalize())) {
+                    WebmFinalizer.finalizeCopy(source, target, index);
+                } else {
+                    WebmFinalizer.finalizeFile(source, index);
+                    Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                System.out.println("A fejrész korrekció megtörtént.");
+                return;
+            } catch (IOException e) {
+                System.err.println("A véglegesítés nem sikerült, ffmpeg-gel próbáljuk: " + e.getMessage());
+            }
+        }
+        String fixedFileName = fileName.replace(".webm", "_fixed.webm");
+        int exitCode = repairVideoFile(fileName,fixedFileName);
+        if (exitCode == 0) {
+            Files.move(Paths.get(fixedFileName), target, StandardCopyOption.REPLACE_EXISTING);
+            // Az ffmpeg újraírta a fájlt, a rögzített Cluster offset-ek nem érvényesek
+            archiveIndex.invalidate(outFileName);
+            System.out.println("A fejrész korrekció megtörtént.");
+        } else {
+            File file = new File(fixedFileName);
+            if (file.exists()) {
+                Files.delete(file.toPath());
+            }
+            throw new IOException("Hiba történt a fejrész korrekciónál! ExitCode: " + exitCode);
+        }
+    }
+
+    private int repairVideoFile(String inputPath, String outputPath) throws IOException, InterruptedException  {
+        ProcessBuilder pb = new ProcessBuilder("ffmpeg", "-y", "-i", inputPath, "-c", "copy", outputPath);
+        pb.directory(Paths.get(tempPath).toFile());
+        return pb.inheritIO().start().waitFor();
+    }
+}
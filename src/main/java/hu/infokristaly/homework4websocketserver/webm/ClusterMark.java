@@ -0,0 +1,7 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+// Egy Cluster kezdete a bejövő stream-ben. A timecodeValueOffset/timecodeSize a Cluster Timecode értékének helye
+// (-1, ha nincs), a newStream pedig jelzi, hogy ez egy (új) fejléc utáni első Cluster.
+public record ClusterMark(long offset, long timecode, boolean keyframe, boolean newStream,
+                          long timecodeValueOffset, int timecodeSize) {
+}
@@ -0,0 +1,402 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+// Inkrementális EBML/WebM elemző: tetszőleges chunk határokon át követi az elemhatárokat, kinyeri a teljes fejlécet
+// (minden bájt az első Cluster előtt), és minden Cluster-ről jelez, amint az első videó blokkja alapján eldönthető,
+// hogy kulcskockával kezdődik-e. A blokkok tartalmát nem másolja, csak átlépi.
+public class EbmlStreamParser {
+
+    public static final int EBML_ID = 0x1A45DFA3;
+    public static final int SEGMENT_ID = 0x18538067;
+    public static final int SEEK_HEAD_ID = 0x114D9B74;
+    public static final int INFO_ID = 0x1549A966;
+    public static final int TIMECODE_SCALE_ID = 0x2AD7B1;
+    public static final int DURATION_ID = 0x4489;
+    public static final int TRACKS_ID = 0x1654AE6B;
+    public static final int TRACK_ENTRY_ID = 0xAE;
+    public static final int TRACK_NUMBER_ID = 0xD7;
+    public static final int TRACK_TYPE_ID = 0x83;
+    public static final int CODEC_ID = 0x86;
+    public static final int CLUSTER_ID = 0x1F43B675;
+    public static final int TIMECODE_ID = 0xE7;
+    public static final int SIMPLE_BLOCK_ID = 0xA3;
+    public static final int BLOCK_GROUP_ID = 0xA0;
+    public static final int BLOCK_ID = 0xA1;
+    public static final int CUES_ID = 0x1C53BB6B;
+    public static final int TAGS_ID = 0x1254C367;
+    public static final int CHAPTERS_ID = 0x1043A770;
+    public static final int ATTACHMENTS_ID = 0x1941A469;
+    public static final int VOID_ID = 0xEC;
+
+    private static final int MAX_DEPTH = 16;
+    private static final int MAX_CAPTURE = 32;
+    // A fejléc legfeljebb ekkora lehet; a WebmChunker is eddig tartja vissza a be nem fejezett fejlécet
+    static final int MAX_HEADER_BYTES = 4 * 1024 * 1024;
+
+    public interface Listener {
+        // Egy (új) stream teljes fejléce; headerStart a fejléc, clusterOffset az első Cluster stream pozíciója
+        void onHeader(byte[] header, long headerStart, long clusterOffset);
+
+        void onCluster(ClusterMark cluster);
+    }
+
+    private enum State { ID, SIZE, SKIP, CAPTURE }
+
+    private State state = State.ID;
+    private long position = 0;
+
+    private long elementStart;
+    private int id;
+    private int idLength;
+    private int idRead;
+    private long size;
+    private int sizeLength;
+    private int sizeRead;
+    private long remaining;
+    // Az aktuális elem azonosító és méret bájtjai (legfeljebb 4 + 8)
+    private final byte[] elementHead = new byte[12];
+    private final byte[] capture = new byte[MAX_CAPTURE];
+    private int captureLength;
+    private int captureRead;
+    private long captureStart;
+
+    private final int[] masterIds = new int[MAX_DEPTH];
+    private final long[] masterEnds = new long[MAX_DEPTH];
+    private int depth = 0;
+
+    // Fejléc gyűjtése az első Cluster-ig
+    private ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream();
+    private long headerBufferStart = 0;
+    private boolean headerComplete = false;
+    private long headerStart = 0;
+    private boolean newStream = true;
+
+    // Az aktuális, még el nem döntött Cluster
+    private long pendingCluster = -1;
+    private boolean pendingNewStream;
+    private long clusterTimecode;
+    private long timecodeValueOffset;
+    private int timecodeSize;
+
+    private long timecodeScale = 1_000_000;
+    private long lastBlockTimecode = -1;
+    private long videoTrack = -1;
+    private String videoCodec;
+    private long entryNumber;
+    private long entryType;
+    private String entryCodec;
+    private long errors = 0;
+
+    // Az éppen feldolgozott chunk: data[dataOffset] a dataBase stream pozíción van
+    private byte[] data;
+    private int dataOffset;
+    private int dataEnd;
+    private long dataBase;
+
+    public long getPosition() {
+        return position;
+    }
+
+    // A még el nem döntött Cluster kezdete, a még be nem fejezett fejléc kezdete, vagy a félig beolvasott elem
+    // (ami Cluster vagy új EBML fejléc is lehet) kezdete; -1, ha nincs ilyen
+    public long getHoldOffset() {
+        if (!headerComplete) return headerStart;
+        if (pendingCluster >= 0) return pendingCluster;
+        return (state == State.ID && idRead > 0) || state == State.SIZE ? elementStart : -1;
+    }
+
+    public boolean isHeaderComplete() {
+        return headerComplete;
+    }
+
+    public long getTimecodeScale() {
+        return timecodeScale;
+    }
+
+    public long getLastBlockTimecode() {
+        return lastBlockTimecode;
+    }
+
+    public String getVideoCodec() {
+        return videoCodec;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    // A függőben lévő Cluster-t kulcskocka nélkülinek tekinti (pl. túl hosszú visszatartás esetén)
+    public void resolvePending(Listener listener) {
+        if (pendingCluster >= 0) {
+            emitCluster(false, listener);
+        }
+    }
+
+    public void feed(byte[] data, int offset, int length, Listener listener) {
+        this.data = data;
+        this.dataOffset = offset;
+        this.dataEnd = offset + length;
+        this.dataBase = position;
+        if (!headerComplete) {
+            appendHeader(offset, length, position);
+        }
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            switch (state) {
+                case SKIP -> {
+                    int n = (int) Math.min(end - i, remaining);
+                    i += n;
+                    position += n;
+                    remaining -= n;
+                    if (remaining == 0) state = State.ID;
+                }
+                case CAPTURE -> {
+                    int n = Math.min(end - i, captureLength - captureRead);
+                    System.arraycopy(data, i, capture, captureRead, n);
+                    captureRead += n;
+                    i += n;
+                    position += n;
+                    if (captureRead == captureLength) {
+                        onCaptured(listener);
+                        remaining -= captureLength;
+                        state = remaining > 0 ? State.SKIP : State.ID;
+                    }
+                }
+                case ID -> {
+                    int b = data[i++] & 0xFF;
+                    position++;
+                    elementHead[idRead] = (byte) b;
+                    if (idRead == 0) {
+                        elementStart = position - 1;
+                        idLength = Integer.numberOfLeadingZeros(b) - 23;
+                        if (b == 0 || idLength > 4) {
+                            // Érvénytelen azonosító: bájtonként továbblépünk, amíg újra szinkronba nem kerülünk
+                            errors++;
+                            continue;
+                        }
+                        id = b;
+                    } else {
+                        id = (id << 8) | b;
+                    }
+                    if (++idRead == idLength) {
+                        idRead = 0;
+                        sizeRead = 0;
+                        state = State.SIZE;
+                    }
+                }
+                case SIZE -> {
+                    int b = data[i++] & 0xFF;
+                    position++;
+                    elementHead[idLength + sizeRead] = (byte) b;
+                    if (sizeRead == 0) {
+                        if (b == 0) {
+                            errors++;
+                            state = State.ID;
+                            continue;
+                        }
+                        sizeLength = Integer.numberOfLeadingZeros(b) - 23;
+                        size = b & (0xFF >> sizeLength);
+                    } else {
+                        size = (size << 8) | b;
+                    }
+                    if (++sizeRead == sizeLength) {
+                        if (size == (1L << (7 * sizeLength)) - 1) {
+                            size = -1;
+                        }
+                        onElement(listener);
+                    }
+                }
+            }
+        }
+        this.data = null;
+    }
+
+    private void appendHeader(int offset, int length, long streamOffset) {
+        if (headerBuffer.size() + length > MAX_HEADER_BYTES) {
+            errors++;
+            return;
+        }
+        if (headerBuffer.size() == 0) {
+            headerBufferStart = streamOffset;
+        }
+        headerBuffer.write(data, offset, length);
+    }
+
+    private void onElement(Listener listener) {
+        closeMasters(elementStart, listener);
+        if (isTopLevel(id)) {
+            // Ismeretlen méretű Cluster-t (és a Segment-et új EBML fejlécnél) a következő felső szintű elem zárja le
+            while (depth > 0 && masterIds[depth - 1] != SEGMENT_ID) {
+                pop(listener);
+            }
+        }
+        if (id == EBML_ID) {
+            while (depth > 0) {
+                pop(listener);
+            }
+            if (headerComplete) {
+                // Új stream kezdődik ugyanabban a kapcsolatban: a fejléc gyűjtése újraindul
+                headerComplete = false;
+                headerBuffer = new ByteArrayOutputStream();
+                headerBufferStart = elementStart;
+                if (elementStart < dataBase) {
+                    // Az elem eleje az előző chunk-ban volt: ezeket a bájtokat az elem fejéből pótoljuk
+                    headerBuffer.write(elementHead, 0, (int) (dataBase - elementStart));
+                }
+                long from = Math.max(elementStart, dataBase);
+                int index = dataOffset + (int) (from - dataBase);
+                appendHeader(index, dataEnd - index, from);
+                newStream = true;
+            }
+            headerStart = elementStart;
+        }
+        long dataStart = position;
+        switch (id) {
+            case SEGMENT_ID, INFO_ID, TRACKS_ID, TRACK_ENTRY_ID, BLOCK_GROUP_ID -> {
+                if (id == TRACK_ENTRY_ID) {
+                    entryNumber = -1;
+                    entryType = -1;
+                    entryCodec = null;
+                }
+                push(id, size < 0 ? -1 : dataStart + size);
+                state = State.ID;
+            }
+            case CLUSTER_ID -> {
+                if (pendingCluster >= 0) {
+                    emitCluster(false, listener);
+                }
+                if (!headerComplete) {
+                    completeHeader(listener);
+                }
+                pendingCluster = elementStart;
+                pendingNewStream = newStream;
+                newStream = false;
+                timecodeValueOffset = -1;
+                timecodeSize = 0;
+                push(id, size < 0 ? -1 : dataStart + size);
+                state = State.ID;
+            }
+            case TIMECODE_ID, TIMECODE_SCALE_ID, TRACK_NUMBER_ID, TRACK_TYPE_ID, CODEC_ID, SIMPLE_BLOCK_ID, BLOCK_ID -> {
+                long length = Math.max(0, size);
+                captureLength = (int) Math.min(length, MAX_CAPTURE);
+                captureRead = 0;
+                captureStart = dataStart;
+                remaining = length;
+                if (captureLength == 0) {
+                    onCaptured(listener);
+                    state = State.ID;
+                } else {
+                    state = State.CAPTURE;
+                }
+            }
+            default -> {
+                if (size < 0) {
+                    // Ismeretlen méretű, számunkra érdektelen master elem: belelépünk
+                    push(id, -1);
+                    state = State.ID;
+                } else {
+                    remaining = size;
+                    state = size > 0 ? State.SKIP : State.ID;
+                }
+            }
+        }
+    }
+
+    private static boolean isTopLevel(int id) {
+        return id == CLUSTER_ID || id == CUES_ID || id == SEEK_HEAD_ID || id == INFO_ID || id == TRACKS_ID
+                || id == TAGS_ID || id == CHAPTERS_ID || id == ATTACHMENTS_ID || id == EBML_ID;
+    }
+
+    private void closeMasters(long offset, Listener listener) {
+        while (depth > 0 && masterEnds[depth - 1] >= 0 && offset >= masterEnds[depth - 1]) {
+            pop(listener);
+        }
+    }
+
+    private void push(int masterId, long masterEnd) {
+        if (depth == MAX_DEPTH) {
+            errors++;
+            return;
+        }
+        masterIds[depth] = masterId;
+        masterEnds[depth] = masterEnd;
+        depth++;
+    }
+
+    private void pop(Listener listener) {
+        int masterId = masterIds[--depth];
+        if (masterId == TRACK_ENTRY_ID && entryType == 1 && videoTrack < 0) {
+            videoTrack = entryNumber;
+            videoCodec = entryCodec;
+        }
+        // Blokk nélküli Cluster: nem kulcskockával kezdődik
+        if (masterId == CLUSTER_ID && pendingCluster >= 0) {
+            emitCluster(false, listener);
+        }
+    }
+
+    private void onCaptured(Listener listener) {
+        switch (id) {
+            case TIMECODE_ID -> {
+                if (depth > 0 && masterIds[depth - 1] == CLUSTER_ID) {
+                    clusterTimecode = readUnsigned(captureRead);
+                    timecodeValueOffset = captureStart;
+                    timecodeSize = captureLength;
+                }
+            }
+            case TIMECODE_SCALE_ID -> timecodeScale = readUnsigned(captureRead);
+            case TRACK_NUMBER_ID -> entryNumber = readUnsigned(captureRead);
+            case TRACK_TYPE_ID -> entryType = readUnsigned(captureRead);
+            case CODEC_ID -> entryCodec = new String(capture, 0, captureRead, java.nio.charset.StandardCharsets.US_ASCII).trim();
+            case SIMPLE_BLOCK_ID, BLOCK_ID -> onBlock(listener);
+            default -> { }
+        }
+    }
+
+    private void onBlock(Listener listener) {
+        if (captureRead < 4) return;
+        int trackLength = Integer.numberOfLeadingZeros(capture[0] & 0xFF) - 23;
+        if (trackLength < 1 || trackLength > 8 || captureRead < trackLength + 3) return;
+        long track = capture[0] & (0xFF >> trackLength);
+        for (int k = 1; k < trackLength; k++) {
+            track = (track << 8) | (capture[k] & 0xFF);
+        }
+        short relative = (short) (((capture[trackLength] & 0xFF) << 8) | (capture[trackLength + 1] & 0xFF));
+        int flags = capture[trackLength + 2] & 0xFF;
+        if (videoTrack >= 0 && track != videoTrack) return;
+        lastBlockTimecode = clusterTimecode + relative;
+        if (pendingCluster >= 0) {
+            // SimpleBlock esetén a 0x80 jelző a kulcskocka; BlockGroup-nál konzervatívan nem kulcskockának vesszük
+            emitCluster(id == SIMPLE_BLOCK_ID && (flags & 0x80) != 0, listener);
+        }
+    }
+
+    private void emitCluster(boolean keyframe, Listener listener) {
+        ClusterMark mark = new ClusterMark(pendingCluster, clusterTimecode, keyframe, pendingNewStream,
+                timecodeValueOffset, timecodeSize);
+        pendingCluster = -1;
+        listener.onCluster(mark);
+    }
+
+    private void completeHeader(Listener listener) {
+        headerComplete = true;
+        byte[] buffered = headerBuffer.toByteArray();
+        // A puffer teljes chunk-okat gyűjt; a tényleges fejléc headerStart-tól az első Cluster-ig tart
+        int from = (int) Math.max(0, headerStart - headerBufferStart);
+        int to = (int) Math.min(buffered.length, elementStart - headerBufferStart);
+        byte[] header = from < to ? Arrays.copyOfRange(buffered, from, to) : new byte[0];
+        headerBuffer = new ByteArrayOutputStream();
+        listener.onHeader(header, headerStart, elementStart);
+    }
+
+    private long readUnsigned(int length) {
+        long value = 0;
+        for (int k = 0; k < length && k < 8; k++) {
+            value = (value << 8) | (capture[k] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,77 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import java.io.ByteArrayOutputStream;
+
+// Segédfüggvények EBML elemek előállításához
+public final class EbmlWriter {
+
+    public static final int UNKNOWN_SIZE_LENGTH = 8;
+
+    private EbmlWriter() {
+    }
+
+    public static void writeId(ByteArrayOutputStream out, int id) {
+        boolean started = false;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int b = (id >>> shift) & 0xFF;
+            if (b != 0 || started) {
+                out.write(b);
+                started = true;
+            }
+        }
+    }
+
+    // A méretet pontosan 'length' bájton kódolja (így utólag helyben felülírható)
+    public static byte[] size(long value, int length) {
+        byte[] bytes = new byte[length];
+        for (int k = length - 1; k > 0; k--) {
+            bytes[k] = (byte) value;
+            value >>>= 8;
+        }
+        bytes[0] = (byte) ((0x80 >>> (length - 1)) | value);
+        return bytes;
+    }
+
+    public static byte[] unknownSize() {
+        byte[] bytes = new byte[UNKNOWN_SIZE_LENGTH];
+        java.util.Arrays.fill(bytes, (byte) 0xFF);
+        bytes[0] = 0x01;
+        return bytes;
+    }
+
+    public static int sizeLength(long value) {
+        int length = 1;
+        while (length < 8 && value >= (1L << (7 * length)) - 1) {
+            length++;
+        }
+        return length;
+    }
+
+    public static void writeElement(ByteArrayOutputStream out, int id, byte[] content) {
+        writeId(out, id);
+        out.writeBytes(size(content.length, sizeLength(content.length)));
+        out.writeBytes(content);
+    }
+
+    public static void writeUnsigned(ByteArrayOutputStream out, int id, long value) {
+        int length = 1;
+        while (length < 8 && (value >>> (8 * length)) != 0) {
+            length++;
+        }
+        byte[] content = new byte[length];
+        for (int k = length - 1; k >= 0; k--) {
+            content[k] = (byte) value;
+            value >>>= 8;
+        }
+        writeElement(out, id, content);
+    }
+
+    public static byte[] bigEndian(long value, int length) {
+        byte[] bytes = new byte[length];
+        for (int k = length - 1; k >= 0; k--) {
+            bytes[k] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+}
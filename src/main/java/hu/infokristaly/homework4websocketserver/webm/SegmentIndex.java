@@ -0,0 +1,75 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Egy szegmens fájl írás közben rögzített adatai a véglegesítéshez: a fejléc elrendezése, a kulcskockás Cluster-ek
+// fájlbeli helye és időbélyege, a kiírt Cluster-ek vége, valamint a hossz (timecode egységben)
+public class SegmentIndex {
+
+    public record CuePoint(long clusterOffset, long timecode) {
+    }
+
+    private final WebmHeader header;
+    private final byte[] streamHeader;
+    private final int headerLength;
+    private final List<CuePoint> cues = new ArrayList<>();
+    private long firstTimecode = -1;
+    private long duration = 0;
+    private long dataEnd = -1;
+
+    // streamHeader az eredeti stream fejléc, headerLength a fájl elején ténylegesen kiírt fejléc hossza (0, ha nincs)
+    public SegmentIndex(WebmHeader header, byte[] streamHeader, int headerLength) {
+        this.header = header;
+        this.streamHeader = streamHeader;
+        this.headerLength = headerLength;
+    }
+
+    public void setFirstTimecode(long firstTimecode) {
+        this.firstTimecode = firstTimecode;
+    }
+
+    public void addCue(long clusterOffset, long timecode) {
+        cues.add(new CuePoint(clusterOffset, timecode));
+    }
+
+    public void updateDuration(long duration) {
+        this.duration = Math.max(this.duration, duration);
+    }
+
+    // A fájlba sikeresen kiírt fejléc és Cluster adat vége
+    public void updateDataEnd(long dataEnd) {
+        this.dataEnd = Math.max(this.dataEnd, dataEnd);
+    }
+
+    // Null, ha a fájl nem a saját, véglegesíthető fejlécünkkel kezdődik
+    public WebmHeader getHeader() {
+        return header;
+    }
+
+    public byte[] getStreamHeader() {
+        return streamHeader;
+    }
+
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    // Az első Cluster eredeti (nem igazított) időbélyege
+    public long getFirstTimecode() {
+        return firstTimecode;
+    }
+
+    public List<CuePoint> getCues() {
+        return cues;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    // -1, ha nem ismert
+    public long getDataEnd() {
+        return dataEnd;
+    }
+}
@@ -0,0 +1,28 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A bejövő stream egy folytonos, csak Cluster adatot tartalmazó darabja. A data[offset..offset+length) bájtok a
+// streamOffset pozíciótól kezdődnek; a tömb a WebSocket üzenetből készült másolat, több fogyasztó is hivatkozhat rá,
+// de egyik sem módosíthatja. A header az ezekre a Cluster-ekre érvényes stream fejléc, a lastTimecode az eddig
+// látott utolsó videó blokk időbélyege (timecode egységben, -1 ha még nem volt).
+public record WebmChunk(byte[] data, int offset, int length, long streamOffset, byte[] header,
+                        List<ClusterMark> clusters, long lastTimecode) {
+
+    public int positionOf(ClusterMark cluster) {
+        return offset + (int) (cluster.offset() - streamOffset);
+    }
+
+    // A data[from..to) része, ugyanarra a tömbre hivatkozva
+    public WebmChunk slice(int from, int to) {
+        List<ClusterMark> marks = new ArrayList<>(clusters.size());
+        for (ClusterMark cluster : clusters) {
+            int position = positionOf(cluster);
+            if (position >= from && position < to) {
+                marks.add(cluster);
+            }
+        }
+        return new WebmChunk(data, from, to - from, streamOffset + (from - offset), header, marks, lastTimecode);
+    }
+}
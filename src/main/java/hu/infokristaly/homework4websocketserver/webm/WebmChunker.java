@@ -0,0 +1,165 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A bejövő WebM chunk-okat Cluster-határokhoz igazított darabokra bontja: a fejléc bájtjait kiveszi (külön adja
+// vissza), a még el nem döntött Cluster kezdetét pedig a következő chunk-ig visszatartja, így minden kiadott
+// darabban csak olyan Cluster kezdetek vannak, amelyekről már tudjuk, hogy kulcskockával indulnak-e. Ha a fejléc
+// a korláton belül nem fejeződik be, a stream-et elutasítja: ezután minden feed üres.
+public class WebmChunker implements EbmlStreamParser.Listener {
+
+    // Ennél hosszabb visszatartás esetén a függő Cluster-t kulcskocka nélkülinek tekintjük
+    private static final int MAX_CARRY_BYTES = 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final EbmlStreamParser parser = new EbmlStreamParser();
+    // A visszatartott bájtok: carry[carryOffset, carryOffset + carryLength), a carryStart stream pozíciótól. A már
+    // kiadott darabok ugyanerre a tömbre hivatkozhatnak, ezért új adat csak a tömb szabad végére kerülhet.
+    private byte[] carry = EMPTY;
+    private int carryOffset = 0;
+    private int carryLength = 0;
+    private long carryStart = 0;
+    private boolean isRejected = false;
+    private volatile byte[] header;
+    private final List<ClusterMark> resolved = new ArrayList<>();
+    // A feed során befejeződött fejlécek: [fejléc kezdete, első Cluster) kihagyandó tartomány és az új fejléc
+    private final List<long[]> skipRanges = new ArrayList<>();
+    private final List<byte[]> skipHeaders = new ArrayList<>();
+
+    public byte[] getHeader() {
+        return header;
+    }
+
+    public EbmlStreamParser getParser() {
+        return parser;
+    }
+
+    // Igaz, ha a fejléc túl hosszú volt: a stream nem dolgozható fel, a kapcsolatot le kell zárni
+    public boolean isRejected() {
+        return isRejected;
+    }
+
+    @Override
+    public void onHeader(byte[] header, long headerStart, long clusterOffset) {
+        skipRanges.add(new long[]{headerStart, clusterOffset});
+        skipHeaders.add(header);
+    }
+
+    @Override
+    public void onCluster(ClusterMark cluster) {
+        resolved.add(cluster);
+    }
+
+    public List<WebmChunk> feed(byte[] data) {
+        if (isRejected) return List.of();
+        long chunkStart = parser.getPosition();
+        parser.feed(data, 0, data.length, this);
+        long chunkEnd = chunkStart + data.length;
+        long hold = parser.getHoldOffset();
+        if (hold >= 0 && chunkEnd - Math.max(carryStart, hold) > MAX_CARRY_BYTES) {
+            if (parser.isHeaderComplete()) {
+                parser.resolvePending(this);
+            } else if (chunkEnd - Math.max(carryStart, hold) > EbmlStreamParser.MAX_HEADER_BYTES) {
+                // A fejléc nem fejeződik be (hibás vagy nem WebM stream): nem tartjuk vissza korlátlanul
+                reject();
+                return List.of();
+            }
+        }
+        hold = parser.getHoldOffset();
+        long emitEnd = hold >= 0 ? Math.max(hold, carryStart) : chunkEnd;
+        List<WebmChunk> pieces = emit(data, chunkStart, emitEnd);
+        retain(data, chunkStart, emitEnd);
+        resolved.clear();
+        skipRanges.clear();
+        skipHeaders.clear();
+        return pieces;
+    }
+
+    // A kapcsolat végén a visszatartott adat kiadása
+    public List<WebmChunk> flush() {
+        if (isRejected || !parser.isHeaderComplete()) return List.of();
+        parser.resolvePending(this);
+        long end = carryStart + carryLength;
+        List<WebmChunk> pieces = emit(EMPTY, end, end);
+        carry = EMPTY;
+        carryOffset = 0;
+        carryLength = 0;
+        carryStart = end;
+        resolved.clear();
+        return pieces;
+    }
+
+    // Az emitEnd utáni rész a következő chunk-ig visszatartva. Ha a visszatartott rész tovább nő (hosszú fejléc vagy
+    // függő Cluster), az új adat a tömb szabad végére kerül, és a tömb duplázva nő, így a másolás összesen lineáris.
+    private void retain(byte[] data, long chunkStart, long emitEnd) {
+        int fromCarry = (int) Math.max(0, chunkStart - emitEnd);
+        int fromData = (int) Math.min(data.length, chunkStart + data.length - emitEnd);
+        int tail = carryOffset + carryLength;
+        if (fromCarry + fromData == 0) {
+            carry = EMPTY;
+            carryOffset = 0;
+            carryLength = 0;
+        } else if (fromCarry > 0 && tail + fromData <= carry.length) {
+            System.arraycopy(data, 0, carry, tail, fromData);
+            carryOffset = tail - fromCarry;
+            carryLength = fromCarry + fromData;
+        } else {
+            byte[] grown = new byte[fromCarry > 0 ? 2 * (fromCarry + fromData) : fromData];
+            System.arraycopy(carry, tail - fromCarry, grown, 0, fromCarry);
+            System.arraycopy(data, data.length - fromData, grown, fromCarry, fromData);
+            carry = grown;
+            carryOffset = 0;
+            carryLength = fromCarry + fromData;
+        }
+        carryStart = emitEnd;
+    }
+
+    private void reject() {
+        isRejected = true;
+        carry = EMPTY;
+        carryOffset = 0;
+        carryLength = 0;
+        resolved.clear();
+        skipRanges.clear();
+        skipHeaders.clear();
+    }
+
+    private List<WebmChunk> emit(byte[] data, long chunkStart, long emitEnd) {
+        List<WebmChunk> pieces = new ArrayList<>(2);
+        long from = carryStart;
+        for (int k = 0; k <= skipRanges.size(); k++) {
+            long to = k < skipRanges.size() ? Math.min(skipRanges.get(k)[0], emitEnd) : emitEnd;
+            if (to > from) {
+                addPieces(pieces, data, chunkStart, from, to);
+            }
+            if (k < skipRanges.size()) {
+                header = skipHeaders.get(k);
+                from = Math.max(from, skipRanges.get(k)[1]);
+            }
+        }
+        return pieces;
+    }
+
+    // A [from, to) tartomány a visszatartott és az új bájtokból, másolás nélkül
+    private void addPieces(List<WebmChunk> pieces, byte[] data, long chunkStart, long from, long to) {
+        if (from < chunkStart) {
+            long carryEnd = Math.min(to, chunkStart);
+            pieces.add(piece(carry, carryOffset + (int) (from - carryStart), from, carryEnd));
+            from = carryEnd;
+        }
+        if (to > from) {
+            pieces.add(piece(data, (int) (from - chunkStart), from, to));
+        }
+    }
+
+    private WebmChunk piece(byte[] array, int offset, long from, long to) {
+        List<ClusterMark> clusters = new ArrayList<>(1);
+        for (ClusterMark mark : resolved) {
+            if (mark.offset() >= from && mark.offset() < to) {
+                clusters.add(mark);
+            }
+        }
+        return new WebmChunk(array, offset, (int) (to - from), from, header, clusters, parser.getLastBlockTimecode());
+    }
+}
@@ -0,0 +1,185 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A felvett WebM fájl véglegesítése ffmpeg nélkül: a Cluster-ek után Cues indexet ír, a fejlécben pedig kitölti a
+// Segment méretét, a Duration-t és a lefoglalt helyre SeekHead-et ír. A Cluster-eket nem olvassa újra.
+public final class WebmFinalizer {
+
+    private static final int SEEK_ID = 0x4DBB;
+    private static final int SEEK_ID_ID = 0x53AB;
+    private static final int SEEK_POSITION_ID = 0x53AC;
+    private static final int CUE_POINT_ID = 0xBB;
+    private static final int CUE_TIME_ID = 0xB3;
+    private static final int CUE_TRACK_POSITIONS_ID = 0xB7;
+    private static final int CUE_TRACK_ID = 0xF7;
+    private static final int CUE_CLUSTER_POSITION_ID = 0xF1;
+
+    public enum FileState { FINISHED, UNFINISHED, HEADERLESS }
+
+    private WebmFinalizer() {
+    }
+
+    // A fájl elejéből megállapítja, hogy véglegesített-e: a felvétel közben a Segment mérete ismeretlen,
+    // az összefűzésre váró részek pedig fejléc nélküliek
+    public static FileState probe(Path file) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(4096);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (head.hasRemaining() && channel.read(head) > 0) {
+                // A fejléc eleje elég
+            }
+        }
+        head.flip();
+        if (head.remaining() < 4 || head.getInt(0) != EbmlStreamParser.EBML_ID) return FileState.HEADERLESS;
+        head.position(4);
+        long ebmlSize = readVint(head);
+        if (ebmlSize < 0 || head.position() + ebmlSize + 4 > head.limit()) return FileState.UNFINISHED;
+        head.position(head.position() + (int) ebmlSize);
+        if (head.getInt() != EbmlStreamParser.SEGMENT_ID) return FileState.UNFINISHED;
+        return readVint(head) < 0 ? FileState.UNFINISHED : FileState.FINISHED;
+    }
+
+    // A fájl elején lévő stream fejléc (az első Cluster-ig); null, ha a fájl fejléc nélküli vagy a fejléc nem ér véget
+    public static byte[] readStreamHeader(Path file) throws IOException {
+        EbmlStreamParser parser = new EbmlStreamParser();
+        byte[][] header = new byte[1][];
+        EbmlStreamParser.Listener listener = new EbmlStreamParser.Listener() {
+            @Override
+            public void onHeader(byte[] streamHeader, long headerStart, long clusterOffset) {
+                if (headerStart == 0 && header[0] == null) {
+                    header[0] = streamHeader;
+                }
+            }
+
+            @Override
+            public void onCluster(ClusterMark cluster) {
+            }
+        };
+        byte[] buffer = new byte[64 * 1024];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            while (header[0] == null && parser.getPosition() <= EbmlStreamParser.MAX_HEADER_BYTES) {
+                wrapped.clear();
+                int read = channel.read(wrapped);
+                if (read <= 0) break;
+                if (parser.getPosition() == 0 && (read < 4 || wrapped.getInt(0) != EbmlStreamParser.EBML_ID)) break;
+                parser.feed(buffer, 0, read, listener);
+            }
+        }
+        return header[0];
+    }
+
+    private static long readVint(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) return -1;
+        int b = buffer.get() & 0xFF;
+        if (b == 0) return -1;
+        int length = Integer.numberOfLeadingZeros(b) - 23;
+        if (buffer.remaining() < length - 1) return -1;
+        long value = b & (0xFF >> length);
+        for (int k = 1; k < length; k++) {
+            value = (value << 8) | (buffer.get() & 0xFF);
+        }
+        return value == (1L << (7 * length)) - 1 ? -1 : value;
+    }
+
+    // Helyben véglegesít
+    public static void finalizeFile(Path file, SegmentIndex index) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            finalizeChannel(channel, index);
+            channel.force(true);
+        }
+    }
+
+    // Másolatot készít (a Cluster-ek a kernelben másolódnak), és a másolatot véglegesíti
+    public static void finalizeCopy(Path source, Path target, SegmentIndex index) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long copied = 0;
+            while (copied < size) {
+                copied += in.transferTo(copied, size - copied, out);
+            }
+            finalizeChannel(out, index);
+            out.force(true);
+        }
+    }
+
+    // Egy már megnyitott (olvasható és írható) fájl véglegesítése, pl. az összefűzés végén
+    public static void finalizeChannel(FileChannel channel, SegmentIndex index) throws IOException {
+        WebmHeader header = index.getHeader();
+        if (header == null) throw new IOException("A fájl nem véglegesíthető fejléccel készült");
+        long segmentData = header.getSegmentDataOffset();
+
+        // A Cues közvetlenül a Cluster-ek után kezdődik, és a fájl ott véget ér: egy újrapróbált véglegesítés a korábbi
+        // (akár félbemaradt) Cues-t felülírja, nem fűz egy újabbat a fájl végére
+        long cuesOffset = index.getDataEnd();
+        long size = channel.size();
+        if (cuesOffset < 0) {
+            cuesOffset = size;
+        } else if (cuesOffset > size) {
+            throw new IOException("A fájl rövidebb (" + size + " bájt), mint a kiírt Cluster-ek vége (" + cuesOffset + ")");
+        }
+        byte[] cues = buildCues(index, segmentData, header.getVideoTrack());
+        ByteBuffer cuesBuffer = ByteBuffer.wrap(cues);
+        long position = cuesOffset;
+        while (cuesBuffer.hasRemaining()) {
+            position += channel.write(cuesBuffer, position);
+        }
+        channel.truncate(position);
+
+        // Csak a fejléc kerül leképezésre, a fájl többi része érintetlen marad
+        MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_WRITE, 0, header.getBytes().length);
+        head.put(header.getSegmentSizeOffset(), EbmlWriter.size(position - segmentData, EbmlWriter.UNKNOWN_SIZE_LENGTH));
+        head.putDouble(header.getDurationOffset(), (double) index.getDuration());
+        head.put(header.getSeekHeadOffset(), buildSeekHead(header, cues.length > 0 ? cuesOffset - segmentData : -1));
+        head.force();
+    }
+
+    private static byte[] buildCues(SegmentIndex index, long segmentData, long videoTrack) {
+        if (index.getCues().isEmpty()) return new byte[0];
+        ByteArrayOutputStream points = new ByteArrayOutputStream(index.getCues().size() * 16);
+        for (SegmentIndex.CuePoint cue : index.getCues()) {
+            ByteArrayOutputStream trackPositions = new ByteArrayOutputStream(16);
+            EbmlWriter.writeUnsigned(trackPositions, CUE_TRACK_ID, videoTrack);
+            EbmlWriter.writeUnsigned(trackPositions, CUE_CLUSTER_POSITION_ID, cue.clusterOffset() - segmentData);
+            ByteArrayOutputStream point = new ByteArrayOutputStream(24);
+            EbmlWriter.writeUnsigned(point, CUE_TIME_ID, cue.timecode());
+            EbmlWriter.writeElement(point, CUE_TRACK_POSITIONS_ID, trackPositions.toByteArray());
+            EbmlWriter.writeElement(points, CUE_POINT_ID, point.toByteArray());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(points.size() + 12);
+        EbmlWriter.writeElement(out, EbmlStreamParser.CUES_ID, points.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static byte[] buildSeekHead(WebmHeader header, long cuesPosition) {
+        long segmentData = header.getSegmentDataOffset();
+        ByteArrayOutputStream seeks = new ByteArrayOutputStream(64);
+        writeSeek(seeks, EbmlStreamParser.INFO_ID, header.getInfoOffset() - segmentData);
+        writeSeek(seeks, EbmlStreamParser.TRACKS_ID, header.getTracksOffset() - segmentData);
+        if (cuesPosition >= 0) {
+            writeSeek(seeks, EbmlStreamParser.CUES_ID, cuesPosition);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(WebmHeader.SEEK_HEAD_RESERVE);
+        EbmlWriter.writeElement(out, EbmlStreamParser.SEEK_HEAD_ID, seeks.toByteArray());
+        // A lefoglalt hely maradékát Void tölti ki
+        WebmHeader.writeVoid(out, WebmHeader.SEEK_HEAD_RESERVE - out.size());
+        return out.toByteArray();
+    }
+
+    private static void writeSeek(ByteArrayOutputStream out, int id, long position) {
+        ByteArrayOutputStream seek = new ByteArrayOutputStream(24);
+        ByteArrayOutputStream idBytes = new ByteArrayOutputStream(4);
+        EbmlWriter.writeId(idBytes, id);
+        EbmlWriter.writeElement(seek, SEEK_ID_ID, idBytes.toByteArray());
+        EbmlWriter.writeUnsigned(seek, SEEK_POSITION_ID, position);
+        EbmlWriter.writeElement(out, SEEK_ID, seek.toByteArray());
+    }
+}
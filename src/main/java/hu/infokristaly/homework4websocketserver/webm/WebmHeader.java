@@ -0,0 +1,235 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import java.io.ByteArrayOutputStream;
+
+// A stream fejléc újraírt változata, amely utólag helyben véglegesíthető: a Segment mérete 8 bájton, az Info-ban
+// lefoglalt Duration, a Segment elején pedig a SeekHead számára fenntartott Void elem. Az offset-ek a fejlécen
+// (és így a fájl elején) belüliek.
+public class WebmHeader {
+
+    public static final int SEEK_HEAD_RESERVE = 96;
+    private static final int DURATION_ID = EbmlStreamParser.DURATION_ID;
+
+    private final byte[] bytes;
+    private final int segmentSizeOffset;
+    private final int segmentDataOffset;
+    private final int seekHeadOffset;
+    private final int infoOffset;
+    private final int durationOffset;
+    private final int tracksOffset;
+    private final long timecodeScale;
+    private final long videoTrack;
+
+    private WebmHeader(byte[] bytes, int segmentSizeOffset, int segmentDataOffset, int seekHeadOffset,
+                       int infoOffset, int durationOffset, int tracksOffset, long timecodeScale, long videoTrack) {
+        this.bytes = bytes;
+        this.segmentSizeOffset = segmentSizeOffset;
+        this.segmentDataOffset = segmentDataOffset;
+        this.seekHeadOffset = seekHeadOffset;
+        this.infoOffset = infoOffset;
+        this.durationOffset = durationOffset;
+        this.tracksOffset = tracksOffset;
+        this.timecodeScale = timecodeScale;
+        this.videoTrack = videoTrack;
+    }
+
+    // Az eredeti fejlécből előállítja a véglegesíthető változatot; null, ha a fejléc nem értelmezhető
+    public static WebmHeader rewrite(byte[] original) {
+        try {
+            Reader reader = new Reader(original, 0, original.length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(original.length + SEEK_HEAD_RESERVE + 32);
+            if (reader.readId() != EbmlStreamParser.EBML_ID) return null;
+            long ebmlSize = reader.readSize();
+            if (ebmlSize < 0) return null;
+            reader.skip(ebmlSize);
+            out.write(original, 0, reader.position);
+
+            if (reader.readId() != EbmlStreamParser.SEGMENT_ID) return null;
+            reader.readSize();
+            EbmlWriter.writeId(out, EbmlStreamParser.SEGMENT_ID);
+            int segmentSizeOffset = out.size();
+            out.writeBytes(EbmlWriter.unknownSize());
+            int segmentDataOffset = out.size();
+            int seekHeadOffset = out.size();
+            writeVoid(out, SEEK_HEAD_RESERVE);
+
+            int infoOffset = -1;
+            int durationOffset = -1;
+            int tracksOffset = -1;
+            long timecodeScale = 1_000_000;
+            long videoTrack = 1;
+            while (reader.position < original.length) {
+                int start = reader.position;
+                int id = reader.readId();
+                long size = reader.readSize();
+                if (size < 0 || reader.position + size > original.length) return null;
+                int dataStart = reader.position;
+                reader.skip(size);
+                switch (id) {
+                    case EbmlStreamParser.SEEK_HEAD_ID, EbmlStreamParser.VOID_ID -> {
+                        // A régi SeekHead helyett a véglegesítéskor sajátot írunk
+                    }
+                    case EbmlStreamParser.INFO_ID -> {
+                        ByteArrayOutputStream info = new ByteArrayOutputStream();
+                        Reader children = new Reader(original, dataStart, reader.position);
+                        while (children.position < reader.position) {
+                            int childStart = children.position;
+                            int childId = children.readId();
+                            long childSize = children.readSize();
+                            if (childSize < 0) return null;
+                            int childData = children.position;
+                            children.skip(childSize);
+                            if (childId == DURATION_ID) continue;
+                            if (childId == EbmlStreamParser.TIMECODE_SCALE_ID) {
+                                timecodeScale = readUnsigned(original, childData, (int) childSize);
+                            }
+                            info.write(original, childStart, children.position - childStart);
+                        }
+                        EbmlWriter.writeId(info, DURATION_ID);
+                        info.write(0x88);
+                        int durationInInfo = info.size();
+                        info.writeBytes(new byte[8]);
+
+                        infoOffset = out.size();
+                        EbmlWriter.writeId(out, EbmlStreamParser.INFO_ID);
+                        out.writeBytes(EbmlWriter.size(info.size(), 8));
+                        durationOffset = out.size() + durationInInfo;
+                        out.writeBytes(info.toByteArray());
+                    }
+                    case EbmlStreamParser.TRACKS_ID -> {
+                        videoTrack = findVideoTrack(original, dataStart, reader.position);
+                        tracksOffset = out.size();
+                        out.write(original, start, reader.position - start);
+                    }
+                    default -> out.write(original, start, reader.position - start);
+                }
+            }
+            if (infoOffset < 0 || tracksOffset < 0) return null;
+            return new WebmHeader(out.toByteArray(), segmentSizeOffset, segmentDataOffset, seekHeadOffset,
+                    infoOffset, durationOffset, tracksOffset, timecodeScale, videoTrack);
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // Az első videó (TrackType 1) sáv száma; ha nincs ilyen, az 1-es sáv
+    private static long findVideoTrack(byte[] data, int from, int to) {
+        Reader entries = new Reader(data, from, to);
+        while (entries.position < to) {
+            int id = entries.readId();
+            long size = entries.readSize();
+            int entryStart = entries.position;
+            entries.skip(size);
+            if (id != EbmlStreamParser.TRACK_ENTRY_ID) continue;
+            Reader fields = new Reader(data, entryStart, entries.position);
+            long number = -1;
+            long type = -1;
+            while (fields.position < entries.position) {
+                int fieldId = fields.readId();
+                long fieldSize = fields.readSize();
+                int fieldStart = fields.position;
+                fields.skip(fieldSize);
+                if (fieldId == EbmlStreamParser.TRACK_NUMBER_ID) number = readUnsigned(data, fieldStart, (int) fieldSize);
+                if (fieldId == EbmlStreamParser.TRACK_TYPE_ID) type = readUnsigned(data, fieldStart, (int) fieldSize);
+            }
+            if (type == 1 && number > 0) return number;
+        }
+        return 1;
+    }
+
+    static void writeVoid(ByteArrayOutputStream out, int totalSize) {
+        // A Void mérete 8 bájton, hogy bármilyen maradék (legalább 9 bájt) kitölthető legyen
+        out.write(EbmlStreamParser.VOID_ID);
+        out.writeBytes(EbmlWriter.size(totalSize - 9, 8));
+        out.writeBytes(new byte[totalSize - 9]);
+    }
+
+    private static long readUnsigned(byte[] data, int offset, int length) {
+        long value = 0;
+        for (int k = 0; k < length; k++) {
+            value = (value << 8) | (data[offset + k] & 0xFF);
+        }
+        return value;
+    }
+
+    private static class Reader {
+        private final byte[] data;
+        private final int end;
+        private int position;
+
+        Reader(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        int readId() {
+            int b = data[check(position)] & 0xFF;
+            int length = Integer.numberOfLeadingZeros(b) - 23;
+            if (b == 0 || length > 4) throw new IndexOutOfBoundsException("Érvénytelen EBML azonosító");
+            int id = 0;
+            for (int k = 0; k < length; k++) {
+                id = (id << 8) | (data[check(position++)] & 0xFF);
+            }
+            return id;
+        }
+
+        // -1: ismeretlen méret
+        long readSize() {
+            int b = data[check(position++)] & 0xFF;
+            if (b == 0) throw new IndexOutOfBoundsException("Érvénytelen EBML méret");
+            int length = Integer.numberOfLeadingZeros(b) - 23;
+            long value = b & (0xFF >> length);
+            for (int k = 1; k < length; k++) {
+                value = (value << 8) | (data[check(position++)] & 0xFF);
+            }
+            return value == (1L << (7 * length)) - 1 ? -1 : value;
+        }
+
+        void skip(long size) {
+            position += (int) size;
+            if (position > end) throw new IndexOutOfBoundsException("Az elem túlnyúlik a fejlécen");
+        }
+
+        private int check(int index) {
+            if (index >= end) throw new IndexOutOfBoundsException("Váratlan fejléc vége");
+            return index;
+        }
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getSegmentSizeOffset() {
+        return segmentSizeOffset;
+    }
+
+    public int getSegmentDataOffset() {
+        return segmentDataOffset;
+    }
+
+    public int getSeekHeadOffset() {
+        return seekHeadOffset;
+    }
+
+    public int getInfoOffset() {
+        return infoOffset;
+    }
+
+    public int getDurationOffset() {
+        return durationOffset;
+    }
+
+    public int getTracksOffset() {
+        return tracksOffset;
+    }
+
+    public long getTimecodeScale() {
+        return timecodeScale;
+    }
+
+    public long getVideoTrack() {
+        return videoTrack;
+    }
+}
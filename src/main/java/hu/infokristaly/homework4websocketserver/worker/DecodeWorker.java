@@ -0,0 +1,323 @@
+package hu.infokristaly.homework4websocketserver.worker;
+
+import hu.infokristaly.homework4websocketserver.cv.AdvancedMotionDetector;
+import hu.infokristaly.homework4websocketserver.cv.MotionDetectorSettings;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunker;
+import hu.infokristaly.homework4websocketserver.ws.AsyncInputStream;
+import hu.infokristaly.homework4websocketserver.ws.ByteBufferPool;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Külön JVM-ben futó dekóder: a szerver által írt gyűrűpuffer fájlokból olvas, FFmpeg-gel dekódol és mozgást érzékel.
+// A parancsok a stdin-en, az eredmények a stdout-on érkeznek tabulátorral tagolt sorokként (lásd DecodeWorkerPool);
+// minden napló a stderr-re megy, hogy a protokoll sorai ne keveredjenek vele.
+public class DecodeWorker {
+
+    // A dekóder előtti helyi puffer mérete; a gyűrű a szerver oldali, ez csak a Cluster-határos újraindításhoz kell
+    private static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final PrintStream out;
+    private final ByteBufferPool bufferPool;
+    private final int bufferSize;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    private class Session {
+        private final String id;
+        private final SharedRing ring;
+        private final WebmChunker chunker = new WebmChunker();
+        private final AsyncInputStream stream;
+        private final int probeSize;
+        private final long analyzeDuration;
+        private final boolean isKeyframesOnly;
+        private volatile MotionDetectorSettings settings;
+        private volatile boolean isSettingsChanged = false;
+        private volatile boolean isRunning = true;
+        private Thread pump;
+        private Thread decoder;
+
+        Session(String id, SharedRing ring, int probeSize, long analyzeDuration, boolean isKeyframesOnly,
+                MotionDetectorSettings settings) {
+            this.id = id;
+            this.ring = ring;
+            this.probeSize = probeSize;
+            this.analyzeDuration = analyzeDuration;
+            this.isKeyframesOnly = isKeyframesOnly;
+            this.settings = settings;
+            this.stream = new AsyncInputStream(bufferPool, bufferSize, AsyncInputStream.OverflowPolicy.DROP_OLDEST, 0);
+        }
+
+        void start() {
+            pump = new Thread(this::pump, "ring-" + id);
+            pump.setDaemon(true);
+            pump.start();
+            decoder = new Thread(this::decode, "decode-" + id);
+            decoder.setDaemon(true);
+            decoder.start();
+        }
+
+        void setSettings(MotionDetectorSettings settings) {
+            this.settings = settings;
+            isSettingsChanged = true;
+        }
+
+        void stop() {
+            isRunning = false;
+            stream.closeStream();
+            pump.interrupt();
+            decoder.interrupt();
+        }
+
+        // A gyűrűből a helyi pufferbe, a szerver oldallal azonos Cluster-határos darabolással
+        private void pump() {
+            byte[] buffer = new byte[64 * 1024];
+            byte[] header = null;
+            long backoffNanos = 50_000;
+            try {
+                while (isRunning) {
+                    int read = ring.read(buffer, 0, buffer.length);
+                    if (read == 0) {
+                        if (ring.isClosed()) break;
+                        LockSupport.parkNanos(backoffNanos);
+                        backoffNanos = Math.min(backoffNanos * 2, 5_000_000);
+                        continue;
+                    }
+                    backoffNanos = 50_000;
+                    for (WebmChunk chunk : chunker.feed(Arrays.copyOf(buffer, read))) {
+                        if (chunk.header() != header) {
+                            header = chunk.header();
+                            stream.write(header);
+                        }
+                        stream.write(chunk);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Hiba a gyűrűpuffer olvasásakor [" + id + "]: " + e.getMessage());
+            } finally {
+                // A szerver lezárta a gyűrűt (vagy hiba történt): a dekóder is leáll
+                isRunning = false;
+                stream.closeStream();
+            }
+        }
+
+        private void decode() {
+            AdvancedMotionDetector detector = null;
+            boolean isFirstStart = true;
+            try {
+                while (isRunning) {
+                    if (!isFirstStart) {
+                        send("RESTART", id);
+                    }
+                    isFirstStart = false;
+                    FFmpegFrameGrabber grabber = null;
+                    OpenCVFrameConverter.ToMat converter = null;
+                    try {
+                        stream.restart(chunker.getHeader());
+                        while (isRunning && !stream.awaitCluster(1000)) {
+                            // Jelzésre ébred, amint egy Cluster kezdete a pufferbe került
+                        }
+                        if (!isRunning) break;
+
+                        grabber = new FFmpegFrameGrabber(stream);
+                        grabber.setVideoCodecName(decoderName(chunker.getParser().getVideoCodec()));
+                        grabber.setFormat("webm");
+                        grabber.setOption("fflags", "nobuffer+igndts");
+                        grabber.setOption("probesize", String.valueOf(probeSize));
+                        grabber.setOption("analyzeduration", String.valueOf(analyzeDuration));
+                        if (isKeyframesOnly) {
+                            grabber.setVideoOption("skip_frame", "nokey");
+                        }
+                        grabber.start(false);
+                        converter = new OpenCVFrameConverter.ToMat();
+
+                        int nullFrameCount = 0;
+                        while (isRunning) {
+                            long started = System.nanoTime();
+                            Frame frame = grabber.grabImage();
+                            long decodeNanos = System.nanoTime() - started;
+                            busyNanos.addAndGet(decodeNanos);
+                            if (frame == null) {
+                                send("NULL", id);
+                                if (++nullFrameCount > 20) {
+                                    System.err.println("A stream megszakadt vagy elfogyott az adat [" + id + "]. Újraindítás...");
+                                    break;
+                                }
+                                stream.awaitAvailable(1, 500);
+                                continue;
+                            }
+                            nullFrameCount = 0;
+                            if (frame.image == null || (isKeyframesOnly && !frame.keyFrame)) {
+                                send("FRAME", id, Long.toString(decodeNanos), "-1", "0", "0");
+                                continue;
+                            }
+                            Mat mat = converter.convert(frame);
+                            if (mat == null || mat.empty()) continue;
+                            if (detector == null || isSettingsChanged) {
+                                isSettingsChanged = false;
+                                if (detector != null) detector.close();
+                                detector = new AdvancedMotionDetector(settings);
+                            }
+                            long detectStarted = System.nanoTime();
+                            boolean motion = detector.detectMotionFromMat(mat);
+                            long detectNanos = System.nanoTime() - detectStarted;
+                            busyNanos.addAndGet(detectNanos);
+                            // Az adat helyi pufferbe kerülése óta eltelt idő; a gyűrűben töltött idő ehhez képest elhanyagolható
+                            long arrival = stream.getLastReadArrivalNanos();
+                            long ageNanos = arrival == 0 ? 0 : System.nanoTime() - arrival;
+                            send("FRAME", id, Long.toString(decodeNanos), Long.toString(detectNanos),
+                                    motion ? "1" : "0", Long.toString(ageNanos));
+                        }
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (Exception e) {
+                        System.err.println("Grabber hiba [" + id + "]: " + e.getMessage());
+                        try {
+                            Thread.sleep(1000);
+                        } catch (InterruptedException i) {
+                            break;
+                        }
+                    } finally {
+                        if (converter != null) {
+                            converter.close();
+                        }
+                        if (grabber != null) {
+                            try {
+                                grabber.close();
+                                grabber.release();
+                            } catch (Exception e) {
+                                System.err.println("Hiba a grabber lezárásakor: " + e.getMessage());
+                            }
+                        }
+                    }
+                }
+            } finally {
+                stream.dispose();
+                if (detector != null) {
+                    detector.close();
+                }
+                sessions.remove(id, this);
+                send("CLOSED", id);
+            }
+        }
+    }
+
+    public DecodeWorker(PrintStream out, int bufferSize) {
+        this.out = out;
+        this.bufferSize = bufferSize;
+        this.bufferPool = new ByteBufferPool(bufferSize, false, 16);
+    }
+
+    public static void main(String[] args) throws IOException {
+        PrintStream protocol = new PrintStream(new FileOutputStream(FileDescriptor.out), false, StandardCharsets.UTF_8);
+        System.setOut(System.err);
+        int bufferSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BUFFER_SIZE;
+        DecodeWorker worker = new DecodeWorker(protocol, bufferSize);
+        worker.run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+    }
+
+    public void run(BufferedReader commands) throws IOException {
+        Thread reporter = new Thread(this::reportLoad, "worker-load");
+        reporter.setDaemon(true);
+        reporter.start();
+        send("READY");
+        String line;
+        // A stdin lezárása (a szerver leállása vagy összeomlása) a folyamat végét jelenti
+        while ((line = commands.readLine()) != null) {
+            String[] fields = line.split("\t");
+            try {
+                switch (fields[0]) {
+                    case "OPEN" -> open(fields);
+                    case "SETTINGS" -> {
+                        Session session = sessions.get(fields[1]);
+                        if (session != null) session.setSettings(decodeSettings(fields[2]));
+                    }
+                    case "CLOSE" -> {
+                        Session session = sessions.get(fields[1]);
+                        if (session != null) session.stop();
+                    }
+                    case "EXIT" -> {
+                        return;
+                    }
+                    default -> System.err.println("Ismeretlen parancs: " + fields[0]);
+                }
+            } catch (Exception e) {
+                System.err.println("Hibás parancs: " + line + " (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    // OPEN <session> <gyűrű fájl> <probesize> <analyzeduration> <csak kulcskockák> <beállítások>
+    private void open(String[] fields) throws IOException {
+        String id = fields[1];
+        Session previous = sessions.remove(id);
+        if (previous != null) previous.stop();
+        Session session = new Session(id, SharedRing.open(Path.of(fields[2])), Integer.parseInt(fields[3]),
+                Long.parseLong(fields[4]), Boolean.parseBoolean(fields[5]), decodeSettings(fields[6]));
+        sessions.put(id, session);
+        session.start();
+        System.err.println("Dekóder session megnyitva [" + id + "]");
+    }
+
+    private void reportLoad() {
+        while (true) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            send("LOAD", Long.toString(busyNanos.getAndSet(0)), Integer.toString(sessions.size()));
+        }
+    }
+
+    private void send(String... fields) {
+        synchronized (out) {
+            out.println(String.join("\t", fields));
+            out.flush();
+        }
+    }
+
+    static String decoderName(String codecId) {
+        if (codecId == null) return "vp8";
+        return switch (codecId) {
+            case "V_VP9" -> "vp9";
+            case "V_AV1" -> "av1";
+            case "V_MPEG4/ISO/AVC" -> "h264";
+            default -> "vp8";
+        };
+    }
+
+    // A MotionDetectorSettings egy tabulátor nélküli mezőben: "fast|width|roi|exclude|threshold|history|varThreshold|shadows",
+    // ahol a roi és az exclude a MotionDetectorSettings.formatRegions alakja vagy "-"
+    static String encodeSettings(MotionDetectorSettings settings) {
+        return settings.fast() + "|" + settings.analysisWidth() + "|" + encodeRegions(settings.roi()) + "|"
+                + encodeRegions(settings.exclude()) + "|" + settings.threshold() + "|" + settings.history() + "|"
+                + settings.varThreshold() + "|" + settings.detectShadows();
+    }
+
+    static MotionDetectorSettings decodeSettings(String value) {
+        String[] parts = value.split("\\|");
+        return new MotionDetectorSettings(Boolean.parseBoolean(parts[0]), Integer.parseInt(parts[1]),
+                decodeRegions(parts[2]), decodeRegions(parts[3]), Double.parseDouble(parts[4]),
+                Integer.parseInt(parts[5]), Double.parseDouble(parts[6]), Boolean.parseBoolean(parts[7]));
+    }
+
+    private static String encodeRegions(double[][] regions) {
+        return regions == null ? "-" : MotionDetectorSettings.formatRegions(regions);
+    }
+
+    private static double[][] decodeRegions(String value) {
+        return "-".equals(value) ? null : MotionDetectorSettings.parseRegions(value);
+    }
+}
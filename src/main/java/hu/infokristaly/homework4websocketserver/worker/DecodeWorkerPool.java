@@ -0,0 +1,422 @@
+package hu.infokristaly.homework4websocketserver.worker;
+
+import hu.infokristaly.homework4websocketserver.cv.MotionDetectorSettings;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+// Helyi dekóder folyamatok (DecodeWorker) indítása és felügyelete. A session-ök a legkevésbé terhelt folyamatra
+// kerülnek; ha egy folyamat összeomlik, a session-jei a gyűrűk újraszinkronizálása után azonnal más élő folyamaton
+// folytatódnak, a folyamat pedig újraindul (gyors egymás utáni összeomlásoknál egyre később). Az a session, amelyik
+// túl sok összeomláskor volt jelen, karanténba kerül: valószínűleg a stream-je viszi a dekódert, így nem adjuk tovább.
+// A natív dekóder hibája így nem viszi magával a szervert és a többi kamerát.
+//
+// Parancsok (stdin): OPEN, SETTINGS, CLOSE, EXIT. Válaszok (stdout): READY; FRAME <session> <dekódolás ns>
+// <érzékelés ns, -1 ha nem elemzett> <mozgás 0/1> <az adat kora ns>; NULL; RESTART; CLOSED; LOAD <foglalt ns> <session-ök>.
+@Component
+public class DecodeWorkerPool {
+
+    private static final String BOOT_LAUNCHER = "org.springframework.boot.loader.launch.PropertiesLauncher";
+    private static final long MAX_RESTART_DELAY_MILLIS = 30_000;
+    // Ennél tovább futó folyamat leállása nem számít összeomlási hurok részének
+    private static final long STABLE_RUN_MILLIS = 60_000;
+    // Egy session összeomlásai ennyi idő csend után felejtődnek el
+    private static final long CRASH_WINDOW_MILLIS = 10 * 60_000;
+
+    @Value("${video.decode.workers:0}")
+    private Integer workerCount;
+
+    @Value("${video.decode.worker.ring-size:16777216}")
+    private Integer ringSize;
+
+    @Value("${video.decode.worker.dir:}")
+    private String ringDirectory;
+
+    @Value("${video.decode.worker.jvm-options:-Xmx512m}")
+    private String jvmOptions;
+
+    @Value("${video.decode.worker.buffer:4194304}")
+    private Integer workerBufferSize;
+
+    // Ennyi összeomlás után a session nem kerül másik folyamatra; 0: soha
+    @Value("${video.decode.worker.quarantine-after:3}")
+    private Integer quarantineAfter;
+
+    // A folyamat indítása; a tesztek helyettesítik
+    interface Launcher {
+        Process launch(int index) throws IOException;
+    }
+
+    // A dekóder eredményeinek fogadója; a folyamat olvasó szálán hívódik
+    public interface Listener {
+        // detectNanos < 0: a képkocka nem került elemzésre
+        void onFrame(long decodeNanos, long detectNanos, boolean motion, long ageNanos);
+
+        void onNullFrame();
+
+        void onRestart();
+
+        // A session stream-je többször összeomlasztotta a dekódert, nem kap több folyamatot
+        void onQuarantined();
+    }
+
+    private static class RemoteSession {
+        private final String id;
+        private final SharedRing ring;
+        private final Listener listener;
+        private final String openCommand;
+        private volatile String settingsCommand;
+        private volatile Worker worker;
+        private int crashes = 0;
+        private long lastCrashAt = 0;
+        private volatile boolean isQuarantined = false;
+
+        RemoteSession(String id, SharedRing ring, Listener listener, String openCommand) {
+            this.id = id;
+            this.ring = ring;
+            this.listener = listener;
+            this.openCommand = openCommand;
+        }
+    }
+
+    private class Worker {
+        private final int index;
+        private final Process process;
+        private final PrintWriter commands;
+        private final Set<RemoteSession> sessions = ConcurrentHashMap.newKeySet();
+        private final long launchedAt = System.currentTimeMillis();
+        // Az egymást rövid futás után követő összeomlások száma ezen a helyen
+        private volatile int crashes = 0;
+        // Az utolsó másodperc dekódolásra és érzékelésre fordított ideje
+        private volatile long busyNanos;
+
+        Worker(int index, Process process) {
+            this.index = index;
+            this.process = process;
+            this.commands = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8), true);
+        }
+
+        synchronized void send(String command) {
+            commands.println(command);
+        }
+    }
+
+    private final Map<String, RemoteSession> sessions = new ConcurrentHashMap<>();
+    private Worker[] workers;
+    private Path directory;
+    private volatile boolean running = false;
+    private Launcher launcher = this::startProcess;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (workerCount <= 0) return;
+        start(resolveDirectory(), launcher);
+        System.out.println("Dekóder folyamatok: " + workerCount + ", gyűrűk: " + directory);
+    }
+
+    void start(Path directory, Launcher launcher) throws IOException {
+        this.directory = directory;
+        this.launcher = launcher;
+        Files.createDirectories(directory);
+        workers = new Worker[workerCount];
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = launch(i);
+        }
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    // Linuxon a /dev/shm-ben a gyűrű nem kerül lemezre
+    private Path resolveDirectory() {
+        if (ringDirectory != null && !ringDirectory.isBlank()) return Path.of(ringDirectory);
+        Path shm = Path.of("/dev/shm");
+        Path base = Files.isDirectory(shm) && Files.isWritable(shm) ? shm : Path.of(System.getProperty("java.io.tmpdir"));
+        return base.resolve("homework4-rings");
+    }
+
+    public SharedRing createRing(String sessionId) throws IOException {
+        return SharedRing.create(directory.resolve(sessionId + ".ring"), ringSize);
+    }
+
+    private Worker launch(int index) throws IOException {
+        Process process = launcher.launch(index);
+        Worker worker = new Worker(index, process);
+        Thread reader = new Thread(() -> readLoop(worker), "decode-worker-" + index);
+        reader.setDaemon(true);
+        reader.start();
+        System.out.println("Dekóder folyamat #" + index + " elindult, pid: " + process.pid());
+        return worker;
+    }
+
+    private Process startProcess(int index) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        for (String option : jvmOptions.trim().split("\\s+")) {
+            if (!option.isEmpty()) command.add(option);
+        }
+        String classPath = System.getProperty("java.class.path");
+        command.add("-cp");
+        command.add(classPath);
+        if (isBootJar(classPath)) {
+            // A futtatható jar-ban az osztályok a BOOT-INF alatt vannak, a Spring Boot indítója tölti be őket
+            command.add("-Dloader.main=" + DecodeWorker.class.getName());
+            command.add(BOOT_LAUNCHER);
+        } else {
+            command.add(DecodeWorker.class.getName());
+        }
+        command.add(String.valueOf(workerBufferSize));
+        return new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static boolean isBootJar(String classPath) {
+        if (!classPath.endsWith(".jar") || classPath.contains(File.pathSeparator)) return false;
+        try (JarFile jar = new JarFile(classPath)) {
+            return jar.getEntry("BOOT-INF/") != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // A megnyitás a session teljes élettartamára szól; a beállítások később a setSettings-szel frissíthetők
+    public void open(String sessionId, SharedRing ring, int probeSize, long analyzeDuration, boolean isKeyframesOnly,
+                     MotionDetectorSettings settings, Listener listener) {
+        String openCommand = String.join("\t", "OPEN", sessionId, ring.getFile().toString(),
+                String.valueOf(probeSize), String.valueOf(analyzeDuration), String.valueOf(isKeyframesOnly),
+                DecodeWorker.encodeSettings(settings));
+        RemoteSession session = new RemoteSession(sessionId, ring, listener, openCommand);
+        sessions.put(sessionId, session);
+        assign(session);
+    }
+
+    public void setSettings(String sessionId, MotionDetectorSettings settings) {
+        RemoteSession session = sessions.get(sessionId);
+        if (session == null) return;
+        session.settingsCommand = String.join("\t", "SETTINGS", sessionId, DecodeWorker.encodeSettings(settings));
+        Worker worker = session.worker;
+        if (worker != null) worker.send(session.settingsCommand);
+    }
+
+    public void close(String sessionId) {
+        RemoteSession session = sessions.remove(sessionId);
+        if (session == null) return;
+        Worker worker = session.worker;
+        if (worker != null) {
+            worker.sessions.remove(session);
+            worker.send("CLOSE\t" + sessionId);
+        }
+        session.ring.markClosed();
+        try {
+            Files.deleteIfExists(session.ring.getFile());
+        } catch (IOException e) {
+            System.err.println("A gyűrűpuffer nem törölhető: " + e.getMessage());
+        }
+    }
+
+    // A legkevesebb session-t kezelő, azonos számnál a legkevésbé terhelt élő folyamat
+    private synchronized void assign(RemoteSession session) {
+        Worker target = null;
+        for (Worker worker : workers) {
+            if (worker == null || !worker.process.isAlive()) continue;
+            if (target == null || worker.sessions.size() < target.sessions.size()
+                    || (worker.sessions.size() == target.sessions.size() && worker.busyNanos < target.busyNanos)) {
+                target = worker;
+            }
+        }
+        session.worker = target;
+        if (target == null) {
+            // Minden folyamat épp újraindul: az újraindult folyamat veszi át
+            return;
+        }
+        target.sessions.add(session);
+        target.send(session.openCommand);
+        if (session.settingsCommand != null) {
+            target.send(session.settingsCommand);
+        }
+    }
+
+    private void readLoop(Worker worker) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(worker.process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                dispatch(worker, line.split("\t"));
+            }
+        } catch (IOException e) {
+            System.err.println("Hiba a dekóder folyamat #" + worker.index + " olvasásakor: " + e.getMessage());
+        }
+        if (running) {
+            onWorkerExit(worker);
+        }
+    }
+
+    private void dispatch(Worker worker, String[] fields) {
+        try {
+            switch (fields[0]) {
+                case "FRAME" -> {
+                    RemoteSession session = sessions.get(fields[1]);
+                    if (session != null) {
+                        session.listener.onFrame(Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                                "1".equals(fields[4]), Long.parseLong(fields[5]));
+                    }
+                }
+                case "NULL" -> {
+                    RemoteSession session = sessions.get(fields[1]);
+                    if (session != null) session.listener.onNullFrame();
+                }
+                case "RESTART" -> {
+                    RemoteSession session = sessions.get(fields[1]);
+                    if (session != null) session.listener.onRestart();
+                }
+                case "LOAD" -> worker.busyNanos = Long.parseLong(fields[1]);
+                case "READY", "CLOSED" -> {
+                    // Csak tájékoztató
+                }
+                default -> System.err.println("Ismeretlen dekóder üzenet: " + String.join(" ", fields));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Hiba a dekóder üzenet feldolgozásakor: " + e.getMessage());
+        }
+    }
+
+    // Összeomlott (vagy kilépett) folyamat: a session-ök áthelyezése, majd a folyamat újraindítása
+    private void onWorkerExit(Worker worker) {
+        int exitCode;
+        try {
+            exitCode = worker.process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        // Rövid futás utáni újabb leállás: összeomlási hurok (pl. hibás JVM opció, natív betöltési hiba)
+        int crashes = now - worker.launchedAt >= STABLE_RUN_MILLIS ? 1 : worker.crashes + 1;
+        System.err.println("A dekóder folyamat #" + worker.index + " leállt (" + exitCode + ", " + crashes
+                + ". egymás utáni), " + worker.sessions.size() + " session áthelyezése");
+        List<RemoteSession> orphans = new ArrayList<>(worker.sessions);
+        worker.sessions.clear();
+        synchronized (this) {
+            if (workers[worker.index] == worker) workers[worker.index] = null;
+        }
+        for (RemoteSession session : orphans) {
+            if (!sessions.containsKey(session.id)) continue;
+            session.worker = null;
+            if (registerCrash(session, now)) {
+                quarantine(session);
+                continue;
+            }
+            // A félbehagyott olvasás eldobva: az új olvasó a fejléccel és a következő Cluster-rel indul
+            session.ring.resync();
+            session.listener.onRestart();
+            assign(session);
+        }
+        long delay = restartDelay(crashes);
+        Worker replacement = null;
+        while (running && replacement == null) {
+            if (delay > 0) {
+                System.err.println("A dekóder folyamat #" + worker.index + " újraindítása " + delay + " ms múlva");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException i) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (!running) return;
+            try {
+                replacement = launch(worker.index);
+                replacement.crashes = crashes;
+            } catch (IOException e) {
+                System.err.println("A dekóder folyamat #" + worker.index + " nem indítható: " + e.getMessage());
+                delay = Math.max(1000, Math.min(delay * 2, MAX_RESTART_DELAY_MILLIS));
+            }
+        }
+        if (replacement == null) return;
+        synchronized (this) {
+            workers[worker.index] = replacement;
+        }
+        // Ha minden folyamat épp leállt, a gazdátlan session-ök most kapnak folyamatot
+        for (RemoteSession session : sessions.values()) {
+            if (session.worker == null && !session.isQuarantined) assign(session);
+        }
+    }
+
+    // Az első összeomlás után azonnal, utána 1 mp-től duplázva, legfeljebb MAX_RESTART_DELAY_MILLIS-ig
+    static long restartDelay(int crashes) {
+        if (crashes <= 1) return 0;
+        return Math.min(1000L << Math.min(crashes - 2, 20), MAX_RESTART_DELAY_MILLIS);
+    }
+
+    // Igaz, ha a session túl sokszor volt jelen összeomláskor
+    private boolean registerCrash(RemoteSession session, long now) {
+        if (now - session.lastCrashAt > CRASH_WINDOW_MILLIS) {
+            session.crashes = 0;
+        }
+        session.crashes++;
+        session.lastCrashAt = now;
+        return quarantineAfter > 0 && session.crashes >= quarantineAfter;
+    }
+
+    private void quarantine(RemoteSession session) {
+        session.isQuarantined = true;
+        System.err.println("A(z) " + session.id + " session " + session.crashes
+                + " dekóder összeomláskor volt jelen, karanténba kerül (nincs elemzés)");
+        session.listener.onQuarantined();
+    }
+
+    public int getQuarantinedCount() {
+        int count = 0;
+        for (RemoteSession session : sessions.values()) {
+            if (session.isQuarantined) count++;
+        }
+        return count;
+    }
+
+    public int getWorkerCount() {
+        return workers == null ? 0 : workers.length;
+    }
+
+    public Map<Long, Integer> getSessionCounts() {
+        Map<Long, Integer> counts = new LinkedHashMap<>();
+        if (workers == null) return counts;
+        for (Worker worker : workers) {
+            if (worker != null) counts.put(worker.process.pid(), worker.sessions.size());
+        }
+        return counts;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) return;
+        running = false;
+        for (Worker worker : workers) {
+            if (worker == null) continue;
+            worker.send("EXIT");
+            try {
+                if (!worker.process.waitFor(2, TimeUnit.SECONDS)) {
+                    worker.process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                worker.process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (RemoteSession session : sessions.values()) {
+            session.ring.markClosed();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package hu.infokristaly.homework4websocketserver.worker;
+
+import hu.infokristaly.homework4websocketserver.ws.StreamSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Memóriába képzett gyűrűpuffer fájl egy író (a szerver) és egy olvasó (a dekóder folyamat) között. A fejlécben
+// lévő abszolút írási és olvasási pozíciók release/acquire szemantikával frissülnek, így zár és rendszerhívás nélkül
+// osztható meg két JVM között. Az író soha nem vár: ha nincs hely, eldobja az adatot, és a következő kulcskockás
+// Cluster-nél a stream fejlécével folytatja.
+public class SharedRing implements StreamSink, Closeable {
+
+    private static final long MAGIC = 0x4857345249484731L;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int WRITE_POS_OFFSET = 16;
+    private static final int READ_POS_OFFSET = 24;
+    private static final int CLOSED_OFFSET = 32;
+    private static final int HEADER_SIZE = 64;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    // Csak az író oldalon használt állapot
+    private long writePos;
+    private byte[] header;
+    private boolean resyncing = false;
+    private long droppedBytes = 0;
+
+    private SharedRing(Path file, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.writePos = (long) LONGS.getAcquire(buffer, WRITE_POS_OFFSET);
+    }
+
+    // Az író oldal hozza létre (egy korábbi, azonos nevű fájlt felülír)
+    public static SharedRing create(Path file, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity);
+            buffer.putLong(CAPACITY_OFFSET, capacity);
+            LONGS.setRelease(buffer, WRITE_POS_OFFSET, 0L);
+            LONGS.setRelease(buffer, READ_POS_OFFSET, 0L);
+            LONGS.setRelease(buffer, CLOSED_OFFSET, 0L);
+            LONGS.setRelease(buffer, MAGIC_OFFSET, MAGIC);
+            return new SharedRing(file, buffer, capacity);
+        }
+    }
+
+    // Az olvasó oldal nyitja meg
+    public static SharedRing open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if ((long) LONGS.getAcquire(header, MAGIC_OFFSET) != MAGIC) {
+                throw new IOException("Nem gyűrűpuffer fájl: " + file);
+            }
+            int capacity = (int) header.getLong(CAPACITY_OFFSET);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity);
+            return new SharedRing(file, buffer, capacity);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // ---- Író oldal (a WebSocket szál) ----
+
+    // A stream fejléce; túlcsordulás vagy olvasócsere után ezzel indul újra az olvasó
+    public synchronized boolean write(byte[] header) {
+        if (header == null || header.length == 0) return true;
+        this.header = header;
+        return put(ByteBuffer.wrap(header), new int[0], new boolean[0], false);
+    }
+
+    // A clusterOffsets a data-n belüli Cluster kezdetek, a keyframes ezek kulcskocka jelzői. Az eldobott adat nem hiba
+    // (a kapcsolat él tovább), ezért mindig igazzal tér vissza; az eldobott mennyiség a getDroppedBytes()-ből olvasható.
+    public synchronized boolean write(ByteBuffer data, int[] clusterOffsets, boolean[] keyframes) {
+        return put(data, clusterOffsets, keyframes, true);
+    }
+
+    private boolean put(ByteBuffer data, int[] clusterOffsets, boolean[] keyframes, boolean clusterData) {
+        if (isClosed()) return true;
+        // Újraszinkronizáláskor a fejléc a következő kulcskockás Cluster elé kerül
+        if (resyncing && !clusterData) return true;
+        if (resyncing) {
+            int keyframe = -1;
+            for (int i = 0; i < keyframes.length && keyframe < 0; i++) {
+                if (keyframes[i]) keyframe = i;
+            }
+            if (keyframe < 0 || header == null) {
+                droppedBytes += data.remaining();
+                return true;
+            }
+            droppedBytes += clusterOffsets[keyframe];
+            data.position(data.position() + clusterOffsets[keyframe]);
+            if (!fits(header.length + data.remaining())) {
+                droppedBytes += data.remaining();
+                return true;
+            }
+            resyncing = false;
+            copy(ByteBuffer.wrap(header));
+        }
+        if (!fits(data.remaining())) {
+            // A dekóder lemaradt: a következő kulcskockás Cluster-ig eldobjuk
+            droppedBytes += data.remaining();
+            resyncing = true;
+            return true;
+        }
+        copy(data);
+        LONGS.setRelease(buffer, WRITE_POS_OFFSET, writePos);
+        return true;
+    }
+
+    private boolean fits(int length) {
+        return capacity - (writePos - readPosition()) >= length;
+    }
+
+    private void copy(ByteBuffer data) {
+        int length = data.remaining();
+        int position = (int) (writePos % capacity);
+        int first = Math.min(length, capacity - position);
+        buffer.put(HEADER_SIZE + position, data, data.position(), first);
+        if (first < length) {
+            buffer.put(HEADER_SIZE, data, data.position() + first, length - first);
+        }
+        data.position(data.position() + length);
+        writePos += length;
+    }
+
+    // Az olvasó folyamat cseréjekor: a maradék eldobva, az új olvasó a fejléccel és a következő kulcskockás Cluster-rel indul
+    public synchronized void resync() {
+        droppedBytes += writePos - readPosition();
+        LONGS.setRelease(buffer, READ_POS_OFFSET, writePos);
+        resyncing = header != null;
+    }
+
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public long getAvailableBytes() {
+        return (long) LONGS.getAcquire(buffer, WRITE_POS_OFFSET) - readPosition();
+    }
+
+    public void markClosed() {
+        LONGS.setRelease(buffer, CLOSED_OFFSET, 1L);
+    }
+
+    // ---- Olvasó oldal (a dekóder folyamat) ----
+
+    public boolean isClosed() {
+        return (long) LONGS.getAcquire(buffer, CLOSED_OFFSET) != 0;
+    }
+
+    public long readPosition() {
+        return (long) LONGS.getAcquire(buffer, READ_POS_OFFSET);
+    }
+
+    // Nem blokkol: legfeljebb len bájtot másol, 0 ha nincs olvasható adat
+    public int read(byte[] b, int off, int len) {
+        long read = readPosition();
+        long available = (long) LONGS.getAcquire(buffer, WRITE_POS_OFFSET) - read;
+        if (available <= 0) return 0;
+        int toCopy = (int) Math.min(len, available);
+        int position = (int) (read % capacity);
+        int first = Math.min(toCopy, capacity - position);
+        buffer.get(HEADER_SIZE + position, b, off, first);
+        if (first < toCopy) {
+            buffer.get(HEADER_SIZE, b, off + first, toCopy - first);
+        }
+        // Ha az író közben újraszinkronizált, az olvasott adat érvénytelen
+        if (!LONGS.compareAndSet(buffer, READ_POS_OFFSET, read, read + toCopy)) return 0;
+        return toCopy;
+    }
+
+    @Override
+    public void close() {
+        markClosed();
+    }
+}
@@ -0,0 +1,326 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Eldönti, mely dekódolt képkockák kerüljenek mozgásérzékelésre, és terhelés esetén kameránként ritkítja az elemzést
+@Component
+public class AnalysisScheduler {
+
+    // Ennyi szinten felezi a ritkítás az elemzési gyakoriságot, a legfelső szinten csak kulcskockák maradnak
+    private static final int MAX_LEVEL = 4;
+
+    @Value("${motion.analysis.fps:0}")
+    private Double analysisFps;
+
+    @Value("${motion.analysis.keyframes-only:false}")
+    private Boolean isKeyframesOnly;
+
+    @Value("${motion.analysis.adaptive:true}")
+    private Boolean isAdaptive;
+
+    @Value("${motion.analysis.lag.high:2000}")
+    private Long lagHighMillis;
+
+    @Value("${motion.analysis.lag.recovery:30000}")
+    private Long lagRecoveryMillis;
+
+    @Value("${motion.analysis.cpu.high:0.85}")
+    private Double cpuHigh;
+
+    @Value("${motion.analysis.cpu.low:0.6}")
+    private Double cpuLow;
+
+    @Autowired
+    private ExecutionModel executionModel;
+
+    public static class SessionState {
+        private final String sessionId;
+        private volatile String source;
+        private final AtomicLong decodedFrames = new AtomicLong();
+        private final AtomicLong analysedFrames = new AtomicLong();
+        private final AtomicLong skippedFrames = new AtomicLong();
+        // A dekóder csúszása: eltelt valós idő és a stream időbélyegek különbsége
+        private long baseWallMillis = -1;
+        private long baseStreamMicros;
+        private long lastStreamMicros = Long.MIN_VALUE;
+        private volatile long lagMillis;
+        // A kamera saját ritkítási szintje: egy csúszó kamera nem ritkítja a többit
+        private volatile int level;
+        private long lastAnalysedMicros = Long.MIN_VALUE;
+        // Csúszás miatt a dekóder is csak kulcskockákat dekódol (skip_frame=nokey)
+        private volatile boolean isDecodingKeyframesOnly;
+        private long keyframesOnlySince;
+        private volatile double decodeFps;
+        private volatile double effectiveFps;
+        private volatile double skipRate;
+        private long lastDecoded;
+        private long lastAnalysed;
+        private long lastSkipped;
+
+        SessionState(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        public void setSource(String source) {
+            this.source = source;
+        }
+
+        // Új stream esetén a csúszás mérését újrakezdjük. A grabber újraindítása nem ilyen: a dekóder ugyanazon
+        // időbélyegekkel folytatja, így a felgyűlt csúszás megmarad, és a kulcskockás dekódolás is ehhez mérhető.
+        public synchronized void reset() {
+            baseWallMillis = -1;
+            lastStreamMicros = Long.MIN_VALUE;
+            lastAnalysedMicros = Long.MIN_VALUE;
+            lagMillis = 0;
+        }
+
+        private synchronized void updateLag(long streamMicros) {
+            long now = System.currentTimeMillis();
+            if (streamMicros < lastStreamMicros) {
+                // Visszaugrott az időbélyeg: a kliens új stream-et (fejlécet) küldött
+                baseWallMillis = -1;
+            }
+            lastStreamMicros = streamMicros;
+            long lag = baseWallMillis < 0 ? -1 : (now - baseWallMillis) - (streamMicros - baseStreamMicros) / 1000;
+            if (lag < 0) {
+                // Az első képkocka, vagy a kliens pufferelt adatot küldött: új viszonyítási pont
+                baseWallMillis = now;
+                baseStreamMicros = streamMicros;
+                lag = 0;
+            }
+            lagMillis = lag;
+        }
+
+        private void tick(double seconds) {
+            long decoded = decodedFrames.get();
+            long analysed = analysedFrames.get();
+            long skipped = skippedFrames.get();
+            long decodedDelta = decoded - lastDecoded;
+            decodeFps = decodedDelta / seconds;
+            effectiveFps = (analysed - lastAnalysed) / seconds;
+            skipRate = decodedDelta == 0 ? 0 : (double) (skipped - lastSkipped) / decodedDelta;
+            lastDecoded = decoded;
+            lastAnalysed = analysed;
+            lastSkipped = skipped;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public long getLagMillis() {
+            return lagMillis;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public double getDecodeFps() {
+            return decodeFps;
+        }
+
+        public double getEffectiveFps() {
+            return effectiveFps;
+        }
+
+        public double getSkipRate() {
+            return skipRate;
+        }
+
+        public long getDecodedFrames() {
+            return decodedFrames.get();
+        }
+
+        public long getAnalysedFrames() {
+            return analysedFrames.get();
+        }
+
+        public long getSkippedFrames() {
+            return skippedFrames.get();
+        }
+
+        public boolean isDecodingKeyframesOnly() {
+            return isDecodingKeyframesOnly;
+        }
+    }
+
+    private final ConcurrentHashMap<String, SessionState> sessions = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ticker;
+    private volatile double cpuLoad = 0;
+    private long lastTick;
+
+    @PostConstruct
+    public void init() {
+        lastTick = System.nanoTime();
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "analysis-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    public SessionState register(String sessionId) {
+        return sessions.computeIfAbsent(sessionId, SessionState::new);
+    }
+
+    public void unregister(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    public boolean isKeyframesOnly() {
+        return isKeyframesOnly;
+    }
+
+    // A grabber (újra)indításakor hívandó; igaz, ha a dekóder csak kulcskockákat dekódoljon.
+    // Csúszásnál a kihagyott elemzés nem elég, a dekódolás költségét is csökkenteni kell, különben nem éri utol a stream-et.
+    public boolean restartDecoder(SessionState state) {
+        synchronized (state) {
+            boolean keyframesOnly = isKeyframesOnly || state.lagMillis > lagHighMillis;
+            if (keyframesOnly && !isKeyframesOnly && !state.isDecodingKeyframesOnly) {
+                state.keyframesOnlySince = System.currentTimeMillis();
+                System.out.println("Csúszás miatt csak kulcskockák dekódolása [" + state.sessionId + "]");
+            }
+            state.isDecodingKeyframesOnly = keyframesOnly && !isKeyframesOnly;
+            // A csúszás viszonyítási pontja megmarad, csak az elemzési ütemezés kezdődik újra
+            state.lastAnalysedMicros = Long.MIN_VALUE;
+            return keyframesOnly;
+        }
+    }
+
+    // Minden képkocka után hívandó; igaz, ha a dekódert a restartDecoder szerinti módban újra kell indítani:
+    // teljes dekódolásnál ha csúszik, csak kulcskockás dekódolásnál a visszaállási idő leteltével újra próbálkozik
+    public boolean isDecoderRestartNeeded(SessionState state) {
+        if (isKeyframesOnly) return false;
+        synchronized (state) {
+            if (!state.isDecodingKeyframesOnly) {
+                return state.lagMillis > lagHighMillis;
+            }
+            return state.level < MAX_LEVEL && System.currentTimeMillis() - state.keyframesOnlySince >= lagRecoveryMillis;
+        }
+    }
+
+    // Minden dekódolt képkockára meghívandó; igaz, ha a képkockát elemezni kell
+    public boolean shouldAnalyse(SessionState state, long streamMicros, boolean keyFrame) {
+        state.decodedFrames.incrementAndGet();
+        state.updateLag(streamMicros);
+        boolean analyse = decide(state, streamMicros, keyFrame);
+        if (analyse) {
+            state.analysedFrames.incrementAndGet();
+        } else {
+            state.skippedFrames.incrementAndGet();
+        }
+        return analyse;
+    }
+
+    private boolean decide(SessionState state, long streamMicros, boolean keyFrame) {
+        int currentLevel = state.level;
+        if (isKeyframesOnly || currentLevel >= MAX_LEVEL || state.lagMillis > lagHighMillis) {
+            return keyFrame;
+        }
+        double baseFps = analysisFps > 0 ? analysisFps : (currentLevel > 0 ? state.decodeFps : 0);
+        if (baseFps <= 0) return true;
+        double fps = baseFps / (1 << currentLevel);
+        long intervalMicros = (long) (1_000_000 / fps);
+        synchronized (state) {
+            if (state.lastAnalysedMicros != Long.MIN_VALUE
+                    && streamMicros - state.lastAnalysedMicros < intervalMicros
+                    && streamMicros >= state.lastAnalysedMicros) {
+                return false;
+            }
+            state.lastAnalysedMicros = streamMicros;
+        }
+        return true;
+    }
+
+    void tick() {
+        long now = System.nanoTime();
+        double seconds = Math.max(0.001, (now - lastTick) / 1e9);
+        lastTick = now;
+        for (SessionState state : sessions.values()) {
+            state.tick(seconds);
+        }
+        cpuLoad = readCpuLoad();
+        if (!isAdaptive) {
+            sessions.values().forEach(state -> state.level = 0);
+            return;
+        }
+        boolean overloaded = cpuLoad > cpuHigh
+                || executionModel.getCpuQueueLength() > executionModel.getCpuActiveCount();
+        boolean relaxed = cpuLoad < cpuLow;
+        // A csúszó kamera a saját szintjét emeli; a közös CPU túlterhelés tickenként csak a legtöbbet elemző,
+        // még nem csúszó kamerát ritkítja, így a terhelés fokozatosan oszlik el a kamerák között
+        SessionState heaviest = null;
+        for (SessionState state : sessions.values()) {
+            if (state.lagMillis > lagHighMillis) {
+                changeLevel(state, 1);
+            } else if (overloaded) {
+                if (state.level < MAX_LEVEL && (heaviest == null || state.effectiveFps > heaviest.effectiveFps)) {
+                    heaviest = state;
+                }
+            } else if (relaxed && state.lagMillis < lagHighMillis / 2) {
+                changeLevel(state, -1);
+            }
+        }
+        if (heaviest != null) {
+            changeLevel(heaviest, 1);
+        }
+    }
+
+    private static void changeLevel(SessionState state, int delta) {
+        int level = Math.max(0, Math.min(MAX_LEVEL, state.level + delta));
+        if (level == state.level) return;
+        state.level = level;
+        System.out.println((delta > 0 ? "Terhelés miatt ritkított elemzés, szint: " : "A terhelés csökkent, elemzési szint: ")
+                + level + " [" + state.sessionId + "]");
+    }
+
+    private static double readCpuLoad() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            // Csak a saját folyamat terhelése számít, a gépen futó más programoké nem
+            double load = os.getProcessCpuLoad();
+            return load < 0 ? 0 : load;
+        }
+        return 0;
+    }
+
+    // A legjobban ritkított kamera szintje
+    public int getLevel() {
+        int level = 0;
+        for (SessionState state : sessions.values()) {
+            level = Math.max(level, state.level);
+        }
+        return level;
+    }
+
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    public Collection<SessionState> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+}
@@ -2,65 +2,366 @@ package hu.infokristaly.homework4websocketserver.ws;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class AsyncInputStream extends InputStream {
-    private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
-    private final AtomicLong availableBytes = new AtomicLong(0); // Ez a hiányzó változó
-    private byte[] currentArray = null;
-    private int pointer = 0;
+public class AsyncInputStream extends InputStream implements StreamSink {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST, BLOCK, CLOSE;
+
+        public static OverflowPolicy parse(String value) {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final ByteBufferPool pool;
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+
+    // Egy pufferelt Cluster kezdete; újraindításkor csak kulcskockás Cluster-től lehet folytatni
+    private record ClusterStart(long position, boolean keyframe) {
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Abszolút pozíciók: a kitöltöttség mindig pontosan writePos - readPos
+    private long writePos = 0;
+    private long readPos = 0;
+    // A pufferben lévő Cluster kezdetek abszolút pozíciói, növekvő sorrendben
+    private final ArrayDeque<ClusterStart> clusterMarks = new ArrayDeque<>();
+    // A beírt chunk-ok vége és érkezési ideje, a végponttól a fogadásig mért késleltetéshez
+    private final ArrayDeque<long[]> arrivals = new ArrayDeque<>();
+    private long lastReadArrivalNanos = 0;
+    private long droppedBytes = 0;
     private boolean closed = false;
+    // Ha nem null, a következő kulcskockás Cluster-ig eldobjuk a beérkező adatot, és e fejléc után folytatjuk
+    private byte[] resyncHeader = null;
+    // Újraindításkor a puffer adatai elé szolgált fejléc (a gyűrű átrendezése nélkül)
+    private byte[] prefix = null;
+    private int prefixPosition = 0;
+    private final byte[] singleByte = new byte[1];
+
+    public AsyncInputStream(ByteBufferPool pool, int capacity, OverflowPolicy overflowPolicy, long blockTimeoutMillis) {
+        this.pool = pool;
+        this.ring = pool.acquire(capacity);
+        this.capacity = ring.capacity();
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
 
-    public void write(byte[] data) {
-        if (data == null || data.length == 0) return;
-        queue.add(data.clone());
-        availableBytes.addAndGet(data.length);
+    // A fogadó sor chunk-jából (a WebmChunker darabjából, további másolás nélkül) másol a gyűrűbe; a payload-ot a
+    // konténer szála egyszer már kimásolta, mert a konténer a visszatérés után újrahasznosítja a pufferét. A
+    // clusterOffsets a data-n belüli Cluster kezdetek, a keyframes ezek kulcskocka jelzői. Hamissal tér vissza, ha
+    // CLOSE házirend mellett betelt a puffer.
+    public boolean write(ByteBuffer data, int[] clusterOffsets, boolean[] keyframes) {
+        if (data.remaining() == 0) return true;
+        lock.lock();
+        try {
+            if (closed) return true;
+            byte[] header = null;
+            int skip = 0;
+            if (resyncHeader != null) {
+                // Újraindítás után a fejléc és a következő kulcskockás Cluster kezdete kerül a puffer elejére
+                int keyframe = firstKeyframe(keyframes);
+                if (keyframe < 0) {
+                    data.position(data.limit());
+                    return true;
+                }
+                header = resyncHeader;
+                skip = clusterOffsets[keyframe];
+                data.position(data.position() + skip);
+                resyncHeader = null;
+            }
+            int prefixLength = header == null ? 0 : header.length;
+            int length = prefixLength + data.remaining();
+            if (length > capacity) {
+                System.err.println("A chunk (" + length + " bájt) nagyobb, mint az async puffer, eldobva.");
+                droppedBytes += length;
+                return overflowPolicy != OverflowPolicy.CLOSE;
+            }
+            if (!makeRoom(length)) return false;
+            long chunkStart = writePos + prefixLength - skip;
+            for (int i = 0; i < clusterOffsets.length; i++) {
+                if (clusterOffsets[i] >= skip) {
+                    clusterMarks.addLast(new ClusterStart(chunkStart + clusterOffsets[i], keyframes[i]));
+                }
+            }
+            if (header != null) {
+                put(ByteBuffer.wrap(header));
+            }
+            put(data);
+            arrivals.addLast(new long[]{writePos, System.nanoTime()});
+            notEmpty.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int firstKeyframe(boolean[] keyframes) {
+        for (int i = 0; i < keyframes.length; i++) {
+            if (keyframes[i]) return i;
+        }
+        return -1;
+    }
+
+    private void put(ByteBuffer data) {
+        int length = data.remaining();
+        int position = (int) (writePos % capacity);
+        int first = Math.min(length, capacity - position);
+        ring.put(position, data, data.position(), first);
+        if (first < length) {
+            ring.put(0, data, data.position() + first, length - first);
+        }
+        data.position(data.position() + length);
+        writePos += length;
+    }
+
+    public boolean write(byte[] data) {
+        if (data == null || data.length == 0) return true;
+        return write(ByteBuffer.wrap(data));
+    }
+
+    private boolean makeRoom(int length) {
+        if (capacity - (writePos - readPos) >= length) return true;
+        switch (overflowPolicy) {
+            case CLOSE:
+                return false;
+            case BLOCK:
+                try {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                    while (!closed && capacity - (writePos - readPos) < length && nanos > 0) {
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (capacity - (writePos - readPos) >= length) return true;
+                System.err.println("Az async puffer a várakozás után is tele van, a legrégebbi adatok eldobva.");
+                dropOldest(length);
+                return true;
+            default:
+                dropOldest(length);
+                return true;
+        }
+    }
+
+    // Egész Cluster-eket dob el a puffer elejéről, amíg az új chunk el nem fér
+    private void dropOldest(int length) {
+        long target = writePos - (capacity - length);
+        long newReadPos = writePos;
+        while (!clusterMarks.isEmpty()) {
+            long mark = clusterMarks.pollFirst().position();
+            if (mark >= target) {
+                newReadPos = mark;
+                break;
+            }
+        }
+        droppedBytes += newReadPos - readPos;
+        readPos = newReadPos;
+        consumeArrivals();
+    }
+
+    private void consumeArrivals() {
+        while (!arrivals.isEmpty() && arrivals.peekFirst()[0] <= readPos) {
+            lastReadArrivalNanos = arrivals.pollFirst()[1];
+        }
+    }
+
+    // Az utoljára teljesen kiolvasott chunk érkezési ideje (System.nanoTime), 0 ha még nem volt ilyen
+    public long getLastReadArrivalNanos() {
+        lock.lock();
+        try {
+            return lastReadArrivalNanos;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public long getAvailableBytes() {
-        return availableBytes.get();
+        lock.lock();
+        try {
+            return writePos - readPos + prefixRemaining();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Jelzés alapú várakozás, amíg legalább 'bytes' bájt elérhető lesz (vagy lejár az idő / lezárják a streamet)
+    public boolean awaitAvailable(long bytes, long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (writePos - readPos + prefixRemaining() < bytes) {
+                if (closed || nanos <= 0) return false;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Vár, amíg egy read() blokkolás nélkül visszatér: van olvasatlan adat (vagy fejléc), vagy a stream lezárult.
+    // Hamis csak az idő lejártakor.
+    public boolean awaitReadable(long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (writePos == readPos && prefixRemaining() == 0 && !closed) {
+                if (nanos <= 0) return false;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Vár, amíg a pufferben egy Cluster kezdete is van; restart() után ez kulcskockás, vagyis a dekóder a fejléc után
+    // azonnal dekódolható képkockát kap
+    public boolean awaitCluster(long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (clusterMarks.isEmpty()) {
+                if (closed || nanos <= 0) return false;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedBytes() {
+        lock.lock();
+        try {
+            return droppedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
     }
 
     public void clear() {
-        queue.clear();
-        currentArray = null;
-        pointer = 0;
-        availableBytes.set(0);
+        clear(null);
+    }
+
+    // Kiüríti a puffert; ha van fejléc, a dekóder újraindítása a fejléccel és egy Cluster határtól folytatódik
+    public void clear(byte[] header) {
+        lock.lock();
+        try {
+            readPos = writePos;
+            clusterMarks.clear();
+            arrivals.clear();
+            resyncHeader = header;
+            prefix = null;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
         System.out.println("Async puffer kiürítve az újraindításhoz.");
     }
 
+    // A dekóder újraindítása: az olvasás a következő pufferelt kulcskockás Cluster-nél folytatódik (köztes képkocka a
+    // hiányzó referencia miatt nem dekódolható), elé a fejléc kerül. Ha nincs ilyen, a következő beérkező kulcskockás
+    // Cluster-től indul (mint a clear()).
+    public void restart(byte[] header) {
+        lock.lock();
+        try {
+            prefix = null;
+            if (header == null) return;
+            while (!clusterMarks.isEmpty() && !clusterMarks.peekFirst().keyframe()) {
+                clusterMarks.pollFirst();
+            }
+            if (clusterMarks.isEmpty()) {
+                droppedBytes += writePos - readPos;
+                readPos = writePos;
+                arrivals.clear();
+                resyncHeader = header;
+            } else {
+                // Csak a kulcskocka előtti pufferelt adat vész el
+                long mark = clusterMarks.peekFirst().position();
+                droppedBytes += mark - readPos;
+                readPos = mark;
+                consumeArrivals();
+                prefix = header;
+                prefixPosition = 0;
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int prefixRemaining() {
+        return prefix == null ? 0 : prefix.length - prefixPosition;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, getAvailableBytes());
+    }
+
     @Override
     public int read() throws IOException {
-        if (currentArray == null || pointer >= currentArray.length) {
-            if (!fillBuffer()) return -1;
-        }
-        int b = currentArray[pointer++] & 0xFF;
-        availableBytes.decrementAndGet();
-        return b;
+        int n = read(singleByte, 0, 1);
+        return n <= 0 ? -1 : singleByte[0] & 0xFF;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        if (currentArray == null || pointer >= currentArray.length) {
-            if (!fillBuffer()) return -1;
+        if (len == 0) return 0;
+        lock.lock();
+        try {
+            if (prefix != null) {
+                int toCopy = Math.min(len, prefix.length - prefixPosition);
+                System.arraycopy(prefix, prefixPosition, b, off, toCopy);
+                prefixPosition += toCopy;
+                if (prefixPosition == prefix.length) {
+                    prefix = null;
+                }
+                return toCopy;
+            }
+            if (!awaitData()) return -1;
+            int toCopy = (int) Math.min(len, writePos - readPos);
+            int position = (int) (readPos % capacity);
+            int first = Math.min(toCopy, capacity - position);
+            ring.get(position, b, off, first);
+            if (first < toCopy) {
+                ring.get(0, b, off + first, toCopy - first);
+            }
+            readPos += toCopy;
+            while (!clusterMarks.isEmpty() && clusterMarks.peekFirst().position() < readPos) {
+                clusterMarks.pollFirst();
+            }
+            consumeArrivals();
+            notFull.signalAll();
+            return toCopy;
+        } finally {
+            lock.unlock();
         }
-        int available = currentArray.length - pointer;
-        int toCopy = Math.min(len, available);
-        System.arraycopy(currentArray, pointer, b, off, toCopy);
-        pointer += toCopy;
-        availableBytes.addAndGet(-toCopy);
-        return toCopy;
     }
 
-    private boolean fillBuffer() {
+    private boolean awaitData() {
         try {
-            if (closed && queue.isEmpty()) return false;
-            // A take() helyett poll(), hogy ne fagyjon be a natív szál örökre
-            currentArray = queue.poll(1, TimeUnit.SECONDS);
-            if (currentArray == null || (closed && currentArray.length == 0)) return false;
-            pointer = 0;
+            // Korlátos várakozás, hogy ne fagyjon be a natív szál örökre
+            long nanos = TimeUnit.SECONDS.toNanos(1);
+            while (writePos == readPos) {
+                if (closed || nanos <= 0) return false;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
             return true;
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -69,7 +370,30 @@ public class AsyncInputStream extends InputStream {
     }
 
     public void closeStream() {
-        closed = true;
-        queue.add(new byte[0]);
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lezárja a streamet és visszaadja a puffert a pool-nak; utána már nem olvasható
+    public void dispose() {
+        lock.lock();
+        try {
+            closed = true;
+            readPos = writePos;
+            prefix = null;
+            clusterMarks.clear();
+            arrivals.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        pool.release(ring);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Azonos méretű (opcionálisan heap-en kívüli) pufferek újrahasznosítása a session-ök között
+public class ByteBufferPool {
+    private final int bufferSize;
+    private final boolean direct;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger(0);
+
+    public ByteBufferPool(int bufferSize, boolean direct, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.maxPooled = maxPooled;
+    }
+
+    public ByteBuffer acquire(int capacity) {
+        if (capacity == bufferSize) {
+            ByteBuffer buffer = free.poll();
+            if (buffer != null) {
+                pooled.decrementAndGet();
+                return buffer.clear();
+            }
+        }
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) return;
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        free.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+}
@@ -0,0 +1,116 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A session-ök várakozó ciklusai és a CPU igényes (dekódolás, mozgásérzékelés) munka szétválasztása
+@Component
+public class ExecutionModel {
+
+    public enum Mode {
+        PLATFORM, VIRTUAL;
+
+        public static Mode parse(String value) {
+            return Mode.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    @Value("${video.execution.mode:platform}")
+    private String executionMode;
+
+    @Value("${video.decode.threads:0}")
+    private Integer decodeThreads;
+
+    private Mode mode;
+    private ExecutorService sessionExecutor;
+    private ThreadPoolExecutor cpuPool;
+    private ThreadFactory ioThreadFactory;
+
+    @PostConstruct
+    public void init() {
+        mode = Mode.parse(executionMode);
+        if (mode == Mode.VIRTUAL) {
+            ioThreadFactory = Thread.ofVirtual().name("session-io-", 0).factory();
+            sessionExecutor = Executors.newThreadPerTaskExecutor(ioThreadFactory);
+            int threads = decodeThreads > 0 ? decodeThreads : Runtime.getRuntime().availableProcessors();
+            // Session-önként legfeljebb egy feladat vár a sorban, így a sor hossza a session-ök számával korlátos
+            cpuPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), namedFactory("decode-"));
+            System.out.println("Végrehajtási mód: virtuális szálak, " + threads + " dekóder szál");
+        } else {
+            ioThreadFactory = namedFactory("session-io-");
+            sessionExecutor = Executors.newCachedThreadPool(namedFactory("session-"));
+            System.out.println("Végrehajtási mód: session-önkénti platform szálak");
+        }
+    }
+
+    private static ThreadFactory namedFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public Future<?> submitSession(Runnable task) {
+        return sessionExecutor.submit(task);
+    }
+
+    public ThreadFactory getIoThreadFactory() {
+        return ioThreadFactory;
+    }
+
+    // Virtuális módban a natív munka a korlátos, magszámnyi pool-on fut, hogy ne blokkolja a hordozó szálakat;
+    // platform módban a session saját szálán hajtódik végre
+    public <T> T runCpu(Callable<T> task) throws Exception {
+        if (cpuPool == null) {
+            return task.call();
+        }
+        Future<T> future = cpuPool.submit(task);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    // A stream-ből olvasó natív munka csak olvasható adattal kerül a pool-ra: az adatra várakozás a session saját
+    // (virtuális) szálán történik, így a tétlen session-ök nem foglalják a dekóder szálakat. Null, ha az időkorlátig
+    // nem érkezett adat.
+    public <T> T runCpu(AsyncInputStream input, long timeoutMillis, Callable<T> task) throws Exception {
+        if (!input.awaitReadable(timeoutMillis)) {
+            return null;
+        }
+        return runCpu(task);
+    }
+
+    public int getCpuQueueLength() {
+        return cpuPool == null ? 0 : cpuPool.getQueue().size();
+    }
+
+    public int getCpuActiveCount() {
+        return cpuPool == null ? 0 : cpuPool.getActiveCount();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sessionExecutor.shutdownNow();
+        if (cpuPool != null) {
+            cpuPool.shutdownNow();
+        }
+    }
+}
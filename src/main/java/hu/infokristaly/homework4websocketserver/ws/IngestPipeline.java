@@ -0,0 +1,273 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// Egy session bejövő adatának feldolgozása saját szálon: a WebSocket konténer szála csak sorba teszi az üzenetet és
+// azonnal visszatér, így egy lassú lemez vagy dekóder nem tartja fel a többi kamerát. A sor és a későbbi szakaszok
+// (dekóder puffer, szegmens író) byte és idő vízszintjei alapján a kliens jelzést kap, hogy csökkentse a bitrátát vagy
+// szüneteltesse a küldést. A jelzést külön végrehajtó küldi, így egy blokkoló szakasz sem tartja vissza. A szöveges üzenetek feldolgozása is ide kerül, az adattal azonos sorrendben.
+public final class IngestPipeline {
+
+    // Ennyiszeres vízszint fölött szünet kérése, ennyi alatt (visszatérve) folytatás
+    static final double PAUSE_LEVEL = 2.0;
+    static final double RESUME_LEVEL = 0.5;
+
+    private static final long IDLE_CHECK_MILLIS = 200;
+
+    public enum FlowState {
+        NORMAL("resume"), SLOW_DOWN("slow-down"), PAUSE("pause");
+
+        private final String signal;
+
+        FlowState(String signal) {
+            this.signal = signal;
+        }
+
+        // A kliensnek küldött vezérlő üzenetben
+        public String getSignal() {
+            return signal;
+        }
+    }
+
+    public interface DataHandler {
+        void onData(byte[] data);
+    }
+
+    public interface FlowListener {
+        void onFlowChange(FlowState state, String stage, double level);
+    }
+
+    // Egy későbbi szakasz telítettsége: sorban álló bájtok és a legrégebbi sorban álló adat kora
+    private record Stage(String name, LongSupplier bytes, LongSupplier ageMillis, long highWaterBytes) {
+    }
+
+    private record Item(byte[] data, Runnable task, long enqueuedNanos, boolean isEnd) {
+    }
+
+    private record FlowSignal(FlowState state, String stage, double level) {
+    }
+
+    private final DataHandler handler;
+    private final FlowListener flowListener;
+    private final long highWaterMillis;
+    private final long maxBytes;
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+    private final LinkedBlockingQueue<Item> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong maxQueuedBytes = new AtomicLong();
+    private final Executor signalExecutor;
+    private final Thread thread;
+
+    private volatile boolean isFinishing = false;
+    private volatile FlowState state = FlowState.NORMAL;
+    private volatile String limitingStage = null;
+    private volatile double level = 0;
+    private long flowChanges = 0;
+    // A rögzített, még el nem küldött állapotváltás; a jelző végrehajtó küldi ki
+    private FlowSignal pendingSignal = null;
+    // Egyszerre legfeljebb egy küldő feladat fut, így a jelzések sorrendje megmarad
+    private boolean isSignalScheduled = false;
+    // A kliensnek utoljára jelzett állapot, csak a küldő feladatból
+    private FlowState signalledState = FlowState.NORMAL;
+
+    // A signalExecutor nem lehet a feldolgozó szál: a szünet jelzése akkor is kimegy, ha az onData épp blokkol
+    public IngestPipeline(DataHandler handler, FlowListener flowListener, long highWaterBytes, long highWaterMillis,
+                          long maxBytes, ThreadFactory threadFactory, Executor signalExecutor) {
+        this.handler = handler;
+        this.flowListener = flowListener;
+        this.highWaterMillis = highWaterMillis;
+        this.maxBytes = maxBytes;
+        this.signalExecutor = signalExecutor;
+        this.thread = threadFactory.newThread(this::run);
+        addStage("ingest", queuedBytes::get, this::getQueuedMillis, highWaterBytes);
+    }
+
+    // highWaterBytes <= 0: csak az idő vízszint számít
+    public void addStage(String name, LongSupplier bytes, LongSupplier ageMillis, long highWaterBytes) {
+        stages.add(new Stage(name, bytes, ageMillis, highWaterBytes));
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    // Nem blokkol. Hamis, ha a sor elérte a felső korlátot: a nyers stream-ből nem hagyható ki adat az EBML elemzés
+    // megszakítása nélkül, ilyenkor a hívó csak ezt a kapcsolatot zárja le.
+    public boolean offer(byte[] data) {
+        if (isFinishing) return false;
+        long queued = queuedBytes.addAndGet(data.length);
+        if (queued > maxBytes) {
+            queuedBytes.addAndGet(-data.length);
+            return false;
+        }
+        maxQueuedBytes.accumulateAndGet(queued, Math::max);
+        queue.add(new Item(data, null, System.nanoTime(), false));
+        // A konténer szála csak rögzíti az állapotváltást, a jelzést a jelző végrehajtó küldi
+        update();
+        return true;
+    }
+
+    // Az addig sorba tett adat után, a feldolgozó szálon fut
+    public void submit(Runnable task) {
+        if (isFinishing) return;
+        queue.add(new Item(null, task, System.nanoTime(), false));
+    }
+
+    // A sorban álló adat feldolgozása után lefuttatja az onDrained-et, majd leáll; ezután nem fogad adatot
+    public void finish(Runnable onDrained) {
+        isFinishing = true;
+        queue.add(new Item(null, onDrained, System.nanoTime(), true));
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Item item = queue.poll(IDLE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    // Szünet alatt nem érkezik adat: a későbbi szakaszok ürülését itt vesszük észre
+                    update();
+                    continue;
+                }
+                if (item.data() != null) {
+                    try {
+                        handler.onData(item.data());
+                    } catch (RuntimeException e) {
+                        System.err.println("Hiba a bejövő adat feldolgozásakor: " + e.getMessage());
+                    } finally {
+                        queuedBytes.addAndGet(-item.data().length);
+                    }
+                    update();
+                } else if (item.task() != null) {
+                    try {
+                        item.task().run();
+                    } catch (RuntimeException e) {
+                        System.err.println("Hiba a session feladat futtatásakor: " + e.getMessage());
+                    }
+                }
+                if (item.isEnd()) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void update() {
+        if (evaluate()) {
+            signalExecutor.execute(this::signalFlow);
+        }
+    }
+
+    // A legjobban lemaradt szakasz szintje dönt; jelzés csak állapotváltáskor megy. A konténer szálán (offer) is
+    // futhat, ezért a változást csak rögzíti; igaz, ha a küldő feladatot (signalFlow) most kell elindítani.
+    private synchronized boolean evaluate() {
+        double highest = 0;
+        String highestStage = null;
+        for (Stage stage : stages) {
+            double stageLevel = levelOf(stage);
+            if (stageLevel > highest) {
+                highest = stageLevel;
+                highestStage = stage.name();
+            }
+        }
+        level = highest;
+        FlowState next = nextState(state, highest);
+        if (next == state) return false;
+        // Folytatáskor a korábban lemaradt szakasz kerül a jelzésbe
+        String stage = next == FlowState.NORMAL ? limitingStage : highestStage;
+        state = next;
+        limitingStage = next == FlowState.NORMAL ? null : highestStage;
+        flowChanges++;
+        // Küldés előtti újabb váltásnál a legutóbbi állapot számít
+        pendingSignal = new FlowSignal(next, stage, highest);
+        if (isSignalScheduled) return false;
+        isSignalScheduled = true;
+        return true;
+    }
+
+    // A jelző végrehajtón: a kliensnek küldött üzenet (és a naplózás) sem a konténer, sem a feldolgozó szálat nem
+    // tartja fel. A küldés közben rögzített váltásokat is kiküldi, mielőtt kilép.
+    private void signalFlow() {
+        while (true) {
+            FlowSignal signal;
+            synchronized (this) {
+                signal = pendingSignal;
+                pendingSignal = null;
+                if (signal == null) {
+                    isSignalScheduled = false;
+                    return;
+                }
+            }
+            if (signal.state() == signalledState || flowListener == null) continue;
+            signalledState = signal.state();
+            try {
+                flowListener.onFlowChange(signal.state(), signal.stage(), signal.level());
+            } catch (RuntimeException e) {
+                System.err.println("Hiba a forgalom szabályozó jelzés küldésekor: " + e.getMessage());
+            }
+        }
+    }
+
+    private double levelOf(Stage stage) {
+        double byBytes = stage.highWaterBytes() > 0 ? (double) stage.bytes().getAsLong() / stage.highWaterBytes() : 0;
+        double byAge = highWaterMillis > 0 ? (double) stage.ageMillis().getAsLong() / highWaterMillis : 0;
+        return Math.max(byBytes, byAge);
+    }
+
+    // Hiszterézissel: szünetből a vízszint alá, lassításból a vízszint fele alá kell esni
+    static FlowState nextState(FlowState current, double level) {
+        if (level >= PAUSE_LEVEL) return FlowState.PAUSE;
+        if (level >= 1) return current == FlowState.PAUSE ? FlowState.PAUSE : FlowState.SLOW_DOWN;
+        if (level < RESUME_LEVEL) return FlowState.NORMAL;
+        return current == FlowState.PAUSE ? FlowState.SLOW_DOWN : current;
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public long getQueuedMillis() {
+        Item head = queue.peek();
+        return head == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - head.enqueuedNanos());
+    }
+
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes.get();
+    }
+
+    public FlowState getFlowState() {
+        return state;
+    }
+
+    public String getLimitingStage() {
+        return limitingStage;
+    }
+
+    public double getLevel() {
+        return level;
+    }
+
+    public synchronized long getFlowChanges() {
+        return flowChanges;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("flowState", state.name());
+        result.put("limitingStage", limitingStage);
+        result.put("level", level);
+        result.put("queuedBytes", getQueuedBytes());
+        result.put("queuedMillis", getQueuedMillis());
+        result.put("maxQueuedBytes", getMaxQueuedBytes());
+        result.put("flowChanges", getFlowChanges());
+        return result;
+    }
+}
@@ -0,0 +1,309 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import hu.infokristaly.homework4websocketserver.webm.ClusterMark;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Élő továbbítás a nézőknek: a kamera chunk-jai másolás nélkül, hivatkozással kerülnek a nézők soraiba. Minden néző
+// a stream fejléccel és egy kulcskockás Cluster-rel kezd; a lemaradó néző sorát eldobjuk, és a következő kulcskockánál
+// újra csatlakozik, így a kamera felé soha nem keletkezik visszatorlódás.
+@Component
+public class LiveBroadcaster {
+
+    @Value("${video.live.viewer.buffer:4194304}")
+    private Long viewerBufferBytes;
+
+    @Value("${video.live.viewer.send-timeout:5000}")
+    private Long sendTimeoutMillis;
+
+    @Autowired
+    private ExecutionModel executionModel;
+
+    private class Viewer {
+        private final WebSocketSession session;
+        private final String source;
+        private final String cameraSession;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition ready = lock.newCondition();
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        private long queuedBytes = 0;
+        // Fejlécre és kulcskockára vár (csatlakozáskor, új stream-nél és lemaradás után)
+        private boolean syncing = true;
+        private boolean closed = false;
+        private volatile long sendStartedNanos = 0;
+        private final AtomicLong sentBytes = new AtomicLong();
+        private final AtomicLong skips = new AtomicLong();
+
+        Viewer(WebSocketSession session, String source, String cameraSession) {
+            this.session = session;
+            this.source = source;
+            this.cameraSession = cameraSession;
+        }
+
+        // A kamera szálán hívódik, nem blokkol
+        void offer(WebmChunk chunk) {
+            long sending = sendStartedNanos;
+            if (sending != 0 && System.nanoTime() - sending > TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis)) {
+                // A lezárás a néző beragadt küldésére várhat, ezért nem a kamera szálán történik
+                if (markClosed()) {
+                    System.err.println("A néző nem fogadja az adatot, lekapcsolás [" + session.getId() + "]");
+                    executionModel.getIoThreadFactory().newThread(() -> release(CloseStatus.SESSION_NOT_RELIABLE)).start();
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                if (closed) return;
+                int from = chunk.offset();
+                if (syncing) {
+                    ClusterMark keyframe = null;
+                    for (ClusterMark cluster : chunk.clusters()) {
+                        if (cluster.keyframe()) {
+                            keyframe = cluster;
+                            break;
+                        }
+                    }
+                    if (keyframe == null) return;
+                    from = chunk.positionOf(keyframe);
+                    enqueue(ByteBuffer.wrap(chunk.header()));
+                    syncing = false;
+                }
+                enqueue(ByteBuffer.wrap(chunk.data(), from, chunk.offset() + chunk.length() - from));
+                if (queuedBytes > viewerBufferBytes) {
+                    // Lemaradt: a sorban állót eldobjuk, és a legközelebbi kulcskockánál folytatjuk
+                    queue.clear();
+                    queuedBytes = 0;
+                    syncing = true;
+                    skips.incrementAndGet();
+                }
+                ready.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void enqueue(ByteBuffer buffer) {
+            queue.addLast(buffer);
+            queuedBytes += buffer.remaining();
+        }
+
+        void resync() {
+            lock.lock();
+            try {
+                syncing = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void run() {
+            try {
+                while (true) {
+                    ByteBuffer buffer;
+                    lock.lock();
+                    try {
+                        while (queue.isEmpty() && !closed) {
+                            ready.await();
+                        }
+                        if (closed) return;
+                        buffer = queue.pollFirst();
+                        queuedBytes -= buffer.remaining();
+                    } finally {
+                        lock.unlock();
+                    }
+                    int size = buffer.remaining();
+                    sendStartedNanos = System.nanoTime();
+                    session.sendMessage(new BinaryMessage(buffer));
+                    sendStartedNanos = 0;
+                    sentBytes.addAndGet(size);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | IllegalStateException e) {
+                System.err.println("Hiba a néző felé küldéskor [" + session.getId() + "]: " + e.getMessage());
+                close(CloseStatus.SERVER_ERROR);
+            }
+        }
+
+        void close(CloseStatus status) {
+            if (markClosed()) {
+                release(status);
+            }
+        }
+
+        // Igaz, ha a hívás zárta le a nézőt
+        private boolean markClosed() {
+            lock.lock();
+            try {
+                if (closed) return false;
+                closed = true;
+                queue.clear();
+                queuedBytes = 0;
+                ready.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release(CloseStatus status) {
+            removeViewer(session.getId());
+            try {
+                session.close(status);
+            } catch (IOException e) {
+                // már zárva
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("viewer", session.getId());
+            result.put("sentBytes", sentBytes.get());
+            result.put("skips", skips.get());
+            lock.lock();
+            try {
+                result.put("queuedBytes", queuedBytes);
+                result.put("syncing", syncing);
+            } finally {
+                lock.unlock();
+            }
+            return result;
+        }
+    }
+
+    private static class Channel {
+        private final String sessionId;
+        private volatile String source;
+        private volatile byte[] header;
+        private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+
+        Channel(String sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Viewer> viewers = new ConcurrentHashMap<>();
+    // Forrás szerint feliratkozott nézők, akiknek a kamerája még (vagy éppen) nem kapcsolódik
+    private final List<Viewer> waiting = new CopyOnWriteArrayList<>();
+
+    public void openChannel(String sessionId) {
+        channels.put(sessionId, new Channel(sessionId));
+    }
+
+    // A kamera forrás neve a kapcsolódás után, szöveges üzenetben érkezik
+    public synchronized void setSource(String sessionId, String source) {
+        Channel channel = channels.get(sessionId);
+        if (channel == null) return;
+        channel.source = source;
+        for (Viewer viewer : waiting) {
+            if (source.equals(viewer.source)) {
+                waiting.remove(viewer);
+                viewer.resync();
+                channel.viewers.add(viewer);
+            }
+        }
+    }
+
+    public void publish(String sessionId, WebmChunk chunk) {
+        Channel channel = channels.get(sessionId);
+        if (channel == null) return;
+        if (chunk.header() != channel.header) {
+            // Új stream: mindenki az új fejléccel és kulcskockával folytatja
+            channel.header = chunk.header();
+            for (Viewer viewer : channel.viewers) {
+                viewer.resync();
+            }
+        }
+        for (Viewer viewer : channel.viewers) {
+            viewer.offer(chunk);
+        }
+    }
+
+    public synchronized void closeChannel(String sessionId) {
+        Channel channel = channels.remove(sessionId);
+        if (channel == null) return;
+        for (Viewer viewer : channel.viewers) {
+            if (viewer.source != null) {
+                // A forrásra feliratkozott néző a kamera újracsatlakozására vár
+                viewer.resync();
+                waiting.add(viewer);
+            } else {
+                viewer.close(CloseStatus.GOING_AWAY);
+            }
+        }
+    }
+
+    // Pontosan az egyik (source vagy cameraSession) adott; hamis, ha a megadott kamera session nem létezik
+    public synchronized boolean addViewer(WebSocketSession session, String source, String cameraSession) {
+        Viewer viewer = new Viewer(session, source, cameraSession);
+        Channel channel = null;
+        if (cameraSession != null) {
+            channel = channels.get(cameraSession);
+            if (channel == null) return false;
+        } else {
+            for (Channel candidate : channels.values()) {
+                if (source.equals(candidate.source)) {
+                    channel = candidate;
+                }
+            }
+        }
+        viewers.put(session.getId(), viewer);
+        if (channel == null) {
+            waiting.add(viewer);
+        } else {
+            channel.viewers.add(viewer);
+        }
+        executionModel.getIoThreadFactory().newThread(viewer::run).start();
+        return true;
+    }
+
+    public synchronized void removeViewer(String viewerSessionId) {
+        Viewer viewer = viewers.remove(viewerSessionId);
+        if (viewer == null) return;
+        waiting.remove(viewer);
+        for (Channel channel : channels.values()) {
+            channel.viewers.remove(viewer);
+        }
+        viewer.close(CloseStatus.NORMAL);
+    }
+
+    public int getViewerCount() {
+        return viewers.size();
+    }
+
+    public int getWaitingCount() {
+        return waiting.size();
+    }
+
+    public List<Map<String, Object>> snapshot() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Channel channel : channels.values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("session", channel.sessionId);
+            entry.put("source", channel.source);
+            List<Map<String, Object>> channelViewers = new ArrayList<>();
+            for (Viewer viewer : channel.viewers) {
+                channelViewers.add(viewer.toMap());
+            }
+            entry.put("viewers", channelViewers);
+            result.add(entry);
+        }
+        return result;
+    }
+}
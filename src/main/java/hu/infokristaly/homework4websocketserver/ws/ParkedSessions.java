@@ -0,0 +1,89 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Lekapcsolódott kamerák forrásonként félretett állapota. A türelmi időn belül ugyanazzal a forrással újrakapcsolódó
+// session visszakapja, különben a lejáratkor az onExpire szabadítja fel. Forrásonként egy állapot lehet félretéve:
+// egy újabb a korábbit azonnal lejártnak tekinti.
+public class ParkedSessions<T> {
+
+    private static class Parked<T> {
+        private final T value;
+        private final Consumer<T> onExpire;
+        private volatile ScheduledFuture<?> timer;
+
+        Parked(T value, Consumer<T> onExpire) {
+            this.value = value;
+            this.onExpire = onExpire;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Parked<T>> parked = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final long graceMillis;
+
+    public ParkedSessions(long graceMillis, ScheduledExecutorService timer) {
+        this.graceMillis = graceMillis;
+        this.timer = timer;
+    }
+
+    // Ismeretlen forrásnál vagy kikapcsolt türelmi időnél azonnal lejár
+    public void park(String key, T value, Consumer<T> onExpire) {
+        if (value == null) return;
+        if (key == null || graceMillis <= 0) {
+            onExpire.accept(value);
+            return;
+        }
+        Parked<T> entry = new Parked<>(value, onExpire);
+        Parked<T> previous = parked.put(key, entry);
+        if (previous != null) {
+            previous.timer.cancel(false);
+            previous.onExpire.accept(previous.value);
+        }
+        entry.timer = timer.schedule(() -> expire(key, entry), graceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // A félretett állapot, vagy null, ha nincs (vagy már lejárt)
+    public T resume(String key) {
+        if (key == null) return null;
+        Parked<T> entry = parked.remove(key);
+        if (entry == null) return null;
+        ScheduledFuture<?> scheduled = entry.timer;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        return entry.value;
+    }
+
+    // Leállításkor: minden félretett állapot felszabadul
+    public void expireAll() {
+        for (String key : parked.keySet()) {
+            Parked<T> entry = parked.get(key);
+            if (entry != null) {
+                expire(key, entry);
+            }
+        }
+    }
+
+    public int size() {
+        return parked.size();
+    }
+
+    private void expire(String key, Parked<T> entry) {
+        // Csak az egyik nyerhet: a resume vagy a lejárat
+        if (!parked.remove(key, entry)) return;
+        ScheduledFuture<?> scheduled = entry.timer;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        try {
+            entry.onExpire.accept(entry.value);
+        } catch (RuntimeException e) {
+            System.err.println("Hiba a félretett állapot felszabadításakor [" + key + "]: " + e.getMessage());
+        }
+    }
+}
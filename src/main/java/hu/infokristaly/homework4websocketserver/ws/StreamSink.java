@@ -0,0 +1,41 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// A dekóder felé menő adatfolyam: a folyamaton belüli AsyncInputStream vagy a dekóder folyamattal megosztott gyűrű
+public interface StreamSink {
+
+    // A stream fejléce
+    boolean write(byte[] header);
+
+    // Cluster adat; a clusterOffsets a data-n belüli Cluster kezdetek, a keyframes ezek kulcskocka jelzői. Hamis, ha
+    // a kapcsolatot le kell zárni.
+    boolean write(ByteBuffer data, int[] clusterOffsets, boolean[] keyframes);
+
+    // Kulcskocka jelzők nélkül minden Cluster kezdet kulcskockásnak számít
+    default boolean write(ByteBuffer data, int... clusterOffsets) {
+        boolean[] keyframes = new boolean[clusterOffsets.length];
+        Arrays.fill(keyframes, true);
+        return write(data, clusterOffsets, keyframes);
+    }
+
+    // A WebmChunker egy darabja, a Cluster kezdeteivel és azok kulcskocka jelzőivel
+    default boolean write(WebmChunk chunk) {
+        int[] clusterOffsets = new int[chunk.clusters().size()];
+        boolean[] keyframes = new boolean[clusterOffsets.length];
+        for (int i = 0; i < clusterOffsets.length; i++) {
+            clusterOffsets[i] = chunk.positionOf(chunk.clusters().get(i)) - chunk.offset();
+            keyframes[i] = chunk.clusters().get(i).keyframe();
+        }
+        return write(ByteBuffer.wrap(chunk.data(), chunk.offset(), chunk.length()), clusterOffsets, keyframes);
+    }
+
+    long getAvailableBytes();
+
+    long getDroppedBytes();
+
+    int getCapacity();
+}
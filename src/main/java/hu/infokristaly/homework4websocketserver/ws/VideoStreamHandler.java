@@ -1,16 +1,32 @@
 package hu.infokristaly.homework4websocketserver.ws;
 
+import hu.infokristaly.homework4websocketserver.archive.ArchiveIndex;
 import hu.infokristaly.homework4websocketserver.cv.AdvancedMotionDetector;
+import hu.infokristaly.homework4websocketserver.cv.MotionDetectorSettings;
+import hu.infokristaly.homework4websocketserver.cv.SnapshotEncoder;
+import hu.infokristaly.homework4websocketserver.metrics.PipelineMetrics;
+import hu.infokristaly.homework4websocketserver.metrics.SessionMetrics;
+import hu.infokristaly.homework4websocketserver.mqtt.MqttEventPublisher;
+import hu.infokristaly.homework4websocketserver.video.FinalizationScheduler;
+import hu.infokristaly.homework4websocketserver.video.MotionRecorder;
+import hu.infokristaly.homework4websocketserver.video.RecordingSettings;
+import hu.infokristaly.homework4websocketserver.video.SegmentWriter;
+import hu.infokristaly.homework4websocketserver.webm.ClusterMark;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunker;
+import hu.infokristaly.homework4websocketserver.worker.DecodeWorkerPool;
+import hu.infokristaly.homework4websocketserver.worker.SharedRing;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.bytedeco.javacv.*;
 import org.bytedeco.opencv.opencv_core.Mat;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
-import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 import java.io.*;
 import java.nio.file.*;
 import java.text.SimpleDateFormat;
@@ -18,352 +34,787 @@ import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 @Component
 public class VideoStreamHandler extends BinaryWebSocketHandler {
 
     private final static String SOURCE_NAME = "[source]:";
-
-    @Value("${video.path:src/main/resources/videos}")
-    private String videoPath;
+    private final static String FLOW_NAME = "[flow]:";
 
     @Value("${video.temp.path}")
     private String tempPath;
 
-    @Value("${mqtt.broker}")
-    private String broker;
-
     @Value("${mqtt.topic}")
     private String topic;
 
     @Value("${mqtt.message}")
     private String content;
 
+    @Value("${mqtt.snapshot.topic:${mqtt.topic}/snapshot}")
+    private String snapshotTopic;
+
     @Value("${video.concat.enabled}")
     private Boolean isConcatFilesEnabled;
 
     @Value("${video.duration}")
     private Integer videoDuration;
 
-    private static class SessionData {
+    @Value("${video.fsync.policy:none}")
+    private String fsyncPolicy;
+
+    @Value("${video.fsync.interval:5000}")
+    private Long fsyncInterval;
+
+    @Value("${video.buffer.size:16777216}")
+    private Integer bufferSize;
+
+    @Value("${video.buffer.direct:false}")
+    private Boolean isBufferDirect;
+
+    @Value("${video.buffer.overflow:drop-oldest}")
+    private String bufferOverflowPolicy;
+
+    @Value("${video.buffer.block.timeout:2000}")
+    private Long bufferBlockTimeout;
+
+    @Value("${video.decode.probesize:65536}")
+    private Integer probeSize;
+
+    @Value("${video.decode.analyzeduration:200000}")
+    private Long analyzeDuration;
+
+    // Szakaszonkénti vízszint: e fölött lassítást, kétszeresénél szünetet kér a kliens-től a szerver
+    @Value("${video.ingest.high-water.bytes:4194304}")
+    private Long ingestHighWaterBytes;
+
+    @Value("${video.ingest.high-water.millis:2000}")
+    private Long ingestHighWaterMillis;
+
+    // E fölött a fogadó sor lezárja a kapcsolatot, a szegmens író elé pedig nem kerül több Cluster
+    @Value("${video.ingest.max-bytes:16777216}")
+    private Long ingestMaxBytes;
+
+    // A dekóder pufferének ekkora töltöttsége számít vízszintnek
+    @Value("${video.ingest.decode.high-water:0.75}")
+    private Double decodeHighWater;
+
+    // Ennyi ideig várja a lekapcsolódott forrás állapota (felvétel, háttérmodell) az újrakapcsolódást; 0: nem vár
+    @Value("${video.session.resume.grace-millis:30000}")
+    private Long resumeGraceMillis;
+
+    // A forráshoz tartozó felvételi és riasztási állapot a betanult háttérmodellel. Rövid megszakadás után az ugyanazzal
+    // a forrással újrakapcsolódó session ezt veszi át: a felvétel ugyanabban a sorozatban folytatódik, a mozgásérzékelés
+    // pedig nem tanul újra.
+    private static class SourceState {
+        // A felvételt nyitó session; a fájlnevekben és a finalizálásnál
+        private final String recordingId;
         public LocalDateTime recordStartTime;
-        public boolean isHeaderGrabbed = false;
-        public byte[] header;
-        private String source;
         private String sessionName;
+        private volatile LocalDateTime lastMotionDetect = null;
+        private final List<String> fileList = new CopyOnWriteArrayList<>();
+        private SegmentWriter segmentWriter = null;
+        // Mozgásra indított felvételnél nem null; a fájlok ekkor önálló esemény klipek
+        private volatile MotionRecorder motionRecorder = null;
+        private boolean isClipRecording = false;
+        // Az első elemzett képkockánál jön létre; lezárás után nem használható
+        private AdvancedMotionDetector detector = null;
+        private boolean isDetectorReleased = false;
+
+        SourceState(String recordingId) {
+            this.recordingId = recordingId;
+        }
+
+        // Az átadás körül a régi session még futó elemzése és az átvevő session egymás után, ugyanazzal a
+        // háttérmodellel dolgozik
+        synchronized boolean detectMotion(Mat mat, Supplier<AdvancedMotionDetector> factory) {
+            if (isDetectorReleased) return false;
+            if (detector == null) {
+                detector = factory.get();
+            }
+            return detector.detectMotionFromMat(mat);
+        }
+
+        synchronized void releaseDetector() {
+            isDetectorReleased = true;
+            if (detector != null) {
+                detector.close();
+                detector = null;
+            }
+        }
+    }
+
+    private static class SessionData {
+        private final long connectedNanos = System.nanoTime();
+        // A dekóder pufferébe utoljára írt fejléc
+        public volatile byte[] header;
+        private final WebmChunker chunker = new WebmChunker();
+        private volatile String source;
+        private volatile SourceState state;
         private AsyncInputStream asyncStream = null;
-        private ExecutorService executor = null;
+        // Külön dekóder folyamat esetén az async puffer helyett a vele megosztott gyűrű
+        private SharedRing ring = null;
+        private StreamSink sink = null;
+        private Future<?> decodeTask = null;
+        private AnalysisScheduler.SessionState analysis = null;
+        private SessionMetrics metrics = null;
         private FFmpegFrameGrabber grabber;
         private volatile boolean isRunning = false;
-        private AdvancedMotionDetector detector = new AdvancedMotionDetector();
-        private LocalDateTime lastMotionDetect = null;
-        private MqttClient mqttClient = null;
-        private List<String> fileList =  new ArrayList<>();
+        private String sessionId;
+        // A konténer szála csak ide adja át az üzenetet
+        private IngestPipeline ingest = null;
+        // Vezérlő üzenetek küldéséhez; több szálról is hívható, lassú kliensnél eldobja az üzenetet
+        private WebSocketSession control = null;
+        // A dekóder puffere nem fogadta az adatot, a kapcsolat lezárás alatt
+        private volatile boolean isRejected = false;
+        // A lemaradó lemez miatt kihagyott Cluster-ek, a következő kulcskockáig
+        private boolean isRecordingGap = false;
+        private volatile long recordingDroppedBytes = 0;
     }
 
     private ConcurrentHashMap<String,SessionData> sesssionHolder = new ConcurrentHashMap<>();
 
+    @Autowired
+    private ExecutionModel executionModel;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private AnalysisScheduler analysisScheduler;
+
+    @Autowired
+    private MqttEventPublisher mqttEventPublisher;
+
+    @Autowired
+    private FinalizationScheduler finalizationScheduler;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private LiveBroadcaster liveBroadcaster;
+
+    @Autowired
+    private DecodeWorkerPool decodeWorkerPool;
+
+    @Autowired
+    private ArchiveIndex archiveIndex;
+
+    @Autowired
+    private SnapshotEncoder snapshotEncoder;
+
+    private ByteBufferPool bufferPool;
+
+    private ScheduledExecutorService resumeTimer;
+    // A forgalom szabályozó jelzések küldése; session-önként legfeljebb egy feladat, a lassú kliens a többit nem várakoztatja
+    private ExecutorService flowSignalExecutor;
+    // Forrásonként a lekapcsolódott session felvételi állapota és betanult háttérmodellje
+    private ParkedSessions<SourceState> parkedStates;
+    // Induláskor ellenőrzött mozgásérzékelő beállítások; a dekódoló ciklus csak ezekből olvas
+    private MotionDetectorSettings motionSettings;
+    private final ConcurrentHashMap<String, MotionDetectorSettings> sourceMotionSettings = new ConcurrentHashMap<>();
+
     public VideoStreamHandler() {
         System.out.println("VideoStreamHandler created");
     }
 
+    @PostConstruct
+    public void init() {
+        bufferPool = new ByteBufferPool(bufferSize, isBufferDirect, 64);
+        resumeTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-resume");
+            thread.setDaemon(true);
+            return thread;
+        });
+        parkedStates = new ParkedSessions<>(resumeGraceMillis, resumeTimer);
+        AtomicInteger signalThreads = new AtomicInteger();
+        flowSignalExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "flow-signal-" + signalThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        initMotionSettings();
+    }
+
+    // Hibás beállítás nem jut el a dekódoló ciklusig: az általános kulcsok hibájánál az alapértékek,
+    // egy forrás hibás felülírásánál az általános beállítások maradnak érvényben
+    private void initMotionSettings() {
+        try {
+            motionSettings = MotionDetectorSettings.fromEnvironment(environment, null);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Hibás mozgásérzékelő beállítás, az alapértékek érvényesek: " + e.getMessage());
+            motionSettings = MotionDetectorSettings.defaults();
+        }
+        for (String source : MotionDetectorSettings.configuredSources(environment)) {
+            sourceMotionSettings.put(source, resolveMotionSettings(source));
+        }
+    }
+
+    private MotionDetectorSettings resolveMotionSettings(String source) {
+        try {
+            return MotionDetectorSettings.fromEnvironment(environment, source);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Hibás mozgásérzékelő beállítás [" + source + "], az általános beállítások érvényesek: "
+                    + e.getMessage());
+            return motionSettings;
+        }
+    }
+
+    // A felsorolható property forrásokban nem szereplő forrás (pl. környezeti változóval felülírt) első használatkor
+    // egyszer kerül ellenőrzésre, nem képkockánként
+    private MotionDetectorSettings motionSettings(String source) {
+        if (source == null) return motionSettings;
+        return sourceMotionSettings.computeIfAbsent(source, this::resolveMotionSettings);
+    }
+
+    // A félretett felvételek is véglegesítésre kerülnek
+    @PreDestroy
+    public void shutdown() {
+        parkedStates.expireAll();
+        resumeTimer.shutdownNow();
+        flowSignalExecutor.shutdownNow();
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws IOException {
         SessionData sessionData = new SessionData();
-        sessionData.recordStartTime = LocalDateTime.now();
+        sessionData.sessionId = session.getId();
         sesssionHolder.put(session.getId(), sessionData);
-        sessionData.sessionName = getSessionName(session);
         sessionData.isRunning = true;
-        sessionData.asyncStream = new AsyncInputStream();
-        System.out.println("VideoStreamHandler connected ["+sessionData.sessionName+"]");
-        String fileName = sessionData.sessionName + ".webm";
-        sessionData.fileList.add(fileName);
-        Files.createFile(Paths.get(tempPath,fileName));
+        sessionData.analysis = analysisScheduler.register(session.getId());
+        if (decodeWorkerPool.isEnabled()) {
+            sessionData.ring = decodeWorkerPool.createRing(session.getId());
+            sessionData.sink = sessionData.ring;
+        } else {
+            sessionData.asyncStream = new AsyncInputStream(bufferPool, bufferSize,
+                    AsyncInputStream.OverflowPolicy.parse(bufferOverflowPolicy), bufferBlockTimeout);
+            sessionData.sink = sessionData.asyncStream;
+        }
+        sessionData.metrics = pipelineMetrics.register(session.getId());
+        sessionData.metrics.bindBuffer(sessionData.sink::getAvailableBytes,
+                sessionData.sink::getDroppedBytes, sessionData.sink.getCapacity());
+        // A forrás még nem ismert: ha korábbi állapota várakozik, a forrás megérkezésekor ezt váltja fel
+        sessionData.state = createSourceState(session.getId());
+        bindSourceState(sessionData, sessionData.state);
+        sessionData.state.segmentWriter.start();
+        applyRecordingSettings(sessionData);
+        sessionData.control = new ConcurrentWebSocketSessionDecorator(session, 1000, 64 * 1024,
+                ConcurrentWebSocketSessionDecorator.OverflowStrategy.DROP);
+        sessionData.ingest = new IngestPipeline(data -> ingest(session, sessionData, data),
+                (state, stage, level) -> signalFlow(sessionData, state, stage, level),
+                ingestHighWaterBytes, ingestHighWaterMillis, ingestMaxBytes, executionModel.getIoThreadFactory(),
+                flowSignalExecutor);
+        sessionData.ingest.addStage("decode", sessionData.sink::getAvailableBytes, () -> 0,
+                (long) (sessionData.sink.getCapacity() * decodeHighWater));
+        sessionData.ingest.addStage("disk", () -> sessionData.state.segmentWriter.getPendingBytes(),
+                () -> sessionData.state.segmentWriter.getPendingMillis(), ingestHighWaterBytes);
+        sessionData.metrics.bindIngest(() -> {
+            Map<String, Object> ingest = sessionData.ingest.toMap();
+            ingest.put("recordingDroppedBytes", sessionData.recordingDroppedBytes);
+            return ingest;
+        });
+        sessionData.ingest.start();
+        liveBroadcaster.openChannel(session.getId());
+        System.out.println("VideoStreamHandler connected ["+sessionData.sessionId+"]");
+
+        if (sessionData.ring != null) {
+            // A forrás még nem ismert: az alapbeállításokkal indul, a forrás megérkezésekor frissül
+            decodeWorkerPool.open(session.getId(), sessionData.ring, probeSize, analyzeDuration,
+                    analysisScheduler.isKeyframesOnly(), motionSettings(null),
+                    remoteListener(sessionData));
+        } else {
+            sessionData.decodeTask = executionModel.submitSession(() -> runDecodeLoop(sessionData));
+        }
+    }
 
-        sessionData.executor = Executors.newSingleThreadExecutor();
+    private SourceState createSourceState(String recordingId) {
+        SourceState state = new SourceState(recordingId);
+        state.segmentWriter = new SegmentWriter(Paths.get(tempPath),
+                () -> {
+                    state.recordStartTime = LocalDateTime.now();
+                    state.sessionName = getSessionName(recordingId, state.recordStartTime);
+                    return state.sessionName + ".webm";
+                },
+                state.fileList::add,
+                videoDuration, !isConcatFilesEnabled,
+                SegmentWriter.FsyncPolicy.parse(fsyncPolicy), fsyncInterval,
+                executionModel.getIoThreadFactory());
+        return state;
+    }
 
-        sessionData.executor.submit(() -> {
-            try {
-                while (sessionData.isRunning) {
-                    try {
-                        sessionData.asyncStream.clear();
+    // A szegmens író visszajelzései mindig az állapotot épp használó session-höz kerülnek
+    private void bindSourceState(SessionData sessionData, SourceState state) {
+        state.segmentWriter.setWriteListener(sessionData.metrics::onSegmentWrite);
+        // Az idő szerinti visszakereséshez; a forrás az első fájl nyitásakor még ismeretlen lehet
+        state.segmentWriter.setCueListener((fileName, streamHeader, fileOffset, receivedAt) ->
+                archiveIndex.addCue(sessionData.source, fileName, streamHeader, fileOffset, receivedAt));
+    }
 
-                        System.out.println("Várakozás tiszta fejlécre...");
-                        while (sessionData.isRunning && sessionData.asyncStream.getAvailableBytes() < 1024 * 1024) {
-                            Thread.sleep(100);
-                        }
+    // A dekóder folyamat eredményei ugyanazokat a mérőszámokat és ugyanazt a mozgás kezelést kapják, mint a helyi dekódolás
+    private DecodeWorkerPool.Listener remoteListener(SessionData sessionData) {
+        return new DecodeWorkerPool.Listener() {
+            private long startedNanos = sessionData.connectedNanos;
+            private boolean isFirstFrame = true;
+
+            @Override
+            public void onFrame(long decodeNanos, long detectNanos, boolean motion, long ageNanos) {
+                sessionData.metrics.onDecode(decodeNanos);
+                if (detectNanos < 0) return;
+                sessionData.metrics.onDetect(detectNanos);
+                if (isFirstFrame) {
+                    isFirstFrame = false;
+                    long startupNanos = System.nanoTime() - startedNanos;
+                    sessionData.metrics.onFirstFrame(startupNanos);
+                    System.out.println("Első elemzett képkocka " + startupNanos / 1_000_000 + " ms után ["
+                            + sessionData.sessionId + "]");
+                }
+                if (motion) {
+                    // A képkocka a dekóder folyamatban van, pillanatkép nélkül
+                    onMotion(sessionData, System.nanoTime() - ageNanos, null);
+                }
+            }
+
+            @Override
+            public void onNullFrame() {
+                sessionData.metrics.onNullFrame();
+            }
+
+            @Override
+            public void onRestart() {
+                sessionData.metrics.onGrabberRestart();
+                startedNanos = System.nanoTime();
+                isFirstFrame = true;
+            }
+
+            @Override
+            public void onQuarantined() {
+                // A felvétel és az élő kép megmarad, csak a mozgásérzékelés áll le ennél a kameránál
+                System.err.println("A mozgásérzékelés leállt, a stream többször összeomlasztotta a dekódert ["
+                        + sessionData.sessionId + "]");
+            }
+        };
+    }
 
-                        sessionData.grabber = new FFmpegFrameGrabber(sessionData.asyncStream);
-                        sessionData.grabber.setVideoCodecName("vp8");
-                        sessionData.grabber.setFormat("webm");
+    // arrivalNanos: a képkockát tartalmazó adat érkezési ideje (System.nanoTime); a mat a következő grab-ig érvényes
+    private record FrameResult(boolean hasFrame, boolean analysed, boolean motion, long arrivalNanos, Mat mat) {
+        static final FrameResult NO_FRAME = new FrameResult(false, false, false, 0, null);
+        static final FrameResult SKIPPED = new FrameResult(true, false, false, 0, null);
+    }
+
+    // A Matroska CodecID alapján; ismeretlen (vagy még nem látott) kodeknél a MediaRecorder alapértelmezése
+    private static String decoderName(String codecId) {
+        if (codecId == null) return "vp8";
+        return switch (codecId) {
+            case "V_VP9" -> "vp9";
+            case "V_AV1" -> "av1";
+            case "V_MPEG4/ISO/AVC" -> "h264";
+            default -> "vp8";
+        };
+    }
 
-                        sessionData.grabber.setOption("fflags", "nobuffer+igndts");
-                        sessionData.grabber.setOption("probesize", "1048576");
+    private void runDecodeLoop(SessionData sessionData) {
+        boolean isFirstStart = true;
+        try {
+            while (sessionData.isRunning) {
+                OpenCVFrameConverter.ToMat converter = null;
+                // Az első indításnál a kapcsolódástól, újraindításkor a hiba észlelésétől mérjük az első elemzett képkockáig
+                long startedNanos = isFirstStart ? sessionData.connectedNanos : System.nanoTime();
+                if (!isFirstStart) {
+                    sessionData.metrics.onGrabberRestart();
+                }
+                isFirstStart = false;
+                try {
+                    // A pufferelt adat megmarad: a fejléc után a következő Cluster-től olvas a dekóder
+                    sessionData.asyncStream.restart(sessionData.header);
+
+                    System.out.println("Várakozás a fejlécre és az első Cluster-re...");
+                    while (sessionData.isRunning && !sessionData.asyncStream.awaitCluster(1000)) {
+                        // Jelzésre ébred, amint egy Cluster kezdete a pufferbe került
+                    }
+                    if (!sessionData.isRunning) break;
+
+                    sessionData.grabber = new FFmpegFrameGrabber(sessionData.asyncStream);
+                    sessionData.grabber.setVideoCodecName(decoderName(sessionData.chunker.getParser().getVideoCodec()));
+                    sessionData.grabber.setFormat("webm");
+
+                    sessionData.grabber.setOption("fflags", "nobuffer+igndts");
+                    // A formátum és a kodek ismert, a fejléc után elég az első képkockáig vizsgálni a stream-et
+                    sessionData.grabber.setOption("probesize", String.valueOf(probeSize));
+                    sessionData.grabber.setOption("analyzeduration", String.valueOf(analyzeDuration));
+                    if (analysisScheduler.restartDecoder(sessionData.analysis)) {
+                        // Csak kulcskockák elemzésénél a dekóder is kihagyhatja a köztes képkockákat
+                        sessionData.grabber.setVideoOption("skip_frame", "nokey");
+                    }
 
-                        System.out.println("FFmpeg indítása...");
+                    System.out.println("FFmpeg indítása...");
+                    // A fejléc és az első Cluster már a pufferben van, az indítás nem adatra vár a pool-on
+                    executionModel.runCpu(() -> {
                         sessionData.grabber.start(false);
+                        return null;
+                    });
 
-                        System.out.println("FFmpeg sikeresen elindult.");
-
-                        sessionData.mqttClient = new MqttClient(broker, sessionData.sessionName);
-                        MqttConnectOptions connOpts = new MqttConnectOptions();
-                        connOpts.setCleanSession(true);
-                        System.out.println("Csatlakozás a brokerhez: " + broker);
-                        sessionData.mqttClient.connect(connOpts);
-
-                        MqttMessage message = new MqttMessage(("[source:" + sessionData.source + "][" + sessionData.sessionName + "] " + content).getBytes());
-                        message.setQos(2);
-
-                        OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
-                        int nullFrameCount = 0;
-                        while (sessionData.isRunning) {
-                            try {
-                                Frame frame = sessionData.grabber.grabImage();
-                                if (frame == null) {
-                                    nullFrameCount++;
-                                    if (nullFrameCount > 20) {
-                                        System.out.println("A stream megszakadt vagy elfogyott az adat. Újraindítás...");
-                                        break;
-                                    }
-                                    Thread.sleep(500);
-                                    continue;
-                                }
+                    System.out.println("FFmpeg sikeresen elindult.");
 
-                                nullFrameCount = 0;
-
-                                if (frame.image != null) {
-                                    Mat mat = converter.convert(frame);
-                                    if (mat != null && !mat.empty()) {
-                                        LocalDateTime end = LocalDateTime.now();
-                                        if (sessionData.lastMotionDetect == null) {
-                                            sessionData.mqttClient.publish(topic, message);
-                                            System.out.println("Mozgás észlelve!");
-                                            sessionData.lastMotionDetect = end;
-                                        } else {
-                                            Duration duration = Duration.between(sessionData.lastMotionDetect, end);
-                                            long toSeconds = duration.toSeconds();
-                                            if (sessionData.detector.detectMotionFromMat(mat) && (toSeconds > 15)) {
-                                                sessionData.mqttClient.publish(topic, message);
-                                                System.out.println("Mozgás észlelve!");
-                                                sessionData.lastMotionDetect = end;
-                                            }
-                                        }
-                                        mat.release();
-                                    }
+                    converter = new OpenCVFrameConverter.ToMat();
+                    int nullFrameCount = 0;
+                    boolean isFirstFrame = true;
+                    while (sessionData.isRunning) {
+                        try {
+                            // A dekódolás és a mozgásérzékelés egyetlen CPU feladatként fut, de csak ha van olvasható
+                            // adat: az új adatra itt, a session szálán várunk, nem a dekóder pool-on
+                            OpenCVFrameConverter.ToMat frameConverter = converter;
+                            FrameResult result = executionModel.runCpu(sessionData.asyncStream, 1000,
+                                    () -> grabAndDetect(sessionData, frameConverter));
+                            if (result == null) {
+                                continue;
+                            }
+                            if (!result.hasFrame()) {
+                                sessionData.metrics.onNullFrame();
+                                nullFrameCount++;
+                                if (nullFrameCount > 20) {
+                                    System.out.println("A stream megszakadt vagy elfogyott az adat. Újraindítás...");
+                                    break;
                                 }
-                            } catch (Exception e) {
-                                System.err.println("Hiba a frame olvasása közben: " + e.getMessage());
-                                break; // Hiba esetén is újraindítunk
-                            } finally {
+                                // Alvás helyett új adat érkezésére várunk
+                                sessionData.asyncStream.awaitAvailable(1, 500);
+                                continue;
+                            }
+
+                            nullFrameCount = 0;
+                            if (isFirstFrame && result.analysed()) {
+                                isFirstFrame = false;
+                                long startupNanos = System.nanoTime() - startedNanos;
+                                sessionData.metrics.onFirstFrame(startupNanos);
+                                System.out.println("Első elemzett képkocka " + startupNanos / 1_000_000 + " ms után ["
+                                        + sessionData.sessionId + "]");
+                            }
+
+                            if (result.motion()) {
+                                onMotion(sessionData, result.arrivalNanos(), result.mat());
+                            }
 
+                            if (analysisScheduler.isDecoderRestartNeeded(sessionData.analysis)) {
+                                // A következő Cluster-től folytatja, a dekódolási mód a csúszáshoz igazodik
+                                System.out.println("Dekóder újraindítása a csúszás miatt [" + sessionData.sessionId + "]");
+                                break;
                             }
+                        } catch (InterruptedException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            System.err.println("Hiba a frame olvasása közben: " + e.getMessage());
+                            break; // Hiba esetén is újraindítunk
                         }
-                    } catch (Exception e) {
-                        System.err.println("Grabber indítási hiba: " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    System.err.println("Grabber indítási hiba: " + e.getMessage());
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException i) {
+                        break;
+                    }
+                } finally {
+                    if (converter != null) {
+                        converter.close();
+                    }
+                    if (sessionData.grabber != null) {
                         try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException i) {
-                            break;
-                        }
-                    } finally {
-                        if (sessionData.grabber != null) {
                             sessionData.grabber.close();
                             sessionData.grabber.release();
-                        }
-                        if (sessionData.mqttClient != null) {
-                            try {
-                                if (sessionData.mqttClient.isConnected()) {
-                                    // 1. Megszüntetjük a hálózati kapcsolatot (időtúllépéssel, hogy ne akadjon el)
-                                    sessionData.mqttClient.disconnect(5000);
-                                    System.out.println("MQTT Kapcsolat bontva.");
-                                }
-                            } catch (MqttException e) {
-                                System.err.println("MQTT Hiba a bontás során: " + e.getMessage());
-                            } finally {
-                                try {
-                                    // 2. Felszabadítjuk az erőforrásokat (memória, szálak)
-                                    // Ezt csak a disconnect után szabad!
-                                    sessionData.mqttClient.close();
-                                    System.out.println("MQTT Ügyfél véglegesen lezárva.");
-                                } catch (MqttException e) {
-                                    System.err.println("MQTT Hiba a lezárás során.");
-                                }
-                            }
+                        } catch (Exception e) {
+                            System.err.println("Hiba a grabber lezárásakor: " + e.getMessage());
                         }
                     }
                 }
-            } catch (Exception e) {
-                System.out.println(e.getMessage());
-            } finally {
-                System.out.println("VideoStreamHandler lezárva");
             }
-        });
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+        } finally {
+            sessionData.asyncStream.dispose();
+            System.out.println("VideoStreamHandler lezárva");
+        }
     }
 
-    private String getSessionName(WebSocketSession session) {
-        SessionData sessionData = sesssionHolder.get(session.getId());
+    // arrivalNanos: a mozgást mutató képkocka adatának érkezési ideje (System.nanoTime), 0 ha nem ismert
+    // frame: a mozgást mutató képkocka (null, ha nem érhető el); csak a hívás idejére kell érvényesnek lennie
+    private void onMotion(SessionData sessionData, long arrivalNanos, Mat frame) {
+        SourceState state = sessionData.state;
+        MotionRecorder motionRecorder = state.motionRecorder;
+        if (motionRecorder != null) {
+            motionRecorder.trigger();
+        }
+        LocalDateTime end = LocalDateTime.now();
+        if (state.lastMotionDetect == null
+                || Duration.between(state.lastMotionDetect, end).toSeconds() > 15) {
+            // A pillanatkép a háttérben készül és külön topic-ra kerül, az esemény csak hivatkozik rá
+            String snapshotId = snapshotEncoder.capture(sessionData.sessionId, frame,
+                    (id, jpeg) -> mqttEventPublisher.publish(snapshotTopic + "/" + id, jpeg, null));
+            // A közös küldő sorába kerül, a dekódoló szál nem vár a brokerre
+            byte[] message = ("[source:" + sessionData.source + "][" + state.sessionName + "] " + content
+                    + (snapshotId == null ? "" : " [snapshot:" + snapshotId + "]")).getBytes();
+            long queuedAfter = arrivalNanos == 0 ? 0 : System.nanoTime() - arrivalNanos;
+            mqttEventPublisher.publish(topic, message, sessionData.sessionId,
+                    delivered -> sessionData.metrics.onPublished(queuedAfter + delivered));
+            System.out.println("Mozgás észlelve!");
+            state.lastMotionDetect = end;
+            // Az archívumban a mozgást mutató adat érkezési ideje számít, nem a dekódolás vége
+            archiveIndex.addMotion(sessionData.source, System.currentTimeMillis() - queuedAfter / 1_000_000);
+        }
+    }
+
+    private FrameResult grabAndDetect(SessionData sessionData, OpenCVFrameConverter.ToMat converter) throws Exception {
+        long started = System.nanoTime();
+        Frame frame = sessionData.grabber.grabImage();
+        sessionData.metrics.onDecode(System.nanoTime() - started);
+        if (frame == null) return FrameResult.NO_FRAME;
+        if (frame.image == null) return FrameResult.SKIPPED;
+        if (!analysisScheduler.shouldAnalyse(sessionData.analysis, frame.timestamp, frame.keyFrame)) {
+            return FrameResult.SKIPPED;
+        }
+        // A konverter a frame pufferére mutató Mat-ot adja vissza, ezt nem szabadítjuk fel frame-enként
+        Mat mat = converter.convert(frame);
+        if (mat == null || mat.empty()) return FrameResult.SKIPPED;
+        long arrivalNanos = sessionData.asyncStream.getLastReadArrivalNanos();
+        // Újrakapcsolódáskor a forrás betanult háttérmodellje folytatódik, nem tanul újra
+        long detectStarted = System.nanoTime();
+        MotionDetectorSettings settings = motionSettings(sessionData.source);
+        boolean motion = sessionData.state.detectMotion(mat, () -> new AdvancedMotionDetector(settings));
+        sessionData.metrics.onDetect(System.nanoTime() - detectStarted);
+        return new FrameResult(true, true, motion, arrivalNanos, mat);
+    }
+
+    private String getSessionName(String sessionId, LocalDateTime recordStartTime) {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
-        Date date = Date.from(sessionData.recordStartTime
+        Date date = Date.from(recordStartTime
                 .atZone(ZoneId.systemDefault())
                 .toInstant());
-        return sdf.format(date) + "_" + session.getId();
+        return sdf.format(date) + "_" + sessionId;
     }
 
-    private long totalBytesReceived = 0;
-    private long lastLogTime = System.currentTimeMillis();
-
     @Override
     protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws IOException {
         SessionData sessionData = sesssionHolder.get(session.getId());
 
+        // Az egyetlen másolás a konténer pufferéből: a konténer a visszatérés után újrahasznosítja a payload-ot, a
+        // tömbre pedig a szegmens író és az élő nézők hivatkoznak tovább (a dekóder gyűrűje a saját tárolója)
         java.nio.ByteBuffer payload = message.getPayload();
         int size = payload.remaining();
         byte[] data = new byte[size];
         payload.get(data);
 
-        if (!sessionData.isHeaderGrabbed) {
-            sessionData.header = getVideoMHeader(data);
-            sessionData.isHeaderGrabbed = true;
+        sessionData.metrics.onChunk(size);
+
+        // A feldolgozás a session saját szálán folytatódik, a konténer szála nem vár a lemezre és a dekóderre
+        if (!sessionData.ingest.offer(data)) {
+            System.err.println("A fogadó sor betelt (" + sessionData.ingest.getQueuedBytes()
+                    + " bájt), a kapcsolat lezárása [" + sessionData.sessionId + "]");
+            session.close(CloseStatus.SERVICE_OVERLOAD);
         }
+    }
 
-        sessionData.asyncStream.write(data);
-        Files.write(Paths.get(tempPath,sessionData.sessionName + ".webm"), data, StandardOpenOption.APPEND);
-
-        if (Duration.between(sessionData.recordStartTime,LocalDateTime.now()).toSeconds() >= videoDuration) {
-            sessionData.recordStartTime = LocalDateTime.now();
-            sessionData.sessionName = getSessionName(session);
-            String fileName = sessionData.sessionName + ".webm";
-            sessionData.fileList.add(fileName);
-            Files.createFile(Paths.get(tempPath,fileName));
-            if (!isConcatFilesEnabled) {
-                Files.write(Paths.get(tempPath,sessionData.sessionName + ".webm"), sessionData.header, StandardOpenOption.APPEND);
+    // A session feldolgozó szálán, érkezési sorrendben
+    private void ingest(WebSocketSession session, SessionData sessionData, byte[] data) {
+        if (sessionData.isRejected) return;
+        try {
+            // Az EBML elemző chunk határokon át követi a fejlécet és a Cluster-eket
+            for (WebmChunk chunk : sessionData.chunker.feed(data)) {
+                if (!writeChunk(session, sessionData, chunk)) return;
+            }
+            if (sessionData.chunker.isRejected()) {
+                System.err.println("A stream fejléce nem fejeződött be a korláton belül, a kapcsolat lezárása ["
+                        + sessionData.sessionId + "]");
+                sessionData.isRejected = true;
+                session.close(CloseStatus.BAD_DATA);
             }
+        } catch (IOException e) {
+            System.err.println("Hiba a bejövő adat feldolgozásakor [" + sessionData.sessionId + "]: " + e.getMessage());
         }
+    }
 
-        totalBytesReceived += size;
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastLogTime > 5000) {
-            System.out.println("Adatfolyam állapota: " + (totalBytesReceived / 1024) + " KB érkezett az utolsó ellenőrzés óta.");
-            totalBytesReceived = 0;
-            lastLogTime = currentTime;
+    // Vezérlő üzenet a kliensnek, pl. "[flow]:slow-down:disk", majd "[flow]:resume": a kliens ennek alapján
+    // csökkenti a bitrátát, szünetelteti vagy folytatja a küldést. Mindig a session feldolgozó szálán fut.
+    private void signalFlow(SessionData sessionData, IngestPipeline.FlowState state, String stage, double level) {
+        String signal = FLOW_NAME + state.getSignal() + (state == IngestPipeline.FlowState.NORMAL ? "" : ":" + stage);
+        System.out.println("Forgalom szabályozás: " + signal + " (szint: " + String.format("%.2f", level) + ") ["
+                + sessionData.sessionId + "]");
+        try {
+            sessionData.control.sendMessage(new TextMessage(signal));
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("A vezérlő üzenet nem küldhető [" + sessionData.sessionId + "]: " + e.getMessage());
         }
     }
 
-    @Override
-    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
-        SessionData sessionData = sesssionHolder.get(session.getId());
-        String payload = message.getPayload();
-        if (sessionData != null && sessionData.isRunning && payload.indexOf(SOURCE_NAME) == 0) {
-            sessionData.source = payload.substring(SOURCE_NAME.length());
+    private boolean writeChunk(WebSocketSession session, SessionData sessionData, WebmChunk chunk) throws IOException {
+        boolean accepted = true;
+        if (chunk.header() != sessionData.header) {
+            // Új (vagy első) stream fejléc: a dekódernek is ezzel kell kezdenie
+            sessionData.header = chunk.header();
+            accepted = sessionData.sink.write(chunk.header());
+        }
+        // A dekóder puffere a Cluster kezdetek alapján dob el egész Cluster-eket, és kulcskockánál indul újra
+        accepted &= sessionData.sink.write(chunk);
+        if (!accepted) {
+            System.err.println("Az async puffer betelt, a kapcsolat lezárása [" + sessionData.sessionId + "]");
+            sessionData.isRejected = true;
+            session.close(CloseStatus.SERVICE_OVERLOAD);
+            return false;
         }
+        // A lemezre írás és a szegmens forgatás a szegmens író saját szálán történik
+        record(sessionData, chunk);
+        // Az élő nézők ugyanarra a tömbre kapnak hivatkozást
+        liveBroadcaster.publish(sessionData.sessionId, chunk);
+        return true;
     }
 
-    @Override
-    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        SessionData sessionData = sesssionHolder.get(session.getId());
-        String sessionId = session.getId();
-        sessionData.isRunning = false;
-        if (sessionData.asyncStream != null) {
-            sessionData.asyncStream.closeStream();
+    private void record(SessionData sessionData, WebmChunk chunk) {
+        SourceState state = sessionData.state;
+        MotionRecorder motionRecorder = state.motionRecorder;
+        if (motionRecorder != null) {
+            motionRecorder.write(chunk);
+            return;
+        }
+        chunk = throttleRecording(sessionData, chunk);
+        if (chunk != null) {
+            state.segmentWriter.write(chunk);
         }
-        sessionData.executor.shutdownNow();
-        sesssionHolder.remove(sessionId);
-        System.out.println("Kapcsolat lezárva, erőforrások felszabadítva.");
-
-        CompletableFuture.runAsync(() -> {
-            try {
-                if (isConcatFilesEnabled) {
-                    String fileName = concatFilesJava(sessionId, sessionData);
-                    removeFiles(sessionId, sessionData);
-                    fixVideoDuration(fileName);
-                } else {
-                    for(String fileName : sessionData.fileList) {
-                        fixVideoDuration(Paths.get(tempPath,fileName).toString());
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }, CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS));
     }
 
-    private void removeFiles(String sessionId,SessionData sessionData) {
-        for (String fileName : sessionData.fileList) {
-            try {
-                Files.delete(Paths.get(tempPath,fileName));
-            } catch (IOException e) {
-                e.printStackTrace();
+    // Ha a lemez lemarad, a felvétel Cluster határon megszakad és a vízszint alá ürülés után a következő kulcskockánál
+    // folytatódik: a fájl hézagos, de lejátszható marad, és a memória nem nő korlátlanul. A mozgásra indított
+    // felvétel pre-roll gyűrűje eleve korlátos, ott nincs kihagyás.
+    private WebmChunk throttleRecording(SessionData sessionData, WebmChunk chunk) {
+        long pending = sessionData.state.segmentWriter.getPendingBytes();
+        if (!sessionData.isRecordingGap) {
+            if (pending <= ingestMaxBytes || chunk.clusters().isEmpty()) return chunk;
+            sessionData.isRecordingGap = true;
+            System.err.println("A lemez lemaradt (" + pending / 1024 + " KB sorban), a felvétel szünetel ["
+                    + sessionData.sessionId + "]");
+            int position = chunk.positionOf(chunk.clusters().get(0));
+            sessionData.recordingDroppedBytes += chunk.offset() + chunk.length() - position;
+            return position > chunk.offset() ? chunk.slice(chunk.offset(), position) : null;
+        }
+        if (pending <= ingestHighWaterBytes) {
+            for (ClusterMark cluster : chunk.clusters()) {
+                if (!cluster.keyframe()) continue;
+                sessionData.isRecordingGap = false;
+                int position = chunk.positionOf(cluster);
+                sessionData.recordingDroppedBytes += position - chunk.offset();
+                System.out.println("A felvétel folytatódik a következő kulcskockától [" + sessionData.sessionId + "]");
+                return chunk.slice(position, chunk.offset() + chunk.length());
             }
         }
+        sessionData.recordingDroppedBytes += chunk.length();
+        return null;
     }
 
-    private void fixVideoDuration(String fileName) throws IOException, InterruptedException {
-        String fixedFileName = fileName.replace(".webm", "_fixed.webm");
-        int exitCode = repairVideoFile(fileName,fixedFileName);
-        if (exitCode == 0) {
-            String outFileName = Paths.get(fileName).getFileName().toString();
-            Files.move(Paths.get(fixedFileName), Paths.get(videoPath,outFileName), StandardCopyOption.REPLACE_EXISTING);
-            System.out.println("A fejrész korrekció megtörtént.");
-        } else {;
-            File file = new File(fixedFileName);
-            if (file.exists()) {
-                Files.delete(file.toPath());
+    // A felvételi mód a forrás ismeretében változhat (video.record.source.<forrás>.mode)
+    private void applyRecordingSettings(SessionData sessionData) {
+        RecordingSettings settings = RecordingSettings.fromEnvironment(environment, sessionData.source);
+        SourceState state = sessionData.state;
+        MotionRecorder current = state.motionRecorder;
+        if (settings.motionTriggered()) {
+            if (current != null) {
+                current.setSettings(settings);
+                return;
             }
-            System.out.println("Hiba történt a fejrész korrekciónál! ExitCode: " + exitCode);
+            // Az eddigi folyamatos fájl lezárul, a klipek önállóak
+            state.segmentWriter.endSegment();
+            state.motionRecorder = new MotionRecorder(state.segmentWriter, settings);
+            state.isClipRecording = true;
+        } else if (current != null) {
+            state.motionRecorder = null;
+            current.drainTo(state.segmentWriter);
         }
-
     }
 
-    private int repairVideoFile(String inputPath, String outputPath) throws IOException, InterruptedException  {
-        ProcessBuilder pb = new ProcessBuilder("ffmpeg", "-y", "-i", inputPath, "-c", "copy", outputPath);
-        pb.directory(Paths.get(tempPath).toFile());
-        return pb.inheritIO().start().waitFor();
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        SessionData sessionData = sesssionHolder.get(session.getId());
+        String payload = message.getPayload();
+        if (sessionData != null && sessionData.isRunning && payload.indexOf(SOURCE_NAME) == 0) {
+            String source = payload.substring(SOURCE_NAME.length());
+            // A korábban érkezett adat még a korábbi beállításokkal kerül feldolgozásra
+            sessionData.ingest.submit(() -> setSource(sessionData, source));
+        }
     }
 
-    private String concatFilesJava(String sessionId, SessionData sessionData) throws IOException {
-        Path outputPath = Paths.get(tempPath, sessionId+"_concat.webm");
-
-        for (int i = 0; i < sessionData.fileList.size(); i++) {
-            Path sourcePath = Paths.get(tempPath, sessionData.fileList.get(i));
-            if (i == 0) {
-                Files.copy(sourcePath, outputPath, StandardCopyOption.REPLACE_EXISTING);
-            } else {
-                Files.write(outputPath, Files.readAllBytes(sourcePath), StandardOpenOption.APPEND);
-            }
+    private void setSource(SessionData sessionData, String source) {
+        sessionData.source = source;
+        SourceState parked = parkedStates.resume(source);
+        if (parked != null) {
+            resumeSourceState(sessionData, parked);
+        }
+        sessionData.analysis.setSource(source);
+        sessionData.metrics.setSource(source);
+        liveBroadcaster.setSource(sessionData.sessionId, source);
+        applyRecordingSettings(sessionData);
+        // Itt, a session szálán dől el a forrás beállítása, így a dekódoló ciklus már a gyorsítótárból olvas
+        MotionDetectorSettings settings = motionSettings(source);
+        if (sessionData.ring != null) {
+            decodeWorkerPool.setSettings(sessionData.sessionId, settings);
         }
-        return outputPath.toString();
     }
 
-    public byte[] getVideoMHeader(byte[] firstChunk) throws IOException {
-        // A WebM/EBML 'Cluster' elem azonosítója: 0x1F 0x43 0xB6 0x75
-        byte[] clusterTag = {(byte) 0x1F, (byte) 0x43, (byte) 0xB6, (byte) 0x75};
-
-        int headerLimit = findSequence(firstChunk, clusterTag);
+    // Az újrakapcsolódó forrás a korábbi felvételt folytatja: az új stream a saját fejlécével új fájlt kezd, de
+    // ugyanabba a sorozatba (és összefűzésnél ugyanabba a felvételbe) kerül, a riasztási állapot is megmarad
+    private void resumeSourceState(SessionData sessionData, SourceState parked) {
+        SourceState fresh = sessionData.state;
+        bindSourceState(sessionData, parked);
+        sessionData.state = parked;
+        // Ha a forrás előtt már érkezett adat, az külön felvételként véglegesül
+        finishRecording(fresh);
+        System.out.println("A(z) " + sessionData.source + " forrás folytatja a korábbi felvételt ["
+                + parked.sessionName + "] [" + sessionData.sessionId + "]");
+    }
 
-        // Ha nem találjuk a Cluster-t, az egész első chunk-ot fejlécnek tekintjük (biztonsági játék)
-        if (headerLimit == -1) {
-            headerLimit = firstChunk.length;
-        }
+    // A finalizálás csak akkor kerül sorba, amikor a szegmens író minden sorban álló adatot kiírt
+    private void finishRecording(SourceState state) {
+        state.segmentWriter.close().thenRun(() -> finalizationScheduler.submit(state.recordingId,
+                new ArrayList<>(state.fileList), isConcatFilesEnabled && !state.isClipRecording,
+                state.segmentWriter::getSegmentIndex));
+        state.releaseDetector();
+    }
 
-        return Arrays.copyOf(firstChunk, headerLimit);
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        SessionData sessionData = sesssionHolder.get(session.getId());
+        // A sorban álló adat még feldolgozásra kerül, az erőforrások ezután szabadulnak fel
+        sessionData.ingest.finish(() -> release(session.getId(), sessionData));
     }
 
-    // Segédfüggvény a bájtsorozat megkereséséhez
-    private int findSequence(byte[] data, byte[] sequence) {
-        for (int i = 0; i < data.length - sequence.length; i++) {
-            boolean match = true;
-            for (int j = 0; j < sequence.length; j++) {
-                if (data[i + j] != sequence[j]) {
-                    match = false;
-                    break;
-                }
-            }
-            if (match) return i;
+    private void release(String sessionId, SessionData sessionData) {
+        // A visszatartott utolsó Cluster is a fájlba kerül
+        for (WebmChunk chunk : sessionData.chunker.flush()) {
+            record(sessionData, chunk);
+            liveBroadcaster.publish(sessionId, chunk);
+        }
+        liveBroadcaster.closeChannel(sessionId);
+        sessionData.isRunning = false;
+        if (sessionData.asyncStream != null) {
+            sessionData.asyncStream.closeStream();
         }
-        return -1;
+        if (sessionData.decodeTask != null) {
+            sessionData.decodeTask.cancel(true);
+        }
+        if (sessionData.ring != null) {
+            // A dekóder folyamat leállítja a session-t, a gyűrű fájl törlődik
+            decodeWorkerPool.close(sessionId);
+        }
+        sesssionHolder.remove(sessionId);
+        analysisScheduler.unregister(sessionId);
+        pipelineMetrics.unregister(sessionId);
+        mqttEventPublisher.forget(sessionId);
+        System.out.println("Kapcsolat lezárva, erőforrások felszabadítva.");
+
+        // Rövid megszakadásnál a felvétel és a háttérmodell a forrás újrakapcsolódásáig megmarad, a finalizálás a
+        // türelmi idő lejártakor történik
+        parkedStates.park(sessionData.source, sessionData.state, this::finishRecording);
     }
-}
\ No newline at end of file
+}
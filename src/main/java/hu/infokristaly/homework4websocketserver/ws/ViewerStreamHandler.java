@@ -0,0 +1,54 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+// Élő nézet: /video-view?source=<forrás> vagy /video-view?session=<kamera session>. A néző csak fogad, a WebM
+// fejlécet, majd a kamera Cluster-eit kapja bináris üzenetekben (pl. MediaSource-ba tölthető).
+@Component
+public class ViewerStreamHandler extends TextWebSocketHandler {
+
+    @Autowired
+    private LiveBroadcaster liveBroadcaster;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+        String source = null;
+        String cameraSession = null;
+        String query = session.getUri() == null ? null : session.getUri().getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator < 0) continue;
+                String value = URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8);
+                switch (parameter.substring(0, separator)) {
+                    case "source" -> source = value;
+                    case "session" -> cameraSession = value;
+                    default -> { }
+                }
+            }
+        }
+        if ((source == null) == (cameraSession == null)) {
+            session.close(CloseStatus.BAD_DATA.withReason("source vagy session paraméter szükséges"));
+            return;
+        }
+        if (!liveBroadcaster.addViewer(session, source, cameraSession)) {
+            session.close(CloseStatus.BAD_DATA.withReason("Ismeretlen kamera session: " + cameraSession));
+            return;
+        }
+        System.out.println("Néző csatlakozott [" + session.getId() + "]: "
+                + (source != null ? "forrás " + source : "session " + cameraSession));
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        liveBroadcaster.removeViewer(session.getId());
+    }
+}
@@ -17,9 +17,13 @@ public class WebSocketConfig implements WebSocketConfigurer {
     @Autowired
     VideoStreamHandler  videoStreamHandler;
 
+    @Autowired
+    ViewerStreamHandler viewerStreamHandler;
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(videoStreamHandler, "/video-stream").setAllowedOrigins("*");
+        registry.addHandler(viewerStreamHandler, "/video-view").setAllowedOrigins("*");
     }
 
     @Bean
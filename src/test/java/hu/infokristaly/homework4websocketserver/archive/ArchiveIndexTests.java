@@ -0,0 +1,86 @@
+package hu.infokristaly.homework4websocketserver.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveIndexTests {
+
+    private static final byte[] HEADER = {0x1A, 0x45, (byte) 0xDF, (byte) 0xA3, 1, 2, 3};
+
+    @TempDir
+    Path directory;
+
+    private ArchiveIndex open() throws Exception {
+        ArchiveIndex index = new ArchiveIndex();
+        ReflectionTestUtils.setField(index, "videoPath", directory.toString());
+        ReflectionTestUtils.setField(index, "indexPath", "");
+        ReflectionTestUtils.setField(index, "isEnabled", true);
+        index.init();
+        return index;
+    }
+
+    @Test
+    void findsTheKeyframeRangeCoveringATimeSpan() throws Exception {
+        ArchiveIndex index = open();
+        index.addCue("cam 1", "a.webm", HEADER, 100, 1_000);
+        index.addCue("cam 1", "a.webm", HEADER, 5_000, 3_000);
+        index.addCue("cam 1", "a.webm", HEADER, 9_000, 5_000);
+        index.addCue("cam 1", "b.webm", HEADER, 100, 7_000);
+
+        ArchiveIndex.Clip clip = index.findClip("cam 1", 3_500, 4_000);
+        assertEquals("a.webm", clip.fileName());
+        assertEquals(5_000, clip.startOffset());
+        assertEquals(9_000, clip.endOffset());
+        assertEquals(3_000, clip.startMillis());
+        assertEquals(5_000, clip.endMillis());
+        assertArrayEquals(HEADER, index.readHeader("cam 1", clip.headerId()));
+
+        // A fájlváltásnál a klip a fájl végéig tart
+        clip = index.findClip("cam 1", 5_000, 8_000);
+        assertEquals("a.webm", clip.fileName());
+        assertEquals(-1, clip.endOffset());
+        assertEquals(7_000, clip.endMillis());
+
+        // Nyitott végű lekérdezésnél sem csordul túl a keresés
+        clip = index.findClip("cam 1", Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals("b.webm", clip.fileName());
+        assertEquals(7_000, clip.startMillis());
+        assertEquals(-1, clip.endOffset());
+        clip = index.findClip("cam 1", 3_500, Long.MAX_VALUE);
+        assertEquals(5_000, clip.startOffset());
+        assertEquals(-1, clip.endOffset());
+        assertEquals(7_000, clip.endMillis());
+
+        assertNull(index.findClip("cam 1", 0, 500));
+        assertNull(index.findClip("other", 0, 10_000));
+        index.close();
+    }
+
+    @Test
+    void followsRelocatedFilesAcrossRestarts() throws Exception {
+        ArchiveIndex index = open();
+        index.addCue("cam", "part1.webm", HEADER, 100, 1_000);
+        index.addCue("cam", "part2.webm", null, 0, 2_000);
+        index.addMotion("cam", 1_500);
+        index.relocate("part1.webm", "s_concat.webm", 0);
+        index.relocate("part2.webm", "s_concat.webm", 4_000);
+        index.close();
+
+        index = open();
+        ArchiveIndex.Clip clip = index.findClip("cam", 2_000, 2_000);
+        assertEquals("s_concat.webm", clip.fileName());
+        assertEquals(4_000, clip.startOffset());
+        assertTrue(clip.seekable());
+        assertEquals(List.of(1_500L), index.findMotion("cam", 0, 10_000, 10));
+
+        index.invalidate("s_concat.webm");
+        assertFalse(index.findClip("cam", 1_000, 1_000).seekable());
+        index.close();
+    }
+}
@@ -0,0 +1,55 @@
+package hu.infokristaly.homework4websocketserver.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeIndexFileTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void growsAndSurvivesReopening() throws Exception {
+        Path file = directory.resolve("cues.idx");
+        try (TimeIndexFile index = TimeIndexFile.open(file)) {
+            for (int i = 0; i < 10_000; i++) {
+                index.append(1000L + i * 10L, i / 100, i * 4096L);
+            }
+        }
+        try (TimeIndexFile index = TimeIndexFile.open(file)) {
+            assertEquals(10_000, index.size());
+            TimeIndexFile.Entry entry = index.get(9_999);
+            assertEquals(1000L + 99_990, entry.wallMillis());
+            assertEquals(99, entry.fileId());
+            assertEquals(9_999 * 4096L, entry.offset());
+            index.append(500, 7, 1);
+            // Az idő nem mehet vissza, a bejegyzés az utolsó idejét kapja
+            assertEquals(1000L + 99_990, index.get(10_000).wallMillis());
+        }
+    }
+
+    @Test
+    void floorAndCeilingSearchByTime() throws Exception {
+        try (TimeIndexFile index = TimeIndexFile.open(directory.resolve("a.idx"))) {
+            assertEquals(-1, index.floor(100));
+            assertEquals(0, index.ceiling(100));
+            index.append(100, 0, 0);
+            index.append(200, 0, 10);
+            index.append(200, 0, 20);
+            index.append(300, 1, 0);
+            assertEquals(-1, index.floor(99));
+            assertEquals(0, index.floor(150));
+            assertEquals(2, index.floor(200));
+            assertEquals(1, index.ceiling(200));
+            assertEquals(3, index.ceiling(201));
+            assertEquals(4, index.ceiling(301));
+            assertEquals(3, index.floor(Long.MAX_VALUE - 1));
+            assertEquals(3, index.floor(Long.MAX_VALUE));
+            assertEquals(0, index.ceiling(Long.MIN_VALUE));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package hu.infokristaly.homework4websocketserver.cv;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_imgproc.FILLED;
+import static org.bytedeco.opencv.global.opencv_imgproc.rectangle;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdvancedMotionDetectorTests {
+
+    private static MotionDetectorSettings settings(boolean fast, int analysisWidth, String roi, String exclude) {
+        MotionDetectorSettings defaults = MotionDetectorSettings.defaults();
+        return new MotionDetectorSettings(fast, analysisWidth, MotionDetectorSettings.parseRegions(roi),
+                MotionDetectorSettings.parseRegions(exclude), defaults.threshold(), defaults.history(),
+                defaults.varThreshold(), defaults.detectShadows());
+    }
+
+    // Egyszínű háttér, opcionálisan egy fehér négyzettel
+    private static Mat frame(int width, int height, Rect block) {
+        Mat frame = new Mat(height, width, CV_8UC3, new Scalar(96, 96, 96, 0));
+        if (block != null) {
+            rectangle(frame, block, new Scalar(255, 255, 255, 0), FILLED, 8, 0);
+        }
+        return frame;
+    }
+
+    @Test
+    void roiAndAnalysisWidthFollowTheFrameSize() {
+        try (AdvancedMotionDetector detector = new AdvancedMotionDetector(
+                settings(true, 160, "0.25,0.5,0.5,0.5", null))) {
+            Mat large = frame(640, 480, null);
+            detector.detectMotionFromMat(large);
+            Rect roi = (Rect) ReflectionTestUtils.getField(detector, "roiRect");
+            assertEquals(160, roi.x());
+            assertEquals(240, roi.y());
+            assertEquals(320, roi.width());
+            assertEquals(240, roi.height());
+            Size analysis = (Size) ReflectionTestUtils.getField(detector, "analysisSize");
+            assertEquals(160, analysis.width());
+            assertEquals(120, analysis.height());
+            // Téglalap ROI-nál a kivágás maga a vizsgált terület, maszk nélkül
+            assertNull(ReflectionTestUtils.getField(detector, "roiMask"));
+
+            // Új felbontásnál a geometria újraszámolódik; a kivágás már nem szélesebb az elemzési méretnél
+            Mat small = frame(320, 240, null);
+            detector.detectMotionFromMat(small);
+            roi = (Rect) ReflectionTestUtils.getField(detector, "roiRect");
+            assertEquals(80, roi.x());
+            assertEquals(120, roi.y());
+            assertEquals(160, roi.width());
+            assertEquals(120, roi.height());
+            assertNull(ReflectionTestUtils.getField(detector, "analysisSize"));
+            large.close();
+            small.close();
+        }
+    }
+
+    @Test
+    void roiHeaderIsReleasedAfterEveryFrame() {
+        // Kicsinyítés és szürkítés nélkül a kivágás fejléce maga az elemzett bemenet
+        try (AdvancedMotionDetector detector = new AdvancedMotionDetector(
+                settings(false, 0, "0,0,0.5,0.5", null))) {
+            Mat frame = frame(320, 240, null);
+            for (int i = 0; i < 5; i++) {
+                detector.detectMotionFromMat(frame);
+                assertNull(ReflectionTestUtils.getField(detector, "region"));
+            }
+            frame.close();
+        }
+    }
+
+    @Test
+    void staticSceneIsQuietAndAMovingBlockIsMotion() {
+        for (boolean fast : new boolean[]{false, true}) {
+            try (AdvancedMotionDetector detector = new AdvancedMotionDetector(settings(fast, fast ? 160 : 0, null, null))) {
+                Mat background = frame(320, 240, null);
+                // A háttérmodell betanítása, utána a változatlan kép nem mozgás
+                for (int i = 0; i < 30; i++) {
+                    detector.detectMotionFromMat(background);
+                }
+                assertFalse(detector.detectMotionFromMat(background), "fast=" + fast);
+
+                boolean motion = false;
+                for (int i = 0; i < 3; i++) {
+                    Mat moved = frame(320, 240, new Rect(20 + 60 * i, 80, 60, 60));
+                    motion |= detector.detectMotionFromMat(moved);
+                    moved.close();
+                }
+                assertTrue(motion, "fast=" + fast);
+                background.close();
+            }
+        }
+    }
+
+    @Test
+    void motionInsideAnExcludedAreaIsIgnored() {
+        // Háromszög ROI a bal felső sarokban levágva, a jobb oldali sáv kizárva
+        try (AdvancedMotionDetector detector = new AdvancedMotionDetector(
+                settings(false, 0, "0.2:0,1:0,1:1,0:1,0:0.2", "0.5,0,0.5,1"))) {
+            Mat background = frame(320, 240, null);
+            for (int i = 0; i < 30; i++) {
+                detector.detectMotionFromMat(background);
+            }
+            assertNotNull(ReflectionTestUtils.getField(detector, "roiMask"));
+            assertNull(ReflectionTestUtils.getField(detector, "roiRect"));
+
+            boolean excluded = false;
+            for (int i = 0; i < 3; i++) {
+                Mat moved = frame(320, 240, new Rect(180 + 30 * i, 80, 60, 60));
+                excluded |= detector.detectMotionFromMat(moved);
+                moved.close();
+            }
+            assertFalse(excluded);
+
+            boolean included = false;
+            for (int i = 0; i < 3; i++) {
+                Mat moved = frame(320, 240, new Rect(40 + 30 * i, 120, 60, 60));
+                included |= detector.detectMotionFromMat(moved);
+                moved.close();
+            }
+            assertTrue(included);
+            background.close();
+        }
+    }
+}
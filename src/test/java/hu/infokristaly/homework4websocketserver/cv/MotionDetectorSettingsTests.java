@@ -0,0 +1,50 @@
+package hu.infokristaly.homework4websocketserver.cv;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MotionDetectorSettingsTests {
+
+    @Test
+    void rectanglesAndPolygonsAreParsedAsPolygons() {
+        double[][] regions = MotionDetectorSettings.parseRegions("0.25,0.5,0.5,0.5; 0.1:0.1, 0.9:0.1, 0.5:0.9");
+        assertEquals(2, regions.length);
+        // A téglalap négy csúcsú poligonná alakul
+        assertArrayEquals(new double[]{0.25, 0.5, 0.75, 0.5, 0.75, 1.0, 0.25, 1.0}, regions[0]);
+        assertArrayEquals(new double[]{0.1, 0.1, 0.9, 0.1, 0.5, 0.9}, regions[1]);
+        assertArrayEquals(regions, MotionDetectorSettings.parseRegions(MotionDetectorSettings.formatRegions(regions)));
+        assertNull(MotionDetectorSettings.parseRegions(" "));
+    }
+
+    @Test
+    void invalidValuesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> MotionDetectorSettings.parseRegions("0.1,0.2,0.3"));
+        assertThrows(IllegalArgumentException.class, () -> MotionDetectorSettings.parseRegions("0.5,0.5,0.8,0.8"));
+        assertThrows(IllegalArgumentException.class, () -> MotionDetectorSettings.parseRegions("0.1:0.1,0.9:0.1"));
+        assertThrows(IllegalArgumentException.class, () -> MotionDetectorSettings.parseRegions("0.1:0.1,0.9,0.5:1.5"));
+        assertThrows(IllegalArgumentException.class, () -> MotionDetectorSettings.fromEnvironment(
+                new MockEnvironment().withProperty("motion.threshold", "0"), null));
+        assertThrows(IllegalArgumentException.class, () -> MotionDetectorSettings.fromEnvironment(
+                new MockEnvironment().withProperty("motion.mog2.history", "sok"), null));
+    }
+
+    @Test
+    void sourceOverridesAndConfiguredSources() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("motion.roi.exclude", "0:0,1:0,1:0.1")
+                .withProperty("motion.source.garage.mode", "fast")
+                .withProperty("motion.source.gate.roi", "0,0,0.5,0.5");
+        assertEquals(Set.of("garage", "gate"), MotionDetectorSettings.configuredSources(environment));
+
+        MotionDetectorSettings garage = MotionDetectorSettings.fromEnvironment(environment, "garage");
+        assertTrue(garage.fast());
+        assertEquals(320, garage.analysisWidth());
+        assertNull(garage.roi());
+        assertEquals(1, garage.exclude().length);
+        assertEquals(1, MotionDetectorSettings.fromEnvironment(environment, "gate").roi().length);
+    }
+}
@@ -0,0 +1,155 @@
+package hu.infokristaly.homework4websocketserver.cv;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotEncoderTests {
+
+    private SnapshotEncoder encoder;
+    private Mat frame;
+
+    @BeforeEach
+    void setUp() {
+        encoder = new SnapshotEncoder();
+        ReflectionTestUtils.setField(encoder, "isEnabled", true);
+        ReflectionTestUtils.setField(encoder, "snapshotWidth", 160);
+        ReflectionTestUtils.setField(encoder, "jpegQuality", 80);
+        ReflectionTestUtils.setField(encoder, "threads", 1);
+        ReflectionTestUtils.setField(encoder, "poolSize", 2);
+        ReflectionTestUtils.setField(encoder, "storeMaxBytes", 100L);
+        encoder.init();
+        frame = new Mat(240, 320, CV_8UC3, new Scalar(96, 96, 96, 0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        encoder.shutdown();
+        frame.close();
+    }
+
+    // Az egyetlen kódoló szálat lefoglalja, amíg a visszaadott latch-et el nem engedik
+    private CountDownLatch blockEncoder() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) ReflectionTestUtils.getField(encoder, "executor");
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private static void await(Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.get());
+    }
+
+    @Test
+    void waitingRequestIsSharedByLaterEventsOfTheSameKey() throws Exception {
+        CountDownLatch release = blockEncoder();
+        String first = encoder.capture("cam", frame, null);
+        assertNotNull(first);
+        assertEquals(first, encoder.capture("cam", frame, null));
+        assertNotEquals(first, encoder.capture("other", frame, null));
+        Map<String, Object> stats = encoder.snapshot();
+        assertEquals(1L, stats.get("coalesced"));
+        assertEquals(2, stats.get("pending"));
+
+        release.countDown();
+        await(() -> (Integer) encoder.snapshot().get("pending") == 0);
+        // A kódolás megkezdése után egy újabb esemény már új pillanatképet kap
+        Thread.sleep(5);
+        String next = encoder.capture("cam", frame, null);
+        assertNotNull(next);
+        assertNotEquals(first, next);
+    }
+
+    @Test
+    void captureIsSkippedWhileEveryBufferIsWaiting() throws Exception {
+        CountDownLatch release = blockEncoder();
+        assertNotNull(encoder.capture("a", frame, null));
+        assertNotNull(encoder.capture("b", frame, null));
+        // Mindkét puffer kódolásra vár: a dekódoló szál nem vár, a kérés kimarad
+        assertNull(encoder.capture("c", frame, null));
+        assertEquals(1L, encoder.snapshot().get("dropped"));
+
+        release.countDown();
+        BlockingQueue<?> freeMats = (BlockingQueue<?>) ReflectionTestUtils.getField(encoder, "freeMats");
+        await(() -> freeMats.size() == 2);
+        // A felszabadult pufferek újra felhasználhatók, újak nem készülnek
+        assertNotNull(encoder.capture("c", frame, null));
+        assertEquals(2, ((AtomicInteger) ReflectionTestUtils.getField(encoder, "createdMats")).get());
+    }
+
+    @Test
+    void storeEvictsTheLeastRecentlyRequestedSnapshotsByBytes() {
+        ReflectionTestUtils.invokeMethod(encoder, "put", "a", new byte[40]);
+        ReflectionTestUtils.invokeMethod(encoder, "put", "b", new byte[40]);
+        // Az "a" lekérése frissebbé teszi, így a "b" kerül ki
+        assertNotNull(encoder.get("a"));
+        ReflectionTestUtils.invokeMethod(encoder, "put", "c", new byte[40]);
+        assertNotNull(encoder.get("a"));
+        assertNull(encoder.get("b"));
+        assertNotNull(encoder.get("c"));
+        assertEquals(80L, encoder.snapshot().get("storedBytes"));
+
+        // A korlátnál nagyobb pillanatkép is megmarad, de minden mást kiszorít
+        ReflectionTestUtils.invokeMethod(encoder, "put", "d", new byte[150]);
+        assertNull(encoder.get("a"));
+        assertNull(encoder.get("c"));
+        assertNotNull(encoder.get("d"));
+        assertEquals(1, encoder.snapshot().get("stored"));
+        assertEquals(150L, encoder.snapshot().get("storedBytes"));
+    }
+
+    @Test
+    void encodesDownscaledJpegAndReusesTheTargetSize() throws Exception {
+        List<byte[]> jpegs = new CopyOnWriteArrayList<>();
+        String id = encoder.capture("cam", frame, (snapshotId, jpeg) -> jpegs.add(jpeg));
+        await(() -> jpegs.size() == 1);
+        assertArrayEquals(jpegs.get(0), encoder.get(id));
+        List<?> workspaces = (List<?>) ReflectionTestUtils.getField(encoder, "workspaces");
+        Size size = (Size) ReflectionTestUtils.getField(workspaces.get(0), "size");
+        assertEquals(160, size.width());
+        assertEquals(120, size.height());
+
+        // Azonos geometriánál ugyanaz a célméret, új geometriánál újra készül
+        Thread.sleep(5);
+        encoder.capture("cam", frame, (snapshotId, jpeg) -> jpegs.add(jpeg));
+        await(() -> jpegs.size() == 2);
+        assertSame(size, ReflectionTestUtils.getField(workspaces.get(0), "size"));
+        Mat wide = new Mat(180, 640, CV_8UC3, new Scalar(96, 96, 96, 0));
+        encoder.capture("wide", wide, (snapshotId, jpeg) -> jpegs.add(jpeg));
+        await(() -> jpegs.size() == 3);
+        Size rebuilt = (Size) ReflectionTestUtils.getField(workspaces.get(0), "size");
+        assertNotSame(size, rebuilt);
+        assertEquals(45, rebuilt.height());
+        wide.close();
+    }
+}
@@ -0,0 +1,27 @@
+package hu.infokristaly.homework4websocketserver.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTests {
+
+    @Test
+    void percentilesAreBoundedByBucketAndMaximum() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        long p50 = histogram.percentile(0.5);
+        assertTrue(p50 >= 50 && p50 < 128, "p50: " + p50);
+        assertEquals(100, histogram.percentile(0.99));
+
+        Histogram aggregate = new Histogram();
+        histogram.addTo(aggregate);
+        histogram.addTo(aggregate);
+        assertEquals(200, aggregate.getCount());
+        assertEquals(100, aggregate.percentile(1.0));
+        assertEquals(50.5, (double) aggregate.toMap(1).get("mean"));
+    }
+}
@@ -0,0 +1,70 @@
+package hu.infokristaly.homework4websocketserver.mqtt;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MqttEventPublisherTests {
+
+    private StandInMqttBroker broker;
+    private MqttEventPublisher publisher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        broker = new StandInMqttBroker().start();
+        publisher = new MqttEventPublisher(broker.getUrl(), "publisher-test", 2, 100, 500, 2);
+        publisher.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        publisher.close();
+        broker.close();
+    }
+
+    @Test
+    void publishesEventsFromManySessions() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(publisher.publish("motion", ("camera-" + i).getBytes(), "session-" + i));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(broker.poll(10, TimeUnit.SECONDS), "hiányzó üzenet #" + i);
+        }
+        assertEquals(0, publisher.getQueueDepth());
+    }
+
+    @Test
+    void coalescesBurstsOfTheSameSessionIntoTheLatestEvent() throws Exception {
+        assertTrue(publisher.publish("motion", "first".getBytes(), "session"));
+        assertTrue(publisher.publish("motion", "second".getBytes(), "session"));
+        assertTrue(publisher.publish("motion", "third".getBytes(), "session"));
+        assertEquals("first", broker.poll(10, TimeUnit.SECONDS).text());
+        // Az ablak végén csak a legutolsó megy ki, a közbülső beleolvad
+        assertEquals("third", broker.poll(10, TimeUnit.SECONDS).text());
+        assertNull(broker.poll(700, TimeUnit.MILLISECONDS));
+        assertEquals(1, publisher.getCoalescedCount());
+        assertEquals(0, publisher.getQueueDepth());
+    }
+
+    @Test
+    void buffersWhileTheBrokerIsUnreachable() throws Exception {
+        assertTrue(publisher.publish("motion", "before".getBytes(), "a"));
+        assertNotNull(broker.poll(10, TimeUnit.SECONDS));
+        int port = broker.getPort();
+        broker.close();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (publisher.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(publisher.isConnected());
+        assertTrue(publisher.publish("motion", "during".getBytes(), "b"));
+        broker.start(port);
+        StandInMqttBroker.Received received = broker.poll(60, TimeUnit.SECONDS);
+        assertNotNull(received);
+        assertEquals("during", received.text());
+    }
+}
@@ -0,0 +1,157 @@
+package hu.infokristaly.homework4websocketserver.mqtt;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Folyamaton belüli, minimális MQTT 3.1.1 broker tesztekhez: fogadja a PUBLISH üzeneteket (QoS 0-2),
+// de nem továbbítja őket előfizetőknek; a beérkezett üzenetek a received() sorból olvashatók
+public class StandInMqttBroker implements Closeable {
+
+    public record Received(String topic, byte[] payload, int qos, long receivedAtNanos) {
+        public String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final LinkedBlockingQueue<Received> received = new LinkedBlockingQueue<>();
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private int port;
+
+    public StandInMqttBroker start() throws IOException {
+        return start(0);
+    }
+
+    public synchronized StandInMqttBroker start(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        serverSocket.setReuseAddress(true);
+        this.port = serverSocket.getLocalPort();
+        Thread acceptor = new Thread(this::acceptLoop, "stand-in-mqtt-broker");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUrl() {
+        return "tcp://127.0.0.1:" + port;
+    }
+
+    public Received poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return received.poll(timeout, unit);
+    }
+
+    public int receivedCount() {
+        return received.size();
+    }
+
+    private void acceptLoop() {
+        ServerSocket server = serverSocket;
+        try {
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+                clients.add(socket);
+                Thread handler = new Thread(() -> handle(socket), "stand-in-mqtt-client");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            // A broker leállt
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                int header = in.read();
+                if (header < 0) return;
+                int length = readRemainingLength(in);
+                byte[] body = new byte[length];
+                in.readFully(body);
+                int type = header >> 4;
+                switch (type) {
+                    case 1 -> write(out, 0x20, 0x00, 0x00);                     // CONNECT -> CONNACK
+                    case 3 -> onPublish(out, header, body);
+                    case 6 -> write(out, 0x70, body[0], body[1]);                // PUBREL -> PUBCOMP
+                    case 8 -> write(out, 0x90, body[0], body[1], 0x00);          // SUBSCRIBE -> SUBACK
+                    case 12 -> write(out, 0xD0);                                  // PINGREQ -> PINGRESP
+                    case 14 -> { return; }                                        // DISCONNECT
+                    default -> { }
+                }
+            }
+        } catch (IOException e) {
+            // A kliens bontott
+        } finally {
+            clients.remove(socket);
+        }
+    }
+
+    private void onPublish(OutputStream out, int header, byte[] body) throws IOException {
+        int qos = (header >> 1) & 0x03;
+        int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+        String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+        int position = 2 + topicLength;
+        int packetIdPosition = position;
+        if (qos > 0) position += 2;
+        byte[] payload = new byte[body.length - position];
+        System.arraycopy(body, position, payload, 0, payload.length);
+        received.add(new Received(topic, payload, qos, System.nanoTime()));
+        if (qos == 1) {
+            write(out, 0x40, body[packetIdPosition], body[packetIdPosition + 1]);
+        } else if (qos == 2) {
+            write(out, 0x50, body[packetIdPosition], body[packetIdPosition + 1]);
+        }
+    }
+
+    private static int readRemainingLength(DataInputStream in) throws IOException {
+        int value = 0;
+        int multiplier = 1;
+        int digit;
+        do {
+            digit = in.readUnsignedByte();
+            value += (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0);
+        return value;
+    }
+
+    private static synchronized void write(OutputStream out, int type, int... body) throws IOException {
+        byte[] packet = new byte[2 + body.length];
+        packet[0] = (byte) type;
+        packet[1] = (byte) body.length;
+        for (int i = 0; i < body.length; i++) {
+            packet[2 + i] = (byte) body[i];
+        }
+        out.write(packet);
+        out.flush();
+    }
+
+    // Leállítja a brokert és bontja a klienseket; a start(getPort()) ugyanazon a porton újraindítja
+    @Override
+    public synchronized void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (Socket socket : clients) {
+            try {
+                socket.close();
+            } catch (SocketException e) {
+                // már zárva
+            }
+        }
+        clients.clear();
+    }
+}
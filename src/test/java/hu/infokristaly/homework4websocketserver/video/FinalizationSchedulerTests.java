@@ -0,0 +1,239 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import hu.infokristaly.homework4websocketserver.webm.EbmlStreamParser;
+import hu.infokristaly.homework4websocketserver.webm.SegmentIndex;
+import hu.infokristaly.homework4websocketserver.ws.ExecutionModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+
+import static hu.infokristaly.homework4websocketserver.webm.WebmTestStreams.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FinalizationSchedulerTests {
+
+    private static final String JOURNAL_NAME = ".finalization-journal";
+
+    // A véglegesítés helyett csak rögzíti a hívásokat; a kapu zárva tartásával a feladatok függőben maradnak
+    private static class RecordingFinalizer extends SessionFinalizer {
+        private final Path tempPath;
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+        private volatile Function<String, SegmentIndex> concatIndexes;
+
+        RecordingFinalizer(Path tempPath) {
+            this.tempPath = tempPath;
+        }
+
+        @Override
+        public Path getTempPath() {
+            return tempPath;
+        }
+
+        @Override
+        public boolean isCopying(boolean concat, boolean hasIndex) {
+            return true;
+        }
+
+        @Override
+        public void concatAndFinalize(String sessionId, List<String> fileList, Function<String, SegmentIndex> indexes)
+                throws InterruptedException {
+            gate.await();
+            concatIndexes = indexes;
+            calls.add("concat:" + sessionId + ":" + String.join("|", fileList));
+        }
+
+        @Override
+        public void fixVideoDuration(String fileName, SegmentIndex index) throws InterruptedException {
+            gate.await();
+            calls.add("fix:" + Paths.get(fileName).getFileName());
+        }
+    }
+
+    @TempDir
+    Path tempPath;
+
+    private final List<FinalizationScheduler> schedulers = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        schedulers.forEach(FinalizationScheduler::shutdown);
+    }
+
+    private FinalizationScheduler start(RecordingFinalizer finalizer) throws Exception {
+        ExecutionModel executionModel = new ExecutionModel();
+        ReflectionTestUtils.setField(executionModel, "executionMode", "platform");
+        ReflectionTestUtils.setField(executionModel, "decodeThreads", 0);
+        executionModel.init();
+        FinalizationScheduler scheduler = new FinalizationScheduler();
+        ReflectionTestUtils.setField(scheduler, "workerCount", 1);
+        ReflectionTestUtils.setField(scheduler, "ioBudgetMb", 1024);
+        ReflectionTestUtils.setField(scheduler, "maxRetries", 0);
+        ReflectionTestUtils.setField(scheduler, "retryDelayMillis", 10L);
+        ReflectionTestUtils.setField(scheduler, "sessionFinalizer", finalizer);
+        ReflectionTestUtils.setField(scheduler, "executionModel", executionModel);
+        scheduler.init();
+        schedulers.add(scheduler);
+        return scheduler;
+    }
+
+    private static void awaitCompleted(FinalizationScheduler scheduler, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getCompletedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, scheduler.getCompletedCount());
+    }
+
+    // Ismert Segment méretű, vagyis már véglegesített fájl: a gazdátlan felvételek keresése kihagyja
+    private void finished(String name) throws Exception {
+        Files.write(tempPath.resolve(name), concat(element(EbmlStreamParser.EBML_ID, element(0x4282, "webm".getBytes())),
+                element(EbmlStreamParser.SEGMENT_ID, cluster(0, true))));
+    }
+
+    private void journal(String... lines) throws Exception {
+        Files.write(tempPath.resolve(JOURNAL_NAME), List.of(lines), StandardCharsets.UTF_8);
+    }
+
+    private List<String> journalLines() throws Exception {
+        return Files.readAllLines(tempPath.resolve(JOURNAL_NAME), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void unfinishedJobsAreRequeuedExactlyOnce() throws Exception {
+        for (String name : List.of("a1.webm", "a2.webm", "b1.webm", "c1.webm", "d1.webm", "d2.webm")) {
+            finished(name);
+        }
+        journal("ADD\ta\tfalse\ts1\ta1.webm|a2.webm",
+                "FILE\ta\ta1.webm",
+                "ADD\tb\tfalse\ts2\tb1.webm",
+                "DONE\tb",
+                "ADD\tc\tfalse\ts3\tc1.webm",
+                "FAIL\tc",
+                "ADD\td\ttrue\ts4\td1.webm|d2.webm|missing.webm",
+                "ADD\tbroken");
+
+        RecordingFinalizer finalizer = new RecordingFinalizer(tempPath);
+        FinalizationScheduler scheduler = start(finalizer);
+        awaitCompleted(scheduler, 2);
+        // Csak a félbemaradt fájl és a még meglévő részek
+        assertEquals(List.of("concat:s4:d1.webm|d2.webm", "fix:a2.webm"), finalizer.calls.stream().sorted().toList());
+        assertEquals(0, scheduler.getQueueDepth());
+
+        // A lezárt feladatok a következő indításkor sem futnak újra
+        scheduler.shutdown();
+        RecordingFinalizer restarted = new RecordingFinalizer(tempPath);
+        FinalizationScheduler next = start(restarted);
+        Thread.sleep(200);
+        assertTrue(restarted.calls.isEmpty());
+        assertEquals(0, next.getQueueDepth());
+        assertTrue(journalLines().isEmpty());
+    }
+
+    @Test
+    void compactedJournalKeepsPendingJobs() throws Exception {
+        finished("a1.webm");
+        finished("a2.webm");
+        finished("b1.webm");
+        journal("ADD\ta\tfalse\ts1\ta1.webm|a2.webm",
+                "FILE\ta\ta1.webm",
+                "ADD\tb\tfalse\ts2\tb1.webm",
+                "DONE\tb");
+
+        RecordingFinalizer finalizer = new RecordingFinalizer(tempPath);
+        finalizer.gate = new CountDownLatch(1);
+        FinalizationScheduler scheduler = start(finalizer);
+        // A befejezett feladatok és fájlok kikerültek, a függő feladat azonosítója megmaradt
+        assertEquals(List.of("ADD\ta\tfalse\ts1\ta2.webm"), journalLines());
+
+        // Leállítás feldolgozás közben: a feladat a tömörített naplóból folytatódik
+        scheduler.shutdown();
+        RecordingFinalizer restarted = new RecordingFinalizer(tempPath);
+        FinalizationScheduler next = start(restarted);
+        awaitCompleted(next, 1);
+        assertEquals(List.of("fix:a2.webm"), restarted.calls);
+        assertTrue(finalizer.calls.isEmpty());
+        assertEquals(List.of("ADD\ta\tfalse\ts1\ta2.webm", "FILE\ta\ta2.webm", "DONE\ta"), journalLines());
+    }
+
+    @Test
+    void strayTempSegmentsAreRecoveredPerSession() throws Exception {
+        byte[] unfinished = concat(header(), cluster(0, true));
+        Files.write(tempPath.resolve("2024-01-01_10-05-00_cam1.webm"), unfinished);
+        Files.write(tempPath.resolve("2024-01-01_10-00-00_cam1.webm"), unfinished);
+        // Fejléc nélküli folytatás: a session részei csak összefűzve játszhatók le
+        Files.write(tempPath.resolve("2024-01-01_11-00-00_cam2.webm"), unfinished);
+        Files.write(tempPath.resolve("2024-01-01_11-01-00_cam2.webm"), cluster(1000, true));
+        finished("2024-01-01_09-00-00_cam3.webm");
+        Files.write(tempPath.resolve("cam4_concat.webm"), unfinished);
+        Files.write(tempPath.resolve("notes.txt"), unfinished);
+
+        RecordingFinalizer finalizer = new RecordingFinalizer(tempPath);
+        finalizer.gate = new CountDownLatch(1);
+        FinalizationScheduler scheduler = start(finalizer);
+        List<String> journaled = journalLines().stream()
+                .map(line -> line.substring(line.indexOf('\t', 4) + 1))
+                .sorted().toList();
+        assertEquals(List.of("false\tcam1\t2024-01-01_10-00-00_cam1.webm|2024-01-01_10-05-00_cam1.webm",
+                "true\tcam2\t2024-01-01_11-00-00_cam2.webm|2024-01-01_11-01-00_cam2.webm"), journaled);
+
+        finalizer.gate.countDown();
+        awaitCompleted(scheduler, 2);
+        assertEquals(List.of("concat:cam2:2024-01-01_11-00-00_cam2.webm|2024-01-01_11-01-00_cam2.webm",
+                "fix:2024-01-01_10-00-00_cam1.webm", "fix:2024-01-01_10-05-00_cam1.webm"),
+                finalizer.calls.stream().sorted().toList());
+    }
+
+    @Test
+    void missingTempDirectoryIsCreatedSoSubmittedJobsAreJournaled() throws Exception {
+        Path missing = tempPath.resolve("not-yet-created");
+        RecordingFinalizer finalizer = new RecordingFinalizer(missing);
+        finalizer.gate = new CountDownLatch(1);
+        FinalizationScheduler scheduler = start(finalizer);
+        assertTrue(Files.isDirectory(missing));
+        Files.write(missing.resolve("a1.webm"), cluster(0, true));
+        scheduler.submit("s1", List.of("a1.webm"), false, name -> null);
+        List<String> lines = Files.readAllLines(missing.resolve(JOURNAL_NAME), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith("ADD\t") && lines.get(0).endsWith("\tfalse\ts1\ta1.webm"));
+        finalizer.gate.countDown();
+        awaitCompleted(scheduler, 1);
+    }
+
+    @Test
+    void recoveredConcatJobStartsANewOutputAtEveryHeaderedPart() throws Exception {
+        byte[] first = concat(header(), cluster(0, true));
+        byte[] continuation = cluster(1000, true);
+        // endSegment() utáni önálló rész: saját fejléccel, nulláról induló időbélyegekkel
+        byte[] standalone = concat(header(), cluster(0, true));
+        Files.write(tempPath.resolve("p1.webm"), first);
+        Files.write(tempPath.resolve("p2.webm"), continuation);
+        Files.write(tempPath.resolve("p3.webm"), standalone);
+        journal("ADD\tj\ttrue\ts1\tp1.webm|p2.webm|p3.webm");
+
+        RecordingFinalizer finalizer = new RecordingFinalizer(tempPath);
+        FinalizationScheduler scheduler = start(finalizer);
+        awaitCompleted(scheduler, 1);
+        assertEquals(List.of("concat:s1:p1.webm|p2.webm|p3.webm"), finalizer.calls);
+
+        // A fejléc hossza a fájlból: a fejléces rész nem kerül egy korábbi kimenet közepére
+        SegmentConcatenator concatenator = new SegmentConcatenator(tempPath, finalizer.concatIndexes, false);
+        List<SegmentConcatenator.Output> outputs = concatenator.concat(List.of("p1.webm", "p2.webm", "p3.webm"), "s1");
+        assertEquals(2, outputs.size());
+        assertArrayEquals(concat(first, continuation), Files.readAllBytes(outputs.get(0).path()));
+        assertArrayEquals(standalone, Files.readAllBytes(outputs.get(1).path()));
+        assertEquals(header().length, finalizer.concatIndexes.apply("p3.webm").getHeaderLength());
+        assertNull(finalizer.concatIndexes.apply("p2.webm"));
+    }
+}
@@ -0,0 +1,88 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunker;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static hu.infokristaly.homework4websocketserver.webm.WebmTestStreams.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MotionRecorderTests {
+
+    private static List<Long> clusterTimecodes(byte[] file) {
+        WebmChunker reader = new WebmChunker();
+        List<Long> timecodes = new ArrayList<>();
+        reader.feed(file).forEach(chunk -> chunk.clusters().forEach(mark -> timecodes.add(mark.timecode())));
+        reader.flush().forEach(chunk -> chunk.clusters().forEach(mark -> timecodes.add(mark.timecode())));
+        assertEquals(0, reader.getParser().getErrors());
+        return timecodes;
+    }
+
+    @Test
+    void writesPreRollAndPostRollOfEachEventIntoItsOwnClip() throws Exception {
+        Path directory = Files.createTempDirectory("motion-recorder");
+        List<String> files = new ArrayList<>();
+        int[] counter = {0};
+        SegmentWriter writer = new SegmentWriter(directory, () -> "clip" + (counter[0]++) + ".webm", files::add, 3600,
+                false, SegmentWriter.FsyncPolicy.NONE, 1000, Executors.defaultThreadFactory());
+        writer.start();
+        writer.endSegment();
+        MotionRecorder recorder = new MotionRecorder(writer, new RecordingSettings(true, 2000, 1500, 1024 * 1024));
+        WebmChunker chunker = new WebmChunker();
+        chunker.feed(header()).forEach(chunk -> recorder.write(chunk, 0));
+        // Másodpercenként egy Cluster, minden harmadik kulcskocka
+        for (int second = 0; second < 10; second++) {
+            long now = second * 1000L;
+            for (WebmChunk chunk : chunker.feed(cluster(second * 1000, second % 3 == 0))) {
+                recorder.write(chunk, now);
+            }
+            if (second == 4 || second == 8) {
+                recorder.trigger(now + 500);
+            }
+            if (second == 2) {
+                assertFalse(recorder.isRecording());
+                assertTrue(recorder.getBufferedBytes() > 0);
+            }
+        }
+        chunker.flush().forEach(chunk -> recorder.write(chunk, 10_000));
+        writer.close().get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, recorder.getClipCount());
+        assertEquals(List.of("clip0.webm", "clip1.webm"), files);
+        // 1. esemény: pre-roll a 0. kulcskockától, post-roll a 6. másodperc előtti Cluster határig
+        assertEquals(List.of(0L, 1000L, 2000L, 3000L, 4000L, 5000L),
+                clusterTimecodes(Files.readAllBytes(directory.resolve("clip0.webm"))));
+        // 2. esemény: önálló fájl a 6. másodperces kulcskockától, nulláról induló időbélyegekkel
+        byte[] second = Files.readAllBytes(directory.resolve("clip1.webm"));
+        assertEquals(0x1A, second[0] & 0xFF);
+        assertEquals(List.of(0L, 1000L, 2000L, 3000L), clusterTimecodes(second));
+    }
+
+    @Test
+    void idleCameraWritesNothing() throws Exception {
+        Path directory = Files.createTempDirectory("motion-recorder-idle");
+        List<String> files = new ArrayList<>();
+        SegmentWriter writer = new SegmentWriter(directory, () -> "clip.webm", files::add, 3600, false,
+                SegmentWriter.FsyncPolicy.NONE, 1000, Executors.defaultThreadFactory());
+        writer.start();
+        MotionRecorder recorder = new MotionRecorder(writer, new RecordingSettings(true, 2000, 1500, 1024 * 1024));
+        WebmChunker chunker = new WebmChunker();
+        chunker.feed(header()).forEach(chunk -> recorder.write(chunk, 0));
+        for (int second = 0; second < 30; second++) {
+            for (WebmChunk chunk : chunker.feed(cluster(second * 1000, second % 3 == 0))) {
+                recorder.write(chunk, second * 1000L);
+            }
+        }
+        writer.close().get(5, TimeUnit.SECONDS);
+        assertTrue(files.isEmpty());
+        // A gyűrű a pre-roll-nál legfeljebb egy kulcskocka-közzel hosszabb
+        assertTrue(recorder.getBufferedBytes() <= 5 * cluster(0, true).length);
+    }
+}
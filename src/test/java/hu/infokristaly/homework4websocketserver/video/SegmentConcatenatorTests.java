@@ -0,0 +1,58 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import hu.infokristaly.homework4websocketserver.webm.WebmChunker;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static hu.infokristaly.homework4websocketserver.webm.WebmTestStreams.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentConcatenatorTests {
+
+    private static List<Long> clusterTimecodes(byte[] file, WebmChunker reader) {
+        List<Long> timecodes = new ArrayList<>();
+        reader.feed(file).forEach(chunk -> chunk.clusters().forEach(mark -> timecodes.add(mark.timecode())));
+        reader.flush().forEach(chunk -> chunk.clusters().forEach(mark -> timecodes.add(mark.timecode())));
+        return timecodes;
+    }
+
+    @Test
+    void concatenatesSegmentsAndStartsNewOutputWhenTheStreamRestarts() throws Exception {
+        Path directory = Files.createTempDirectory("webm-concat");
+        List<String> files = new ArrayList<>();
+        int[] counter = {0};
+        // 0 másodperces szegmenshossz: minden kulcskockánál új fájl
+        SegmentWriter writer = new SegmentWriter(directory, () -> "part" + (counter[0]++) + ".webm", files::add, 0, false,
+                SegmentWriter.FsyncPolicy.NONE, 1000, Executors.defaultThreadFactory());
+        writer.start();
+        WebmChunker chunker = new WebmChunker();
+        byte[] stream = concat(header(), cluster(0, true), cluster(100, false), cluster(200, true),
+                header(), cluster(0, true));
+        for (int i = 0; i < stream.length; i += 16) {
+            chunker.feed(Arrays.copyOfRange(stream, i, Math.min(stream.length, i + 16))).forEach(writer::write);
+        }
+        chunker.flush().forEach(writer::write);
+        writer.close().get(5, TimeUnit.SECONDS);
+        assertEquals(3, files.size());
+
+        List<SegmentConcatenator.Output> outputs = new SegmentConcatenator(directory, writer::getSegmentIndex, true)
+                .concat(files, "session_concat");
+
+        assertEquals(2, outputs.size());
+        assertTrue(outputs.get(0).finalized());
+        byte[] first = Files.readAllBytes(outputs.get(0).path());
+        WebmChunker reader = new WebmChunker();
+        assertEquals(List.of(0L, 100L, 200L), clusterTimecodes(first, reader));
+        assertEquals(0, reader.getParser().getErrors());
+        assertEquals(2, outputs.get(0).index().getCues().size());
+        assertEquals(200, outputs.get(0).index().getDuration());
+        assertEquals(List.of(0L), clusterTimecodes(Files.readAllBytes(outputs.get(1).path()), new WebmChunker()));
+    }
+}
@@ -0,0 +1,169 @@
+package hu.infokristaly.homework4websocketserver.video;
+
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunker;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static hu.infokristaly.homework4websocketserver.webm.WebmTestStreams.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentWriterTests {
+
+    private static List<Long> clusterTimecodes(byte[] file) {
+        WebmChunker reader = new WebmChunker();
+        List<Long> timecodes = new ArrayList<>();
+        reader.feed(file).forEach(chunk -> chunk.clusters().forEach(mark -> timecodes.add(mark.timecode())));
+        reader.flush().forEach(chunk -> chunk.clusters().forEach(mark -> timecodes.add(mark.timecode())));
+        assertEquals(0, reader.getParser().getErrors());
+        return timecodes;
+    }
+
+    private static SegmentWriter writer(Path directory, List<String> files, long durationSeconds,
+                                        SegmentWriter.FsyncPolicy policy) {
+        int[] counter = {0};
+        return new SegmentWriter(directory, () -> "segment" + (counter[0]++) + ".webm", files::add, durationSeconds,
+                false, policy, 50, Executors.defaultThreadFactory());
+    }
+
+    @Test
+    void streamStartingWithInterFrameSkipsToTheFirstKeyframe() throws Exception {
+        Path directory = Files.createTempDirectory("segment-writer-inter");
+        List<String> files = new ArrayList<>();
+        SegmentWriter writer = writer(directory, files, 3600, SegmentWriter.FsyncPolicy.NONE);
+        writer.start();
+        WebmChunker chunker = new WebmChunker();
+        // A kulcskocka nem a chunk elején van, és még nincs nyitott fájl
+        List<WebmChunk> chunks = chunker.feed(concat(header(), cluster(0, false), cluster(1000, true),
+                cluster(2000, false)));
+        chunks.forEach(writer::write);
+        chunker.flush().forEach(writer::write);
+        writer.close().get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("segment0.webm"), files);
+        assertEquals(List.of(1000L, 2000L), clusterTimecodes(Files.readAllBytes(directory.resolve("segment0.webm"))));
+        assertEquals(0, writer.getPendingBytes());
+    }
+
+    @Test
+    void inputAfterEndSegmentWithoutKeyframeIsDroppedNotFatal() throws Exception {
+        Path directory = Files.createTempDirectory("segment-writer-end");
+        List<String> files = new ArrayList<>();
+        SegmentWriter writer = writer(directory, files, 3600, SegmentWriter.FsyncPolicy.NONE);
+        writer.start();
+        WebmChunker chunker = new WebmChunker();
+        chunker.feed(concat(header(), cluster(0, true))).forEach(writer::write);
+        writer.endSegment();
+        chunker.feed(concat(cluster(1000, false), cluster(2000, true), cluster(3000, false))).forEach(writer::write);
+        chunker.flush().forEach(writer::write);
+        writer.close().get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("segment0.webm", "segment1.webm"), files);
+        // Az önálló fájl a következő kulcskockától, nulláról induló időbélyegekkel
+        assertEquals(List.of(0L, 1000L), clusterTimecodes(Files.readAllBytes(directory.resolve("segment1.webm"))));
+        assertEquals(0, writer.getPendingBytes());
+    }
+
+    @Test
+    void closeDrainsEveryQueuedChunkAcrossBatches() throws Exception {
+        for (SegmentWriter.FsyncPolicy policy : SegmentWriter.FsyncPolicy.values()) {
+            Path directory = Files.createTempDirectory("segment-writer-drain");
+            List<String> files = new ArrayList<>();
+            SegmentWriter writer = writer(directory, files, 3600, policy);
+            AtomicLong written = new AtomicLong();
+            writer.setWriteListener((fileName, bytes, nanos) -> written.addAndGet(bytes));
+            WebmChunker chunker = new WebmChunker();
+            List<WebmChunk> chunks = new ArrayList<>(chunker.feed(header()));
+            // Több köteg (MAX_BATCH_CHUNKS) is kell hozzá; az író csak a sorba állítás után indul
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < 600; i++) {
+                chunks.addAll(chunker.feed(cluster(i, i % 50 == 0)));
+                expected.add((long) i);
+            }
+            chunks.addAll(chunker.flush());
+            chunks.forEach(writer::write);
+            writer.start();
+            writer.close().get(5, TimeUnit.SECONDS);
+
+            assertEquals(List.of("segment0.webm"), files, policy.name());
+            byte[] file = Files.readAllBytes(directory.resolve("segment0.webm"));
+            assertEquals(expected, clusterTimecodes(file), policy.name());
+            // A (véglegesítéshez átírt) fejléc után minden Cluster bájt kiíródott
+            assertEquals(chunks.stream().mapToLong(WebmChunk::length).sum(), written.get(), policy.name());
+            assertEquals(0, writer.getPendingBytes(), policy.name());
+        }
+    }
+
+    @Test
+    void rotatesOnlyAtKeyframesOnceTheDurationElapsed() throws Exception {
+        Path directory = Files.createTempDirectory("segment-writer-duration");
+        List<String> files = new ArrayList<>();
+        // 0 mp: minden kulcskockánál új fájl
+        SegmentWriter writer = writer(directory, files, 0, SegmentWriter.FsyncPolicy.ON_ROTATE);
+        writer.start();
+        WebmChunker chunker = new WebmChunker();
+        chunker.feed(concat(header(), cluster(0, true), cluster(1000, false), cluster(2000, true),
+                cluster(3000, false), cluster(4000, false))).forEach(writer::write);
+        chunker.flush().forEach(writer::write);
+        writer.close().get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("segment0.webm", "segment1.webm"), files);
+        byte[] first = Files.readAllBytes(directory.resolve("segment0.webm"));
+        byte[] second = Files.readAllBytes(directory.resolve("segment1.webm"));
+        assertEquals(List.of(0L, 1000L), clusterTimecodes(first));
+        // Összefűzéshez: a folytatás fejléc nélkül, a Cluster-rel kezdődik, az eredeti időbélyegekkel
+        assertEquals(0x1F, second[0] & 0xFF);
+        assertEquals(List.of(2000L, 3000L, 4000L), clusterTimecodes(concat(header(), second)));
+        assertNotNull(writer.getSegmentIndex("segment0.webm"));
+        assertNotNull(writer.getSegmentIndex("segment1.webm"));
+    }
+
+    @Test
+    void newStreamHeaderStartsANewFile() throws Exception {
+        Path directory = Files.createTempDirectory("segment-writer-stream");
+        List<String> files = new ArrayList<>();
+        SegmentWriter writer = writer(directory, files, 3600, SegmentWriter.FsyncPolicy.INTERVAL);
+        writer.start();
+        WebmChunker chunker = new WebmChunker();
+        chunker.feed(concat(header(), cluster(0, true), cluster(1000, false))).forEach(writer::write);
+        // Újrainduló MediaRecorder: új fejléc, nulláról induló időbélyegek
+        chunker.feed(concat(header(), cluster(0, true), cluster(500, false))).forEach(writer::write);
+        chunker.flush().forEach(writer::write);
+        writer.close().get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("segment0.webm", "segment1.webm"), files);
+        byte[] second = Files.readAllBytes(directory.resolve("segment1.webm"));
+        assertEquals(0x1A, second[0] & 0xFF);
+        assertEquals(List.of(0L, 500L), clusterTimecodes(second));
+        assertEquals(List.of(0L, 1000L), clusterTimecodes(Files.readAllBytes(directory.resolve("segment0.webm"))));
+    }
+
+    @Test
+    void writesAfterCloseAreRejectedAndNotCounted() throws Exception {
+        Path directory = Files.createTempDirectory("segment-writer-closed");
+        List<String> files = new ArrayList<>();
+        SegmentWriter writer = writer(directory, files, 3600, SegmentWriter.FsyncPolicy.NONE);
+        writer.start();
+        WebmChunker chunker = new WebmChunker();
+        chunker.feed(concat(header(), cluster(0, true))).forEach(writer::write);
+        writer.close().get(5, TimeUnit.SECONDS);
+        long size = Files.size(directory.resolve("segment0.webm"));
+
+        // A lezárás után érkező adat nem kerül sorba, így a flow control sem ragad be
+        chunker.feed(cluster(1000, true)).forEach(writer::write);
+        chunker.flush().forEach(writer::write);
+        writer.endSegment();
+        assertEquals(0, writer.getPendingBytes());
+        assertEquals(0, writer.getPendingMillis());
+        assertSame(writer.close(), writer.close());
+        assertEquals(List.of("segment0.webm"), files);
+        assertEquals(size, Files.size(directory.resolve("segment0.webm")));
+    }
+}
@@ -0,0 +1,111 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static hu.infokristaly.homework4websocketserver.webm.WebmTestStreams.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebmChunkerTests {
+
+    private static List<WebmChunk> feedInPieces(WebmChunker chunker, byte[] stream, int pieceSize) {
+        List<WebmChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < stream.length; i += pieceSize) {
+            chunks.addAll(chunker.feed(Arrays.copyOfRange(stream, i, Math.min(stream.length, i + pieceSize))));
+        }
+        chunks.addAll(chunker.flush());
+        return chunks;
+    }
+
+    @Test
+    void extractsHeaderSpanningSeveralChunksAndMarksKeyframeClusters() {
+        byte[] header = header();
+        byte[] clusters = concat(cluster(0, true), cluster(100, false), cluster(200, true));
+        for (int pieceSize : new int[]{1, 7, 1000}) {
+            assertClustersExtracted(header, clusters, pieceSize);
+        }
+    }
+
+    private static void assertClustersExtracted(byte[] header, byte[] clusters, int pieceSize) {
+        WebmChunker chunker = new WebmChunker();
+        List<WebmChunk> chunks = feedInPieces(chunker, concat(header, clusters), pieceSize);
+
+        assertArrayEquals(header, chunker.getHeader());
+        assertEquals("V_VP8", chunker.getParser().getVideoCodec());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        List<ClusterMark> marks = new ArrayList<>();
+        for (WebmChunk chunk : chunks) {
+            assertArrayEquals(header, chunk.header());
+            body.write(chunk.data(), chunk.offset(), chunk.length());
+            for (ClusterMark mark : chunk.clusters()) {
+                assertEquals(EbmlStreamParser.CLUSTER_ID >>> 24, chunk.data()[chunk.positionOf(mark)] & 0xFF);
+                marks.add(mark);
+            }
+        }
+        assertArrayEquals(clusters, body.toByteArray());
+        assertEquals(3, marks.size());
+        assertTrue(marks.get(0).keyframe() && marks.get(0).newStream());
+        assertFalse(marks.get(1).keyframe());
+        assertEquals(100, marks.get(1).timecode());
+        assertTrue(marks.get(2).keyframe());
+        assertEquals(0, chunker.getParser().getErrors());
+    }
+
+    @Test
+    void restartedStreamInTheSameConnectionYieldsNewHeader() {
+        byte[] first = concat(header(), cluster(0, true));
+        byte[] second = concat(header(), cluster(0, true), cluster(50, false));
+        WebmChunker chunker = new WebmChunker();
+        List<WebmChunk> chunks = feedInPieces(chunker, concat(first, second), 3);
+
+        long newStreams = chunks.stream().flatMap(c -> c.clusters().stream()).filter(ClusterMark::newStream).count();
+        assertEquals(2, newStreams);
+        int total = chunks.stream().mapToInt(WebmChunk::length).sum();
+        assertEquals(cluster(0, true).length * 2 + cluster(50, false).length, total);
+    }
+
+    @Test
+    void pendingClusterSpanningManyChunksIsEmittedIntact() {
+        // A Cluster kezdete a kulcskocka jelzőig sok apró chunk-on át visszatartva, közben a tömb a helyén nő
+        byte[] padding = element(EbmlStreamParser.VOID_ID, new byte[3000]);
+        byte[] pending = concat(unknownSize(EbmlStreamParser.CLUSTER_ID), padding,
+                element(EbmlStreamParser.SIMPLE_BLOCK_ID, new byte[]{(byte) 0x81, 0, 0, (byte) 0x80, 1, 2}));
+        byte[] clusters = concat(cluster(0, true), pending, cluster(200, false));
+        WebmChunker chunker = new WebmChunker();
+        List<WebmChunk> chunks = feedInPieces(chunker, concat(header(), clusters), 5);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        List<Boolean> keyframes = new ArrayList<>();
+        for (WebmChunk chunk : chunks) {
+            body.write(chunk.data(), chunk.offset(), chunk.length());
+            chunk.clusters().forEach(mark -> keyframes.add(mark.keyframe()));
+        }
+        assertArrayEquals(clusters, body.toByteArray());
+        assertEquals(List.of(true, true, false), keyframes);
+    }
+
+    @Test
+    void headerThatNeverCompletesIsRejectedInsteadOfBufferedForever() {
+        WebmChunker chunker = new WebmChunker();
+        assertTrue(chunker.feed(header()).isEmpty());
+        // Cluster helyett csak kitöltés érkezik: a fejléc soha nem fejeződik be
+        byte[] padding = element(EbmlStreamParser.VOID_ID, new byte[16000]);
+        int fed = 0;
+        while (!chunker.isRejected() && fed <= EbmlStreamParser.MAX_HEADER_BYTES + padding.length) {
+            assertTrue(chunker.feed(padding).isEmpty());
+            fed += padding.length;
+        }
+        assertTrue(chunker.isRejected());
+        assertTrue(fed <= EbmlStreamParser.MAX_HEADER_BYTES + padding.length);
+        assertEquals(0, ((byte[]) ReflectionTestUtils.getField(chunker, "carry")).length);
+        // Az elutasítás után a további adat (akár egy Cluster) sem kerül visszatartásra vagy kiadásra
+        assertTrue(chunker.feed(cluster(0, true)).isEmpty());
+        assertTrue(chunker.flush().isEmpty());
+        assertNull(chunker.getHeader());
+    }
+}
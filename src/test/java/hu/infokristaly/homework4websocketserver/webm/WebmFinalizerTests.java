@@ -0,0 +1,83 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import hu.infokristaly.homework4websocketserver.video.SegmentWriter;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static hu.infokristaly.homework4websocketserver.webm.WebmTestStreams.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebmFinalizerTests {
+
+    @Test
+    void finalisesRecordedSegmentInPlace() throws Exception {
+        Path directory = Files.createTempDirectory("webm-finalizer");
+        Path file = directory.resolve("segment.webm");
+        SegmentWriter writer = new SegmentWriter(directory, () -> "segment.webm", name -> { }, 3600, true,
+                SegmentWriter.FsyncPolicy.NONE, 1000, Executors.defaultThreadFactory());
+        writer.start();
+        WebmChunker chunker = new WebmChunker();
+        byte[] stream = concat(header(), cluster(1000, true), cluster(1100, false), cluster(1200, true));
+        for (int i = 0; i < stream.length; i += 10) {
+            chunker.feed(java.util.Arrays.copyOfRange(stream, i, Math.min(stream.length, i + 10))).forEach(writer::write);
+        }
+        chunker.flush().forEach(writer::write);
+        writer.close().get(5, TimeUnit.SECONDS);
+
+        SegmentIndex index = writer.getSegmentIndex("segment.webm");
+        assertNotNull(index.getHeader());
+        assertEquals(2, index.getCues().size());
+        assertEquals(200, index.getDuration());
+        long recordedSize = Files.size(file);
+        WebmFinalizer.finalizeFile(file, index);
+
+        byte[] result = Files.readAllBytes(file);
+        WebmHeader header = index.getHeader();
+        ByteBuffer buffer = ByteBuffer.wrap(result);
+        assertEquals(result.length - header.getSegmentDataOffset(),
+                buffer.getLong(header.getSegmentSizeOffset()) & 0x00FFFFFFFFFFFFFFL);
+        assertEquals(200.0, buffer.getDouble(header.getDurationOffset()));
+        assertEquals(EbmlStreamParser.CUES_ID, buffer.getInt((int) recordedSize));
+        assertEquals(EbmlStreamParser.SEEK_HEAD_ID, buffer.getInt(header.getSeekHeadOffset()));
+
+        // A Cluster időbélyegek a fájl elejéhez igazodnak
+        List<Long> timecodes = new ArrayList<>();
+        WebmChunker reader = new WebmChunker();
+        reader.feed(result).forEach(chunk -> chunk.clusters().forEach(mark -> timecodes.add(mark.timecode())));
+        reader.flush().forEach(chunk -> chunk.clusters().forEach(mark -> timecodes.add(mark.timecode())));
+        assertEquals(List.of(0L, 100L, 200L), timecodes);
+        assertEquals(0, reader.getParser().getErrors());
+    }
+
+    @Test
+    void retriedFinalisationOverwritesThePreviousCues() throws Exception {
+        Path directory = Files.createTempDirectory("webm-finalizer-retry");
+        Path file = directory.resolve("segment.webm");
+        SegmentWriter writer = new SegmentWriter(directory, () -> "segment.webm", name -> { }, 3600, true,
+                SegmentWriter.FsyncPolicy.NONE, 1000, Executors.defaultThreadFactory());
+        writer.start();
+        WebmChunker chunker = new WebmChunker();
+        chunker.feed(concat(header(), cluster(0, true), cluster(100, false), cluster(200, true))).forEach(writer::write);
+        chunker.flush().forEach(writer::write);
+        writer.close().get(5, TimeUnit.SECONDS);
+        SegmentIndex index = writer.getSegmentIndex("segment.webm");
+        assertEquals(Files.size(file), index.getDataEnd());
+
+        WebmFinalizer.finalizeFile(file, index);
+        byte[] once = Files.readAllBytes(file);
+        WebmFinalizer.finalizeFile(file, index);
+        assertArrayEquals(once, Files.readAllBytes(file));
+
+        // Egy korábbi, félbemaradt próbálkozás maradéka sem marad a fájl végén
+        Files.write(file, new byte[]{0x1C, 0x53, (byte) 0xBB, 0x6B, 0x42}, java.nio.file.StandardOpenOption.APPEND);
+        WebmFinalizer.finalizeFile(file, index);
+        assertArrayEquals(once, Files.readAllBytes(file));
+    }
+}
@@ -0,0 +1,52 @@
+package hu.infokristaly.homework4websocketserver.webm;
+
+import java.io.ByteArrayOutputStream;
+
+// Szintetikus WebM stream darabok a tesztekhez
+public final class WebmTestStreams {
+
+    private WebmTestStreams() {
+    }
+
+    public static byte[] element(int id, byte[]... children) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            if ((id >>> shift) != 0) out.write((id >>> shift) & 0xFF);
+        }
+        int length = 0;
+        for (byte[] child : children) length += child.length;
+        out.write(0x40 | (length >> 8));
+        out.write(length & 0xFF);
+        for (byte[] child : children) out.writeBytes(child);
+        return out.toByteArray();
+    }
+
+    public static byte[] unknownSize(int id) {
+        return new byte[]{(byte) (id >>> 24), (byte) (id >>> 16), (byte) (id >>> 8), (byte) id, 0x01,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+    }
+
+    public static byte[] cluster(int timecode, boolean keyframe) {
+        byte[] block = {(byte) 0x81, 0, 0, (byte) (keyframe ? 0x80 : 0), 1, 2, 3, 4, 5, 6, 7, 8};
+        return concat(unknownSize(EbmlStreamParser.CLUSTER_ID),
+                element(EbmlStreamParser.TIMECODE_ID, new byte[]{(byte) (timecode >> 8), (byte) timecode}),
+                element(EbmlStreamParser.SIMPLE_BLOCK_ID, block));
+    }
+
+    public static byte[] header() {
+        byte[] trackEntry = element(EbmlStreamParser.TRACK_ENTRY_ID,
+                element(EbmlStreamParser.TRACK_NUMBER_ID, new byte[]{1}),
+                element(EbmlStreamParser.TRACK_TYPE_ID, new byte[]{1}),
+                element(EbmlStreamParser.CODEC_ID, "V_VP8".getBytes()));
+        return concat(element(EbmlStreamParser.EBML_ID, element(0x4282, "webm".getBytes())),
+                unknownSize(EbmlStreamParser.SEGMENT_ID),
+                element(EbmlStreamParser.INFO_ID, element(EbmlStreamParser.TIMECODE_SCALE_ID, new byte[]{0x0F, 0x42, 0x40})),
+                element(EbmlStreamParser.TRACKS_ID, trackEntry));
+    }
+
+    public static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) out.writeBytes(part);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,238 @@
+package hu.infokristaly.homework4websocketserver.worker;
+
+import hu.infokristaly.homework4websocketserver.cv.MotionDetectorSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecodeWorkerPoolTests {
+
+    // Dekóder folyamat helyett: a parancsokat soronként gyűjti, a válaszokat a teszt írja, a kilépés szimulálható
+    private static class FakeWorker extends Process {
+        private final int pid;
+        private final BlockingQueue<String> commands = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Integer> replies = new LinkedBlockingQueue<>();
+        private final CountDownLatch exited = new CountDownLatch(1);
+        private volatile int exitCode = -1;
+
+        FakeWorker(int pid) {
+            this.pid = pid;
+        }
+
+        String nextCommand() throws InterruptedException {
+            return commands.poll(5, TimeUnit.SECONDS);
+        }
+
+        void reply(String line) {
+            for (byte b : (line + "\n").getBytes(StandardCharsets.UTF_8)) replies.add(b & 0xFF);
+        }
+
+        void crash() {
+            exitCode = 134;
+            replies.add(-1);
+            exited.countDown();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+                @Override
+                public synchronized void write(int b) {
+                    if (b == '\n') {
+                        String command = line.toString(StandardCharsets.UTF_8).trim();
+                        line.reset();
+                        if (command.equals("EXIT")) {
+                            crash();
+                        } else {
+                            commands.add(command);
+                        }
+                    } else {
+                        line.write(b);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                private boolean isEnd = false;
+
+                @Override
+                public int read() {
+                    if (isEnd) return -1;
+                    try {
+                        int value = replies.take();
+                        if (value < 0) isEnd = true;
+                        return value;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return -1;
+                    }
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    if (length == 0) return 0;
+                    int value = read();
+                    if (value < 0) return -1;
+                    buffer[offset] = (byte) value;
+                    return 1;
+                }
+            };
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            exited.await();
+            return exitCode;
+        }
+
+        @Override
+        public int exitValue() {
+            if (exited.getCount() > 0) throw new IllegalThreadStateException();
+            return exitCode;
+        }
+
+        @Override
+        public void destroy() {
+            crash();
+        }
+
+        @Override
+        public long pid() {
+            return pid;
+        }
+    }
+
+    private static class RecordingListener implements DecodeWorkerPool.Listener {
+        private final AtomicInteger frames = new AtomicInteger();
+        private final AtomicInteger restarts = new AtomicInteger();
+        private final CountDownLatch quarantined = new CountDownLatch(1);
+
+        @Override
+        public void onFrame(long decodeNanos, long detectNanos, boolean motion, long ageNanos) {
+            frames.incrementAndGet();
+        }
+
+        @Override
+        public void onNullFrame() {
+        }
+
+        @Override
+        public void onRestart() {
+            restarts.incrementAndGet();
+        }
+
+        @Override
+        public void onQuarantined() {
+            quarantined.countDown();
+        }
+    }
+
+    @TempDir
+    Path directory;
+
+    private final List<FakeWorker> launched = new CopyOnWriteArrayList<>();
+    private DecodeWorkerPool pool;
+
+    private DecodeWorkerPool start(int workers, int quarantineAfter) throws Exception {
+        pool = new DecodeWorkerPool();
+        ReflectionTestUtils.setField(pool, "workerCount", workers);
+        ReflectionTestUtils.setField(pool, "quarantineAfter", quarantineAfter);
+        pool.start(directory, index -> {
+            FakeWorker worker = new FakeWorker(launched.size() + 1);
+            launched.add(worker);
+            return worker;
+        });
+        return pool;
+    }
+
+    private SharedRing ring(String sessionId) throws Exception {
+        return SharedRing.create(directory.resolve(sessionId + ".ring"), 1024);
+    }
+
+    private void awaitLaunches(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (launched.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, launched.size());
+    }
+
+    @AfterEach
+    void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Test
+    void crashedWorkerIsRelaunchedAndItsSessionsReassigned() throws Exception {
+        start(2, 3);
+        RecordingListener listener = new RecordingListener();
+        pool.open("s1", ring("s1"), 65536, 200000, false, MotionDetectorSettings.defaults(), listener);
+        FakeWorker first = launched.get(0);
+        assertTrue(first.nextCommand().startsWith("OPEN\ts1\t"));
+        first.reply("FRAME\ts1\t1000\t2000\t0\t3000");
+
+        first.crash();
+        // A session azonnal a másik élő folyamatra kerül, a helyére új folyamat indul
+        assertTrue(launched.get(1).nextCommand().startsWith("OPEN\ts1\t"));
+        awaitLaunches(3);
+        assertEquals(1, listener.restarts.get());
+        assertEquals(1, listener.frames.get());
+        assertEquals(0, pool.getQuarantinedCount());
+    }
+
+    @Test
+    void sessionPresentAtRepeatedCrashesIsQuarantined() throws Exception {
+        start(2, 2);
+        RecordingListener listener = new RecordingListener();
+        pool.open("poison", ring("poison"), 65536, 200000, false, MotionDetectorSettings.defaults(), listener);
+        assertTrue(launched.get(0).nextCommand().startsWith("OPEN\tpoison\t"));
+        launched.get(0).crash();
+        FakeWorker second = launched.get(1);
+        assertTrue(second.nextCommand().startsWith("OPEN\tpoison\t"));
+        second.crash();
+
+        assertTrue(listener.quarantined.await(5, TimeUnit.SECONDS));
+        assertEquals(1, pool.getQuarantinedCount());
+        assertEquals(1, listener.restarts.get());
+        // A helyettesítő folyamat már nem kapja meg
+        awaitLaunches(4);
+        for (FakeWorker worker : launched.subList(2, 4)) {
+            assertNull(worker.commands.poll(200, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    void restartDelayGrowsAcrossCrashLoops() {
+        assertEquals(0, DecodeWorkerPool.restartDelay(1));
+        assertEquals(1000, DecodeWorkerPool.restartDelay(2));
+        assertEquals(2000, DecodeWorkerPool.restartDelay(3));
+        assertEquals(8000, DecodeWorkerPool.restartDelay(5));
+        assertEquals(30_000, DecodeWorkerPool.restartDelay(50));
+    }
+}
@@ -0,0 +1,113 @@
+package hu.infokristaly.homework4websocketserver.worker;
+
+import hu.infokristaly.homework4websocketserver.cv.MotionDetectorSettings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedRingTests {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] chunk(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    @Test
+    void readerSeesWritesAcrossTheWrapPoint() throws Exception {
+        Path file = directory.resolve("a.ring");
+        try (SharedRing writer = SharedRing.create(file, 16); SharedRing reader = SharedRing.open(file)) {
+            byte[] out = new byte[16];
+            writer.write(ByteBuffer.wrap(chunk(10, 1)), 0);
+            assertEquals(10, reader.read(out, 0, 16));
+            writer.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12}));
+            assertEquals(12, writer.getAvailableBytes());
+            assertEquals(12, reader.read(out, 0, 16));
+            assertEquals(12, out[11]);
+            assertEquals(0, reader.read(out, 0, 16));
+        }
+    }
+
+    @Test
+    void overflowResumesAtTheNextClusterWithTheHeader() throws Exception {
+        Path file = directory.resolve("b.ring");
+        try (SharedRing writer = SharedRing.create(file, 16); SharedRing reader = SharedRing.open(file)) {
+            byte[] out = new byte[16];
+            writer.write(chunk(2, 9));
+            writer.write(ByteBuffer.wrap(chunk(10, 1)), 0);
+            // Nem fér el: eldobva, és a következő Cluster kezdetéig minden más is
+            writer.write(ByteBuffer.wrap(chunk(8, 2)), 0);
+            assertEquals(12, reader.read(out, 0, 16));
+            writer.write(ByteBuffer.wrap(chunk(4, 3)));
+            writer.write(ByteBuffer.wrap(chunk(6, 4)), 2);
+            assertEquals(8 + 4 + 2, writer.getDroppedBytes());
+            assertEquals(6, reader.read(out, 0, 16));
+            assertArrayEquals(new byte[]{9, 9, 4, 4, 4, 4}, Arrays.copyOf(out, 6));
+        }
+    }
+
+    @Test
+    void resyncSkipsUnreadDataForANewReader() throws Exception {
+        Path file = directory.resolve("c.ring");
+        try (SharedRing writer = SharedRing.create(file, 32)) {
+            writer.write(chunk(2, 9));
+            writer.write(ByteBuffer.wrap(chunk(6, 1)), 0);
+            writer.resync();
+            writer.write(ByteBuffer.wrap(chunk(3, 2)));
+            writer.write(ByteBuffer.wrap(chunk(4, 3)), 0);
+            try (SharedRing reader = SharedRing.open(file)) {
+                byte[] out = new byte[32];
+                assertEquals(6, reader.read(out, 0, 32));
+                assertArrayEquals(new byte[]{9, 9, 3, 3, 3, 3}, Arrays.copyOf(out, 6));
+            }
+            writer.markClosed();
+            assertTrue(SharedRing.open(file).isClosed());
+        }
+    }
+
+    @Test
+    void overflowResumesOnlyAtAKeyframeCluster() throws Exception {
+        Path file = directory.resolve("d.ring");
+        try (SharedRing writer = SharedRing.create(file, 16); SharedRing reader = SharedRing.open(file)) {
+            byte[] out = new byte[16];
+            writer.write(chunk(2, 9));
+            writer.write(ByteBuffer.wrap(chunk(10, 1)), 0);
+            writer.write(ByteBuffer.wrap(chunk(8, 2)), 0);
+            assertEquals(12, reader.read(out, 0, 16));
+            // A köztes képkockás Cluster nem lehet az újrakezdés pontja
+            writer.write(ByteBuffer.wrap(chunk(4, 3)), new int[]{0}, new boolean[]{false});
+            writer.write(ByteBuffer.wrap(new byte[]{5, 5, 4, 4}), new int[]{0, 2}, new boolean[]{false, true});
+            assertEquals(8 + 4 + 2, writer.getDroppedBytes());
+            assertEquals(4, reader.read(out, 0, 16));
+            assertArrayEquals(new byte[]{9, 9, 4, 4}, Arrays.copyOf(out, 4));
+        }
+    }
+
+    @Test
+    void settingsSurviveTheCommandLineEncoding() {
+        MotionDetectorSettings settings = new MotionDetectorSettings(true, 320,
+                MotionDetectorSettings.parseRegions("0.1,0.2,0.5,0.5;0.6:0.6,0.9:0.6,0.75:0.9"),
+                MotionDetectorSettings.parseRegions("0.2:0.2,0.4:0.2,0.3:0.4"), 0.02, 300, 25, false);
+        MotionDetectorSettings decoded = DecodeWorker.decodeSettings(DecodeWorker.encodeSettings(settings));
+        assertEquals(settings.fast(), decoded.fast());
+        assertEquals(settings.analysisWidth(), decoded.analysisWidth());
+        assertArrayEquals(settings.roi(), decoded.roi());
+        assertArrayEquals(settings.exclude(), decoded.exclude());
+        assertEquals(settings.threshold(), decoded.threshold());
+        assertEquals(settings.history(), decoded.history());
+        assertEquals(settings.varThreshold(), decoded.varThreshold());
+        assertEquals(settings.detectShadows(), decoded.detectShadows());
+        MotionDetectorSettings defaults = DecodeWorker.decodeSettings(
+                DecodeWorker.encodeSettings(MotionDetectorSettings.defaults()));
+        assertNull(defaults.roi());
+        assertNull(defaults.exclude());
+    }
+}
@@ -0,0 +1,184 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisSchedulerTests {
+
+    private static final long FRAME_MICROS = 50_000;
+
+    private ExecutionModel executionModel;
+    private AnalysisScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        executionModel = new ExecutionModel();
+        ReflectionTestUtils.setField(executionModel, "executionMode", "platform");
+        ReflectionTestUtils.setField(executionModel, "decodeThreads", 1);
+        executionModel.init();
+        scheduler = new AnalysisScheduler();
+        ReflectionTestUtils.setField(scheduler, "analysisFps", 0.0);
+        ReflectionTestUtils.setField(scheduler, "isKeyframesOnly", false);
+        ReflectionTestUtils.setField(scheduler, "isAdaptive", true);
+        ReflectionTestUtils.setField(scheduler, "lagHighMillis", 40L);
+        ReflectionTestUtils.setField(scheduler, "lagRecoveryMillis", 100L);
+        // A gép valós terhelése ne befolyásolja a tesztet: csak a csúszás számít
+        ReflectionTestUtils.setField(scheduler, "cpuHigh", 2.0);
+        ReflectionTestUtils.setField(scheduler, "cpuLow", 2.0);
+        ReflectionTestUtils.setField(scheduler, "executionModel", executionModel);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executionModel.shutdown();
+    }
+
+    // 30 képkocka 20 fps-sel, csak az első kulcskocka; az elemzett képkockák száma
+    private int feedFrames(AnalysisScheduler.SessionState state, long startMicros) {
+        int analysed = 0;
+        for (int i = 0; i < 30; i++) {
+            if (scheduler.shouldAnalyse(state, startMicros + i * FRAME_MICROS, i == 0)) {
+                analysed++;
+            }
+        }
+        return analysed;
+    }
+
+    // A stream időbélyege áll, a valós idő halad: a dekóder csúszik
+    private void makeLagging(AnalysisScheduler.SessionState state) throws InterruptedException {
+        scheduler.shouldAnalyse(state, 0, true);
+        Thread.sleep(60);
+        scheduler.shouldAnalyse(state, 0, false);
+        assertTrue(state.getLagMillis() > 40);
+    }
+
+    @Test
+    void fixedRateSamplesTheStreamAndCountsSkippedFrames() {
+        ReflectionTestUtils.setField(scheduler, "analysisFps", 10.0);
+        AnalysisScheduler.SessionState state = scheduler.register("s1");
+        // A stream időbélyegei a valós időnél előrébb járnak, így nincs csúszás
+        assertEquals(15, feedFrames(state, 0));
+        assertEquals(30, state.getDecodedFrames());
+        assertEquals(15, state.getAnalysedFrames());
+        assertEquals(15, state.getSkippedFrames());
+
+        ReflectionTestUtils.setField(scheduler, "analysisFps", 0.0);
+        assertEquals(30, feedFrames(state, 30 * FRAME_MICROS));
+    }
+
+    @Test
+    void configuredKeyframesOnlyAlwaysSkipsDecodingOfInterFrames() {
+        ReflectionTestUtils.setField(scheduler, "isKeyframesOnly", true);
+        AnalysisScheduler.SessionState state = scheduler.register("s1");
+        assertTrue(scheduler.restartDecoder(state));
+        assertEquals(1, feedFrames(state, 0));
+        assertFalse(scheduler.isDecoderRestartNeeded(state));
+        // A beállított mód nem csúszás miatti, nincs mihez visszatérni
+        assertFalse(state.isDecodingKeyframesOnly());
+    }
+
+    @Test
+    void lagShedsAnalysisAndRestartsTheDecoderOnKeyframesUntilRecovery() throws Exception {
+        AnalysisScheduler.SessionState state = scheduler.register("s1");
+        assertFalse(scheduler.restartDecoder(state));
+        assertFalse(scheduler.isDecoderRestartNeeded(state));
+
+        makeLagging(state);
+        // Csúszás közben csak kulcskockák kerülnek elemzésre, és a dekódert is át kell állítani
+        assertFalse(scheduler.shouldAnalyse(state, 0, false));
+        assertTrue(scheduler.shouldAnalyse(state, 0, true));
+        assertTrue(scheduler.isDecoderRestartNeeded(state));
+        assertTrue(scheduler.restartDecoder(state));
+        assertTrue(state.isDecodingKeyframesOnly());
+        // Az újraindítás nem törli a felgyűlt csúszást
+        scheduler.shouldAnalyse(state, 0, true);
+        assertTrue(state.getLagMillis() > 40);
+
+        // Csak kulcskockákkal utoléri a stream-et; a visszaállási idő előtt nem indul újra
+        scheduler.shouldAnalyse(state, 1_000_000, true);
+        assertEquals(0, state.getLagMillis());
+        assertFalse(scheduler.isDecoderRestartNeeded(state));
+        Thread.sleep(150);
+        assertTrue(scheduler.isDecoderRestartNeeded(state));
+        assertFalse(scheduler.restartDecoder(state));
+        assertFalse(state.isDecodingKeyframesOnly());
+        assertFalse(scheduler.isDecoderRestartNeeded(state));
+    }
+
+    @Test
+    void levelRisesUnderLagUpToKeyframesOnlyAndFallsWhenRelaxed() throws Exception {
+        AnalysisScheduler.SessionState state = scheduler.register("s1");
+        makeLagging(state);
+        for (int i = 1; i <= 6; i++) {
+            scheduler.tick();
+            assertEquals(Math.min(i, 4), state.getLevel());
+            assertEquals(Math.min(i, 4), scheduler.getLevel());
+        }
+        // A legfelső szinten csúszás nélkül is csak kulcskockák elemzése, és a dekóder nem tér vissza
+        state.reset();
+        assertEquals(1, feedFrames(state, 0));
+        ReflectionTestUtils.setField(state, "isDecodingKeyframesOnly", true);
+        ReflectionTestUtils.setField(state, "keyframesOnlySince", 0L);
+        assertFalse(scheduler.isDecoderRestartNeeded(state));
+
+        for (int i = 3; i >= 0; i--) {
+            scheduler.tick();
+            assertEquals(i, scheduler.getLevel());
+        }
+        scheduler.tick();
+        assertEquals(0, scheduler.getLevel());
+        assertTrue(scheduler.isDecoderRestartNeeded(state));
+    }
+
+    @Test
+    void oneLaggingCameraDoesNotShedTheOthers() throws Exception {
+        AnalysisScheduler.SessionState lagging = scheduler.register("s1");
+        AnalysisScheduler.SessionState healthy = scheduler.register("s2");
+        makeLagging(lagging);
+        assertEquals(30, feedFrames(healthy, 0));
+        scheduler.tick();
+        scheduler.tick();
+        assertEquals(2, lagging.getLevel());
+        assertEquals(0, healthy.getLevel());
+        assertEquals(2, scheduler.getLevel());
+        assertEquals(30, feedFrames(healthy, 30 * FRAME_MICROS));
+    }
+
+    @Test
+    void cpuOverloadShedsTheBusiestCameraFirst() {
+        ReflectionTestUtils.setField(scheduler, "cpuHigh", -1.0);
+        AnalysisScheduler.SessionState busy = scheduler.register("s1");
+        AnalysisScheduler.SessionState idle = scheduler.register("s2");
+        feedFrames(busy, 0);
+        scheduler.tick();
+        assertEquals(1, busy.getLevel());
+        assertEquals(0, idle.getLevel());
+    }
+
+    @Test
+    void newStreamRestartsTheLagBaseline() throws Exception {
+        AnalysisScheduler.SessionState state = scheduler.register("s1");
+        scheduler.shouldAnalyse(state, 5_000_000, true);
+        Thread.sleep(60);
+        scheduler.shouldAnalyse(state, 5_000_000, false);
+        assertTrue(state.getLagMillis() > 40);
+        // A visszaugró időbélyeg új stream-et jelez, nem csúszást
+        scheduler.shouldAnalyse(state, 0, true);
+        assertEquals(0, state.getLagMillis());
+    }
+
+    @Test
+    void withoutAdaptationTheLevelStaysAtZero() throws Exception {
+        ReflectionTestUtils.setField(scheduler, "isAdaptive", false);
+        AnalysisScheduler.SessionState state = scheduler.register("s1");
+        makeLagging(state);
+        scheduler.tick();
+        assertEquals(0, scheduler.getLevel());
+        scheduler.unregister("s1");
+        assertTrue(scheduler.getSessions().isEmpty());
+    }
+}
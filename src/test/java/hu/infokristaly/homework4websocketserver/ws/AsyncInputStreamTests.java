@@ -0,0 +1,129 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncInputStreamTests {
+
+    private static byte[] chunk(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    @Test
+    void readsBackWhatWasWrittenAcrossTheWrapPoint() throws Exception {
+        AsyncInputStream stream = new AsyncInputStream(new ByteBufferPool(16, false, 1), 16,
+                AsyncInputStream.OverflowPolicy.CLOSE, 0);
+        byte[] out = new byte[16];
+        assertTrue(stream.write(chunk(10, 1)));
+        assertEquals(10, stream.read(out, 0, 10));
+        assertTrue(stream.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12})));
+        assertEquals(12, stream.getAvailableBytes());
+        assertEquals(12, stream.read(out, 0, 16));
+        assertEquals(12, out[11]);
+        assertEquals(0, stream.getAvailableBytes());
+    }
+
+    @Test
+    void dropOldestDiscardsWholeClusters() throws Exception {
+        AsyncInputStream stream = new AsyncInputStream(new ByteBufferPool(16, true, 1), 16,
+                AsyncInputStream.OverflowPolicy.DROP_OLDEST, 0);
+        stream.write(ByteBuffer.wrap(chunk(6, 1)), 0);
+        stream.write(ByteBuffer.wrap(chunk(6, 2)), 0);
+        stream.write(ByteBuffer.wrap(chunk(6, 3)), 0);
+        assertEquals(12, stream.getAvailableBytes());
+        assertEquals(6, stream.getDroppedBytes());
+        assertEquals(2, stream.read());
+    }
+
+    @Test
+    void closePolicyRejectsWhenFull() {
+        AsyncInputStream stream = new AsyncInputStream(new ByteBufferPool(8, false, 1), 8,
+                AsyncInputStream.OverflowPolicy.CLOSE, 0);
+        assertTrue(stream.write(chunk(8, 1)));
+        assertFalse(stream.write(chunk(1, 2)));
+    }
+
+    @Test
+    void clearWithHeaderResumesAtNextCluster() throws Exception {
+        AsyncInputStream stream = new AsyncInputStream(new ByteBufferPool(32, false, 1), 32,
+                AsyncInputStream.OverflowPolicy.CLOSE, 0);
+        stream.write(chunk(4, 1));
+        stream.clear(new byte[]{9, 9});
+        assertTrue(stream.write(chunk(4, 2)));
+        assertEquals(0, stream.getAvailableBytes());
+        assertTrue(stream.write(ByteBuffer.wrap(new byte[]{2, 2, 3, 3}), 2));
+        byte[] out = new byte[8];
+        assertEquals(4, stream.read(out, 0, 8));
+        assertArrayEquals(new byte[]{9, 9, 3, 3}, Arrays.copyOf(out, 4));
+    }
+
+    @Test
+    void restartKeepsBufferedClustersBehindTheHeader() throws Exception {
+        AsyncInputStream stream = new AsyncInputStream(new ByteBufferPool(32, false, 1), 32,
+                AsyncInputStream.OverflowPolicy.CLOSE, 0);
+        // Egy félig kiolvasott Cluster, majd két teljes Cluster a pufferben
+        stream.write(ByteBuffer.wrap(new byte[]{1, 1, 1, 1}), 0);
+        stream.write(ByteBuffer.wrap(new byte[]{2, 2, 3, 3}), 0, 2);
+        byte[] out = new byte[16];
+        assertEquals(2, stream.read(out, 0, 2));
+        assertTrue(stream.awaitCluster(0));
+
+        stream.restart(new byte[]{9, 9});
+        assertEquals(6, stream.getAvailableBytes());
+        assertEquals(2, stream.getDroppedBytes());
+        int total = 0;
+        while (total < 6) {
+            total += stream.read(out, total, 16 - total);
+        }
+        assertArrayEquals(new byte[]{9, 9, 2, 2, 3, 3}, Arrays.copyOf(out, 6));
+        assertFalse(stream.awaitCluster(0));
+    }
+
+    @Test
+    void restartWithoutBufferedClusterWaitsForTheNextOne() throws Exception {
+        AsyncInputStream stream = new AsyncInputStream(new ByteBufferPool(32, false, 1), 32,
+                AsyncInputStream.OverflowPolicy.CLOSE, 0);
+        stream.write(chunk(4, 1));
+        stream.restart(new byte[]{9, 9});
+        assertEquals(0, stream.getAvailableBytes());
+        assertTrue(stream.write(ByteBuffer.wrap(new byte[]{1, 3, 3}), 1));
+        assertTrue(stream.awaitCluster(0));
+        byte[] out = new byte[8];
+        assertEquals(4, stream.read(out, 0, 8));
+        assertArrayEquals(new byte[]{9, 9, 3, 3}, Arrays.copyOf(out, 4));
+    }
+
+    @Test
+    void restartAndResyncSkipToTheFirstKeyframeCluster() throws Exception {
+        AsyncInputStream stream = new AsyncInputStream(new ByteBufferPool(32, false, 1), 32,
+                AsyncInputStream.OverflowPolicy.CLOSE, 0);
+        // Köztes képkockás Cluster, majd egy kulcskockás: a dekóder csak az utóbbitól indulhat
+        stream.write(ByteBuffer.wrap(new byte[]{1, 1, 2, 2, 3, 3}), new int[]{0, 2, 4}, new boolean[]{false, false, true});
+        stream.restart(new byte[]{9, 9});
+        assertEquals(4, stream.getDroppedBytes());
+        byte[] out = new byte[16];
+        int total = 0;
+        while (total < 4) {
+            total += stream.read(out, total, 16 - total);
+        }
+        assertArrayEquals(new byte[]{9, 9, 3, 3}, Arrays.copyOf(out, 4));
+
+        // Pufferelt kulcskocka nélkül a következő beérkező kulcskockás Cluster-re vár
+        stream.write(ByteBuffer.wrap(new byte[]{4, 4}), new int[]{0}, new boolean[]{false});
+        stream.restart(new byte[]{8, 8});
+        assertEquals(0, stream.getAvailableBytes());
+        assertFalse(stream.awaitCluster(0));
+        assertTrue(stream.write(ByteBuffer.wrap(new byte[]{5, 5}), new int[]{0}, new boolean[]{false}));
+        assertEquals(0, stream.getAvailableBytes());
+        assertTrue(stream.write(ByteBuffer.wrap(new byte[]{6, 6, 7, 7}), new int[]{0, 2}, new boolean[]{false, true}));
+        assertTrue(stream.awaitCluster(0));
+        assertEquals(4, stream.read(out, 0, 16));
+        assertArrayEquals(new byte[]{8, 8, 7, 7}, Arrays.copyOf(out, 4));
+    }
+}
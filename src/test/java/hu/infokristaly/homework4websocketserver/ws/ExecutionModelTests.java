@@ -0,0 +1,85 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionModelTests {
+
+    private final AtomicBoolean isRunning = new AtomicBoolean(true);
+    private final List<Thread> sessions = new ArrayList<>();
+    private ExecutionModel model;
+
+    private static AsyncInputStream stream() {
+        return new AsyncInputStream(new ByteBufferPool(1024, false, 1), 1024, AsyncInputStream.OverflowPolicy.CLOSE, 0);
+    }
+
+    @AfterEach
+    void shutdown() throws Exception {
+        isRunning.set(false);
+        for (Thread session : sessions) {
+            session.interrupt();
+            session.join(2000);
+        }
+        if (model != null) model.shutdown();
+    }
+
+    @Test
+    void idleSessionsDoNotStarveAnActiveOne() throws Exception {
+        model = new ExecutionModel();
+        ReflectionTestUtils.setField(model, "executionMode", "virtual");
+        ReflectionTestUtils.setField(model, "decodeThreads", 1);
+        model.init();
+
+        // Tétlen kamerák: a dekóder ciklusuk adatra vár, a stream olvasása (mint a grabber-é) blokkolna
+        for (int i = 0; i < 8; i++) {
+            AsyncInputStream idle = stream();
+            Thread session = Thread.ofVirtual().start(() -> {
+                byte[] buffer = new byte[16];
+                try {
+                    while (isRunning.get()) {
+                        model.runCpu(idle, 1000, () -> idle.read(buffer, 0, buffer.length));
+                    }
+                } catch (Exception e) {
+                    // Leállítás
+                }
+            });
+            sessions.add(session);
+        }
+        Thread.sleep(100);
+
+        AsyncInputStream active = stream();
+        byte[] buffer = new byte[16];
+        long started = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(active.write(new byte[]{(byte) i}));
+            Integer read = model.runCpu(active, 1000, () -> active.read(buffer, 0, buffer.length));
+            assertEquals(1, (int) read);
+            assertEquals(i, buffer[0]);
+        }
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        // Ha a tétlen session-ök a pool-on várnának adatra, egyetlen képkocka is másodpercekig állna a sorban
+        assertTrue(elapsedMillis < 500, elapsedMillis + " ms");
+        assertEquals(0, model.getCpuQueueLength());
+    }
+
+    @Test
+    void returnsNullWithoutDataAndRunsOnceTheStreamCloses() throws Exception {
+        model = new ExecutionModel();
+        ReflectionTestUtils.setField(model, "executionMode", "virtual");
+        ReflectionTestUtils.setField(model, "decodeThreads", 1);
+        model.init();
+
+        AsyncInputStream input = stream();
+        assertNull(model.runCpu(input, 20, () -> "decoded"));
+        // Lezárt stream-nél a dekóder maga észleli a végét
+        input.closeStream();
+        assertEquals("decoded", model.runCpu(input, 20, () -> "decoded"));
+    }
+}
@@ -0,0 +1,130 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static hu.infokristaly.homework4websocketserver.ws.IngestPipeline.FlowState.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestPipelineTests {
+
+    @Test
+    void flowStateChangesWithHysteresis() {
+        assertEquals(NORMAL, IngestPipeline.nextState(NORMAL, 0.9));
+        assertEquals(SLOW_DOWN, IngestPipeline.nextState(NORMAL, 1.0));
+        assertEquals(SLOW_DOWN, IngestPipeline.nextState(SLOW_DOWN, 0.6));
+        assertEquals(PAUSE, IngestPipeline.nextState(SLOW_DOWN, 2.5));
+        assertEquals(PAUSE, IngestPipeline.nextState(PAUSE, 1.5));
+        assertEquals(SLOW_DOWN, IngestPipeline.nextState(PAUSE, 0.8));
+        assertEquals(NORMAL, IngestPipeline.nextState(PAUSE, 0.2));
+    }
+
+    @Test
+    void offerRejectsAboveTheLimitWithoutBlocking() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IngestPipeline pipeline = new IngestPipeline(data -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, null, 0, 0, 10, Thread::new, Runnable::run);
+        pipeline.start();
+        assertTrue(pipeline.offer(new byte[6]));
+        assertTrue(pipeline.offer(new byte[4]));
+        assertFalse(pipeline.offer(new byte[1]));
+        assertEquals(10, pipeline.getQueuedBytes());
+        release.countDown();
+        CountDownLatch drained = new CountDownLatch(1);
+        pipeline.finish(drained::countDown);
+        assertTrue(drained.await(2, TimeUnit.SECONDS));
+        assertEquals(0, pipeline.getQueuedBytes());
+        assertFalse(pipeline.offer(new byte[1]));
+    }
+
+    @Test
+    void tasksRunInOrderWithData() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        IngestPipeline pipeline = new IngestPipeline(data -> events.add("data" + data.length), null,
+                0, 0, 1024, Thread::new, Runnable::run);
+        pipeline.start();
+        pipeline.offer(new byte[1]);
+        pipeline.submit(() -> events.add("source"));
+        pipeline.offer(new byte[2]);
+        CountDownLatch drained = new CountDownLatch(1);
+        pipeline.finish(() -> {
+            events.add("close");
+            drained.countDown();
+        });
+        assertTrue(drained.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of("data1", "source", "data2", "close"), events);
+    }
+
+    @Test
+    void signalsSlowDownAndResumeForALaggingStage() throws Exception {
+        AtomicLong diskBytes = new AtomicLong();
+        List<String> signals = new CopyOnWriteArrayList<>();
+        IngestPipeline pipeline = new IngestPipeline(data -> diskBytes.addAndGet(data.length),
+                (state, stage, level) -> signals.add(state.getSignal() + ":" + stage), 0, 0, 1024, Thread::new, Runnable::run);
+        pipeline.addStage("disk", diskBytes::get, () -> 0, 100);
+        pipeline.start();
+        pipeline.offer(new byte[150]);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (pipeline.getFlowState() != SLOW_DOWN && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(SLOW_DOWN, pipeline.getFlowState());
+        assertEquals("disk", pipeline.getLimitingStage());
+        diskBytes.set(0);
+        // Adat nélkül is észreveszi a szakasz ürülését
+        while (pipeline.getFlowState() != NORMAL && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(NORMAL, pipeline.getFlowState());
+        assertEquals(List.of("slow-down:disk", "resume:disk"), signals);
+        pipeline.finish(() -> { });
+    }
+
+    @Test
+    void signalsAreSentWhileTheDataHandlerIsBlocked() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> signals = new CopyOnWriteArrayList<>();
+        ExecutorService signalExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "signal-test"));
+        IngestPipeline pipeline = new IngestPipeline(data -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, (state, stage, level) -> signals.add(state.getSignal() + ":" + stage + "@" + Thread.currentThread().getName()),
+                100, 0, 1024, runnable -> new Thread(runnable, "ingest-test"), signalExecutor);
+        pipeline.start();
+        assertTrue(pipeline.offer(new byte[10]));
+        // Az első adat feldolgozása áll (pl. BLOCK házirendű puffer), a további adat a sorban gyűlik
+        Thread.sleep(50);
+        assertTrue(pipeline.offer(new byte[250]));
+        assertEquals(PAUSE, pipeline.getFlowState());
+        assertEquals(1, pipeline.getFlowChanges());
+        // A szünet jelzése nem várja meg, hogy a feldolgozó szál továbblépjen
+        long deadline = System.currentTimeMillis() + 2000;
+        while (signals.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("pause:ingest@signal-test"), signals);
+
+        release.countDown();
+        while (signals.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("pause:ingest@signal-test", "resume:ingest@signal-test"), signals);
+        pipeline.finish(() -> { });
+        signalExecutor.shutdown();
+    }
+}
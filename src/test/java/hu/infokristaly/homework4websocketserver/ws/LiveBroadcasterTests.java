@@ -0,0 +1,237 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import hu.infokristaly.homework4websocketserver.webm.ClusterMark;
+import hu.infokristaly.homework4websocketserver.webm.WebmChunk;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveBroadcasterTests {
+
+    private static final byte[] HEADER = {0x1A, 0x45, (byte) 0xDF, (byte) 0xA3};
+
+    // A küldött üzeneteket gyűjtő néző; a gate megnyitásáig a küldés blokkol (lassú néző)
+    private static class RecordingSession implements WebSocketSession {
+        final LinkedBlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        final CountDownLatch gate;
+        final String id;
+        volatile boolean open = true;
+
+        RecordingSession(String id, boolean slow) {
+            this.id = id;
+            this.gate = new CountDownLatch(slow ? 1 : 0);
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ByteBuffer payload = (ByteBuffer) message.getPayload();
+            byte[] data = new byte[payload.remaining()];
+            payload.get(data);
+            messages.add(data);
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            open = false;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+    }
+
+    private LiveBroadcaster broadcaster;
+    private long streamOffset = 0;
+
+    @BeforeEach
+    void setUp() {
+        ExecutionModel executionModel = new ExecutionModel();
+        ReflectionTestUtils.setField(executionModel, "executionMode", "platform");
+        ReflectionTestUtils.setField(executionModel, "decodeThreads", 0);
+        executionModel.init();
+        broadcaster = new LiveBroadcaster();
+        ReflectionTestUtils.setField(broadcaster, "viewerBufferBytes", 1000L);
+        ReflectionTestUtils.setField(broadcaster, "sendTimeoutMillis", 60_000L);
+        ReflectionTestUtils.setField(broadcaster, "executionModel", executionModel);
+        broadcaster.openChannel("camera");
+    }
+
+    // Egy chunk, amelynek a közepén egy Cluster kezdődik
+    private WebmChunk chunk(int length, int value, boolean keyframe) {
+        byte[] data = new byte[length + 2];
+        Arrays.fill(data, (byte) value);
+        ClusterMark cluster = new ClusterMark(streamOffset + length / 2, 0, keyframe, false, -1, 0);
+        WebmChunk chunk = new WebmChunk(data, 1, length, streamOffset, HEADER, List.of(cluster), -1);
+        streamOffset += length;
+        return chunk;
+    }
+
+    @Test
+    void viewerStartsWithHeaderAtTheNextKeyframeCluster() throws Exception {
+        RecordingSession viewer = new RecordingSession("viewer", false);
+        assertTrue(broadcaster.addViewer(viewer, null, "camera"));
+        broadcaster.publish("camera", chunk(100, 1, false));
+        broadcaster.publish("camera", chunk(100, 2, true));
+        broadcaster.publish("camera", chunk(100, 3, false));
+
+        assertArrayEquals(HEADER, viewer.messages.poll(5, TimeUnit.SECONDS));
+        byte[] joined = viewer.messages.poll(5, TimeUnit.SECONDS);
+        assertEquals(50, joined.length);
+        assertEquals(2, joined[0]);
+        byte[] next = viewer.messages.poll(5, TimeUnit.SECONDS);
+        assertEquals(100, next.length);
+        assertEquals(3, next[0]);
+    }
+
+    @Test
+    void slowViewerSkipsAheadWithoutBlockingTheCamera() throws Exception {
+        ReflectionTestUtils.setField(broadcaster, "viewerBufferBytes", 3000L);
+        RecordingSession slow = new RecordingSession("slow", true);
+        RecordingSession fast = new RecordingSession("fast", false);
+        assertTrue(broadcaster.addViewer(slow, null, "camera"));
+        assertTrue(broadcaster.addViewer(fast, null, "camera"));
+        long publishNanos = 0;
+        for (int i = 0; i < 50; i++) {
+            long started = System.nanoTime();
+            broadcaster.publish("camera", chunk(100, i, i == 0));
+            publishNanos += System.nanoTime() - started;
+            // A gyors néző mindent megkap (a legelején a fejlécet is), a lassú közben lemarad
+            if (i == 0) assertArrayEquals(HEADER, fast.messages.poll(5, TimeUnit.SECONDS));
+            assertEquals(i, fast.messages.poll(5, TimeUnit.SECONDS)[0]);
+        }
+        assertTrue(publishNanos < TimeUnit.SECONDS.toNanos(1));
+
+        slow.gate.countDown();
+        broadcaster.publish("camera", chunk(100, 99, true));
+        List<byte[]> received = new ArrayList<>();
+        byte[] message;
+        while ((message = slow.messages.poll(1, TimeUnit.SECONDS)) != null) {
+            received.add(message);
+        }
+        // Az első küldés (a fejléc) a gate-re várt; a lemaradt sort eldobta, és a következő kulcskockánál fejléccel folytatta
+        assertEquals(3, received.size());
+        assertArrayEquals(HEADER, received.get(0));
+        assertArrayEquals(HEADER, received.get(1));
+        assertEquals(99, received.get(2)[0]);
+        Map<String, Object> viewerState = broadcaster.snapshot().get(0).get("viewers") instanceof List<?> viewers
+                ? (Map<String, Object>) viewers.stream().filter(v -> "slow".equals(((Map<?, ?>) v).get("viewer")))
+                        .findFirst().orElseThrow()
+                : Map.of();
+        assertTrue((Long) viewerState.get("skips") > 0);
+    }
+
+    @Test
+    void sourceViewerWaitsForTheCamera() throws Exception {
+        RecordingSession viewer = new RecordingSession("viewer", false);
+        assertTrue(broadcaster.addViewer(viewer, "garage", null));
+        assertEquals(1, broadcaster.getWaitingCount());
+        broadcaster.publish("camera", chunk(100, 1, true));
+        assertNull(viewer.messages.poll(200, TimeUnit.MILLISECONDS));
+
+        broadcaster.setSource("camera", "garage");
+        assertEquals(0, broadcaster.getWaitingCount());
+        broadcaster.publish("camera", chunk(100, 2, true));
+        assertArrayEquals(HEADER, viewer.messages.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, viewer.messages.poll(5, TimeUnit.SECONDS)[0]);
+
+        broadcaster.closeChannel("camera");
+        assertEquals(1, broadcaster.getWaitingCount());
+        assertTrue(viewer.open);
+    }
+
+    @Test
+    void unknownCameraSessionIsRejected() {
+        assertFalse(broadcaster.addViewer(new RecordingSession("viewer", false), null, "missing"));
+        assertEquals(0, broadcaster.getViewerCount());
+    }
+}
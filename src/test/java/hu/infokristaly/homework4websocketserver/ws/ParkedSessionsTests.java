@@ -0,0 +1,71 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParkedSessionsTests {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> expired = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    void resumesWithinTheGracePeriod() throws Exception {
+        ParkedSessions<String> parked = new ParkedSessions<>(5000, timer);
+        parked.park("cam-1", "state", expired::add);
+        assertEquals(1, parked.size());
+        assertEquals("state", parked.resume("cam-1"));
+        assertNull(parked.resume("cam-1"));
+        Thread.sleep(50);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    void expiresAfterTheGracePeriod() throws Exception {
+        ParkedSessions<String> parked = new ParkedSessions<>(20, timer);
+        parked.park("cam-1", "state", expired::add);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (expired.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("state"), expired);
+        assertNull(parked.resume("cam-1"));
+    }
+
+    @Test
+    void newerStateExpiresTheOlderOne() {
+        ParkedSessions<String> parked = new ParkedSessions<>(5000, timer);
+        parked.park("cam-1", "old", expired::add);
+        parked.park("cam-1", "new", expired::add);
+        assertEquals(List.of("old"), expired);
+        assertEquals("new", parked.resume("cam-1"));
+    }
+
+    @Test
+    void unknownSourceOrDisabledGraceExpiresImmediately() {
+        new ParkedSessions<String>(5000, timer).park(null, "anonymous", expired::add);
+        new ParkedSessions<String>(0, timer).park("cam-1", "disabled", expired::add);
+        assertEquals(List.of("anonymous", "disabled"), expired);
+    }
+
+    @Test
+    void expireAllReleasesEverything() {
+        ParkedSessions<String> parked = new ParkedSessions<>(5000, timer);
+        parked.park("cam-1", "a", expired::add);
+        parked.park("cam-2", "b", expired::add);
+        parked.expireAll();
+        assertEquals(0, parked.size());
+        assertEquals(2, expired.size());
+    }
+}
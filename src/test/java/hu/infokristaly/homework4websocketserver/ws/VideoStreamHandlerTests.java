@@ -0,0 +1,293 @@
+package hu.infokristaly.homework4websocketserver.ws;
+
+import hu.infokristaly.homework4websocketserver.archive.ArchiveIndex;
+import hu.infokristaly.homework4websocketserver.cv.AdvancedMotionDetector;
+import hu.infokristaly.homework4websocketserver.cv.MotionDetectorSettings;
+import hu.infokristaly.homework4websocketserver.metrics.PipelineMetrics;
+import hu.infokristaly.homework4websocketserver.mqtt.MqttEventPublisher;
+import hu.infokristaly.homework4websocketserver.video.FinalizationScheduler;
+import hu.infokristaly.homework4websocketserver.webm.SegmentIndex;
+import hu.infokristaly.homework4websocketserver.worker.DecodeWorkerPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VideoStreamHandlerTests {
+
+    // Kamera kapcsolat adat nélkül: a handler csak a vezérlő üzeneteket küldi rá
+    private static class CameraSession implements WebSocketSession {
+        private final String id;
+        private volatile boolean open = true;
+
+        CameraSession(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            open = false;
+        }
+    }
+
+    // A véglegesítésre küldött felvételek azonosítói
+    private static class RecordingScheduler extends FinalizationScheduler {
+        private final List<String> submitted = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void submit(String sessionId, List<String> files, boolean concat, Function<String, SegmentIndex> indexes) {
+            submitted.add(sessionId);
+        }
+    }
+
+    @TempDir
+    Path tempPath;
+
+    private VideoStreamHandler handler;
+    private RecordingScheduler finalizationScheduler;
+    private ExecutionModel executionModel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        executionModel = new ExecutionModel();
+        ReflectionTestUtils.setField(executionModel, "executionMode", "platform");
+        ReflectionTestUtils.setField(executionModel, "decodeThreads", 0);
+        executionModel.init();
+        LiveBroadcaster liveBroadcaster = new LiveBroadcaster();
+        ReflectionTestUtils.setField(liveBroadcaster, "viewerBufferBytes", 1000L);
+        ReflectionTestUtils.setField(liveBroadcaster, "sendTimeoutMillis", 1000L);
+        ReflectionTestUtils.setField(liveBroadcaster, "executionModel", executionModel);
+        finalizationScheduler = new RecordingScheduler();
+
+        handler = new VideoStreamHandler();
+        ReflectionTestUtils.setField(handler, "tempPath", tempPath.toString());
+        ReflectionTestUtils.setField(handler, "topic", "camera");
+        ReflectionTestUtils.setField(handler, "content", "motion");
+        ReflectionTestUtils.setField(handler, "snapshotTopic", "camera/snapshot");
+        ReflectionTestUtils.setField(handler, "isConcatFilesEnabled", false);
+        ReflectionTestUtils.setField(handler, "videoDuration", 60);
+        ReflectionTestUtils.setField(handler, "fsyncPolicy", "none");
+        ReflectionTestUtils.setField(handler, "fsyncInterval", 5000L);
+        ReflectionTestUtils.setField(handler, "bufferSize", 65536);
+        ReflectionTestUtils.setField(handler, "isBufferDirect", false);
+        ReflectionTestUtils.setField(handler, "bufferOverflowPolicy", "drop-oldest");
+        ReflectionTestUtils.setField(handler, "bufferBlockTimeout", 0L);
+        ReflectionTestUtils.setField(handler, "probeSize", 65536);
+        ReflectionTestUtils.setField(handler, "analyzeDuration", 200000L);
+        ReflectionTestUtils.setField(handler, "ingestHighWaterBytes", 1L << 20);
+        ReflectionTestUtils.setField(handler, "ingestHighWaterMillis", 2000L);
+        ReflectionTestUtils.setField(handler, "ingestMaxBytes", 4L << 20);
+        ReflectionTestUtils.setField(handler, "decodeHighWater", 0.75);
+        ReflectionTestUtils.setField(handler, "resumeGraceMillis", 5000L);
+        ReflectionTestUtils.setField(handler, "executionModel", executionModel);
+        ReflectionTestUtils.setField(handler, "environment", new MockEnvironment());
+        ReflectionTestUtils.setField(handler, "analysisScheduler", new AnalysisScheduler());
+        ReflectionTestUtils.setField(handler, "mqttEventPublisher",
+                new MqttEventPublisher("tcp://localhost:1883", "handler-test", 1, 10, 0, 0));
+        ReflectionTestUtils.setField(handler, "finalizationScheduler", finalizationScheduler);
+        ReflectionTestUtils.setField(handler, "pipelineMetrics", new PipelineMetrics());
+        ReflectionTestUtils.setField(handler, "liveBroadcaster", liveBroadcaster);
+        ReflectionTestUtils.setField(handler, "decodeWorkerPool", new DecodeWorkerPool());
+        ReflectionTestUtils.setField(handler, "archiveIndex", new ArchiveIndex());
+        handler.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        handler.shutdown();
+        executionModel.shutdown();
+    }
+
+    private Object sessionData(String sessionId) {
+        Map<?, ?> sessions = (Map<?, ?>) ReflectionTestUtils.getField(handler, "sesssionHolder");
+        return sessions.get(sessionId);
+    }
+
+    private static void await(Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.get());
+    }
+
+    private Object connect(String sessionId, String source) throws Exception {
+        CameraSession session = new CameraSession(sessionId);
+        handler.afterConnectionEstablished(session);
+        Object sessionData = sessionData(sessionId);
+        if (source != null) {
+            handler.handleTextMessage(session, new TextMessage("[source]:" + source));
+            await(() -> source.equals(ReflectionTestUtils.getField(sessionData, "source")));
+        }
+        return sessionData;
+    }
+
+    private void disconnect(String sessionId) throws Exception {
+        handler.afterConnectionClosed(new CameraSession(sessionId), CloseStatus.NORMAL);
+        await(() -> sessionData(sessionId) == null);
+    }
+
+    @Test
+    void reconnectingSourceResumesRecordingAndWarmDetector() throws Exception {
+        Object first = connect("s1", "garage");
+        Object state = ReflectionTestUtils.getField(first, "state");
+        // Az első session dekódere már betanította a háttérmodellt
+        AdvancedMotionDetector detector = new AdvancedMotionDetector();
+        ReflectionTestUtils.setField(state, "detector", detector);
+        disconnect("s1");
+        // A félretett állapottal együtt a háttérmodell is megmarad
+        assertSame(detector, ReflectionTestUtils.getField(state, "detector"));
+        assertTrue(finalizationScheduler.submitted.isEmpty());
+
+        Object second = connect("s2", "garage");
+        await(() -> ReflectionTestUtils.getField(second, "state") == state);
+        assertSame(detector, ReflectionTestUtils.getField(state, "detector"));
+        assertEquals("s1", ReflectionTestUtils.getField(state, "recordingId"));
+        // Csak a forrás előtt nyitott, üres felvétel zárult le
+        await(() -> finalizationScheduler.submitted.equals(List.of("s2")));
+
+        disconnect("s2");
+        handler.shutdown();
+        await(() -> finalizationScheduler.submitted.equals(List.of("s2", "s1")));
+        assertNull(ReflectionTestUtils.getField(state, "detector"));
+    }
+
+    @Test
+    void otherSourceOrUnknownSourceStartsFresh() throws Exception {
+        Object first = connect("s1", "garage");
+        Object garage = ReflectionTestUtils.getField(first, "state");
+        disconnect("s1");
+
+        Object second = connect("s2", "gate");
+        assertNotSame(garage, ReflectionTestUtils.getField(second, "state"));
+
+        // Forrás nélkül nincs mihez visszatérni: a felvétel és a háttérmodell azonnal lezárul
+        Object anonymous = connect("s3", null);
+        Object anonymousState = ReflectionTestUtils.getField(anonymous, "state");
+        AdvancedMotionDetector detector = new AdvancedMotionDetector();
+        ReflectionTestUtils.setField(anonymousState, "detector", detector);
+        disconnect("s3");
+        await(() -> finalizationScheduler.submitted.contains("s3"));
+        assertNull(ReflectionTestUtils.getField(anonymousState, "detector"));
+        assertTrue((Boolean) ReflectionTestUtils.getField(anonymousState, "isDetectorReleased"));
+    }
+
+    @Test
+    void invalidMotionSettingsAreReplacedAtStartupNotInTheDecodeLoop() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("motion.threshold", "sok")
+                .withProperty("motion.source.garage.threshold", "0.05")
+                .withProperty("motion.source.garage.roi", "0.1:0.1,0.9:0.1,0.5:0.9")
+                .withProperty("motion.source.gate.roi", "0.5,0.5,0.8,0.8");
+        ReflectionTestUtils.setField(handler, "environment", environment);
+        ReflectionTestUtils.invokeMethod(handler, "initMotionSettings");
+
+        // Hibás általános kulcsnál az alapértékek, hibás forrás felülírásnál az általános beállítások érvényesek
+        MotionDetectorSettings global = (MotionDetectorSettings) ReflectionTestUtils.getField(handler, "motionSettings");
+        assertEquals(MotionDetectorSettings.defaults().threshold(), global.threshold());
+        Map<?, ?> sources = (Map<?, ?>) ReflectionTestUtils.getField(handler, "sourceMotionSettings");
+        assertEquals(2, sources.size());
+        MotionDetectorSettings garage = (MotionDetectorSettings) sources.get("garage");
+        assertEquals(0.05, garage.threshold());
+        assertEquals(6, garage.roi()[0].length);
+        assertSame(global, sources.get("gate"));
+    }
+}